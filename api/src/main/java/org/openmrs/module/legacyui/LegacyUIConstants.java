@@ -0,0 +1,53 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.legacyui;
+
+/**
+ * Constants used by the Legacy UI module, mainly the names of its global properties. The global
+ * properties themselves are declared in the module's config.xml.
+ */
+public class LegacyUIConstants {
+	
+	public static final String GP_PORTLET_PARALLEL_SECTION_LOADING = "legacyui.portlet.parallelSectionLoading";
+	
+	public static final String GP_PORTLET_SECTION_LOADING_TIMEOUT = "legacyui.portlet.sectionLoadingTimeout";
+	
+	public static final long DEFAULT_PORTLET_SECTION_LOADING_TIMEOUT = 5000;
+	
+	public static final String GP_PORTLET_FRAGMENT_CACHE_PORTLETS = "legacyui.portlet.fragmentCache.portlets";
+	
+	public static final String GP_PORTLET_FRAGMENT_CACHE_TIME_TO_LIVE = "legacyui.portlet.fragmentCache.timeToLive";
+	
+	public static final long DEFAULT_PORTLET_FRAGMENT_CACHE_TIME_TO_LIVE = 300;
+	
+	public static final String GP_SEARCH_RESULT_CACHE_TIME_TO_LIVE = "legacyui.search.resultCacheTimeToLive";
+	
+	public static final long DEFAULT_SEARCH_RESULT_CACHE_TIME_TO_LIVE = 10;
+	
+	public static final String GP_SEARCH_MAX_CONCURRENT_PER_SESSION = "legacyui.search.maxConcurrentPerSession";
+	
+	public static final int DEFAULT_SEARCH_MAX_CONCURRENT_PER_SESSION = 2;
+	
+	public static final String GP_CONCEPT_NAME_INDEX = "legacyui.search.conceptNameIndex";
+	
+	public static final String GP_CONCEPT_ANSWER_INDEX = "legacyui.search.conceptAnswerIndex";
+	
+	public static final String GP_PAGED_PERSON_SEARCH = "legacyui.search.pagedPersonSearch";
+	
+	public static final String GP_SEARCH_LEAN_LIST_ITEMS = "legacyui.search.leanListItems";
+	
+	public static final String GP_COMPLEX_OBS_IMAGE_CACHE_SIZE = "legacyui.complexObs.imageCacheSize";
+	
+	public static final long DEFAULT_COMPLEX_OBS_IMAGE_CACHE_SIZE = 100;
+	
+	private LegacyUIConstants() {
+	}
+	
+}
@@ -0,0 +1,134 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.notification.web;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openmrs.api.context.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Long-poll channel that tells pages when the alerts of the logged in user change, so they only
+ * fetch the alerts again when there is something new. The page sends the last version it knows
+ * (see {@link AlertVersions}) and gets back <code>{"version": n, "waited": true|false}</code>:
+ * right away if the version is different, otherwise as soon as it changes or after
+ * {@link #TIMEOUT} milliseconds. Waiting requests hold no thread and cost no database queries.
+ * <p>
+ * If the container does not allow the request to go asynchronous the current version is returned
+ * right away with <code>waited</code> set to false, and the page asks again after a pause.
+ * <p>
+ * Like any request, a poll keeps the HTTP session from timing out. That is why the page stops
+ * polling while nobody uses it (see watchAlerts in openmrs.js).
+ */
+public class AlertEventsServlet extends HttpServlet {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private static final Logger log = LoggerFactory.getLogger(AlertEventsServlet.class);
+	
+	public static final long TIMEOUT = 30000;
+	
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if (!Context.isAuthenticated()) {
+			response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+			return;
+		}
+		final Integer userId = Context.getAuthenticatedUser().getUserId();
+		final long known = getKnownVersion(request);
+		long current = AlertVersions.getVersion(userId);
+		if (current != known || !request.isAsyncSupported()) {
+			writeVersion(response, current, false);
+			return;
+		}
+		
+		final AsyncContext async = request.startAsync();
+		async.setTimeout(TIMEOUT);
+		final AtomicBoolean answered = new AtomicBoolean();
+		final LongConsumer listener = version -> {
+			if (answered.compareAndSet(false, true)) {
+				// write from a container thread rather than the thread that changed the alert
+				async.start(() -> complete(async, version));
+			}
+		};
+		async.addListener(new AsyncListener() {
+			
+			@Override
+			public void onTimeout(AsyncEvent event) {
+				if (answered.compareAndSet(false, true)) {
+					complete(async, AlertVersions.getVersion(userId));
+				}
+			}
+			
+			@Override
+			public void onComplete(AsyncEvent event) {
+				AlertVersions.removeListener(userId, listener);
+			}
+			
+			@Override
+			public void onError(AsyncEvent event) {
+				AlertVersions.removeListener(userId, listener);
+			}
+			
+			@Override
+			public void onStartAsync(AsyncEvent event) {
+			}
+		});
+		AlertVersions.addListener(userId, listener);
+		
+		// the version may have changed before the listener was added
+		current = AlertVersions.getVersion(userId);
+		if (current != known) {
+			listener.accept(current);
+		}
+	}
+	
+	private long getKnownVersion(HttpServletRequest request) {
+		try {
+			return Long.parseLong(request.getParameter("version"));
+		}
+		catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+	
+	private void complete(AsyncContext async, long version) {
+		try {
+			writeVersion(async.getResponse(), version, true);
+		}
+		catch (IOException ex) {
+			log.debug("Failed to send the alert version, the page was probably closed", ex);
+		}
+		finally {
+			async.complete();
+		}
+	}
+	
+	private void writeVersion(ServletResponse response, long version, boolean waited) throws IOException {
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		if (response instanceof HttpServletResponse) {
+			((HttpServletResponse) response).setHeader("Cache-Control", "no-cache, no-store");
+		}
+		response.getWriter().write("{\"version\": " + version + ", \"waited\": " + waited + "}");
+	}
+	
+}
@@ -0,0 +1,145 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.notification.web;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+import org.openmrs.User;
+import org.openmrs.notification.Alert;
+import org.openmrs.notification.AlertRecipient;
+import org.openmrs.notification.AlertService;
+import org.openmrs.web.cache.DataChangeAdvice;
+import org.openmrs.web.cache.DataChangeListener;
+
+/**
+ * Counts the changes to the alerts of each user, so that pages can find out whether the alerts of
+ * the logged in user changed without asking the database. The version of a user goes up whenever an
+ * alert they receive is saved or deleted through the alert service, which includes marking it read,
+ * or created for them with AlertService.createAlert (see {@link DataChangeAdvice}). Alerts sent with
+ * AlertService.notifySuperUsers do not name their recipients, so they change the version of every
+ * user. The advice only reports changes once they are committed, so a page never fetches the alerts
+ * before the change is visible.
+ * <p>
+ * Versions start from the time the module started, so a version a page got before a restart is
+ * never mistaken for a current one.
+ */
+public class AlertVersions {
+	
+	private static final long FIRST_VERSION = System.currentTimeMillis();
+	
+	private static final Map<Integer, AtomicLong> versions = new ConcurrentHashMap<Integer, AtomicLong>();
+	
+	private static final Map<Integer, Set<LongConsumer>> listeners = new ConcurrentHashMap<Integer, Set<LongConsumer>>();
+	
+	static {
+		DataChangeAdvice.addListener(new DataChangeListener() {
+			
+			@Override
+			public void dataChanged(Object changed) {
+				AlertVersions.dataChanged(changed, null);
+			}
+			
+			@Override
+			public void dataChanged(Object changed, Class<?> service) {
+				AlertVersions.dataChanged(changed, service);
+			}
+		});
+	}
+	
+	private AlertVersions() {
+	}
+	
+	/**
+	 * @param userId the user id
+	 * @return the current version of the alerts of the user
+	 * @should change when an alert of the user is saved
+	 * @should change when an alert is created for the user
+	 * @should not change when the user is saved through the user service
+	 * @should change for every user when the super users are notified
+	 */
+	public static long getVersion(Integer userId) {
+		return getCounter(userId).get();
+	}
+	
+	/**
+	 * Counts a change to the alerts of a user and tells the listeners of the user about it
+	 *
+	 * @param userId the user id
+	 * @should tell the listeners of the user about the new version
+	 */
+	public static void increment(Integer userId) {
+		long version = getCounter(userId).incrementAndGet();
+		Set<LongConsumer> userListeners = listeners.get(userId);
+		if (userListeners != null) {
+			for (LongConsumer listener : userListeners) {
+				listener.accept(version);
+			}
+		}
+	}
+	
+	/**
+	 * @param userId the user id
+	 * @param listener is given the new version whenever the alerts of the user change
+	 */
+	public static void addListener(Integer userId, LongConsumer listener) {
+		listeners.computeIfAbsent(userId, id -> new CopyOnWriteArraySet<LongConsumer>()).add(listener);
+	}
+	
+	/**
+	 * @param userId the user id
+	 * @param listener the listener to remove
+	 */
+	public static void removeListener(Integer userId, LongConsumer listener) {
+		listeners.computeIfPresent(userId, (id, userListeners) -> {
+			userListeners.remove(listener);
+			return userListeners.isEmpty() ? null : userListeners;
+		});
+	}
+	
+	private static AtomicLong getCounter(Integer userId) {
+		return versions.computeIfAbsent(userId, id -> new AtomicLong(FIRST_VERSION));
+	}
+	
+	private static void dataChanged(Object changed, Class<?> service) {
+		if (changed instanceof Alert) {
+			Set<AlertRecipient> recipients = ((Alert) changed).getRecipients();
+			if (recipients != null) {
+				for (AlertRecipient recipient : recipients) {
+					incrementRecipient(recipient);
+				}
+			}
+		} else if (changed instanceof AlertRecipient) {
+			incrementRecipient((AlertRecipient) changed);
+		} else if (changed instanceof User && ((User) changed).getUserId() != null && service != null
+		        && AlertService.class.isAssignableFrom(service)) {
+			// the recipients passed to AlertService.createAlert, users saved through the user service
+			// have no new alerts
+			increment(((User) changed).getUserId());
+		} else if (changed instanceof Class && AlertService.class.isAssignableFrom((Class<?>) changed)) {
+			// AlertService.notifySuperUsers
+			for (Integer userId : versions.keySet()) {
+				increment(userId);
+			}
+		}
+	}
+	
+	private static void incrementRecipient(AlertRecipient recipient) {
+		User user = recipient.getRecipient();
+		if (user != null && user.getUserId() != null) {
+			increment(user.getUserId());
+		}
+	}
+	
+}
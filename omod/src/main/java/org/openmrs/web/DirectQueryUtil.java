@@ -0,0 +1,106 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.openmrs.api.context.Context;
+
+/**
+ * The one place where the legacy UI reads from the Hibernate session itself, for the searches and
+ * lookups the API services cannot answer without loading far more than is shown. Going around the
+ * services also goes around their @Authorized checks, so the session is only handed out once the
+ * privilege the matching service method requires has been checked.
+ * <p>
+ * The queries given to the load methods must name their id list parameter <code>ids</code>. They
+ * are run in batches so that the id list never grows past what a database accepts, and never flush
+ * the pending changes of the caller.
+ */
+public class DirectQueryUtil {
+	
+	private static final int BATCH_SIZE = 500;
+	
+	private DirectQueryUtil() {
+	}
+	
+	/**
+	 * @param privilege the privilege the service method standing in for the query requires
+	 * @return the Hibernate session of the current thread
+	 * @throws org.openmrs.api.APIAuthenticationException if the user lacks the privilege
+	 * @should fail if the user lacks the privilege
+	 */
+	public static Session getSession(String privilege) {
+		Context.requirePrivilege(privilege);
+		return Context.getRegisteredComponent("sessionFactory", SessionFactory.class).getCurrentSession();
+	}
+	
+	/**
+	 * @param session a session from {@link #getSession(String)}
+	 * @param hql a query with an <code>ids</code> parameter
+	 * @param ids the values of the parameter
+	 * @return the results of the query for all of the ids, batch after batch
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> List<T> listByIds(Session session, String hql, Collection<?> ids) {
+		List<T> results = new ArrayList<T>();
+		List<?> values = new ArrayList<Object>(ids);
+		for (int i = 0; i < values.size(); i += BATCH_SIZE) {
+			results.addAll(session.createQuery(hql).setHibernateFlushMode(FlushMode.MANUAL)
+			        .setParameterList("ids", values.subList(i, Math.min(i + BATCH_SIZE, values.size()))).list());
+		}
+		return results;
+	}
+	
+	/**
+	 * @param session a session from {@link #getSession(String)}
+	 * @param hql a query for entities with an <code>ids</code> parameter
+	 * @param ids the ids of the entities
+	 * @param getId reads the id of a loaded entity
+	 * @return the entities found, by id
+	 */
+	public static <T> Map<Integer, T> loadByIds(Session session, String hql, Collection<Integer> ids,
+	        Function<? super T, Integer> getId) {
+		Map<Integer, T> loaded = new HashMap<Integer, T>();
+		for (T entity : DirectQueryUtil.<T> listByIds(session, hql, ids)) {
+			loaded.put(getId.apply(entity), entity);
+		}
+		return loaded;
+	}
+	
+	/**
+	 * @param session a session from {@link #getSession(String)}
+	 * @param hql a query for entities with an <code>ids</code> parameter
+	 * @param ids the ids of the entities, in the order they should be returned
+	 * @param getId reads the id of a loaded entity
+	 * @return the entities in the order of their ids, leaving out those that no longer exist
+	 * @should return the entities in the order of the ids
+	 */
+	public static <T> List<T> loadInOrder(Session session, String hql, List<Integer> ids,
+	        Function<? super T, Integer> getId) {
+		Map<Integer, T> loaded = loadByIds(session, hql, ids, getId);
+		List<T> ordered = new ArrayList<T>(ids.size());
+		for (Integer id : ids) {
+			T entity = loaded.get(id);
+			if (entity != null) {
+				ordered.add(entity);
+			}
+		}
+		return ordered;
+	}
+	
+}
@@ -0,0 +1,59 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.cache;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.openmrs.Privilege;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.util.Security;
+
+/**
+ * Builds keys for caches whose entries depend on who is looking at them.
+ */
+public class CacheKey {
+	
+	private CacheKey() {
+	}
+	
+	/**
+	 * Builds a key from the given parts, the locale and a digest of the privileges of the
+	 * authenticated user, so that users with different privileges never share an entry.
+	 *
+	 * @param parts everything else the cached value depends on
+	 * @return the cache key
+	 */
+	public static String forAuthenticatedUser(Object... parts) {
+		StringBuilder key = new StringBuilder();
+		for (Object part : parts) {
+			key.append(part).append('|');
+		}
+		key.append(Context.getLocale());
+		key.append('|').append(getPrivilegeDigest(Context.getAuthenticatedUser()));
+		return key.toString();
+	}
+	
+	private static String getPrivilegeDigest(User user) {
+		if (user == null) {
+			return "anonymous";
+		}
+		Set<String> privileges = new TreeSet<String>();
+		for (Privilege privilege : user.getPrivileges()) {
+			privileges.add(privilege.getPrivilege());
+		}
+		if (user.isSuperUser()) {
+			privileges.add("*");
+		}
+		return Security.encodeString(privileges.toString());
+	}
+	
+}
@@ -0,0 +1,110 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Hit and miss counters of one of the in-memory caches of the legacy UI. Every cache registers its
+ * statistics under a unique name with {@link #register(String, IntSupplier)} so they can be listed
+ * on the system information page.
+ */
+public class CacheStatistics {
+	
+	private static final Map<String, CacheStatistics> registry = new ConcurrentSkipListMap<String, CacheStatistics>();
+	
+	private final String name;
+	
+	private final IntSupplier size;
+	
+	private final AtomicLong hits = new AtomicLong();
+	
+	private final AtomicLong misses = new AtomicLong();
+	
+	private final AtomicLong invalidations = new AtomicLong();
+	
+	private CacheStatistics(String name, IntSupplier size) {
+		this.name = name;
+		this.size = size;
+	}
+	
+	/**
+	 * Creates the statistics of a cache, or returns the existing ones if a cache with that name was
+	 * already registered
+	 *
+	 * @param name a unique name for the cache
+	 * @param size returns the current number of entries in the cache
+	 * @return the statistics to update
+	 */
+	public static CacheStatistics register(String name, IntSupplier size) {
+		return registry.computeIfAbsent(name, key -> new CacheStatistics(key, size));
+	}
+	
+	/**
+	 * @param name the name of the cache
+	 * @return the statistics of the cache, or null if no cache with that name was registered
+	 */
+	public static CacheStatistics get(String name) {
+		return registry.get(name);
+	}
+	
+	/**
+	 * @return the statistics of all registered caches, ordered by name
+	 */
+	public static List<CacheStatistics> getAll() {
+		return new ArrayList<CacheStatistics>(registry.values());
+	}
+	
+	public void hit() {
+		hits.incrementAndGet();
+	}
+	
+	public void miss() {
+		misses.incrementAndGet();
+	}
+	
+	public void invalidated() {
+		invalidations.incrementAndGet();
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public int getSize() {
+		return size.getAsInt();
+	}
+	
+	public long getHits() {
+		return hits.get();
+	}
+	
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+	
+	/**
+	 * @return the percentage of lookups that were hits, 0 if there were no lookups yet
+	 */
+	public double getHitRate() {
+		long lookups = getHits() + getMisses();
+		return lookups == 0 ? 0 : 100.0 * getHits() / lookups;
+	}
+	
+}
@@ -0,0 +1,179 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.cache;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.openmrs.OpenmrsObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.AfterReturningAdvice;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Advice around the core services (see the advice points in config.xml) that tells the registered
+ * {@link DataChangeListener}s about every object passed to a method that writes data, i.e. whose
+ * name starts with save, create, notify, void, unvoid, retire, unretire, purge, delete, merge, end
+ * or discontinue. If such a method is given no data object and returns none, e.g.
+ * AlertService.notifySuperUsers, the listeners are told about the service interface instead.
+ * Listeners are also given the service interface along with a changed object, and are told after
+ * the surrounding transaction commits.
+ */
+public class DataChangeAdvice implements AfterReturningAdvice {
+	
+	private static final Logger log = LoggerFactory.getLogger(DataChangeAdvice.class);
+	
+	private static final String[] WRITE_METHOD_PREFIXES = { "save", "create", "notify", "void", "unvoid", "retire",
+	        "unretire", "purge", "delete", "merge", "end", "discontinue" };
+	
+	private static final List<DataChangeListener> listeners = new CopyOnWriteArrayList<DataChangeListener>();
+	
+	/**
+	 * @param listener the listener to notify of data changes from now on
+	 */
+	public static void addListener(DataChangeListener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * @param listener the listener to stop notifying
+	 */
+	public static void removeListener(DataChangeListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Tells all listeners that the given object changed
+	 *
+	 * @param changed the changed object
+	 */
+	public static void fireDataChanged(Object changed) {
+		fireDataChanged(changed, null);
+	}
+	
+	/**
+	 * Tells all listeners that the given object was changed by the given service
+	 *
+	 * @param changed the changed object
+	 * @param service the service interface that changed it, or null if unknown
+	 */
+	public static void fireDataChanged(Object changed, Class<?> service) {
+		for (DataChangeListener listener : listeners) {
+			try {
+				listener.dataChanged(changed, service);
+			}
+			catch (RuntimeException ex) {
+				log.error("Data change listener " + listener + " failed", ex);
+			}
+		}
+	}
+	
+	/**
+	 * Tells all listeners that the given object was purged
+	 *
+	 * @param purged the purged object
+	 */
+	public static void fireDataPurged(Object purged) {
+		for (DataChangeListener listener : listeners) {
+			try {
+				listener.dataPurged(purged);
+			}
+			catch (RuntimeException ex) {
+				log.error("Data change listener " + listener + " failed", ex);
+			}
+		}
+	}
+	
+	/**
+	 * Tells all listeners about the objects changed by a service call once the transaction it ran
+	 * in has committed, so that a cache cannot be filled with the old state again between the
+	 * notification and the commit. Changes made outside of a transaction are passed on right away,
+	 * changes that are rolled back are dropped.
+	 *
+	 * @see org.springframework.aop.AfterReturningAdvice#afterReturning(java.lang.Object,
+	 *      java.lang.reflect.Method, java.lang.Object[], java.lang.Object)
+	 * @should tell the listeners only after the transaction committed
+	 * @should not tell the listeners about changes that were rolled back
+	 * @should tell the listeners about purged objects as purges
+	 * @should tell the listeners about the service if the method was given no data object
+	 * @should tell the listeners which service changed the object
+	 */
+	@Override
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+		if (listeners.isEmpty() || !isWriteMethod(method.getName())) {
+			return;
+		}
+		final List<Object> changed = new ArrayList<Object>();
+		boolean returnValueAdded = false;
+		if (args != null) {
+			for (Object arg : args) {
+				add(changed, arg);
+				returnValueAdded |= arg == returnValue;
+			}
+		}
+		if (!returnValueAdded) {
+			add(changed, returnValue);
+		}
+		if (changed.isEmpty()) {
+			changed.add(method.getDeclaringClass());
+		}
+		
+		final boolean purged = method.getName().startsWith("purge") || method.getName().startsWith("delete");
+		final Class<?> service = method.getDeclaringClass();
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				
+				@Override
+				public void afterCommit() {
+					fireAll(changed, purged, service);
+				}
+			});
+		} else {
+			fireAll(changed, purged, service);
+		}
+	}
+	
+	private static void fireAll(List<Object> changed, boolean purged, Class<?> service) {
+		for (Object value : changed) {
+			if (purged) {
+				fireDataPurged(value);
+			} else {
+				fireDataChanged(value, service);
+			}
+		}
+	}
+	
+	private void add(List<Object> changed, Object value) {
+		if (value instanceof OpenmrsObject) {
+			changed.add(value);
+		} else if (value instanceof Collection) {
+			for (Object element : (Collection<?>) value) {
+				if (element instanceof OpenmrsObject) {
+					changed.add(element);
+				}
+			}
+		}
+	}
+	
+	private boolean isWriteMethod(String methodName) {
+		for (String prefix : WRITE_METHOD_PREFIXES) {
+			if (methodName.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+}
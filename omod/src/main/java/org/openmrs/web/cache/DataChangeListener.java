@@ -0,0 +1,43 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.cache;
+
+/**
+ * Notified by the {@link DataChangeAdvice} whenever an object is saved, voided, retired or purged
+ * through one of the advised services, so that caches can drop what they derived from it.
+ */
+public interface DataChangeListener {
+	
+	/**
+	 * @param changed the object passed to (or returned by) the service method that changed it
+	 */
+	void dataChanged(Object changed);
+	
+	/**
+	 * Called by the {@link DataChangeAdvice} instead of {@link #dataChanged(Object)}, for listeners
+	 * that need to know which service changed the object
+	 *
+	 * @param changed the object passed to (or returned by) the service method that changed it
+	 * @param service the service interface declaring the method, or null if unknown
+	 */
+	default void dataChanged(Object changed, Class<?> service) {
+		dataChanged(changed);
+	}
+	
+	/**
+	 * Called instead of {@link #dataChanged(Object)} for objects that were purged or deleted
+	 *
+	 * @param purged the object passed to the service method that purged it
+	 */
+	default void dataPurged(Object purged) {
+		dataChanged(purged);
+	}
+	
+}
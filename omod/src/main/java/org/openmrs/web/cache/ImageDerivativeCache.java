@@ -0,0 +1,269 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openmrs.Obs;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.LegacyUIConstants;
+import org.openmrs.util.OpenmrsUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps encoded images derived from image complex obs, such as the re-encoded raw view, in a
+ * directory of the application data directory so that repeat views of an image skip both decoding
+ * the original and encoding it again.
+ * <p>
+ * An entry is identified by the obs, the view and the version of the original, i.e. its last
+ * modified time, so a replaced original is never answered from the cache. The least recently used
+ * entries are deleted once the files together are larger than
+ * {@link LegacyUIConstants#GP_COMPLEX_OBS_IMAGE_CACHE_SIZE} megabytes, and all entries of an obs are
+ * deleted when the obs is changed through the obs service (see {@link DataChangeAdvice}).
+ */
+public class ImageDerivativeCache {
+	
+	private static final Logger log = LoggerFactory.getLogger(ImageDerivativeCache.class);
+	
+	private static final String DIRECTORY = "legacyui" + File.separator + "complexObsImages";
+	
+	private static final Map<String, Entry> files = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	
+	private static final CacheStatistics statistics = CacheStatistics.register("complexObsImages", () -> {
+		synchronized (files) {
+			return files.size();
+		}
+	});
+	
+	private static long totalSize;
+	
+	private static File directory;
+	
+	static {
+		DataChangeAdvice.addListener(ImageDerivativeCache::dataChanged);
+	}
+	
+	private static class Entry {
+		
+		private final File file;
+		
+		private final long length;
+		
+		private Entry(File file, long length) {
+			this.file = file;
+			this.length = length;
+		}
+	}
+	
+	/**
+	 * @param obsId the obs the image belongs to
+	 * @param view the complex obs view the image was made for
+	 * @param version the last modified time of the original
+	 * @return the key of the image
+	 */
+	public static String getKey(Integer obsId, String view, long version) {
+		String viewName = view == null ? "" : view.replaceAll("[^A-Za-z0-9]", "");
+		return obsId + "_" + viewName + "_" + version;
+	}
+	
+	/**
+	 * @param key the key of the image
+	 * @return the cached image file or null if there is none
+	 * @should return the file of a stored image
+	 */
+	public static File get(String key) {
+		File file = null;
+		synchronized (files) {
+			init();
+			Entry entry = files.get(key);
+			if (entry != null && entry.file.isFile()) {
+				file = entry.file;
+			} else if (entry != null) {
+				remove(key);
+			}
+		}
+		if (file == null) {
+			statistics.miss();
+			return null;
+		}
+		statistics.hit();
+		return file;
+	}
+	
+	/**
+	 * Stores an encoded image, deleting the least recently used images if the cache gets too large.
+	 * Nothing is stored if the cache is switched off.
+	 *
+	 * @param key the key of the image
+	 * @param extension the file extension of the image format, e.g. png
+	 * @param content the encoded image
+	 * @return the stored file or null if nothing was stored
+	 * @should delete the least recently used images when the cache is full
+	 */
+	public static File put(String key, String extension, byte[] content) {
+		long maxSize = getMaxSize();
+		if (maxSize <= 0 || content.length > maxSize) {
+			return null;
+		}
+		File dir;
+		synchronized (files) {
+			init();
+			dir = directory;
+		}
+		
+		File file = new File(dir, key + "." + extension.toLowerCase());
+		try {
+			File temp = File.createTempFile(key, ".tmp", dir);
+			Files.write(temp.toPath(), content);
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException ex) {
+			log.warn("Failed to store derived image " + file, ex);
+			return null;
+		}
+		
+		synchronized (files) {
+			Entry previous = files.put(key, new Entry(file, content.length));
+			if (previous != null) {
+				totalSize -= previous.length;
+				if (!previous.file.equals(file)) {
+					deleteFile(previous.file);
+				}
+			}
+			totalSize += content.length;
+			Iterator<Entry> eldest = files.values().iterator();
+			while (totalSize > maxSize && eldest.hasNext()) {
+				Entry evicted = eldest.next();
+				if (!evicted.file.equals(file)) {
+					eldest.remove();
+					totalSize -= evicted.length;
+					deleteFile(evicted.file);
+				}
+			}
+		}
+		return file;
+	}
+	
+	/**
+	 * Deletes all images derived from the given obs
+	 *
+	 * @param obsId the obs id
+	 */
+	public static void invalidate(Integer obsId) {
+		if (obsId == null) {
+			return;
+		}
+		String prefix = obsId + "_";
+		synchronized (files) {
+			if (directory == null) {
+				return;
+			}
+			List<String> keys = new ArrayList<String>();
+			for (String key : files.keySet()) {
+				if (key.startsWith(prefix)) {
+					keys.add(key);
+				}
+			}
+			for (String key : keys) {
+				remove(key);
+				statistics.invalidated();
+			}
+		}
+	}
+	
+	/**
+	 * Deletes all cached images
+	 */
+	public static void clear() {
+		synchronized (files) {
+			for (Entry entry : files.values()) {
+				deleteFile(entry.file);
+			}
+			files.clear();
+			totalSize = 0;
+		}
+	}
+	
+	/**
+	 * @return the hit and miss counters of the cache
+	 */
+	public static CacheStatistics getStatistics() {
+		return statistics;
+	}
+	
+	private static void dataChanged(Object changed) {
+		if (changed instanceof Obs) {
+			invalidate(((Obs) changed).getObsId());
+		}
+	}
+	
+	/**
+	 * Reads the images left by a previous run, oldest first so that they are evicted first
+	 */
+	private static void init() {
+		if (directory != null) {
+			return;
+		}
+		directory = OpenmrsUtil.getDirectoryInApplicationDataDirectory(DIRECTORY);
+		File[] existing = directory.listFiles();
+		if (existing == null) {
+			return;
+		}
+		Arrays.sort(existing, Comparator.comparingLong(File::lastModified));
+		for (File file : existing) {
+			String name = file.getName();
+			int dot = name.lastIndexOf('.');
+			if (dot < 0 || name.endsWith(".tmp")) {
+				file.delete();
+				continue;
+			}
+			long length = file.length();
+			files.put(name.substring(0, dot), new Entry(file, length));
+			totalSize += length;
+		}
+	}
+	
+	private static void remove(String key) {
+		Entry entry = files.remove(key);
+		if (entry != null) {
+			totalSize -= entry.length;
+			deleteFile(entry.file);
+		}
+	}
+	
+	private static void deleteFile(File file) {
+		if (!file.delete() && file.exists()) {
+			log.warn("Failed to delete derived image {}", file);
+		}
+	}
+	
+	private static long getMaxSize() {
+		String megabytes = Context.getAdministrationService().getGlobalProperty(
+		    LegacyUIConstants.GP_COMPLEX_OBS_IMAGE_CACHE_SIZE);
+		try {
+			return Long.parseLong(megabytes.trim()) * 1024 * 1024;
+		}
+		catch (RuntimeException ex) {
+			return LegacyUIConstants.DEFAULT_COMPLEX_OBS_IMAGE_CACHE_SIZE * 1024 * 1024;
+		}
+	}
+	
+}
@@ -0,0 +1,244 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.LegacyUIConstants;
+
+/**
+ * A small cache for the results of the search widgets, which search again on every keystroke and
+ * often repeat the same phrase within seconds, e.g. after a backspace. Results are only kept for
+ * {@link LegacyUIConstants#GP_SEARCH_RESULT_CACHE_TIME_TO_LIVE} seconds, and a cache is cleared
+ * as soon as an object of one of the types its results are built from is saved (see
+ * {@link DataChangeAdvice}).
+ * <p>
+ * An instance of this class is registered as a global property listener so that changes to the
+ * time to live take effect right away.
+ */
+public class SearchResultCache implements GlobalPropertyListener {
+	
+	private static final int MAX_ENTRIES = 500;
+	
+	private static final List<SearchResultCache> caches = new CopyOnWriteArrayList<SearchResultCache>();
+	
+	private static volatile long timeToLive = -1;
+	
+	static {
+		DataChangeAdvice.addListener(SearchResultCache::dataChanged);
+	}
+	
+	private final Class<?>[] invalidatedBy;
+	
+	private final CacheStatistics statistics;
+	
+	// counts the clears, so that a result that was searched for while the cache was cleared is not cached
+	private long generation = 0;
+	
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+		
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+	
+	private static class Entry {
+		
+		private final Object value;
+		
+		private final long expires;
+		
+		private Entry(Object value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+	
+	/**
+	 * Used to register the global property listener, see {@link #create(String, Class...)} for the
+	 * caches themselves
+	 */
+	public SearchResultCache() {
+		this.invalidatedBy = new Class<?>[0];
+		this.statistics = null;
+	}
+	
+	private SearchResultCache(String name, Class<?>... invalidatedBy) {
+		this.invalidatedBy = invalidatedBy;
+		this.statistics = CacheStatistics.register(name, () -> {
+			synchronized (entries) {
+				return entries.size();
+			}
+		});
+	}
+	
+	/**
+	 * Creates a cache
+	 *
+	 * @param name a unique name for the cache, used for its statistics
+	 * @param invalidatedBy the types whose changes clear the cache
+	 * @return the cache
+	 */
+	public static SearchResultCache create(String name, Class<?>... invalidatedBy) {
+		SearchResultCache cache = new SearchResultCache(name, invalidatedBy);
+		caches.add(cache);
+		return cache;
+	}
+	
+	/**
+	 * Returns the cached result of a search, or runs the search and caches its result. The key is
+	 * made of the given parts, the locale and the privileges of the authenticated user.
+	 * <p>
+	 * A search that returns null, e.g. because it was cancelled, is not cached. Maps and collections,
+	 * also nested ones, are copied going in and out of the cache so that callers can change the result
+	 * they get without changing it for everyone else.
+	 *
+	 * @param search runs the search
+	 * @param keyParts everything the result depends on, like the phrase and the paging parameters
+	 * @return the result of the search
+	 * @should hand every caller its own copy of the result
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(Supplier<T> search, Object... keyParts) {
+		long ttl = getTimeToLive();
+		if (ttl <= 0) {
+			return search.get();
+		}
+		String key = CacheKey.forAuthenticatedUser(keyParts);
+		long searchGeneration;
+		synchronized (entries) {
+			Entry entry = entries.get(key);
+			if (entry != null && entry.expires >= System.currentTimeMillis()) {
+				statistics.hit();
+				return (T) copy(entry.value);
+			}
+			searchGeneration = generation;
+		}
+		statistics.miss();
+		T value = search.get();
+		synchronized (entries) {
+			if (value != null && searchGeneration == generation) {
+				entries.put(key, new Entry(copy(value), System.currentTimeMillis() + ttl * 1000));
+			}
+		}
+		return value;
+	}
+	
+	/**
+	 * Copies maps and collections, keeping the collection types DWR callers may rely on
+	 */
+	private static Object copy(Object value) {
+		if (value instanceof Map) {
+			Map<Object, Object> copy = new HashMap<Object, Object>();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				copy.put(entry.getKey(), copy(entry.getValue()));
+			}
+			return copy;
+		}
+		if (value instanceof Collection) {
+			Collection<Object> copy;
+			if (value instanceof Vector) {
+				copy = new Vector<Object>();
+			} else if (value instanceof Set) {
+				copy = new LinkedHashSet<Object>();
+			} else {
+				copy = new ArrayList<Object>();
+			}
+			for (Object element : (Collection<?>) value) {
+				copy.add(copy(element));
+			}
+			return copy;
+		}
+		return value;
+	}
+	
+	/**
+	 * Drops all cached results
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+			generation++;
+		}
+	}
+	
+	private static void dataChanged(Object changed) {
+		for (SearchResultCache cache : caches) {
+			for (Class<?> type : cache.invalidatedBy) {
+				if (type.isInstance(changed)) {
+					cache.clear();
+					cache.statistics.invalidated();
+					break;
+				}
+			}
+		}
+	}
+	
+	private static long getTimeToLive() {
+		if (timeToLive < 0) {
+			setTimeToLive(Context.getAdministrationService().getGlobalProperty(
+			    LegacyUIConstants.GP_SEARCH_RESULT_CACHE_TIME_TO_LIVE));
+		}
+		return timeToLive;
+	}
+	
+	private static void setTimeToLive(String seconds) {
+		try {
+			timeToLive = Long.parseLong(seconds.trim());
+		}
+		catch (RuntimeException ex) {
+			timeToLive = LegacyUIConstants.DEFAULT_SEARCH_RESULT_CACHE_TIME_TO_LIVE;
+		}
+	}
+	
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#supportsPropertyName(java.lang.String)
+	 */
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return LegacyUIConstants.GP_SEARCH_RESULT_CACHE_TIME_TO_LIVE.equals(propertyName);
+	}
+	
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#globalPropertyChanged(org.openmrs.GlobalProperty)
+	 */
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		setTimeToLive(newValue.getPropertyValue());
+		for (SearchResultCache cache : caches) {
+			cache.clear();
+		}
+	}
+	
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#globalPropertyDeleted(java.lang.String)
+	 */
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		setTimeToLive(null);
+	}
+	
+}
@@ -0,0 +1,109 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.controller;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Remembers the portlets that the portlet tag deferred, so that the {@link PortletController} can
+ * render them when the browser fetches them after the page was shown. The tag stores the request
+ * attributes it would have passed to the include under a random token in the http session, and the
+ * browser only sends that token back. Nothing the browser sends ends up in the model.
+ * <p>
+ * Only the most recently deferred portlets of each session are kept.
+ */
+public class DeferredPortlets {
+	
+	public static final String TOKEN_PARAMETER = "deferredPortlet";
+	
+	private static final String SESSION_ATTRIBUTE = DeferredPortlets.class.getName();
+	
+	private static final int MAX_PORTLETS_PER_SESSION = 50;
+	
+	private static final String PORTLET_ATTRIBUTE_PREFIX = "org.openmrs.portlet.";
+	
+	private static final String PATH_KEY = DeferredPortlets.class.getName() + ".path";
+	
+	private DeferredPortlets() {
+	}
+	
+	/**
+	 * Remembers a portlet to render later
+	 *
+	 * @param request the request of the page the portlet is on
+	 * @param portletPath the path of the portlet, e.g. /portlets/patientVisits.portlet
+	 * @param attributes the org.openmrs.portlet.* request attributes the portlet is rendered with
+	 * @return the token the browser has to send back to fetch the portlet
+	 */
+	public static String defer(HttpServletRequest request, String portletPath, Map<String, Object> attributes) {
+		Map<String, Object> portlet = new HashMap<String, Object>(attributes);
+		portlet.put(PATH_KEY, portletPath);
+		String token = UUID.randomUUID().toString();
+		HttpSession session = request.getSession();
+		synchronized (session) {
+			getPortlets(session).put(token, portlet);
+		}
+		return token;
+	}
+	
+	/**
+	 * Puts the request attributes of the deferred portlet whose token was sent with the request back
+	 * into the request
+	 *
+	 * @param request a request fetching a deferred portlet
+	 * @return the path of the portlet, or null if the request does not carry a known token
+	 */
+	public static String restore(HttpServletRequest request) {
+		String token = request.getParameter(TOKEN_PARAMETER);
+		HttpSession session = request.getSession(false);
+		if (token == null || session == null) {
+			return null;
+		}
+		Map<String, Object> portlet;
+		synchronized (session) {
+			portlet = getPortlets(session).get(token);
+		}
+		if (portlet == null) {
+			return null;
+		}
+		for (Map.Entry<String, Object> attribute : portlet.entrySet()) {
+			if (attribute.getKey().startsWith(PORTLET_ATTRIBUTE_PREFIX)) {
+				request.setAttribute(attribute.getKey(), attribute.getValue());
+			}
+		}
+		return (String) portlet.get(PATH_KEY);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static Map<String, Map<String, Object>> getPortlets(HttpSession session) {
+		Map<String, Map<String, Object>> portlets = (Map<String, Map<String, Object>>) session
+		        .getAttribute(SESSION_ATTRIBUTE);
+		if (portlets == null) {
+			portlets = new LinkedHashMap<String, Map<String, Object>>(16, 0.75f, true) {
+				
+				private static final long serialVersionUID = 1L;
+				
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Map<String, Object>> eldest) {
+					return size() > MAX_PORTLETS_PER_SESSION;
+				}
+			};
+			session.setAttribute(SESSION_ATTRIBUTE, portlets);
+		}
+		return portlets;
+	}
+	
+}
@@ -11,17 +11,21 @@ package org.openmrs.web.controller;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.HttpSession;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,7 +43,6 @@ import org.openmrs.api.AdministrationService;
 import org.openmrs.api.ConceptService;
 import org.openmrs.api.context.Context;
 import org.openmrs.util.PrivilegeConstants;
-import org.openmrs.web.WebConstants;
 import org.springframework.util.StringUtils;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.Controller;
@@ -48,6 +51,10 @@ public class PortletController implements Controller {
 	
     protected static final Logger log = LoggerFactory.getLogger(PortletController.class);
 	
+	private Map<String, Set<PortletModelSection>> modelSections = new HashMap<String, Set<PortletModelSection>>();
+	
+	private PortletSectionLoader sectionLoader;
+	
 	/**
 	 * This method produces a model containing the following mappings:
 	 * 
@@ -63,10 +70,11 @@ public class PortletController implements Controller {
 	 *     (if the request has a patientId attribute)
 	 *          (Integer) patientId
 	 *          (Patient) patient
-	 *          (List&lt;Obs&gt;) patientObs
+	 *          (List&lt;Obs&gt;) patientObs // only fetched when the portlet reads it
 	 *          (List&lt;Encounter&gt;) patientEncounters
 	 *          (List&lt;Visit&gt;) patientVisits
 	 *          (List&lt;Visit&gt;) activeVisits
+	 *          (List&lt;Obs&gt;) patientLatestObs // most recent obs of the weight, height and header concepts
 	 *          (Obs) patientWeight // most recent weight obs
 	 *          (Obs) patientHeight // most recent height obs
 	 *          (Double) patientBmi // BMI derived from most recent weight and most recent height
@@ -91,8 +99,28 @@ public class PortletController implements Controller {
 	 *          (Map&lt;String, Concept&gt;) conceptMapByStringIds
 	 * </pre>
 	 * 
+	 * The encounter, visit, obs, program and relationship lists are lazy values of the
+	 * {@link PortletModel}: they are only fetched from the database when the portlet reads them,
+	 * unless the portlet declared the matching {@link PortletModelSection} via
+	 * {@link #setModelSections(Map)}, in which case they are loaded before the view renders. If
+	 * parallel section loading is switched on the declared sections are fetched concurrently by the
+	 * {@link PortletSectionLoader} instead, undeclared ones as they are read, and a section that
+	 * times out is loaded on the request thread after all. The section loaders therefore look the
+	 * patient or person up by id rather than using the one already in the model, which belongs to the
+	 * session of the request thread.
+	 * <p>
+	 * A portlet deferred by the portlet tag is requested by the browser itself, with the token the
+	 * tag handed out. Its request attributes are then restored by {@link DeferredPortlets}.
+	 * 
 	 * @should calculate bmi into patientBmiAsString
 	 * @should not fail with empty height and weight properties
+	 * @should put the latest weight and height in the model without loading all obs
+	 * @should not load undeclared model sections
+	 * @should load the model sections declared for the portlet
+	 * @should share the model between portlets of the same request only
+	 * @should not store the model in the http session
+	 * @should render a deferred portlet requested with its token
+	 * @should not render anything for an unknown deferred portlet token
 	 */
 	@SuppressWarnings("unchecked")
 	public ModelAndView handleRequest(HttpServletRequest request, HttpServletResponse response) throws ServletException,
@@ -103,29 +131,30 @@ public class PortletController implements Controller {
 		
 		// find the portlet that was identified in the openmrs:portlet taglib
 		Object uri = request.getAttribute("javax.servlet.include.servlet_path");
+		if (uri == null) {
+			// a portlet the tag deferred, fetched by the browser after the page was shown
+			uri = DeferredPortlets.restore(request);
+			if (uri == null && request.getParameter(DeferredPortlets.TOKEN_PARAMETER) != null) {
+				// the session ended or too many portlets were deferred since
+				response.sendError(HttpServletResponse.SC_NOT_FOUND);
+				return null;
+			}
+		}
 		String portletPath = "";
-		Map<String, Object> model = null;
-		{
-			HttpSession session = request.getSession();
-			String uniqueRequestId = (String) request.getAttribute(WebConstants.INIT_REQ_UNIQUE_ID);
-			String lastRequestId = (String) session.getAttribute(WebConstants.OPENMRS_PORTLET_LAST_REQ_ID);
-			if (uniqueRequestId.equals(lastRequestId)) {
-				model = (Map<String, Object>) session.getAttribute(WebConstants.OPENMRS_PORTLET_CACHED_MODEL);
-				
-				// remove cached parameters 
-				List<String> parameterKeys = (List<String>) model.get("parameterKeys");
-				if (parameterKeys != null) {
-					for (String key : parameterKeys) {
-						model.remove(key);
-					}
+		// the model is shared by all portlets of the request and goes away with it
+		PortletModel model = (PortletModel) request.getAttribute(PortletModel.REQUEST_ATTRIBUTE);
+		if (model == null) {
+			log.debug("creating new portlet model");
+			model = new PortletModel();
+			request.setAttribute(PortletModel.REQUEST_ATTRIBUTE, model);
+		} else {
+			// remove the parameters of the previous portlet
+			List<String> parameterKeys = (List<String>) model.get("parameterKeys");
+			if (parameterKeys != null) {
+				for (String key : parameterKeys) {
+					model.remove(key);
 				}
 			}
-			if (model == null) {
-				log.debug("creating new portlet model");
-				model = new HashMap<String, Object>();
-				session.setAttribute(WebConstants.OPENMRS_PORTLET_LAST_REQ_ID, uniqueRequestId);
-				session.setAttribute(WebConstants.OPENMRS_PORTLET_CACHED_MODEL, model);
-			}
 		}
 		
 		if (uri != null) {
@@ -147,7 +176,8 @@ public class PortletController implements Controller {
 			Map<String, Object> params = (Map<String, Object>) request.getAttribute("org.openmrs.portlet.parameters");
 			Map<String, Object> moreParams = (Map<String, Object>) request.getAttribute("org.openmrs.portlet.parameterMap");
 			
-			model.put("now", new Date());
+			// lazy so that the fragment cache can tell whether the portlet shows the current time
+			model.putLazy("now", Date::new);
 			model.put("id", id);
 			model.put("size", size);
 			model.put("locale", Context.getLocale());
@@ -158,7 +188,7 @@ public class PortletController implements Controller {
 				model.putAll(moreParams);
 				parameterKeys.addAll(moreParams.keySet());
 			}
-			model.put("parameterKeys", parameterKeys); // so we can clean these up in the next request
+			model.put("parameterKeys", parameterKeys); // so we can clean these up for the next portlet
 			
 			// if there's an authenticated user, put them, and their patient set, in the model
 			if (Context.getAuthenticatedUser() != null) {
@@ -176,51 +206,43 @@ public class PortletController implements Controller {
 					// we can't continue if the user can't view patients
 					Patient p = Context.getPatientService().getPatient(patientId);
 					model.put("patient", p);
+					long sectionTimeout = getParallelSectionTimeout();
 					if (p.isDead()) {
 						patientVariation = "Dead";
 					}
 					
 					// add encounters if this user can view them
 					if (Context.hasPrivilege(PrivilegeConstants.GET_ENCOUNTERS)) {
-						model.put("patientEncounters", Context.getEncounterService().getEncountersByPatient(p));
+						putSection(model, PortletModelSection.ENCOUNTERS, "patientEncounters",
+						    () -> Context.getEncounterService().getEncountersByPatient(getPatient(patientId)), sectionTimeout);
 					}
 					
 					// add visits if this user can view them
 					if (Context.hasPrivilege(PrivilegeConstants.GET_VISITS)) {
 						model.put("person", p);
 						PortletControllerUtil.addFormToEditAndViewUrlMaps(model);
-						model.put("patientVisits", Context.getVisitService().getVisitsByPatient(p));
-						model.put("activeVisits", Context.getVisitService().getActiveVisitsByPatient(p));
+						putSection(model, PortletModelSection.VISITS, "patientVisits",
+						    () -> Context.getVisitService().getVisitsByPatient(getPatient(patientId)), sectionTimeout);
+						putSection(model, PortletModelSection.VISITS, "activeVisits",
+						    () -> Context.getVisitService().getActiveVisitsByPatient(getPatient(patientId)), sectionTimeout);
 					}
 					
 					if (Context.hasPrivilege(PrivilegeConstants.GET_OBS)) {
-						List<Obs> patientObs = Context.getObsService().getObservationsByPerson(p);
-						model.put("patientObs", patientObs);
+						putSection(model, PortletModelSection.OBS, "patientObs",
+						    () -> Context.getObsService().getObservationsByPerson(getPatient(patientId)), sectionTimeout);
 						Obs latestWeight = null;
 						Obs latestHeight = null;
+						List<Obs> latestObs = new ArrayList<Obs>();
 						String bmiAsString = "?";
 						try {
-							String weightString = as.getGlobalProperty("concept.weight");
-							ConceptNumeric weightConcept = null;
-							if (StringUtils.hasLength(weightString)) {
-								weightConcept = cs.getConceptNumeric(cs.getConcept(Integer.valueOf(weightString))
-								        .getConceptId());
-							}
-							String heightString = as.getGlobalProperty("concept.height");
-							ConceptNumeric heightConcept = null;
-							if (StringUtils.hasLength(heightString)) {
-								heightConcept = cs.getConceptNumeric(cs.getConcept(Integer.valueOf(heightString))
-								        .getConceptId());
-							}
-							for (Obs obs : patientObs) {
+							ConceptNumeric weightConcept = getConceptNumeric(as.getGlobalProperty("concept.weight"));
+							ConceptNumeric heightConcept = getConceptNumeric(as.getGlobalProperty("concept.height"));
+							latestObs = getLatestObs(p, weightConcept, heightConcept,
+							    as.getGlobalProperty("dashboard.header.showConcept"));
+							for (Obs obs : latestObs) {
 								if (obs.getConcept().equals(weightConcept)) {
-									if (latestWeight == null
-									        || obs.getObsDatetime().compareTo(latestWeight.getObsDatetime()) > 0) {
-										latestWeight = obs;
-									}
-								} else if (obs.getConcept().equals(heightConcept)
-								        && (latestHeight == null || obs.getObsDatetime().compareTo(
-								            latestHeight.getObsDatetime()) > 0)) {
+									latestWeight = obs;
+								} else if (obs.getConcept().equals(heightConcept)) {
 									latestHeight = obs;
 								}
 							}
@@ -262,17 +284,23 @@ public class PortletController implements Controller {
 								log.error("Failed to calculate BMI even though a weight and height were found", ex);
 							}
 						}
+						model.put("patientLatestObs", latestObs);
 						model.put("patientBmiAsString", bmiAsString);
 					} else {
 						model.put("patientObs", new HashSet<Obs>());
+						model.put("patientLatestObs", new HashSet<Obs>());
 					}
 					
 					if (Context.hasPrivilege(PrivilegeConstants.GET_PROGRAMS)
 					        && Context.hasPrivilege(PrivilegeConstants.GET_PATIENT_PROGRAMS)) {
-						model.put("patientPrograms", Context.getProgramWorkflowService().getPatientPrograms(p, null, null,
-						    null, null, null, false));
-						model.put("patientCurrentPrograms", Context.getProgramWorkflowService().getPatientPrograms(p, null,
-						    null, new Date(), new Date(), null, false));
+						putSection(model, PortletModelSection.PROGRAMS, "patientPrograms",
+						    () -> Context.getProgramWorkflowService().getPatientPrograms(getPatient(patientId), null, null, null, null,
+						        null, false),
+						    sectionTimeout);
+						Date programDate = new Date();
+						putSection(model, PortletModelSection.PROGRAMS, "patientCurrentPrograms",
+						    () -> Context.getProgramWorkflowService().getPatientPrograms(getPatient(patientId), null, null,
+						        programDate, programDate, null, false), sectionTimeout);
 					}
 					
 					model.put("patientId", patientId);
@@ -302,20 +330,24 @@ public class PortletController implements Controller {
 				}
 				
 				if (!model.containsKey("personRelationships") && Context.hasPrivilege(PrivilegeConstants.GET_RELATIONSHIPS)) {
-					List<Relationship> relationships = new ArrayList<Relationship>();
-					relationships.addAll(Context.getPersonService().getRelationshipsByPerson(p));
-					Map<RelationshipType, List<Relationship>> relationshipsByType = new HashMap<RelationshipType, List<Relationship>>();
-					for (Relationship rel : relationships) {
-						List<Relationship> list = relationshipsByType.get(rel.getRelationshipType());
-						if (list == null) {
-							list = new ArrayList<Relationship>();
-							relationshipsByType.put(rel.getRelationshipType(), list);
+					Integer relationshipPersonId = personId;
+					putSection(model, PortletModelSection.RELATIONSHIPS, "personRelationships",
+					    () -> new ArrayList<Relationship>(Context.getPersonService().getRelationshipsByPerson(
+					        Context.getPersonService().getPerson(relationshipPersonId))),
+					    getParallelSectionTimeout());
+					PortletModel relationshipModel = model;
+					model.putLazy("personRelationshipsByType", () -> {
+						Map<RelationshipType, List<Relationship>> relationshipsByType = new HashMap<RelationshipType, List<Relationship>>();
+						for (Relationship rel : (List<Relationship>) relationshipModel.get("personRelationships")) {
+							List<Relationship> list = relationshipsByType.get(rel.getRelationshipType());
+							if (list == null) {
+								list = new ArrayList<Relationship>();
+								relationshipsByType.put(rel.getRelationshipType(), list);
+							}
+							list.add(rel);
 						}
-						list.add(rel);
-					}
-					
-					model.put("personRelationships", relationships);
-					model.put("personRelationshipsByType", relationshipsByType);
+						return relationshipsByType;
+					});
 				}
 			}
 			
@@ -374,6 +406,13 @@ public class PortletController implements Controller {
 				model.put("conceptMapByStringIds", conceptsByStringIds);
 			}
 			
+			// load the sections this portlet declared up front, everything else stays lazy
+			Set<PortletModelSection> declaredSections = getModelSections(portletPath);
+			startSections(model, declaredSections);
+			for (PortletModelSection section : declaredSections) {
+				model.load(section.getModelKeys());
+			}
+			
 			populateModel(request, model);
 			log.debug("{} took {} ms", portletPath, (System.currentTimeMillis() - timeAtStart));
 		}
@@ -382,6 +421,151 @@ public class PortletController implements Controller {
 		
 	}
 	
+	/**
+	 * Declares which model sections each portlet needs, keyed by the portlet name (the last segment
+	 * of the portlet url, e.g. "patientEncounters") with a comma separated list of
+	 * {@link PortletModelSection} names as the value.
+	 * 
+	 * @param modelSections the sections to load up front per portlet name
+	 */
+	public void setModelSections(Map<String, String> modelSections) {
+		this.modelSections = new HashMap<String, Set<PortletModelSection>>();
+		for (Map.Entry<String, String> entry : modelSections.entrySet()) {
+			Set<PortletModelSection> sections = EnumSet.noneOf(PortletModelSection.class);
+			for (String section : StringUtils.commaDelimitedListToSet(entry.getValue())) {
+				if (StringUtils.hasText(section)) {
+					sections.add(PortletModelSection.valueOf(section.trim().toUpperCase()));
+				}
+			}
+			this.modelSections.put(entry.getKey(), sections);
+		}
+	}
+	
+	/**
+	 * @param portletPath the path of the portlet being rendered, e.g. /portlets/patientHeader
+	 * @return the model sections the portlet declared, never null
+	 */
+	protected Set<PortletModelSection> getModelSections(String portletPath) {
+		String portletName = portletPath.substring(portletPath.lastIndexOf('/') + 1);
+		Set<PortletModelSection> sections = modelSections.get(portletName);
+		return sections != null ? sections : Collections.<PortletModelSection> emptySet();
+	}
+	
+	/**
+	 * @param sectionLoader the loader used to fetch model sections concurrently when the
+	 *            legacyui.portlet.parallelSectionLoading global property is on
+	 */
+	public void setSectionLoader(PortletSectionLoader sectionLoader) {
+		this.sectionLoader = sectionLoader;
+	}
+	
+	/**
+	 * @return the per section timeout in milliseconds if sections should be loaded in parallel,
+	 *         otherwise -1
+	 */
+	private long getParallelSectionTimeout() {
+		if (sectionLoader != null && sectionLoader.isEnabled()) {
+			return sectionLoader.getTimeout();
+		}
+		return -1;
+	}
+	
+	/**
+	 * Looks the patient up in the session of the calling thread, which for a section loaded on the
+	 * request thread is the patient already in the model
+	 */
+	private static Patient getPatient(Integer patientId) {
+		return Context.getPatientService().getPatient(patientId);
+	}
+	
+	/**
+	 * Puts a section value in the model as a lazy value. When sections are loaded in parallel the
+	 * lazy value hands the loader to the section loader once it is started or first read.
+	 */
+	private void putSection(PortletModel model, PortletModelSection section, String key, Supplier<?> loader,
+	        long sectionTimeout) {
+		if (sectionTimeout < 0) {
+			model.putLazy(key, loader);
+		} else {
+			model.putLazy(key, sectionLoader.prepare(section, loader, sectionTimeout));
+		}
+	}
+	
+	/**
+	 * Submits the sections a portlet declared to the section loader all at once, so that they load
+	 * side by side instead of one after the other as the model reads them
+	 */
+	private void startSections(PortletModel model, Set<PortletModelSection> sections) {
+		for (PortletModelSection section : sections) {
+			for (String key : section.getModelKeys()) {
+				Supplier<?> supplier = model.getSupplier(key);
+				if (supplier instanceof PortletSectionLoader.PendingSection) {
+					((PortletSectionLoader.PendingSection) supplier).start();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Looks up the numeric concept whose id is stored in a global property like concept.weight
+	 * 
+	 * @param conceptId the (possibly blank) value of the global property
+	 * @return the matching ConceptNumeric or null if the value is blank
+	 */
+	private ConceptNumeric getConceptNumeric(String conceptId) {
+		if (!StringUtils.hasText(conceptId)) {
+			return null;
+		}
+		ConceptService cs = Context.getConceptService();
+		return cs.getConceptNumeric(cs.getConcept(Integer.valueOf(conceptId.trim())).getConceptId());
+	}
+	
+	/**
+	 * Fetches only the most recent obs of the weight and height concepts and of the concepts listed
+	 * in the dashboard.header.showConcept global property, using one query per concept instead of
+	 * loading every obs of the person
+	 * 
+	 * @param person the person whose obs to look up
+	 * @param weightConcept the weight concept, may be null
+	 * @param heightConcept the height concept, may be null
+	 * @param headerConceptIds comma separated concept ids shown in the patient header, may be null
+	 * @return the most recent obs for each of the concepts that has one
+	 */
+	private List<Obs> getLatestObs(Person person, Concept weightConcept, Concept heightConcept, String headerConceptIds) {
+		Set<Concept> concepts = new LinkedHashSet<Concept>();
+		if (weightConcept != null) {
+			concepts.add(weightConcept);
+		}
+		if (heightConcept != null) {
+			concepts.add(heightConcept);
+		}
+		if (StringUtils.hasText(headerConceptIds)) {
+			for (String conceptId : headerConceptIds.split(",")) {
+				try {
+					Concept concept = Context.getConceptService().getConcept(Integer.valueOf(conceptId.trim()));
+					if (concept != null) {
+						concepts.add(concept);
+					}
+				}
+				catch (NumberFormatException ex) {
+					log.warn("Invalid concept id '{}' in dashboard.header.showConcept", conceptId);
+				}
+			}
+		}
+		
+		List<Obs> latestObs = new ArrayList<Obs>();
+		List<Person> whom = Collections.singletonList(person);
+		List<String> sort = Collections.singletonList("obsDatetime");
+		for (Concept concept : concepts) {
+			List<Obs> obs = Context.getObsService().getObservations(whom, null, Collections.singletonList(concept), null,
+			    null, null, sort, 1, null, null, null, false);
+			if (!obs.isEmpty()) {
+				latestObs.add(obs.get(0));
+			}
+		}
+		return latestObs;
+	}
+	
 	/**
 	 * Subclasses should override this to put more data into the model. This will be called AFTER
 	 * handleRequest has put mappings in the model as described in its javadoc. Note that context
@@ -0,0 +1,336 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.controller;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The model map handed to portlets by {@link PortletController}. Besides plain values it can hold
+ * lazy values, which are only computed the first time they are looked up with {@link #get(Object)}
+ * (which is what EL does for <code>${model.someKey}</code>). Once computed, a lazy value replaces
+ * its supplier in the map so later lookups, also from other portlets sharing the model, are free.
+ * <p>
+ * The entry set, the values and everything built on them (iteration, <code>forEach</code>,
+ * <code>putAll</code> into another map, <code>equals</code>) compute lazy values as they reach
+ * them, so callers never see the suppliers. <code>put</code> and <code>remove</code> return null
+ * for a value that was never computed rather than computing it only to return it.
+ * <p>
+ * One model is shared by all portlets rendered during a request. It is kept in the request under
+ * {@link #REQUEST_ATTRIBUTE} and is never put in the http session.
+ *
+ * @see PortletController
+ */
+public class PortletModel extends HashMap<String, Object> {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * The request attribute holding the model. It is created by the portlet tag outside of the
+	 * portlet include, because the dispatcher removes attributes added during an include.
+	 */
+	public static final String REQUEST_ATTRIBUTE = "org.openmrs.portlet.model";
+	
+	/**
+	 * Marker wrapper so that suppliers put into the model as ordinary values are left untouched
+	 */
+	private static final class LazyValue {
+		
+		private final Supplier<?> supplier;
+		
+		private LazyValue(Supplier<?> supplier) {
+			this.supplier = supplier;
+		}
+	}
+	
+	/**
+	 * Puts a value in the model that will only be computed when it is first looked up
+	 *
+	 * @param key the model key
+	 * @param supplier computes the value
+	 */
+	public void putLazy(String key, Supplier<?> supplier) {
+		super.put(key, new LazyValue(supplier));
+	}
+	
+	/**
+	 * @see java.util.HashMap#get(java.lang.Object)
+	 */
+	@Override
+	public Object get(Object key) {
+		Object value = super.get(key);
+		if (value instanceof LazyValue) {
+			value = ((LazyValue) value).supplier.get();
+			super.put((String) key, value);
+		}
+		return value;
+	}
+	
+	/**
+	 * @see java.util.HashMap#getOrDefault(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public Object getOrDefault(Object key, Object defaultValue) {
+		return containsKey(key) ? get(key) : defaultValue;
+	}
+	
+	/**
+	 * Returns the previous value, or null if it was never computed
+	 *
+	 * @see java.util.HashMap#put(java.lang.Object, java.lang.Object)
+	 * @should not compute the lazy value it replaces
+	 */
+	@Override
+	public Object put(String key, Object value) {
+		return computed(super.put(key, value));
+	}
+	
+	/**
+	 * Returns the removed value, or null if it was never computed
+	 *
+	 * @see java.util.HashMap#remove(java.lang.Object)
+	 */
+	@Override
+	public Object remove(Object key) {
+		return computed(super.remove(key));
+	}
+	
+	/**
+	 * @see java.util.HashMap#containsValue(java.lang.Object)
+	 */
+	@Override
+	public boolean containsValue(Object value) {
+		return values().contains(value);
+	}
+	
+	/**
+	 * @see java.util.HashMap#entrySet()
+	 * @should compute lazy values instead of returning their suppliers
+	 */
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		final Set<Map.Entry<String, Object>> entries = super.entrySet();
+		return new AbstractSet<Map.Entry<String, Object>>() {
+			
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				final Iterator<Map.Entry<String, Object>> it = entries.iterator();
+				return new Iterator<Map.Entry<String, Object>>() {
+					
+					@Override
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+					
+					@Override
+					public Map.Entry<String, Object> next() {
+						Map.Entry<String, Object> entry = it.next();
+						if (entry.getValue() instanceof LazyValue) {
+							entry.setValue(((LazyValue) entry.getValue()).supplier.get());
+						}
+						return entry;
+					}
+					
+					@Override
+					public void remove() {
+						it.remove();
+					}
+				};
+			}
+			
+			@Override
+			public int size() {
+				return entries.size();
+			}
+			
+			@Override
+			public void clear() {
+				entries.clear();
+			}
+		};
+	}
+	
+	/**
+	 * @see java.util.HashMap#values()
+	 * @should compute lazy values instead of returning their suppliers
+	 */
+	@Override
+	public Collection<Object> values() {
+		final Set<Map.Entry<String, Object>> entries = entrySet();
+		return new AbstractCollection<Object>() {
+			
+			@Override
+			public Iterator<Object> iterator() {
+				final Iterator<Map.Entry<String, Object>> it = entries.iterator();
+				return new Iterator<Object>() {
+					
+					@Override
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+					
+					@Override
+					public Object next() {
+						return it.next().getValue();
+					}
+					
+					@Override
+					public void remove() {
+						it.remove();
+					}
+				};
+			}
+			
+			@Override
+			public int size() {
+				return entries.size();
+			}
+			
+			@Override
+			public void clear() {
+				entries.clear();
+			}
+		};
+	}
+	
+	/**
+	 * @see java.util.HashMap#forEach(java.util.function.BiConsumer)
+	 * @should compute lazy values only once
+	 */
+	@Override
+	public void forEach(BiConsumer<? super String, ? super Object> action) {
+		for (Map.Entry<String, Object> entry : entrySet()) {
+			action.accept(entry.getKey(), entry.getValue());
+		}
+	}
+	
+	/**
+	 * @see java.util.HashMap#replaceAll(java.util.function.BiFunction)
+	 */
+	@Override
+	public void replaceAll(BiFunction<? super String, ? super Object, ?> function) {
+		for (Map.Entry<String, Object> entry : entrySet()) {
+			entry.setValue(function.apply(entry.getKey(), entry.getValue()));
+		}
+	}
+	
+	/**
+	 * @see java.util.HashMap#putIfAbsent(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public Object putIfAbsent(String key, Object value) {
+		get(key);
+		return super.putIfAbsent(key, value);
+	}
+	
+	/**
+	 * @see java.util.HashMap#computeIfAbsent(java.lang.Object, java.util.function.Function)
+	 */
+	@Override
+	public Object computeIfAbsent(String key, Function<? super String, ?> mappingFunction) {
+		get(key);
+		return super.computeIfAbsent(key, mappingFunction);
+	}
+	
+	/**
+	 * @see java.util.HashMap#computeIfPresent(java.lang.Object, java.util.function.BiFunction)
+	 */
+	@Override
+	public Object computeIfPresent(String key, BiFunction<? super String, ? super Object, ?> remappingFunction) {
+		get(key);
+		return super.computeIfPresent(key, remappingFunction);
+	}
+	
+	/**
+	 * @see java.util.HashMap#compute(java.lang.Object, java.util.function.BiFunction)
+	 */
+	@Override
+	public Object compute(String key, BiFunction<? super String, ? super Object, ?> remappingFunction) {
+		get(key);
+		return super.compute(key, remappingFunction);
+	}
+	
+	/**
+	 * @see java.util.HashMap#merge(java.lang.Object, java.lang.Object, java.util.function.BiFunction)
+	 */
+	@Override
+	public Object merge(String key, Object value, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+		get(key);
+		return super.merge(key, value, remappingFunction);
+	}
+	
+	/**
+	 * @see java.util.HashMap#replace(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public Object replace(String key, Object value) {
+		return computed(super.replace(key, value));
+	}
+	
+	/**
+	 * @see java.util.HashMap#replace(java.lang.Object, java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public boolean replace(String key, Object oldValue, Object newValue) {
+		get(key);
+		return super.replace(key, oldValue, newValue);
+	}
+	
+	/**
+	 * @see java.util.HashMap#remove(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public boolean remove(Object key, Object value) {
+		get(key);
+		return super.remove(key, value);
+	}
+	
+	private static Object computed(Object value) {
+		return value instanceof LazyValue ? null : value;
+	}
+	
+	/**
+	 * @param key the model key
+	 * @return the supplier of the key's value if it has not been computed yet, otherwise null
+	 */
+	Supplier<?> getSupplier(String key) {
+		Object value = super.get(key);
+		return value instanceof LazyValue ? ((LazyValue) value).supplier : null;
+	}
+	
+	/**
+	 * @param key the model key
+	 * @return true if the key is in the model and its value has already been computed
+	 */
+	public boolean isLoaded(String key) {
+		return containsKey(key) && !(super.get(key) instanceof LazyValue);
+	}
+	
+	/**
+	 * Computes the lazy values of the given keys right away
+	 *
+	 * @param keys the model keys to load, keys that are not in the model are ignored
+	 */
+	public void load(Collection<String> keys) {
+		for (String key : keys) {
+			get(key);
+		}
+	}
+	
+}
@@ -0,0 +1,48 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.controller;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The expensive, patient or person related parts of the portlet model that {@link PortletController}
+ * puts in as lazy values. A portlet can declare the sections it needs so that they are loaded by the
+ * controller before the view renders; undeclared sections are only loaded if the view reads them.
+ *
+ * @see PortletController#setModelSections(java.util.Map)
+ */
+public enum PortletModelSection {
+	
+	ENCOUNTERS("patientEncounters"),
+	
+	VISITS("patientVisits", "activeVisits"),
+	
+	OBS("patientObs"),
+	
+	PROGRAMS("patientPrograms", "patientCurrentPrograms"),
+	
+	RELATIONSHIPS("personRelationships", "personRelationshipsByType");
+	
+	private final List<String> modelKeys;
+	
+	PortletModelSection(String... modelKeys) {
+		this.modelKeys = Collections.unmodifiableList(Arrays.asList(modelKeys));
+	}
+	
+	/**
+	 * @return the portlet model keys that belong to this section
+	 */
+	public List<String> getModelKeys() {
+		return modelKeys;
+	}
+	
+}
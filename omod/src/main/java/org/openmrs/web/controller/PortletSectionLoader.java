@@ -0,0 +1,298 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.controller;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.hibernate.Hibernate;
+import org.hibernate.SessionFactory;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.legacyui.LegacyUIConstants;
+import org.openmrs.web.metrics.ServiceCallAdvice;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the sections of the portlet model concurrently on a bounded pool of worker threads. This is
+ * opt-in, see {@link LegacyUIConstants#GP_PORTLET_PARALLEL_SECTION_LOADING}.
+ * <p>
+ * Sections stay lazy: a section is only submitted to the pool when it is first read, or when
+ * {@link PendingSection#start()} is called for the sections a portlet declared, which lets those
+ * load side by side before the view renders.
+ * <p>
+ * Each worker runs with the user context of the requesting user in its own session, opened and
+ * closed with {@link Context#openSession()} and {@link Context#closeSession()}. The loaders are
+ * handed ids, not entities of the request (see PortletController), and fetch what they need in the
+ * session they run in. For a section that is a collection of entities the worker hands back only
+ * their ids, and the request thread loads them in its own session with one batched query by primary
+ * key per section, skipping those its session already holds. So what runs side by side are the
+ * queries that find and sort a section; reading the rows found is still left to the request thread.
+ * <p>
+ * A section that fails on the worker, or does not finish within the configured timeout of being
+ * submitted, is loaded once more on the request thread when it is read, the same way it would be
+ * without parallel loading, so a slow section makes the page slower but never leaves it empty.
+ */
+public class PortletSectionLoader {
+	
+	private static final Logger log = LoggerFactory.getLogger(PortletSectionLoader.class);
+	
+	private static final int LOAD_BATCH_SIZE = 500;
+	
+	private SessionFactory sessionFactory;
+	
+	private int poolSize = 8;
+	
+	private int queueCapacity = 64;
+	
+	private ThreadPoolExecutor executor;
+	
+	/**
+	 * A section value that is loaded on the worker pool once it is started or first read
+	 */
+	public class PendingSection implements Supplier<Object> {
+		
+		private final PortletModelSection section;
+		
+		private final Supplier<?> loader;
+		
+		private final long timeout;
+		
+		private final UserContext userContext;
+		
+		private final AtomicInteger serviceCallCounter;
+		
+		private Future<Object> future;
+		
+		private long deadline;
+		
+		private boolean rejected;
+		
+		private PendingSection(PortletModelSection section, Supplier<?> loader, long timeout) {
+			this.section = section;
+			this.loader = loader;
+			this.timeout = timeout;
+			this.userContext = Context.getUserContext();
+			this.serviceCallCounter = ServiceCallAdvice.getCounter();
+		}
+		
+		/**
+		 * Submits the section to the worker pool unless it has been submitted already. If the pool is
+		 * saturated the section is loaded on the request thread when it is read.
+		 */
+		public synchronized void start() {
+			if (future != null || rejected) {
+				return;
+			}
+			try {
+				future = getExecutor().submit(() -> load(loader, userContext, serviceCallCounter));
+				deadline = System.currentTimeMillis() + timeout;
+			}
+			catch (RejectedExecutionException ex) {
+				log.debug("Portlet section loader is saturated, loading {} on the request thread", section);
+				rejected = true;
+			}
+		}
+		
+		/**
+		 * Waits for the section until the timeout, counted from its submission, runs out. If the
+		 * worker did not make it the section is loaded on the request thread instead.
+		 *
+		 * @see java.util.function.Supplier#get()
+		 */
+		@Override
+		public Object get() {
+			start();
+			if (rejected) {
+				return loader.get();
+			}
+			try {
+				return reload(future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+			}
+			catch (TimeoutException ex) {
+				future.cancel(true);
+				log.warn("Loading portlet section {} took longer than {} ms, loading it on the request thread", section,
+				    timeout);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			catch (ExecutionException ex) {
+				log.warn("Failed to load portlet section " + section + ", loading it on the request thread", ex.getCause());
+			}
+			return loader.get();
+		}
+	}
+	
+	/**
+	 * The ids of a section that is a collection of entities, as handed from a worker to the request
+	 * thread
+	 */
+	private static class EntityIds {
+		
+		private final Class<?> type;
+		
+		private final List<Integer> ids;
+		
+		private EntityIds(Class<?> type, List<Integer> ids) {
+			this.type = type;
+			this.ids = ids;
+		}
+	}
+	
+	/**
+	 * @return true if the parallel loading global property is switched on
+	 */
+	public boolean isEnabled() {
+		return Boolean.valueOf(Context.getAdministrationService().getGlobalProperty(
+		    LegacyUIConstants.GP_PORTLET_PARALLEL_SECTION_LOADING, "false"));
+	}
+	
+	/**
+	 * @return the number of milliseconds to wait for a single section
+	 */
+	public long getTimeout() {
+		String timeout = Context.getAdministrationService().getGlobalProperty(
+		    LegacyUIConstants.GP_PORTLET_SECTION_LOADING_TIMEOUT);
+		try {
+			return Long.parseLong(timeout.trim());
+		}
+		catch (RuntimeException ex) {
+			return LegacyUIConstants.DEFAULT_PORTLET_SECTION_LOADING_TIMEOUT;
+		}
+	}
+	
+	/**
+	 * Wraps a section loader so that it runs on the worker pool, but only once the section is
+	 * started or read. Must be called on the request thread.
+	 *
+	 * @param section the section being loaded
+	 * @param loader fetches the section's value, either a collection of entities or a value that
+	 *            needs no session; it may run on a worker or on the request thread, so it must not
+	 *            use entities loaded by the request
+	 * @should load sections on the worker pool side by side
+	 * @should load a section on the request thread once it timed out
+	 * @should load a section on the request thread if the pool is saturated
+	 * @param timeout how many milliseconds to wait for the value once it has been submitted
+	 * @return the pending section, to be used as a lazy model value
+	 */
+	public PendingSection prepare(PortletModelSection section, Supplier<?> loader, long timeout) {
+		return new PendingSection(section, loader, timeout);
+	}
+	
+	private Object load(Supplier<?> loader, UserContext userContext, AtomicInteger serviceCallCounter) {
+		Context.openSession();
+		try {
+			Context.setUserContext(userContext);
+			// count the calls made for the portlet that requested the section
+			ServiceCallAdvice.setCounter(serviceCallCounter);
+			return toIds(loader.get());
+		}
+		finally {
+			ServiceCallAdvice.setCounter(null);
+			Context.clearUserContext();
+			Context.closeSession();
+		}
+	}
+	
+	/**
+	 * Replaces a collection of entities by their ids so that the entities themselves, bound to the
+	 * worker's session, never reach the request thread
+	 */
+	private static Object toIds(Object value) {
+		if (!(value instanceof Collection) || ((Collection<?>) value).isEmpty()) {
+			return value;
+		}
+		Class<?> type = null;
+		List<Integer> ids = new ArrayList<Integer>();
+		for (Object element : (Collection<?>) value) {
+			if (!(element instanceof OpenmrsObject)) {
+				return value;
+			}
+			if (type == null) {
+				type = Hibernate.getClass(element);
+			}
+			ids.add(((OpenmrsObject) element).getId());
+		}
+		return new EntityIds(type, ids);
+	}
+	
+	/**
+	 * Loads the entities of a section by id in the session of the request thread, in the order the
+	 * worker found them
+	 */
+	private Object reload(Object value) {
+		if (!(value instanceof EntityIds)) {
+			return value;
+		}
+		EntityIds entityIds = (EntityIds) value;
+		List<?> entities = sessionFactory.getCurrentSession().byMultipleIds(entityIds.type)
+		        .withBatchSize(LOAD_BATCH_SIZE).enableSessionCheck(true).multiLoad(entityIds.ids);
+		List<Object> loaded = new ArrayList<Object>(entities.size());
+		for (Object entity : entities) {
+			// purged since the worker looked
+			if (entity != null) {
+				loaded.add(entity);
+			}
+		}
+		return loaded;
+	}
+	
+	private synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			final AtomicInteger threadNumber = new AtomicInteger();
+			ThreadFactory threadFactory = runnable -> {
+				Thread thread = new Thread(runnable, "portlet-section-loader-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			};
+			executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+			        new ArrayBlockingQueue<Runnable>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+	
+	/**
+	 * Stops the worker threads, called by Spring when the module context is closed
+	 */
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+	
+	public void setSessionFactory(SessionFactory sessionFactory) {
+		this.sessionFactory = sessionFactory;
+	}
+	
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+	
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+	
+}
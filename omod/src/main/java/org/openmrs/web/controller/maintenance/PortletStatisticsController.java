@@ -0,0 +1,59 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.controller.maintenance;
+
+import org.openmrs.api.APIAuthenticationException;
+import org.openmrs.api.context.Context;
+import org.openmrs.web.metrics.PortletStatistics;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.ModelMap;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+
+/**
+ * Lists how long each portlet takes to render and how many service calls it makes, slowest first,
+ * so that slow dashboard tabs can be found without attaching a profiler.
+ *
+ * @see PortletStatistics
+ */
+@Controller
+public class PortletStatisticsController {
+	
+	private static final String PRIVILEGE = "View Administration Functions";
+	
+	/**
+	 * @should add the portlet statistics to the model map
+	 * @should fail if the user cannot view administration functions
+	 */
+	@GetMapping(value = "admin/maintenance/portletStatistics.list")
+	public String showPage(ModelMap model) {
+		requirePrivilege();
+		model.addAttribute("portletStatistics", PortletStatistics.getSlowest());
+		return "/module/legacyui/admin/maintenance/portletStatistics";
+	}
+	
+	/**
+	 * @should clear the portlet statistics
+	 * @should fail if the user cannot view administration functions
+	 */
+	@PostMapping(value = "admin/maintenance/portletStatistics.list")
+	public String reset() {
+		requirePrivilege();
+		PortletStatistics.reset();
+		return "redirect:/admin/maintenance/portletStatistics.list";
+	}
+	
+	private void requirePrivilege() {
+		if (!Context.hasPrivilege(PRIVILEGE)) {
+			throw new APIAuthenticationException("Privilege required: " + PRIVILEGE);
+		}
+	}
+	
+}
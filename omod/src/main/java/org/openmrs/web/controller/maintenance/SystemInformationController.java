@@ -10,6 +10,8 @@
 package org.openmrs.web.controller.maintenance;
 
 import org.openmrs.api.context.Context;
+import org.openmrs.web.cache.CacheStatistics;
+import org.openmrs.web.servlet.GraphRenderingPool;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -37,10 +39,14 @@ public class SystemInformationController {
 	 * @should add database information attribute to the model map
 	 * @should add memory information attribute to the model map
 	 * @should add module information attribute to the model map
+	 * @should add cache statistics attribute to the model map
+	 * @should add graph rendering attribute to the model map
 	 */
 	@GetMapping(value = "admin/maintenance/systemInfo")
 	public String showPage(ModelMap model) {
 		model.addAttribute("systemInfo", Context.getAdministrationService().getSystemInformation());
+		model.addAttribute("cacheStatistics", CacheStatistics.getAll());
+		model.addAttribute("graphRendering", GraphRenderingPool.getInstance());
 		return "/module/legacyui/admin/maintenance/systemInfo";
 	}
 
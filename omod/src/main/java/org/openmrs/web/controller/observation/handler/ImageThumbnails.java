@@ -0,0 +1,265 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.controller.observation.handler;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.openmrs.Obs;
+import org.openmrs.api.context.Context;
+import org.openmrs.obs.handler.ImageHandler;
+import org.openmrs.web.cache.ImageDerivativeCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the small previews served for the {@link WebImageHandler#THUMBNAIL_VIEW} of image complex
+ * obs. Thumbnails are created on a small pool of worker threads as soon as an image obs is saved, or
+ * else when the thumbnail is first asked for, and kept in the {@link ImageDerivativeCache}. Later
+ * views are served from there without reading the original image.
+ * <p>
+ * Only every n-th pixel of a large original is decoded, so creating a thumbnail needs little memory
+ * even for big radiology images.
+ */
+public class ImageThumbnails {
+	
+	private static final Logger log = LoggerFactory.getLogger(ImageThumbnails.class);
+	
+	/**
+	 * The maximum width and height of a thumbnail in pixels
+	 */
+	public static final int MAX_SIZE = 200;
+	
+	private static final long TIMEOUT = 10000;
+	
+	private static final int POOL_SIZE = 2;
+	
+	private static final int QUEUE_CAPACITY = 100;
+	
+	private static final Map<String, Future<File>> pending = new ConcurrentHashMap<String, Future<File>>();
+	
+	private static ThreadPoolExecutor executor;
+	
+	private ImageThumbnails() {
+	}
+	
+	/**
+	 * Returns the thumbnail of an image obs, waiting for it to be created if necessary
+	 *
+	 * @param obsId the obs id
+	 * @param original the file of the original image
+	 * @return the thumbnail, or null if it could not be created in time or the thumbnail cache is
+	 *         switched off
+	 * @should create the thumbnail of an image
+	 * @should return null if the file is not an image
+	 */
+	public static File getThumbnail(Integer obsId, File original) {
+		Future<File> future = submit(obsId, original);
+		if (future == null) {
+			return null;
+		}
+		try {
+			return future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+		}
+		catch (TimeoutException ex) {
+			log.warn("Creating the thumbnail of obs {} took longer than {} ms", obsId, TIMEOUT);
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException ex) {
+			log.warn("Failed to create the thumbnail of obs " + obsId, ex.getCause());
+		}
+		return null;
+	}
+	
+	/**
+	 * Creates the thumbnail of an image obs in the background unless it exists already
+	 *
+	 * @param obsId the obs id
+	 * @param original the file of the original image
+	 */
+	public static void prepare(Integer obsId, File original) {
+		submit(obsId, original);
+	}
+	
+	/**
+	 * Prepares the thumbnail of image obs saved through the obs service
+	 *
+	 * @param changed the changed object
+	 */
+	static void dataChanged(Object changed) {
+		if (!(changed instanceof Obs)) {
+			return;
+		}
+		Obs obs = (Obs) changed;
+		if (obs.getObsId() == null || obs.getVoided() || obs.getValueComplex() == null) {
+			return;
+		}
+		try {
+			if (Context.getObsService().getHandler(obs) instanceof ImageHandler) {
+				prepare(obs.getObsId(), WebHandlerUtils.getComplexDataFile(obs.getValueComplex()));
+			}
+		}
+		catch (RuntimeException ex) {
+			log.debug("Not preparing a thumbnail for obs " + obs.getObsId(), ex);
+		}
+	}
+	
+	/**
+	 * @return the thumbnail, either already created or being created, or null if the original does
+	 *         not exist
+	 */
+	private static Future<File> submit(Integer obsId, File original) {
+		long version = original == null ? 0 : original.lastModified();
+		if (version == 0) {
+			return null;
+		}
+		String key = ImageDerivativeCache.getKey(obsId, WebImageHandler.THUMBNAIL_VIEW, version);
+		File thumbnail = ImageDerivativeCache.get(key);
+		if (thumbnail != null) {
+			FutureTask<File> done = new FutureTask<File>(() -> thumbnail);
+			done.run();
+			return done;
+		}
+		
+		FutureTask<File> task = new FutureTask<File>(() -> {
+			try {
+				return create(key, original);
+			}
+			finally {
+				pending.remove(key);
+			}
+		});
+		Future<File> existing = pending.putIfAbsent(key, task);
+		if (existing != null) {
+			return existing;
+		}
+		try {
+			getExecutor().execute(task);
+		}
+		catch (RejectedExecutionException ex) {
+			log.debug("Thumbnail workers are saturated, creating the thumbnail of obs {} on the request thread", obsId);
+			task.run();
+		}
+		return task;
+	}
+	
+	private static File create(String key, File original) throws IOException {
+		BufferedImage image = read(original);
+		if (image == null) {
+			return null;
+		}
+		BufferedImage thumbnail = scale(image);
+		String extension = thumbnail.getColorModel().hasAlpha() ? "png" : "jpg";
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		if (!ImageIO.write(thumbnail, extension, encoded)) {
+			return null;
+		}
+		
+		// the worker threads need a session to read the size of the cache
+		boolean openedSession = !Context.isSessionOpen();
+		if (openedSession) {
+			Context.openSession();
+		}
+		try {
+			return ImageDerivativeCache.put(key, extension, encoded.toByteArray());
+		}
+		finally {
+			if (openedSession) {
+				Context.closeSession();
+			}
+		}
+	}
+	
+	/**
+	 * Decodes an image, skipping pixels of images much larger than a thumbnail
+	 *
+	 * @return the image, or null if the file is not an image
+	 */
+	private static BufferedImage read(File file) throws IOException {
+		try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+			if (in == null) {
+				return null;
+			}
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+			if (!readers.hasNext()) {
+				return null;
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, true);
+				int size = Math.max(reader.getWidth(0), reader.getHeight(0));
+				// keep twice the resolution of the thumbnail so that scaling it down still looks smooth
+				int subsampling = Math.max(1, size / (2 * MAX_SIZE));
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				return reader.read(0, param);
+			}
+			finally {
+				reader.dispose();
+			}
+		}
+	}
+	
+	private static BufferedImage scale(BufferedImage image) {
+		double factor = Math.min(1.0, (double) MAX_SIZE / Math.max(image.getWidth(), image.getHeight()));
+		int width = Math.max(1, (int) Math.round(image.getWidth() * factor));
+		int height = Math.max(1, (int) Math.round(image.getHeight() * factor));
+		int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		BufferedImage thumbnail = new BufferedImage(width, height, type);
+		Graphics2D graphics = thumbnail.createGraphics();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			graphics.drawImage(image, 0, 0, width, height, null);
+		}
+		finally {
+			graphics.dispose();
+		}
+		return thumbnail;
+	}
+	
+	private static synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			final AtomicInteger threadNumber = new AtomicInteger();
+			executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+			        QUEUE_CAPACITY), runnable -> {
+				Thread thread = new Thread(runnable, "image-thumbnails-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}, new ThreadPoolExecutor.AbortPolicy());
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+	
+}
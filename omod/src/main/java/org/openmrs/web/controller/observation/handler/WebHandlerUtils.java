@@ -9,7 +9,12 @@
  */
 package org.openmrs.web.controller.observation.handler;
 
+import java.io.File;
+
 import org.openmrs.Obs;
+import org.openmrs.api.context.Context;
+import org.openmrs.util.OpenmrsConstants;
+import org.openmrs.util.OpenmrsUtil;
 import org.openmrs.web.WebConstants;
 
 /**
@@ -33,4 +38,22 @@ public class WebHandlerUtils {
 		return "/" + WebConstants.WEBAPP_NAME + "/moduleServlet/legacyui/complexObsServlet?obsId=" + obs.getObsId() + "&view=" + view;
 	}
 	
+	/**
+	 * Finds the file a complex obs is stored in the same way the core complex obs handlers do, but
+	 * from the value of the obs alone so that neither the obs nor its complex data has to be loaded
+	 *
+	 * @param valueComplex the value of the complex obs, i.e. its title and file name
+	 * @return the file, or null if there is no value
+	 */
+	public static File getComplexDataFile(String valueComplex) {
+		if (valueComplex == null) {
+			return null;
+		}
+		String[] names = valueComplex.split("\\|");
+		String filename = names.length < 2 ? names[0] : names[names.length - 1];
+		File dir = OpenmrsUtil.getDirectoryInApplicationDataDirectory(Context.getAdministrationService().getGlobalProperty(
+		    OpenmrsConstants.GLOBAL_PROPERTY_COMPLEX_OBS_DIR));
+		return new File(dir, filename.trim());
+	}
+	
 }
@@ -9,6 +9,10 @@
  */
 package org.openmrs.web.controller.observation.handler;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.file.Files;
 import java.util.Locale;
 import java.util.List;
 import java.util.ArrayList;
@@ -19,6 +23,9 @@ import org.openmrs.Obs;
 import org.openmrs.obs.ComplexData;
 import org.openmrs.obs.ComplexObsHandler;
 import org.openmrs.obs.handler.ImageHandler;
+import org.openmrs.web.cache.DataChangeAdvice;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import org.openmrs.web.controller.observation.handler.WebHandlerUtils;
 
@@ -29,8 +36,19 @@ import org.openmrs.web.controller.observation.handler.WebHandlerUtils;
  */
 public class WebImageHandler extends ImageHandler {
 	
+	private static final Logger log = LoggerFactory.getLogger(WebImageHandler.class);
+	
+	/** A small preview of the image, see {@link ImageThumbnails} */
+	public static final String THUMBNAIL_VIEW = "thumbnail";
+	
 	/** Views supported by this handler */
-	private static final String[] supportedViews = { ComplexObsHandler.URI_VIEW, ComplexObsHandler.HTML_VIEW };
+	private static final String[] supportedViews = { ComplexObsHandler.URI_VIEW, ComplexObsHandler.HTML_VIEW,
+	        THUMBNAIL_VIEW };
+	
+	static {
+		// create thumbnails as soon as images are saved
+		DataChangeAdvice.addListener(ImageThumbnails::dataChanged);
+	}
 	
 	/**
 	 * Default Constructor
@@ -48,7 +66,9 @@ public class WebImageHandler extends ImageHandler {
 	 * ComplexData from the parent class since this does not require access to the service layer.
 	 * Gives a link to the ComplexServlet for this obs
 	 * <li>{@link ComplexObsHandler#HTML_VIEW}: An html tag that will display this complex data. For this
-	 * ImageHandler, its an html img tag.
+	 * ImageHandler, its an html img tag showing the thumbnail and linking to the full image.
+	 * <li>{@link #THUMBNAIL_VIEW}: the encoded thumbnail of the image, or the full image if the
+	 * thumbnail cannot be created
 	 * </ul>
 	 * 
 	 * @see org.openmrs.obs.handler.ImageHandler#getObs(Obs, String)
@@ -64,13 +84,31 @@ public class WebImageHandler extends ImageHandler {
 		}
 		
 		if (ComplexObsHandler.HTML_VIEW.equals(view)) {
-			String imgtag = "<img src='" + WebHandlerUtils.getHyperlink(obs, ComplexObsHandler.RAW_VIEW) + "'/>";
+			String imgtag = "<a href='" + WebHandlerUtils.getHyperlink(obs, ComplexObsHandler.RAW_VIEW)
+			        + "' target='_blank'><img src='" + WebHandlerUtils.getHyperlink(obs, THUMBNAIL_VIEW) + "'/></a>";
 			Locale locale = Context.getLocale();
 			ComplexData cd = new ComplexData(obs.getValueAsString(locale), imgtag);
 			obs.setComplexData(cd);
 			return obs;
 		}
 		
+		if (THUMBNAIL_VIEW.equals(view)) {
+			File thumbnail = ImageThumbnails.getThumbnail(obs.getObsId(), WebHandlerUtils.getComplexDataFile(obs
+			        .getValueComplex()));
+			if (thumbnail != null) {
+				try {
+					ComplexData cd = new ComplexData(thumbnail.getName(), Files.readAllBytes(thumbnail.toPath()));
+					cd.setMimeType(URLConnection.guessContentTypeFromName(thumbnail.getName()));
+					obs.setComplexData(cd);
+					return obs;
+				}
+				catch (IOException ex) {
+					log.warn("Failed to read thumbnail " + thumbnail, ex);
+				}
+			}
+			return super.getObs(obs, ComplexObsHandler.RAW_VIEW);
+		}
+		
 		return super.getObs(obs, view);
 	}
 	
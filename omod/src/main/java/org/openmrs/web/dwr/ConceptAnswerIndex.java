@@ -0,0 +1,359 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.Session;
+import org.openmrs.Concept;
+import org.openmrs.ConceptAnswer;
+import org.openmrs.ConceptName;
+import org.openmrs.ConceptSearchResult;
+import org.openmrs.Drug;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.LegacyUIConstants;
+import org.openmrs.util.OpenmrsConstants;
+import org.openmrs.util.PrivilegeConstants;
+import org.openmrs.web.DirectQueryUtil;
+import org.openmrs.web.cache.CacheStatistics;
+import org.openmrs.web.cache.DataChangeAdvice;
+
+/**
+ * Keeps the answers of the most recently searched coded questions in memory, with the names of each
+ * answer concept in all locales and the answer drugs of each answer concept. Typing into the answer
+ * field of a coded question then filters these answers instead of running a full text search and
+ * loading the drugs of every result.
+ * <p>
+ * The answers of a question are dropped as soon as the question, one of its answer concepts or one
+ * of its answer drugs is saved (see {@link DataChangeAdvice}).
+ * <p>
+ * The index is switched on with the {@link LegacyUIConstants#GP_CONCEPT_ANSWER_INDEX} global
+ * property, otherwise {@link DWRConceptService} searches the answers with the concept service. It
+ * only matches the beginnings of words, like {@link ConceptNameIndex}, and lists the answer drugs
+ * of the question rather than all drugs of the answer concepts. The concepts and drugs of the
+ * matching answers are loaded with one query each. An instance of this class is
+ * registered as a global property listener so that switching the index on or off takes effect right
+ * away.
+ */
+public class ConceptAnswerIndex implements GlobalPropertyListener {
+	
+	private static final int MAX_QUESTIONS = 200;
+	
+	private static final String CONCEPTS_QUERY = "select distinct c from Concept c left join fetch c.names "
+	        + "where c.conceptId in (:ids)";
+	
+	private static final String DRUGS_QUERY = "from Drug d where d.drugId in (:ids)";
+	
+	private static volatile Boolean enabled;
+	
+	private static final Map<Integer, Answers> questions = new LinkedHashMap<Integer, Answers>(16, 0.75f, true) {
+		
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Answers> eldest) {
+			return size() > MAX_QUESTIONS;
+		}
+	};
+	
+	private static final CacheStatistics statistics = CacheStatistics.register("conceptAnswers", () -> {
+		synchronized (questions) {
+			return questions.size();
+		}
+	});
+	
+	static {
+		DataChangeAdvice.addListener(ConceptAnswerIndex::dataChanged);
+	}
+	
+	private static class AnswerName {
+		
+		private final Integer nameId;
+		
+		private final Locale locale;
+		
+		private final boolean preferred;
+		
+		private final String name;
+		
+		private final String[] words;
+		
+		private AnswerName(ConceptName conceptName) {
+			this.nameId = conceptName.getConceptNameId();
+			this.locale = conceptName.getLocale();
+			this.preferred = Boolean.TRUE.equals(conceptName.getLocalePreferred());
+			this.name = ConceptNameIndex.normalize(conceptName.getName());
+			this.words = ConceptNameIndex.getWords(name);
+		}
+	}
+	
+	private static class Answer {
+		
+		private final Integer conceptId;
+		
+		private final boolean drugClass;
+		
+		private final List<AnswerName> names = new ArrayList<AnswerName>();
+		
+		private final List<Integer> drugIds = new ArrayList<Integer>();
+		
+		private Answer(Concept concept) {
+			this.conceptId = concept.getConceptId();
+			this.drugClass = concept.getConceptClass() != null
+			        && OpenmrsConstants.CONCEPT_CLASS_DRUG.equals(concept.getConceptClass().getConceptClassId());
+			for (ConceptName conceptName : concept.getNames(false)) {
+				names.add(new AnswerName(conceptName));
+			}
+		}
+	}
+	
+	/**
+	 * The answers of a question in their sort order
+	 */
+	private static class Answers {
+		
+		private final List<Answer> answers = new ArrayList<Answer>();
+		
+		private final Set<Integer> conceptIds = new HashSet<Integer>();
+		
+		private final Set<Integer> drugIds = new HashSet<Integer>();
+		
+		private Answers(Concept question) {
+			conceptIds.add(question.getConceptId());
+			List<ConceptAnswer> conceptAnswers = new ArrayList<ConceptAnswer>(question.getAnswers(false));
+			Collections.sort(conceptAnswers);
+			Map<Integer, Answer> answersByConceptId = new LinkedHashMap<Integer, Answer>();
+			for (ConceptAnswer conceptAnswer : conceptAnswers) {
+				Concept concept = conceptAnswer.getAnswerConcept();
+				if (concept == null || concept.isRetired()) {
+					continue;
+				}
+				Answer answer = answersByConceptId.get(concept.getConceptId());
+				if (answer == null) {
+					answer = new Answer(concept);
+					answersByConceptId.put(concept.getConceptId(), answer);
+					conceptIds.add(concept.getConceptId());
+				}
+				Drug drug = conceptAnswer.getAnswerDrug();
+				if (drug != null && !answer.drugIds.contains(drug.getDrugId())) {
+					answer.drugIds.add(drug.getDrugId());
+					drugIds.add(drug.getDrugId());
+				}
+			}
+			answers.addAll(answersByConceptId.values());
+		}
+	}
+	
+	private static class Match {
+		
+		private final Answer answer;
+		
+		private final AnswerName name;
+		
+		private final int localeIndex;
+		
+		private Match(Answer answer, AnswerName name, int localeIndex) {
+			this.answer = answer;
+			this.name = name;
+			this.localeIndex = localeIndex;
+		}
+		
+		/**
+		 * A name in an earlier search locale is better, then the preferred name, then the shorter one
+		 */
+		private boolean isBetterThan(Match other) {
+			if (localeIndex != other.localeIndex) {
+				return localeIndex < other.localeIndex;
+			}
+			if (name.preferred != other.name.preferred) {
+				return name.preferred;
+			}
+			return name.name.length() < other.name.name.length();
+		}
+	}
+	
+	/**
+	 * Finds the answers of a question that have a name in one of the search locales which matches the
+	 * text, i.e. each word of the text starts one of the words of the name. The answers are listed by
+	 * the first search locale their matching name is in, and then in their sort order.
+	 *
+	 * @param question the coded question
+	 * @param text the text typed so far, all answers match if it is blank
+	 * @param locales the search locales
+	 * @param includeDrugConcepts whether to list the answer drugs after their concepts
+	 * @return {@link ConceptListItem}s of the answer concepts and {@link ConceptDrugListItem}s of the
+	 *         answer drugs, or null if the index is switched off
+	 * @should find the answers having a name starting with the text
+	 * @should list the answer drugs after their concept
+	 * @should find answers by the names they were saved with
+	 * @should return null if the index is switched off
+	 * @should fail if the user cannot get concepts
+	 */
+	public static List<Object> findAnswers(Concept question, String text, List<Locale> locales,
+	        boolean includeDrugConcepts) {
+		if (!isEnabled()) {
+			return null;
+		}
+		Session session = DirectQueryUtil.getSession(PrivilegeConstants.GET_CONCEPTS);
+		String[] words = ConceptNameIndex.getWords(ConceptNameIndex.normalize(text));
+		List<Match> matches = new ArrayList<Match>();
+		for (Answer answer : getAnswers(question).answers) {
+			Match best = null;
+			for (AnswerName name : answer.names) {
+				int localeIndex = ConceptNameIndex.getSearchLocaleIndex(name.locale, locales);
+				if (localeIndex == locales.size() || !matches(name, words)) {
+					continue;
+				}
+				Match match = new Match(answer, name, localeIndex);
+				if (best == null || match.isBetterThan(best)) {
+					best = match;
+				}
+			}
+			if (best != null) {
+				matches.add(best);
+			}
+		}
+		matches.sort((match, other) -> Integer.compare(match.localeIndex, other.localeIndex));
+		
+		Set<Integer> conceptIds = new HashSet<Integer>();
+		Set<Integer> drugIds = new HashSet<Integer>();
+		for (Match match : matches) {
+			conceptIds.add(match.answer.conceptId);
+			if (includeDrugConcepts && match.answer.drugClass) {
+				drugIds.addAll(match.answer.drugIds);
+			}
+		}
+		Map<Integer, Concept> concepts = DirectQueryUtil.loadByIds(session, CONCEPTS_QUERY, conceptIds,
+		    Concept::getConceptId);
+		Map<Integer, Drug> drugs = DirectQueryUtil.loadByIds(session, DRUGS_QUERY, drugIds, Drug::getDrugId);
+		
+		List<Object> items = new ArrayList<Object>();
+		for (Match match : matches) {
+			Concept concept = concepts.get(match.answer.conceptId);
+			if (concept == null) {
+				continue;
+			}
+			ConceptName conceptName = concept.getName();
+			for (ConceptName name : concept.getNames()) {
+				if (match.name.nameId != null && match.name.nameId.equals(name.getConceptNameId())) {
+					conceptName = name;
+				}
+			}
+			items.add(new ConceptListItem(new ConceptSearchResult(text, concept, conceptName)));
+			if (includeDrugConcepts && match.answer.drugClass) {
+				for (Integer drugId : match.answer.drugIds) {
+					Drug drug = drugs.get(drugId);
+					if (drug != null) {
+						items.add(new ConceptDrugListItem(drug, Context.getLocale()));
+					}
+				}
+			}
+		}
+		return items;
+	}
+	
+	private static boolean matches(AnswerName name, String[] words) {
+		for (String word : words) {
+			if (!ConceptNameIndex.startsAnyOf(word, name.words)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static boolean isEnabled() {
+		if (enabled == null) {
+			enabled = Boolean.valueOf(Context.getAdministrationService().getGlobalProperty(
+			    LegacyUIConstants.GP_CONCEPT_ANSWER_INDEX, "false"));
+		}
+		return enabled;
+	}
+	
+	private static Answers getAnswers(Concept question) {
+		Answers answers;
+		synchronized (questions) {
+			answers = questions.get(question.getConceptId());
+		}
+		if (answers != null) {
+			statistics.hit();
+			return answers;
+		}
+		statistics.miss();
+		answers = new Answers(question);
+		synchronized (questions) {
+			questions.put(question.getConceptId(), answers);
+		}
+		return answers;
+	}
+	
+	/**
+	 * Drops the answers of all questions
+	 */
+	public static void clear() {
+		synchronized (questions) {
+			questions.clear();
+		}
+	}
+	
+	private static void dataChanged(Object changed) {
+		Integer conceptId = changed instanceof Concept ? ((Concept) changed).getConceptId() : null;
+		Integer drugId = changed instanceof Drug ? ((Drug) changed).getDrugId() : null;
+		if (conceptId == null && drugId == null) {
+			return;
+		}
+		synchronized (questions) {
+			questions.values().removeIf(answers -> {
+				boolean affected = answers.conceptIds.contains(conceptId) || answers.drugIds.contains(drugId);
+				if (affected) {
+					statistics.invalidated();
+				}
+				return affected;
+			});
+		}
+	}
+	
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#supportsPropertyName(java.lang.String)
+	 */
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return LegacyUIConstants.GP_CONCEPT_ANSWER_INDEX.equals(propertyName);
+	}
+	
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#globalPropertyChanged(org.openmrs.GlobalProperty)
+	 */
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		enabled = Boolean.valueOf(newValue.getPropertyValue());
+		if (!enabled) {
+			clear();
+		}
+	}
+	
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#globalPropertyDeleted(java.lang.String)
+	 */
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		enabled = false;
+		clear();
+	}
+	
+}
@@ -0,0 +1,627 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.ConceptDatatype;
+import org.openmrs.ConceptName;
+import org.openmrs.ConceptSearchResult;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.LegacyUIConstants;
+import org.openmrs.util.PrivilegeConstants;
+import org.openmrs.web.DirectQueryUtil;
+import org.openmrs.web.cache.CacheStatistics;
+import org.openmrs.web.cache.DataChangeAdvice;
+import org.openmrs.web.cache.DataChangeListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory index of the names of all concepts, which lets {@link DWRConceptService} answer the
+ * concept search widgets without querying the database for every keystroke and search locale. It
+ * is switched on with the {@link LegacyUIConstants#GP_CONCEPT_NAME_INDEX} global property.
+ * <p>
+ * A name matches a phrase if each word of the phrase is the beginning of one of the words of the
+ * name. The names are kept in flat arrays, along with the words of all names in sorted order, so the
+ * names that have a word starting with the first word of the phrase are found with a binary search.
+ * Unlike the concept service there is no stemming or fuzzy matching, and the matches are ranked by
+ * this class rather than by the search index of core, so results and their order can differ.
+ * <p>
+ * The index is built in the background with a single query the first time it is searched. Until it
+ * is ready the search methods return null and the callers fall back to the concept service.
+ * Concepts that are saved or retired afterwards are indexed again right away from the saved object
+ * (see {@link DataChangeAdvice}), purged concepts are dropped from the results and counts, and the
+ * whole index is rebuilt once many concepts have changed. A page of results is loaded with one
+ * query.
+ * <p>
+ * An instance of this class is registered as a global property listener so that switching the
+ * index on or off takes effect right away.
+ */
+public class ConceptNameIndex implements GlobalPropertyListener {
+	
+	private static final Logger log = LoggerFactory.getLogger(ConceptNameIndex.class);
+	
+	private static final int MAX_CHANGED_CONCEPTS = 500;
+	
+	private static final String NAMES_QUERY = "select c.conceptId, cn.conceptNameId, cn.name, cn.locale, "
+	        + "cc.conceptClassId, dt.conceptDatatypeId, c.retired from ConceptName cn join cn.concept c "
+	        + "left join c.conceptClass cc left join c.datatype dt where cn.voided = false";
+	
+	private static final String CONCEPTS_QUERY = "select distinct c from Concept c left join fetch c.names "
+	        + "where c.conceptId in (:ids)";
+	
+	private static volatile Boolean enabled;
+	
+	private static volatile Names names;
+	
+	// concepts changed since the index was built, with their current names
+	private static final Map<Integer, Change> changes = new ConcurrentHashMap<Integer, Change>();
+	
+	private static final AtomicBoolean building = new AtomicBoolean();
+	
+	private static final CacheStatistics statistics = CacheStatistics.register("conceptNameIndex", () -> {
+		Names current = names;
+		return current == null ? 0 : current.size();
+	});
+	
+	static {
+		DataChangeAdvice.addListener(new DataChangeListener() {
+			
+			@Override
+			public void dataChanged(Object changed) {
+				ConceptNameIndex.dataChanged(changed, false);
+			}
+			
+			@Override
+			public void dataPurged(Object purged) {
+				ConceptNameIndex.dataChanged(purged, true);
+			}
+		});
+	}
+	
+	/**
+	 * The names of a set of concepts, with the words of all names sorted
+	 */
+	private static class Names {
+		
+		private final int[] conceptIds;
+		
+		private final int[] nameIds;
+		
+		private final Locale[] locales;
+		
+		private final int[] classIds;
+		
+		private final int[] datatypeIds;
+		
+		private final BitSet retired;
+		
+		private final String[] names;
+		
+		private final String[] words;
+		
+		private final int[] wordNames;
+		
+		/**
+		 * @param rows the concept id, name id, name, locale, class id, datatype id and retired flag of
+		 *            each name
+		 */
+		private Names(List<Object[]> rows) {
+			int size = rows.size();
+			conceptIds = new int[size];
+			nameIds = new int[size];
+			locales = new Locale[size];
+			classIds = new int[size];
+			datatypeIds = new int[size];
+			retired = new BitSet(size);
+			names = new String[size];
+			
+			Map<Locale, Locale> sharedLocales = new HashMap<Locale, Locale>();
+			List<String> nameWords = new ArrayList<String>();
+			List<Integer> nameWordNames = new ArrayList<Integer>();
+			for (int i = 0; i < size; i++) {
+				Object[] row = rows.get(i);
+				conceptIds[i] = (Integer) row[0];
+				nameIds[i] = (Integer) row[1];
+				names[i] = normalize((String) row[2]);
+				Locale locale = (Locale) row[3];
+				Locale shared = sharedLocales.putIfAbsent(locale, locale);
+				locales[i] = shared != null ? shared : locale;
+				classIds[i] = row[4] != null ? (Integer) row[4] : -1;
+				datatypeIds[i] = row[5] != null ? (Integer) row[5] : -1;
+				retired.set(i, Boolean.TRUE.equals(row[6]));
+				for (String word : new LinkedHashSet<String>(Arrays.asList(getWords(names[i])))) {
+					nameWords.add(word);
+					nameWordNames.add(i);
+				}
+			}
+			
+			Integer[] order = new Integer[nameWords.size()];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, Comparator.comparing(nameWords::get));
+			words = new String[order.length];
+			wordNames = new int[order.length];
+			for (int i = 0; i < order.length; i++) {
+				words[i] = nameWords.get(order[i]);
+				wordNames[i] = nameWordNames.get(order[i]);
+			}
+		}
+		
+		private int size() {
+			return names.length;
+		}
+		
+		/**
+		 * Adds the best matching name of each concept whose names match the search to the given
+		 * matches
+		 */
+		private void collect(Search search, Set<Integer> skippedConceptIds, Map<Integer, Match> matches) {
+			String prefix = search.words[0];
+			int from = Arrays.binarySearch(words, prefix);
+			if (from < 0) {
+				from = -from - 1;
+			}
+			for (int w = from; w < words.length && words[w].startsWith(prefix); w++) {
+				int name = wordNames[w];
+				if (skippedConceptIds.contains(conceptIds[name]) || !search.accepts(this, name)) {
+					continue;
+				}
+				Match match = new Match(conceptIds[name], nameIds[name], names[name], search.getScore(this, name));
+				Match previous = matches.get(match.conceptId);
+				if (previous == null || Match.ORDER.compare(match, previous) < 0) {
+					matches.put(match.conceptId, match);
+				}
+			}
+		}
+	}
+	
+	private static class Change {
+		
+		private final long time;
+		
+		private final Names names;
+		
+		private Change(long time, Names names) {
+			this.time = time;
+			this.names = names;
+		}
+	}
+	
+	private static class Search {
+		
+		private final String phrase;
+		
+		private final String[] words;
+		
+		private final List<Locale> locales;
+		
+		private final boolean includeRetired;
+		
+		private final Set<Integer> requireClassIds = new HashSet<Integer>();
+		
+		private final Set<Integer> excludeClassIds = new HashSet<Integer>();
+		
+		private final Set<Integer> requireDatatypeIds = new HashSet<Integer>();
+		
+		private final Set<Integer> excludeDatatypeIds = new HashSet<Integer>();
+		
+		private Search(String phrase, List<Locale> locales, boolean includeRetired) {
+			this.phrase = normalize(phrase);
+			this.words = getWords(this.phrase);
+			this.locales = locales;
+			this.includeRetired = includeRetired;
+		}
+		
+		private boolean accepts(Names names, int name) {
+			if (names.retired.get(name) && !includeRetired) {
+				return false;
+			}
+			int classId = names.classIds[name];
+			int datatypeId = names.datatypeIds[name];
+			if ((!requireClassIds.isEmpty() && !requireClassIds.contains(classId)) || excludeClassIds.contains(classId)
+			        || (!requireDatatypeIds.isEmpty() && !requireDatatypeIds.contains(datatypeId))
+			        || excludeDatatypeIds.contains(datatypeId)) {
+				return false;
+			}
+			if (!isSearchedLocale(names.locales[name])) {
+				return false;
+			}
+			String[] nameWords = getWords(names.names[name]);
+			for (String word : words) {
+				if (!startsAnyOf(word, nameWords)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		private boolean isSearchedLocale(Locale locale) {
+			return getSearchLocaleIndex(locale, locales) < locales.size();
+		}
+		
+		/**
+		 * Names that are the phrase come first, then names that start with it, then names in the
+		 * first search locale
+		 */
+		private int getScore(Names names, int name) {
+			int score = 0;
+			if (names.names[name].equals(phrase)) {
+				score += 4;
+			}
+			if (names.names[name].startsWith(phrase)) {
+				score += 2;
+			}
+			if (!locales.isEmpty() && locales.get(0).equals(names.locales[name])) {
+				score += 1;
+			}
+			return score;
+		}
+	}
+	
+	private static class Match {
+		
+		private static final Comparator<Match> ORDER = Comparator.comparingInt((Match match) -> -match.score)
+		        .thenComparingInt(match -> match.name.length()).thenComparing(match -> match.name)
+		        .thenComparingInt(match -> match.conceptId);
+		
+		private final int conceptId;
+		
+		private final int nameId;
+		
+		private final String name;
+		
+		private final int score;
+		
+		private Match(int conceptId, int nameId, String name, int score) {
+			this.conceptId = conceptId;
+			this.nameId = nameId;
+			this.name = name;
+			this.score = score;
+		}
+	}
+	
+	/**
+	 * Searches the index like
+	 * {@link ConceptService#getConcepts(String, List, boolean, List, List, List, List, Concept, Integer, Integer)}
+	 *
+	 * @param phrase the words to search for
+	 * @param locales the locales of the names to search
+	 * @param includeRetired whether to include retired concepts
+	 * @param requireClasses only concepts of these classes if not empty
+	 * @param excludeClasses no concepts of these classes
+	 * @param requireDatatypes only concepts of these datatypes if not empty
+	 * @param excludeDatatypes no concepts of these datatypes
+	 * @param start the index of the first result to return
+	 * @param length the number of results to return, all if null
+	 * @return the best matching name of each matching concept, or null if the index is not ready
+	 * @should find concepts by the beginnings of the words of their names
+	 * @should only find concepts of the required datatypes
+	 * @should find concepts by the names they were saved with after the index was built
+	 * @should return null if the index is switched off
+	 * @should return the page of results in the order of the matches
+	 * @should fail if the user cannot get concepts
+	 */
+	public static List<ConceptSearchResult> getConcepts(String phrase, List<Locale> locales, boolean includeRetired,
+	        List<ConceptClass> requireClasses, List<ConceptClass> excludeClasses, List<ConceptDatatype> requireDatatypes,
+	        List<ConceptDatatype> excludeDatatypes, Integer start, Integer length) {
+		Session session = DirectQueryUtil.getSession(PrivilegeConstants.GET_CONCEPTS);
+		List<Match> matches = search(phrase, locales, includeRetired, requireClasses, excludeClasses, requireDatatypes,
+		    excludeDatatypes);
+		if (matches == null) {
+			return null;
+		}
+		int from = Math.min(start != null ? start : 0, matches.size());
+		int to = length != null ? Math.min(from + length, matches.size()) : matches.size();
+		
+		List<Match> page = matches.subList(from, to);
+		Map<Integer, Concept> concepts = loadConcepts(session, page);
+		List<ConceptSearchResult> results = new ArrayList<ConceptSearchResult>(page.size());
+		for (Match match : page) {
+			Concept concept = concepts.get(match.conceptId);
+			if (concept == null) {
+				// purged since it was indexed
+				continue;
+			}
+			ConceptName conceptName = null;
+			for (ConceptName name : concept.getNames()) {
+				if (Integer.valueOf(match.nameId).equals(name.getConceptNameId())) {
+					conceptName = name;
+				}
+			}
+			results.add(new ConceptSearchResult(phrase, concept, conceptName != null ? conceptName : concept.getName()));
+		}
+		return results;
+	}
+	
+	/**
+	 * Loads the concepts of the given matches together with their names in one query
+	 */
+	private static Map<Integer, Concept> loadConcepts(Session session, List<Match> matches) {
+		Set<Integer> conceptIds = new HashSet<Integer>();
+		for (Match match : matches) {
+			conceptIds.add(match.conceptId);
+		}
+		return DirectQueryUtil.loadByIds(session, CONCEPTS_QUERY, conceptIds, Concept::getConceptId);
+	}
+	
+	/**
+	 * Counts the concepts that
+	 * {@link #getConcepts(String, List, boolean, List, List, List, List, Integer, Integer)} finds
+	 *
+	 * @return the number of matching concepts, or null if the index is not ready
+	 * @should count the matching concepts
+	 * @should not count concepts purged after the index was built
+	 * @should fail if the user cannot get concepts
+	 */
+	public static Integer getCountOfConcepts(String phrase, List<Locale> locales, boolean includeRetired,
+	        List<ConceptClass> requireClasses, List<ConceptClass> excludeClasses, List<ConceptDatatype> requireDatatypes,
+	        List<ConceptDatatype> excludeDatatypes) {
+		Context.requirePrivilege(PrivilegeConstants.GET_CONCEPTS);
+		List<Match> matches = search(phrase, locales, includeRetired, requireClasses, excludeClasses, requireDatatypes,
+		    excludeDatatypes);
+		return matches == null ? null : matches.size();
+	}
+	
+	private static List<Match> search(String phrase, List<Locale> locales, boolean includeRetired,
+	        List<ConceptClass> requireClasses, List<ConceptClass> excludeClasses, List<ConceptDatatype> requireDatatypes,
+	        List<ConceptDatatype> excludeDatatypes) {
+		Names current = getNames();
+		if (current == null) {
+			statistics.miss();
+			return null;
+		}
+		statistics.hit();
+		Search search = new Search(phrase, locales, includeRetired);
+		if (search.words.length == 0) {
+			return Collections.emptyList();
+		}
+		addClassIds(search.requireClassIds, requireClasses);
+		addClassIds(search.excludeClassIds, excludeClasses);
+		addDatatypeIds(search.requireDatatypeIds, requireDatatypes);
+		addDatatypeIds(search.excludeDatatypeIds, excludeDatatypes);
+		
+		Map<Integer, Match> matches = new HashMap<Integer, Match>();
+		current.collect(search, changes.keySet(), matches);
+		for (Change change : changes.values()) {
+			change.names.collect(search, Collections.<Integer> emptySet(), matches);
+		}
+		List<Match> sorted = new ArrayList<Match>(matches.values());
+		sorted.sort(Match.ORDER);
+		return sorted;
+	}
+	
+	private static void addClassIds(Set<Integer> ids, Collection<ConceptClass> conceptClasses) {
+		if (conceptClasses != null) {
+			for (ConceptClass conceptClass : conceptClasses) {
+				if (conceptClass != null) {
+					ids.add(conceptClass.getConceptClassId());
+				}
+			}
+		}
+	}
+	
+	private static void addDatatypeIds(Set<Integer> ids, Collection<ConceptDatatype> datatypes) {
+		if (datatypes != null) {
+			for (ConceptDatatype datatype : datatypes) {
+				if (datatype != null) {
+					ids.add(datatype.getConceptDatatypeId());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Finds the first search locale that a name in the given locale matches. Names in one of the
+	 * locales or in their language match, e.g. an en name matches a search in en_GB and the other way
+	 * round.
+	 *
+	 * @param locale the locale of a name
+	 * @param locales the search locales
+	 * @return the index of the first matching search locale, or the number of search locales if none
+	 *         matches
+	 */
+	static int getSearchLocaleIndex(Locale locale, List<Locale> locales) {
+		if (locale != null) {
+			for (int i = 0; i < locales.size(); i++) {
+				Locale searchLocale = locales.get(i);
+				if (searchLocale.equals(locale)
+				        || (searchLocale.getLanguage().equals(locale.getLanguage()) && (StringUtils.isBlank(searchLocale
+				                .getCountry()) || StringUtils.isBlank(locale.getCountry())))) {
+					return i;
+				}
+			}
+		}
+		return locales.size();
+	}
+	
+	/**
+	 * @return the name in lower case without surrounding white space
+	 */
+	static String normalize(String name) {
+		return name == null ? "" : name.trim().toLowerCase();
+	}
+	
+	/**
+	 * @return the words of a normalized name or phrase
+	 */
+	static String[] getWords(String normalized) {
+		return StringUtils.isBlank(normalized) ? new String[0] : StringUtils.strip(
+		    normalized.replaceAll("[^\\p{L}\\p{N}]+", " ")).split(" ");
+	}
+	
+	/**
+	 * @return true if one of the words starts with the prefix
+	 */
+	static boolean startsAnyOf(String prefix, String[] words) {
+		for (String word : words) {
+			if (word.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static Names getNames() {
+		if (!isEnabled()) {
+			return null;
+		}
+		Names current = names;
+		if (current == null) {
+			startBuilding();
+		}
+		return current;
+	}
+	
+	private static boolean isEnabled() {
+		if (enabled == null) {
+			enabled = Boolean.valueOf(Context.getAdministrationService().getGlobalProperty(
+			    LegacyUIConstants.GP_CONCEPT_NAME_INDEX, "false"));
+		}
+		return enabled;
+	}
+	
+	private static void startBuilding() {
+		if (!building.compareAndSet(false, true)) {
+			return;
+		}
+		Thread thread = new Thread(() -> {
+			Context.openSession();
+			// the index is shared by all users, each search checks their privilege
+			Context.addProxyPrivilege(PrivilegeConstants.GET_CONCEPTS);
+			try {
+				build();
+			}
+			catch (RuntimeException ex) {
+				log.error("Failed to build the concept name index", ex);
+			}
+			finally {
+				Context.removeProxyPrivilege(PrivilegeConstants.GET_CONCEPTS);
+				Context.closeSession();
+				building.set(false);
+			}
+		}, "concept-name-index");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Builds the index from the names in the database, using the Hibernate session of the current
+	 * thread
+	 */
+	static void build() {
+		long started = System.currentTimeMillis();
+		List<Object[]> rows = new ArrayList<Object[]>();
+		ScrollableResults results = DirectQueryUtil.getSession(PrivilegeConstants.GET_CONCEPTS).createQuery(NAMES_QUERY)
+		        .setFetchSize(1000).scroll(ScrollMode.FORWARD_ONLY);
+		try {
+			while (results.next()) {
+				rows.add(results.get());
+			}
+		}
+		finally {
+			results.close();
+		}
+		
+		Names built = new Names(rows);
+		if (isEnabled()) {
+			names = built;
+			// changes made while the names were read are kept, they may not have been read
+			changes.values().removeIf(change -> change.time < started);
+			log.info("Indexed {} concept names in {} ms", built.size(), System.currentTimeMillis() - started);
+		}
+	}
+	
+	/**
+	 * Replaces the indexed names of a saved concept, a purged concept is replaced by no names
+	 */
+	private static void dataChanged(Object changed, boolean purged) {
+		if (!(changed instanceof Concept) || !Boolean.TRUE.equals(enabled)) {
+			return;
+		}
+		Concept concept = (Concept) changed;
+		if (concept.getConceptId() == null) {
+			return;
+		}
+		List<Object[]> rows = new ArrayList<Object[]>();
+		for (ConceptName name : purged ? Collections.<ConceptName> emptyList() : concept.getNames(false)) {
+			if (name.getConceptNameId() != null) {
+				rows.add(new Object[] { concept.getConceptId(), name.getConceptNameId(), name.getName(), name.getLocale(),
+				        concept.getConceptClass() != null ? concept.getConceptClass().getConceptClassId() : null,
+				        concept.getDatatype() != null ? concept.getDatatype().getConceptDatatypeId() : null,
+				        concept.getRetired() });
+			}
+		}
+		changes.put(concept.getConceptId(), new Change(System.currentTimeMillis(), new Names(rows)));
+		statistics.invalidated();
+		if (changes.size() > MAX_CHANGED_CONCEPTS && names != null) {
+			startBuilding();
+		}
+	}
+	
+	private static void clear() {
+		names = null;
+		changes.clear();
+	}
+	
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#supportsPropertyName(java.lang.String)
+	 */
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return LegacyUIConstants.GP_CONCEPT_NAME_INDEX.equals(propertyName);
+	}
+	
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#globalPropertyChanged(org.openmrs.GlobalProperty)
+	 */
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		enabled = Boolean.valueOf(newValue.getPropertyValue());
+		if (!enabled) {
+			clear();
+		}
+	}
+	
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#globalPropertyDeleted(java.lang.String)
+	 */
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		enabled = false;
+		clear();
+	}
+	
+}
@@ -11,6 +11,7 @@ package org.openmrs.web.dwr;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -43,6 +44,7 @@ import org.openmrs.messagesource.MessageSourceService;
 import org.openmrs.util.OpenmrsConstants;
 import org.openmrs.util.OpenmrsUtil;
 import org.openmrs.validator.ConceptReferenceTermValidator;
+import org.openmrs.web.cache.SearchResultCache;
 import org.springframework.validation.BindException;
 import org.springframework.validation.Errors;
 import org.springframework.validation.ObjectError;
@@ -54,6 +56,9 @@ public class DWRConceptService {
 	
     private static final Logger log = LoggerFactory.getLogger(DWRConceptService.class);
 	
+	private static final SearchResultCache searchResultCache = SearchResultCache.create("conceptSearch", Concept.class,
+	    ConceptName.class, Drug.class);
+	
 	/**
 	 * Gets a list of conceptListItems matching the given arguments
 	 * 
@@ -84,7 +89,9 @@ public class DWRConceptService {
 	 * @param excludeDatatypeNames List of ConceptDatatypes to leave out of results
 	 * @param start the beginning index
 	 * @param length the number of matching concepts to return
-	 * @return a list of conceptListItems matching the given arguments
+	 * @return a list of conceptListItems matching the given arguments, empty if the search was
+	 *         overtaken by a newer one
+	 * @see InFlightSearch
 	 * @should return concept by given id if exclude and include lists are empty
 	 * @should return concept by given id if classname is included
 	 * @should not return concept by given id if classname is not included
@@ -99,6 +106,18 @@ public class DWRConceptService {
 	public List<Object> findBatchOfConcepts(String phrase, boolean includeRetired, List<String> includeClassNames,
 	        List<String> excludeClassNames, List<String> includeDatatypeNames, List<String> excludeDatatypeNames,
 	        Integer start, Integer length) {
+		try (InFlightSearch search = InFlightSearch.begin("conceptSearch", phrase)) {
+			if (search.isCancelled()) {
+				return new ArrayList<Object>();
+			}
+			return searchBatchOfConcepts(phrase, includeRetired, includeClassNames, excludeClassNames,
+			    includeDatatypeNames, excludeDatatypeNames, start, length, search);
+		}
+	}
+	
+	private List<Object> searchBatchOfConcepts(String phrase, boolean includeRetired, List<String> includeClassNames,
+	        List<String> excludeClassNames, List<String> includeDatatypeNames, List<String> excludeDatatypeNames,
+	        Integer start, Integer length, InFlightSearch search) {
 		//TODO factor out the reusable code in this and findCountAndConcepts methods to a single utility method
 		// List to return
 		// Object type gives ability to return error strings
@@ -195,8 +214,17 @@ public class DWRConceptService {
 				}
 				
 				// perform the search
-				searchResults.addAll(cs.getConcepts(phrase, searchLocales, includeRetired, includeClasses, excludeClasses,
-				    includeDatatypes, excludeDatatypes, null, start, length));
+				if (search.isCancelled()) {
+					return new ArrayList<Object>();
+				}
+				List<ConceptSearchResult> indexedResults = ConceptNameIndex.getConcepts(phrase, searchLocales,
+				    includeRetired, includeClasses, excludeClasses, includeDatatypes, excludeDatatypes, start, length);
+				if (indexedResults != null) {
+					searchResults.addAll(indexedResults);
+				} else {
+					searchResults.addAll(cs.getConcepts(phrase, searchLocales, includeRetired, includeClasses,
+					    excludeClasses, includeDatatypes, excludeDatatypes, null, start, length));
+				}
 				
 				//TODO Should we still include drugs, if yes, smartly harmonize the paging between the two different DB tables
 				//look ups to match the values of start and length not to go over the value of count of matches returned to the search widget
@@ -213,6 +241,9 @@ public class DWRConceptService {
 				// turn searchResults into concept list items
 				// if user wants drug concepts included, append those
 				for (ConceptSearchResult searchResult : searchResults) {
+					if (search.isCancelled()) {
+						return new ArrayList<Object>();
+					}
 					objectList.add(new ConceptListItem(searchResult));
 				}
 			}
@@ -277,6 +308,7 @@ public class DWRConceptService {
 	 * @should not fail if the specified concept has no answers (regression test for TRUNK-2807)
 	 * @should search for concept answers in all search locales
 	 * @should not return duplicates
+	 * @should list the answers matching in the first search locale first
 	 */
 	public List<Object> findConceptAnswers(String text, Integer conceptId, boolean includeVoided, boolean includeDrugConcepts)
 	        throws Exception {
@@ -293,16 +325,17 @@ public class DWRConceptService {
 			throw new Exception("Unable to find a concept with id: " + conceptId);
 		}
 		
-		List<ConceptSearchResult> searchResults = new ArrayList<ConceptSearchResult>();
 		List<Locale> locales = Context.getAdministrationService().getSearchLocales();
-		
-		for (Locale lc : locales) {
-			List<ConceptSearchResult> results = cs.findConceptAnswers(text, lc, concept);
-			if (results != null) {
-				searchResults.addAll(results);
-			}
+		List<Object> indexedItems = ConceptAnswerIndex.findAnswers(concept, text, locales, includeDrugConcepts);
+		if (indexedItems != null) {
+			return indexedItems;
 		}
 		
+		// search all locales at once, in the order one search per locale would have found them
+		List<ConceptSearchResult> searchResults = new ArrayList<ConceptSearchResult>(cs.getConcepts(text, locales, false,
+		    null, null, null, null, concept, null, null));
+		searchResults.sort(Comparator.comparingInt(searchResult -> getSearchLocaleIndex(searchResult, locales)));
+		
 		List<Drug> drugAnswers = new ArrayList<Drug>();
 		for (ConceptAnswer conceptAnswer : concept.getAnswers(false)) {
 			if (conceptAnswer.getAnswerDrug() != null) {
@@ -334,6 +367,14 @@ public class DWRConceptService {
 		return items;
 	}
 	
+	/**
+	 * @return the index of the first search locale the name of the search result is found in
+	 */
+	private static int getSearchLocaleIndex(ConceptSearchResult searchResult, List<Locale> locales) {
+		return ConceptNameIndex.getSearchLocaleIndex(searchResult.getConceptName() != null ? searchResult
+		        .getConceptName().getLocale() : null, locales);
+	}
+	
 	public List<Object> getConceptSet(Integer conceptId) {
 		Locale locale = Context.getLocale();
 		ConceptService cs = Context.getConceptService();
@@ -521,10 +562,34 @@ public class DWRConceptService {
 	 * @return a map of results
 	 * @throws APIException
 	 * @since 1.8
+	 * @see InFlightSearch
+	 * @should reuse the results of the same search
+	 * @should search again after a concept is saved
 	 */
 	public Map<String, Object> findCountAndConcepts(String phrase, boolean includeRetired, List<String> includeClassNames,
 	        List<String> excludeClassNames, List<String> includeDatatypeNames, List<String> excludeDatatypeNames,
 	        Integer start, Integer length, boolean getMatchCount) throws APIException {
+		try (InFlightSearch search = InFlightSearch.begin("conceptSearch", phrase)) {
+			// the results also depend on the user's proficient locales
+			Map<String, Object> resultsMap = searchResultCache.get(
+			    () -> searchCountAndConcepts(phrase, includeRetired, includeClassNames, excludeClassNames,
+			        includeDatatypeNames, excludeDatatypeNames, start, length, getMatchCount, search), phrase,
+			    includeRetired, includeClassNames, excludeClassNames, includeDatatypeNames, excludeDatatypeNames, start,
+			    length, getMatchCount, Context.getAdministrationService().getSearchLocales());
+			return resultsMap != null ? resultsMap : InFlightSearch.getCancelledResults();
+		}
+	}
+	
+	/**
+	 * @return the results, or null if the search was cancelled
+	 */
+	private Map<String, Object> searchCountAndConcepts(String phrase, boolean includeRetired,
+	        List<String> includeClassNames, List<String> excludeClassNames, List<String> includeDatatypeNames,
+	        List<String> excludeDatatypeNames, Integer start, Integer length, boolean getMatchCount,
+	        InFlightSearch search) {
+		if (search.isCancelled()) {
+			return null;
+		}
 		//Map to return
 		Map<String, Object> resultsMap = new HashMap<String, Object>();
 		List<Object> objectList = new ArrayList<Object>();
@@ -593,8 +658,14 @@ public class DWRConceptService {
 				int matchCount = 0;
 				if (getMatchCount) {
 					//get the count of matches
-					matchCount += cs.getCountOfConcepts(phrase, searchLocales, includeRetired, includeClasses,
-					    excludeClasses, includeDatatypes, excludeDatatypes, null);
+					Integer indexedCount = ConceptNameIndex.getCountOfConcepts(phrase, searchLocales, includeRetired,
+					    includeClasses, excludeClasses, includeDatatypes, excludeDatatypes);
+					if (indexedCount != null) {
+						matchCount += indexedCount;
+					} else {
+						matchCount += cs.getCountOfConcepts(phrase, searchLocales, includeRetired, includeClasses,
+						    excludeClasses, includeDatatypes, excludeDatatypes, null);
+					}
 					if (phrase.matches("\\d+")) {
 						// user searched on a number. Insert concept with
 						// corresponding conceptId
@@ -611,9 +682,15 @@ public class DWRConceptService {
 				
 				//if we have any matches or this isn't the first ajax call when the caller
 				//requests for the count
+				if (search.isCancelled()) {
+					return null;
+				}
 				if (matchCount > 0 || !getMatchCount) {
-					objectList.addAll(findBatchOfConcepts(phrase, includeRetired, includeClassNames, excludeClassNames,
-					    includeDatatypeNames, excludeDatatypeNames, start, length));
+					objectList.addAll(searchBatchOfConcepts(phrase, includeRetired, includeClassNames, excludeClassNames,
+					    includeDatatypeNames, excludeDatatypeNames, start, length, search));
+					if (search.isCancelled()) {
+						return null;
+					}
 				}
 				
 				resultsMap.put("count", matchCount);
@@ -9,15 +9,21 @@
  */
 package org.openmrs.web.dwr;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
 import java.util.Vector;
 
+import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.openmrs.Concept;
@@ -30,6 +36,8 @@ import org.openmrs.api.ConceptService;
 import org.openmrs.api.FormService;
 import org.openmrs.api.context.Context;
 import org.openmrs.util.FormUtil;
+import org.openmrs.util.PrivilegeConstants;
+import org.openmrs.web.DirectQueryUtil;
 import org.openmrs.web.WebUtil;
 
 /**
@@ -111,12 +119,19 @@ public class DWRFormService {
 		return fields;
 	}
 	
+	/**
+	 * Finds the fields whose name matches the given text or whose concept has the given id or
+	 * matches the text, and the matching concepts that are not used by any field. The fields of all
+	 * these concepts and the number of forms of all the fields are read with one query each.
+	 *
+	 * @param txt a concept id or a partial name
+	 * @return a list of {@link FieldListItem}s, most used first, followed by {@link ConceptListItem}s
+	 * @should find the fields of the concepts matching the text
+	 * @should list a matching concept without fields as a concept
+	 */
 	public List<Object> findFieldsAndConcepts(String txt) {
 		Locale locale = Context.getLocale();
 		
-		// return list will contain ConceptListItems and FieldListItems.
-		List<Object> objects = new Vector<Object>();
-		
 		Concept concept = null;
 		try {
 			Integer i = Integer.valueOf(txt);
@@ -126,61 +141,101 @@ public class DWRFormService {
 			log.error("Error during getting concept", e);
 		}
 		
-		Map<Integer, Boolean> fieldForConceptAdded = new HashMap<Integer, Boolean>();
+		List<ConceptSearchResult> searchResults = Context.getConceptService().getConcepts(txt, locale, false);
+		List<Concept> concepts = new ArrayList<Concept>(searchResults.size() + 1);
+		if (concept != null) {
+			concepts.add(concept);
+		}
+		for (ConceptSearchResult searchResult : searchResults) {
+			concepts.add(searchResult.getConcept());
+		}
+		Map<Integer, List<Field>> fieldsByConcept = getFieldsByConcepts(concepts);
+		
+		// the fields found, in the order they were found, and the concepts listed or used by them
+		Map<Integer, Field> fields = new LinkedHashMap<Integer, Field>();
+		List<Object> conceptItems = new Vector<Object>();
+		Set<Integer> conceptsAdded = new HashSet<Integer>();
 		
 		if (concept != null) {
-			for (Field field : Context.getFormService().getFieldsByConcept(concept)) {
-				FieldListItem fli = new FieldListItem(field, locale);
-				if (!objects.contains(fli)) {
-					objects.add(fli);
-				}
-				fieldForConceptAdded.put(concept.getConceptId(), true);
-			}
-			if (!fieldForConceptAdded.containsKey((concept.getConceptId()))) {
+			List<Field> conceptFields = fieldsByConcept.get(concept.getConceptId());
+			if (conceptFields == null) {
 				ConceptName cn = concept.getName(locale);
-				objects.add(new ConceptListItem(concept, cn, locale));
-				fieldForConceptAdded.put(concept.getConceptId(), true);
+				conceptItems.add(new ConceptListItem(concept, cn, locale));
+			} else {
+				addFields(fields, conceptFields);
 			}
-			
+			conceptsAdded.add(concept.getConceptId());
 		}
 		
 		for (Field field : Context.getFormService().getFields(txt)) {
-			FieldListItem fi = new FieldListItem(field, locale);
-			if (!objects.contains(fi)) {
-				objects.add(fi);
-				concept = field.getConcept();
-				if (concept != null) {
-					fieldForConceptAdded.put(concept.getConceptId(), true);
-				}
+			if (fields.putIfAbsent(field.getFieldId(), field) == null && field.getConcept() != null) {
+				conceptsAdded.add(field.getConcept().getConceptId());
 			}
-			
 		}
 		
-		List<ConceptSearchResult> searchResults = Context.getConceptService().getConcepts(txt, locale, false);
 		for (ConceptSearchResult searchResult : searchResults) {
-			concept = searchResult.getConcept();
-			for (Field field : Context.getFormService().getFieldsByConcept(concept)) {
-				FieldListItem fli = new FieldListItem(field, locale);
-				if (!objects.contains(fli)) {
-					objects.add(fli);
-				}
-				fieldForConceptAdded.put(concept.getConceptId(), true);
-			}
-			if (!fieldForConceptAdded.containsKey((concept.getConceptId()))) {
-				objects.add(new ConceptListItem(searchResult));
-				fieldForConceptAdded.put(concept.getConceptId(), true);
+			Integer conceptId = searchResult.getConcept().getConceptId();
+			List<Field> conceptFields = fieldsByConcept.get(conceptId);
+			if (conceptFields != null) {
+				addFields(fields, conceptFields);
+				conceptsAdded.add(conceptId);
+			} else if (conceptsAdded.add(conceptId)) {
+				conceptItems.add(new ConceptListItem(searchResult));
 			}
 		}
 		
+		Map<Integer, Integer> formCounts = FieldUsageCounts.getFormCounts(fields.values());
+		List<Object> objects = new Vector<Object>(fields.size() + conceptItems.size());
+		for (Field field : fields.values()) {
+			Integer numForms = formCounts.get(field.getFieldId());
+			objects.add(new FieldListItem(field, locale, numForms == null ? 0 : numForms));
+		}
+		objects.addAll(conceptItems);
+		
 		Collections.sort(objects, new FieldConceptSort<Object>(locale));
 		
 		return objects;
 	}
 	
+	private void addFields(Map<Integer, Field> fields, List<Field> toAdd) {
+		for (Field field : toAdd) {
+			fields.putIfAbsent(field.getFieldId(), field);
+		}
+	}
+	
+	/**
+	 * Reads the fields of all the given concepts at once, which {@link FormService#getFieldsByConcept}
+	 * can only do for one concept at a time
+	 */
+	private Map<Integer, List<Field>> getFieldsByConcepts(List<Concept> concepts) {
+		Map<Integer, List<Field>> fieldsByConcept = new HashMap<Integer, List<Field>>();
+		Set<Integer> conceptIds = new LinkedHashSet<Integer>();
+		for (Concept concept : concepts) {
+			conceptIds.add(concept.getConceptId());
+		}
+		Session session = DirectQueryUtil.getSession(PrivilegeConstants.GET_FORMS);
+		for (Field field : DirectQueryUtil.<Field> listByIds(session,
+		    "from Field f where f.concept.conceptId in (:ids) order by f.fieldId", conceptIds)) {
+			fieldsByConcept.computeIfAbsent(field.getConcept().getConceptId(), id -> new ArrayList<Field>()).add(field);
+		}
+		return fieldsByConcept;
+	}
+	
 	public String getJSTree(Integer formId) {
 		Form form = Context.getFormService().getForm(formId);
 		Map<Integer, TreeSet<FormField>> formFields = FormUtil.getFormStructure(form);
-		return generateJSTree(formFields, 0, Context.getLocale());
+		
+		List<Field> fields = new ArrayList<Field>();
+		for (TreeSet<FormField> set : formFields.values()) {
+			for (FormField ff : set) {
+				fields.add(ff.getField());
+			}
+		}
+		Map<Integer, Integer> formCounts = FieldUsageCounts.getFormCounts(fields);
+		
+		StringBuilder s = new StringBuilder();
+		generateJSTree(s, formFields, 0, formCounts, Context.getLocale());
+		return s.toString();
 	}
 	
 	public Integer[] saveFormField(Integer fieldId, String name, String fieldDesc, Integer fieldTypeId, Integer conceptId,
@@ -260,23 +315,21 @@ public class DWRFormService {
 		}
 	}
 	
-	private String generateJSTree(Map<Integer, TreeSet<FormField>> formFields, Integer current, Locale locale) {
-		StringBuilder s = new StringBuilder("");
-		
+	private void generateJSTree(StringBuilder s, Map<Integer, TreeSet<FormField>> formFields, Integer current,
+	        Map<Integer, Integer> formCounts, Locale locale) {
 		if (formFields.containsKey(current)) {
 			TreeSet<FormField> set = formFields.get(current);
 			for (FormField ff : set) {
-				s.append(generateFormFieldJavascript(ff, locale));
+				generateFormFieldJavascript(s, ff, formCounts, locale);
 				if (formFields.containsKey(ff.getFormFieldId())) {
-					s.append(generateJSTree(formFields, ff.getFormFieldId(), locale));
+					generateJSTree(s, formFields, ff.getFormFieldId(), formCounts, locale);
 				}
 			}
 		}
-		
-		return s.toString();
 	}
 	
-	private String generateFormFieldJavascript(FormField ff, Locale locale) {
+	private void generateFormFieldJavascript(StringBuilder s, FormField ff, Map<Integer, Integer> formCounts,
+	        Locale locale) {
 		
 		String parent = "''";
 		if (ff.getParent() != null) {
@@ -305,26 +358,31 @@ public class DWRFormService {
 			log.debug("ff.getFormFieldId: {}", ff.getFormFieldId());
 		}
 		
-		List<Field> fields = new Vector<Field>();
-		fields.add(field);
-		
-		int size = Context.getFormService().getFormCount(null, null, null, null, null, null, fields);
-		
-		return "addNode(tree, {formFieldId: " + ff.getFormFieldId() + ", " + "parent: " + parent + ", " + "fieldId: "
-		        + field.getFieldId() + ", " + "fieldName: \"" + WebUtil.escapeQuotesAndNewlines(field.getName()) + "\", "
-		        + "description: \"" + WebUtil.escapeQuotesAndNewlines(field.getDescription()) + "\", " + "fieldType: "
-		        + field.getFieldType().getFieldTypeId() + ", " + "conceptId: " + concept.getConceptId() + ", "
-		        + "conceptName: \"" + WebUtil.escapeQuotesAndNewlines(conceptName.getName()) + "\", " + "tableName: \""
-		        + field.getTableName() + "\", " + "attributeName: \"" + field.getAttributeName() + "\", "
-		        + "defaultValue: \"" + WebUtil.escapeQuotesAndNewlines(field.getDefaultValue()) + "\", "
-		        + "selectMultiple: " + field.getSelectMultiple() + ", " + "isCodedDatatype: " + isCodedDatatype + ", "
-		        + "numForms: " + size + ", " + "isSet: " + isSet + ", " +
-
-		        "fieldNumber: " + ff.getFieldNumber() + ", " + "fieldPart: \""
-		        + (ff.getFieldPart() == null ? "" : WebUtil.escapeQuotesAndNewlines(ff.getFieldPart())) + "\", "
-		        + "pageNumber: " + ff.getPageNumber() + ", " + "minOccurs: " + ff.getMinOccurs() + ", " + "maxOccurs: "
-		        + ff.getMaxOccurs() + ", " + "isRequired: " + ff.isRequired() + ", " + "sortWeight: " + ff.getSortWeight()
-		        + "});";
+		Integer size = formCounts.get(field.getFieldId());
+		
+		s.append("addNode(tree, {formFieldId: ").append(ff.getFormFieldId()).append(", parent: ").append(parent)
+		        .append(", fieldId: ").append(field.getFieldId())
+		        .append(", fieldName: \"").append(WebUtil.escapeQuotesAndNewlines(field.getName()))
+		        .append("\", description: \"").append(WebUtil.escapeQuotesAndNewlines(field.getDescription()))
+		        .append("\", fieldType: ").append(field.getFieldType().getFieldTypeId())
+		        .append(", conceptId: ").append(concept.getConceptId())
+		        .append(", conceptName: \"").append(WebUtil.escapeQuotesAndNewlines(conceptName.getName()))
+		        .append("\", tableName: \"").append(field.getTableName())
+		        .append("\", attributeName: \"").append(field.getAttributeName())
+		        .append("\", defaultValue: \"").append(WebUtil.escapeQuotesAndNewlines(field.getDefaultValue()))
+		        .append("\", selectMultiple: ").append(field.getSelectMultiple())
+		        .append(", isCodedDatatype: ").append(isCodedDatatype)
+		        .append(", numForms: ").append(size == null ? 0 : size)
+		        .append(", isSet: ").append(isSet)
+		        .append(", fieldNumber: ").append(ff.getFieldNumber())
+		        .append(", fieldPart: \"")
+		        .append(ff.getFieldPart() == null ? "" : WebUtil.escapeQuotesAndNewlines(ff.getFieldPart()))
+		        .append("\", pageNumber: ").append(ff.getPageNumber())
+		        .append(", minOccurs: ").append(ff.getMinOccurs())
+		        .append(", maxOccurs: ").append(ff.getMaxOccurs())
+		        .append(", isRequired: ").append(ff.isRequired())
+		        .append(", sortWeight: ").append(ff.getSortWeight())
+		        .append("});");
 	}
 	
 	/**
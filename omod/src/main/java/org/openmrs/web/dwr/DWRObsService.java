@@ -11,8 +11,12 @@ package org.openmrs.web.dwr;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
 
@@ -269,6 +273,7 @@ public class DWRObsService {
 	 * @param conceptId
 	 * @param encounterId
 	 * @return list of obs items
+	 * @see #getCountAndObs(String, String, String, String, String, Integer, Integer, boolean)
 	 */
 	public Vector<ObsListItem> getObsByPatientConceptEncounter(String personId, String conceptId, String encounterId) {
 		log.debug("Started with: [{}] [{}] [{}]", personId, conceptId, encounterId);
@@ -329,6 +334,105 @@ public class DWRObsService {
 		return ret;
 	}
 	
+	/**
+	 * Returns a map with the number of matching obs under 'count' and the requested page of them,
+	 * newest first, under 'objectList'. Unlike
+	 * {@link #getObsByPatientConceptEncounter(String, String, String)} this only loads the obs that
+	 * are shown, so it stays fast for patients with many obs.
+	 *
+	 * @param personId the person whose obs to find
+	 * @param conceptId the concept of the obs, if it is a set the obs of its members are found too
+	 * @param encounterId the encounter whose obs to find, used when there is no person
+	 * @param fromDate the earliest obs date, in the user's date format
+	 * @param toDate the latest obs date, in the user's date format
+	 * @param start the beginning index
+	 * @param length the number of obs to return
+	 * @param getMatchCount specifies if the count of matches should be included in the returned map,
+	 *            it is never more than {@link ObsSearchQuery#MAX_COUNT}
+	 * @return a map of results
+	 * @should return the count and the requested page of the obs of the person
+	 * @should include the obs of the members of a concept set
+	 */
+	public Map<String, Object> getCountAndObs(String personId, String conceptId, String encounterId, String fromDate,
+	        String toDate, Integer start, Integer length, boolean getMatchCount) {
+		log.debug("Started with: [{}] [{}] [{}] [{}] [{}]", personId, conceptId, encounterId, fromDate, toDate);
+		
+		Map<String, Object> resultsMap = new HashMap<String, Object>();
+		List<ObsListItem> objectList = new ArrayList<ObsListItem>();
+		resultsMap.put("objectList", objectList);
+		
+		Person p = null;
+		Encounter e = null;
+		Integer pId = parseInteger(personId);
+		if (pId != null) {
+			p = Context.getPersonService().getPerson(pId);
+		}
+		if (p == null) {
+			Integer eId = parseInteger(encounterId);
+			if (eId != null) {
+				e = Context.getEncounterService().getEncounter(eId);
+			}
+		}
+		if (p == null && e == null) {
+			if (getMatchCount) {
+				resultsMap.put("count", 0);
+			}
+			return resultsMap;
+		}
+		
+		List<Integer> conceptIds = new ArrayList<Integer>();
+		if (p != null && conceptId != null) {
+			Concept c = Context.getConceptService().getConcept(conceptId);
+			if (c != null) {
+				conceptIds.add(c.getConceptId());
+				if (Boolean.TRUE.equals(c.getSet())) {
+					for (Concept member : Context.getConceptService().getConceptsByConceptSet(c)) {
+						conceptIds.add(member.getConceptId());
+					}
+				}
+			}
+		}
+		Integer searchPersonId = p == null ? null : p.getPersonId();
+		Integer searchEncounterId = e == null ? null : e.getEncounterId();
+		Date from = parseDate(fromDate);
+		Date to = parseDate(toDate);
+		
+		if (getMatchCount) {
+			resultsMap.put("count",
+			    ObsSearchQuery.getCountOfObs(searchPersonId, conceptIds, searchEncounterId, from, to));
+		}
+		for (Obs obs : ObsSearchQuery.getObs(searchPersonId, conceptIds, searchEncounterId, from, to, start, length)) {
+			objectList.add(new ObsListItem(obs, Context.getLocale()));
+		}
+		
+		return resultsMap;
+	}
+	
+	private Integer parseInteger(String value) {
+		try {
+			return Integer.valueOf(value);
+		}
+		catch (NumberFormatException nfe) {
+			return null;
+		}
+	}
+	
+	/**
+	 * @return the date, or null if the value is empty or not a valid date
+	 */
+	private Date parseDate(String value) {
+		if (value == null || value.trim().length() == 0) {
+			return null;
+		}
+		try {
+			return Context.getDateFormat().parse(value.trim());
+		}
+		catch (ParseException e) {
+			log.debug("Ignoring invalid date {}", value);
+			return null;
+		}
+	}
+	
 	/**
 	 * @param obsId
 	 * @return list item or null
@@ -26,7 +26,10 @@ import org.openmrs.Location;
 import org.openmrs.Patient;
 import org.openmrs.PatientIdentifier;
 import org.openmrs.PatientIdentifierType;
+import org.openmrs.Person;
 import org.openmrs.PersonAddress;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonName;
 import org.openmrs.api.APIAuthenticationException;
 import org.openmrs.api.APIException;
 import org.openmrs.api.ConceptService;
@@ -43,6 +46,7 @@ import org.openmrs.api.context.Context;
 import org.openmrs.patient.IdentifierValidator;
 import org.openmrs.patient.UnallowedIdentifierException;
 import org.openmrs.util.OpenmrsConstants;
+import org.openmrs.web.cache.SearchResultCache;
 
 /**
  * DWR patient methods. The methods in here are used in the webapp to get data from the database via
@@ -55,6 +59,9 @@ public class DWRPatientService implements GlobalPropertyListener {
     private static final Logger log = LoggerFactory.getLogger(DWRPatientService.class);
 	
 	private static Integer maximumResults;
+	
+	private static final SearchResultCache searchResultCache = SearchResultCache.create("patientSearch", Person.class,
+	    PersonName.class, PatientIdentifier.class, PersonAttribute.class);
 
 	/**
 	 * Search on the <code>searchValue</code>. If a number is in the search string, do an identifier
@@ -89,10 +96,22 @@ public class DWRPatientService implements GlobalPropertyListener {
 	 * @param includeVoided true/false whether or not to included voided patients
 	 * @param start The starting index for the results to return
 	 * @param length The number of results of return
-	 * @return Collection&lt;Object&gt; of PatientListItem or String
+	 * @return Collection&lt;Object&gt; of PatientListItem or String, empty if the search was overtaken
+	 *         by a newer one
 	 * @since 1.8
+	 * @see InFlightSearch
 	 */
 	public Collection<Object> findBatchOfPatients(String searchValue, boolean includeVoided, Integer start, Integer length) {
+		try (InFlightSearch search = InFlightSearch.begin("patientSearch", searchValue)) {
+			if (search.isCancelled()) {
+				return new Vector<Object>();
+			}
+			return searchBatchOfPatients(searchValue, includeVoided, start, length, search);
+		}
+	}
+	
+	private Collection<Object> searchBatchOfPatients(String searchValue, boolean includeVoided, Integer start,
+	        Integer length, InFlightSearch search) {
 		if (maximumResults == null) {
 			setMaximumResults(getMaximumSearchResults());
 		}
@@ -104,7 +123,7 @@ public class DWRPatientService implements GlobalPropertyListener {
 		List<Object> patientList = new Vector<Object>();
 		
 		PatientService ps = Context.getPatientService();
-		Collection<Patient> patients;
+		List<Patient> patients;
 		
 		try {
 			patients = ps.getPatients(searchValue, includeVoided, start, length);
@@ -114,9 +133,9 @@ public class DWRPatientService implements GlobalPropertyListener {
 			return patientList;
 		}
 		
-		patientList = new Vector<Object>(patients.size());
-		for (Patient p : patients) {
-			patientList.add(new PatientListItem(p, searchValue));
+		patientList = toListItems(patients, searchValue, search);
+		if (patientList == null) {
+			return new Vector<Object>();
 		}
 		//no results found and a number was in the search --
 		//should check whether the check digit is correct.
@@ -173,9 +192,57 @@ public class DWRPatientService implements GlobalPropertyListener {
 	 * @param getMatchCount Specifies if the count of matches should be included in the returned map
 	 * @return a map of results
 	 * @throws APIException
+	 * @see #findCountAndPatientsWithFallback(String, Integer, Integer, boolean, Boolean, boolean)
 	 */
 	public Map<String, Object> findCountAndPatientsWithVoided(String searchValue, Integer start, Integer length,
 	        boolean getMatchCount, Boolean includeVoided) throws APIException {
+		return findCountAndPatientsWithFallback(searchValue, start, length, getMatchCount, includeVoided, true);
+	}
+	
+	/**
+	 * Returns the same map of results as
+	 * {@link #findCountAndPatientsWithVoided(String, Integer, Integer, boolean, Boolean)} with as
+	 * few database round trips as possible. The first page is fetched with one extra patient, and
+	 * the matches are only counted separately if that extra patient exists, i.e. if they don't all
+	 * fit on the page.
+	 * <p>
+	 * If nothing matches a name search, the decapitated search (every word trimmed down to its first
+	 * three characters) is only tried if the caller asks for it with <code>fallbackSearch</code>.
+	 *
+	 * @param searchValue patient name or identifier
+	 * @param start the beginning index
+	 * @param length the number of matching patients to return
+	 * @param getMatchCount Specifies if the count of matches should be included in the returned map
+	 * @param includeVoided true/false whether or not to included voided patients
+	 * @param fallbackSearch whether to signal a decapitated search if nothing matches
+	 * @return a map of results, with no matches if the search was overtaken by a newer one
+	 * @throws APIException
+	 * @see InFlightSearch
+	 * @should count the matches without a count query if they fit on the first page
+	 * @should count all the matches if they do not fit on the first page
+	 * @should not signal for a new search if no fallback search is asked for
+	 * @should signal for a new search if a fallback search is asked for and the new search value has matches
+	 * @should reuse the results of the same search
+	 * @should search again after a patient is saved
+	 */
+	public Map<String, Object> findCountAndPatientsWithFallback(String searchValue, Integer start, Integer length,
+	        boolean getMatchCount, Boolean includeVoided, boolean fallbackSearch) throws APIException {
+		try (InFlightSearch search = InFlightSearch.begin("patientSearch", searchValue)) {
+			Map<String, Object> resultsMap = searchResultCache.get(
+			    () -> searchCountAndPatients(searchValue, start, length, getMatchCount, includeVoided, fallbackSearch,
+			        search), searchValue, start, length, getMatchCount, includeVoided, fallbackSearch);
+			return resultsMap != null ? resultsMap : InFlightSearch.getCancelledResults();
+		}
+	}
+	
+	/**
+	 * @return the results, or null if the search was cancelled
+	 */
+	private Map<String, Object> searchCountAndPatients(String searchValue, Integer start, Integer length,
+	        boolean getMatchCount, Boolean includeVoided, boolean fallbackSearch, InFlightSearch search) {
+		if (search.isCancelled()) {
+			return null;
+		}
 		
 		//Map to return
 		Map<String, Object> resultsMap = new HashMap<String, Object>();
@@ -186,29 +253,63 @@ public class DWRPatientService implements GlobalPropertyListener {
 		}
 		
 		try {
-			PatientService ps = Context.getPatientService();
 			int patientCount = 0;
-			//if this is the first call
-			if (getMatchCount) {
-				patientCount += ps.getCountOfPatients(searchValue, includeVoided);
+			
+			//if this isn't the first ajax call, the caller only wants the next batch
+			if (!getMatchCount) {
+				objectList = searchBatchOfPatients(searchValue, includeVoided, start, length, search);
+				if (search.isCancelled()) {
+					return null;
+				}
+			} else {
+				//ensure that count never exceeds this value because the API's service layer would never
+				//return more than it since it is limited in the DAO layer
+				if (maximumResults == null) {
+					setMaximumResults(getMaximumSearchResults());
+				}
+				if (length != null && length > maximumResults) {
+					length = maximumResults;
+				}
+				
+				PatientService ps = Context.getPatientService();
+				// the extra patient tells whether there are more matches than fit on the page
+				List<Patient> patients = ps.getPatients(searchValue, includeVoided, start, length == null ? null
+				        : length + 1);
+				boolean firstPage = start == null || start == 0;
+				if (search.isCancelled()) {
+					return null;
+				}
+				if (firstPage && (length == null || patients.size() <= length)) {
+					patientCount = patients.size();
+				} else {
+					patientCount = ps.getCountOfPatients(searchValue, includeVoided);
+				}
 				
-				// if there are no results found and a number was not in the
-				// search and this is the first call, then do a decapitated search: 
-				//trim each word down to the first three characters and search again				
-				if (patientCount == 0 && start == 0 && !searchValue.matches(".*\\d+.*")) {
-					String[] names = searchValue.split(" ");
-					StringBuilder newSearch = new StringBuilder("");
-					for (String name : names) {
-						if (name.length() > 3) {
-							name = name.substring(0, 3);
+				if (patientCount > maximumResults) {
+					patientCount = maximumResults;
+					log.debug("Limitng the size of matching patients to {}", maximumResults);
+				}
+				
+				if (length != null && patients.size() > length) {
+					patients = patients.subList(0, length);
+				}
+				objectList = toListItems(patients, searchValue, search);
+				if (objectList == null) {
+					return null;
+				}
+				
+				if (patientCount == 0) {
+					//no results found and a number was in the search --
+					//should check whether the check digit is correct.
+					if (searchValue.matches(".*\\d+.*")) {
+						String notification = getIdentifierValidationNotification(searchValue);
+						if (notification != null) {
+							resultsMap.put("notification", notification);
 						}
-						newSearch.append(" ").append(name);
-					}
-					
-					String newSearchStr = newSearch.toString().trim();
-					if (!newSearchStr.equals(searchValue)) {
-						int newPatientCount = ps.getCountOfPatients(newSearchStr);
-						if (newPatientCount > 0) {
+					} else if (fallbackSearch && firstPage && !search.isCancelled()) {
+						String newSearchStr = getDecapitatedSearchValue(searchValue);
+						if (!newSearchStr.equals(searchValue)
+						        && !ps.getPatients(newSearchStr, includeVoided, 0, 1).isEmpty()) {
 							// Send a signal to the core search widget to search again against newSearch
 							resultsMap.put("searchAgain", newSearchStr);
 							resultsMap.put("notification", Context.getMessageSourceService().getMessage(
@@ -217,68 +318,6 @@ public class DWRPatientService implements GlobalPropertyListener {
 						}
 					}
 				}
-
-				//no results found and a number was in the search --
-				//should check whether the check digit is correct.
-				else if (patientCount == 0 && searchValue.matches(".*\\d+.*")) {
-					
-					//Looks through all the patient identifier validators to see if this type of identifier
-					//is supported for any of them.  If it isn't, then no need to warn about a bad check
-					//digit.  If it does match, then if any of the validators validates the check digit
-					//successfully, then the user is notified that the identifier has been entered correctly.
-					//Otherwise, the user is notified that the identifier was entered incorrectly.
-					
-					Collection<IdentifierValidator> pivs = ps.getAllIdentifierValidators();
-					boolean shouldWarnUser = true;
-					boolean validCheckDigit = false;
-					boolean identifierMatchesValidationScheme = false;
-					
-					for (IdentifierValidator piv : pivs) {
-						try {
-							if (piv.isValid(searchValue)) {
-								shouldWarnUser = false;
-								validCheckDigit = true;
-							}
-							identifierMatchesValidationScheme = true;
-						}
-						catch (UnallowedIdentifierException e) {}
-					}
-					
-					if (identifierMatchesValidationScheme) {
-						if (shouldWarnUser) {
-							resultsMap.put("notification", "<b>"
-							        + Context.getMessageSourceService().getMessage("Patient.warning.inValidIdentifier")
-							        + "<b/>");
-						} else if (validCheckDigit) {
-							resultsMap.put("notification", "<b style=\"color:green;\">"
-							        + Context.getMessageSourceService().getMessage("Patient.message.validIdentifier")
-							        + "<b/>");
-						}
-					}
-				} else {
-					//ensure that count never exceeds this value because the API's service layer would never
-					//return more than it since it is limited in the DAO layer
-					if (maximumResults == null) {
-						setMaximumResults(getMaximumSearchResults());
-					}
-					if (length != null && length > maximumResults) {
-						length = maximumResults;
-					}
-					
-					if (patientCount > maximumResults) {
-						patientCount = maximumResults;
-						if (log.isDebugEnabled()) {
-							log.debug("Limitng the size of matching patients to {}", maximumResults);
-						}
-					}
-				}
-				
-			}
-			
-			//if we have any matches or this isn't the first ajax call when the caller
-			//requests for the count
-			if (patientCount > 0 || !getMatchCount) {
-				objectList = findBatchOfPatients(searchValue, includeVoided, start, length);
 			}
 			
 			resultsMap.put("count", patientCount);
@@ -294,6 +333,76 @@ public class DWRPatientService implements GlobalPropertyListener {
 		return resultsMap;
 	}
 	
+	/**
+	 * @return the list items of the patients, or null if the search was cancelled meanwhile
+	 * @see ListItemProjection
+	 */
+	private List<Object> toListItems(List<Patient> patients, String searchValue, InFlightSearch search) {
+		if (ListItemProjection.isEnabled()) {
+			return new Vector<Object>(ListItemProjection.createListItems(patients, searchValue));
+		}
+		List<Object> items = new Vector<Object>(patients.size());
+		for (Patient p : patients) {
+			if (search.isCancelled()) {
+				return null;
+			}
+			items.add(new PatientListItem(p, searchValue));
+		}
+		return items;
+	}
+	
+	/**
+	 * Trims each word of the search value down to its first three characters
+	 */
+	private String getDecapitatedSearchValue(String searchValue) {
+		String[] names = searchValue.split(" ");
+		StringBuilder newSearch = new StringBuilder("");
+		for (String name : names) {
+			if (name.length() > 3) {
+				name = name.substring(0, 3);
+			}
+			newSearch.append(" ").append(name);
+		}
+		return newSearch.toString().trim();
+	}
+	
+	/**
+	 * Looks through all the patient identifier validators to see if this type of identifier is
+	 * supported for any of them. If it isn't, then no need to warn about a bad check digit. If it
+	 * does match, then if any of the validators validates the check digit successfully, then the
+	 * user is notified that the identifier has been entered correctly. Otherwise, the user is
+	 * notified that the identifier was entered incorrectly.
+	 *
+	 * @return the notification for the user, or null if there is none
+	 */
+	private String getIdentifierValidationNotification(String searchValue) {
+		Collection<IdentifierValidator> pivs = Context.getPatientService().getAllIdentifierValidators();
+		boolean shouldWarnUser = true;
+		boolean validCheckDigit = false;
+		boolean identifierMatchesValidationScheme = false;
+		
+		for (IdentifierValidator piv : pivs) {
+			try {
+				if (piv.isValid(searchValue)) {
+					shouldWarnUser = false;
+					validCheckDigit = true;
+				}
+				identifierMatchesValidationScheme = true;
+			}
+			catch (UnallowedIdentifierException e) {}
+		}
+		
+		if (identifierMatchesValidationScheme) {
+			if (shouldWarnUser) {
+				return "<b>" + Context.getMessageSourceService().getMessage("Patient.warning.inValidIdentifier") + "<b/>";
+			} else if (validCheckDigit) {
+				return "<b style=\"color:green;\">"
+				        + Context.getMessageSourceService().getMessage("Patient.message.validIdentifier") + "<b/>";
+			}
+		}
+		return null;
+	}
+	
 	/**
 	 * Returns a map of results with the values as count of matches and a partial list of the
 	 * matching patients (depending on values of start and length parameters) while the keys are are
@@ -12,6 +12,7 @@ package org.openmrs.web.dwr;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -22,8 +23,8 @@ import java.util.Vector;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.openmrs.Patient;
 import org.openmrs.Person;
+import org.openmrs.PersonAttribute;
 import org.openmrs.PersonName;
 import org.openmrs.Role;
 import org.openmrs.User;
@@ -32,6 +33,7 @@ import org.openmrs.api.PatientService;
 import org.openmrs.api.PersonService;
 import org.openmrs.api.UserService;
 import org.openmrs.api.context.Context;
+import org.openmrs.web.cache.SearchResultCache;
 
 /**
  * DWR methods for ajaxy effects on {@link Person} objects.
@@ -40,6 +42,9 @@ public class DWRPersonService {
 	
     private static final Logger log = LoggerFactory.getLogger(DWRPersonService.class);
 	
+	private static final SearchResultCache searchResultCache = SearchResultCache.create("personSearch", Person.class,
+	    PersonName.class, PersonAttribute.class, User.class);
+	
 	/**
 	 * Searches for Person records that have a name similar to the given name, a birthdate that is
 	 * null or within a few years of the given birthdate, and a gender that matches. Note: this
@@ -94,10 +99,7 @@ public class DWRPersonService {
 		
 		Set<Person> persons = ps.getSimilarPeople(name, d, gender);
 		
-		personList = new Vector<Object>(persons.size());
-		for (Person p : persons) {
-			personList.add(PersonListItem.createBestMatch(p));
-		}
+		personList = new Vector<Object>(toListItems(persons));
 		
 		return personList;
 		
@@ -239,11 +241,14 @@ public class DWRPersonService {
 	 * @param includeRetired true/false whether to include the voided objects
 	 * @param roles if not null, restricts search to only users and only users with these roles
 	 * @param start the beginning index (this is only used for user search i.e of roles are
-	 *            specified)
+	 *            specified, or if the legacyui.search.pagedPersonSearch global property is on)
 	 * @param length the number of matching people to return (this is only used for user search i.e
-	 *            of roles are specified)
+	 *            of roles are specified, or if the legacyui.search.pagedPersonSearch global property
+	 *            is on)
 	 * @return list of persons that match the given searchPhrase. The PersonListItems
 	 * @since 1.8
+	 * @should return the requested page of people when no roles are given and paging is on
+	 * @should return every matching person when no roles are given and paging is off
 	 */
 	public Vector<Object> findBatchOfPeopleByRoles(String searchPhrase, boolean includeRetired, String roles, Integer start,
 	        Integer length) {
@@ -266,20 +271,20 @@ public class DWRPersonService {
 					personList.add(new UserListItem(u));
 				}
 				
+			} else if (PersonSearchQuery.isEnabled()) {
+				// if no roles were given, search for normal people, and patients by identifier if the
+				// query contains a number, one page at a time
+				personList.addAll(toListItems(PersonSearchQuery.getPeople(searchPhrase, includeVoided, start, length)));
 			} else {
 				//TODO add batch person look up to the API and use it here and FIX the javadocs
 				// if no roles were given, search for normal people
 				PersonService ps = Context.getPersonService();
-				for (Person p : ps.getPeople(searchPhrase, null, includeVoided)) {
-					personList.add(PersonListItem.createBestMatch(p));
-				}
+				personList.addAll(toListItems(ps.getPeople(searchPhrase, null, includeVoided)));
 				
 				// also search on patient identifier if the query contains a number
 				if (searchPhrase.matches(".*\\d+.*")) {
 					PatientService patientService = Context.getPatientService();
-					for (Patient p : patientService.getPatients(searchPhrase, null, null, false)) {
-						personList.add(PersonListItem.createBestMatch(p));
-					}
+					personList.addAll(toListItems(patientService.getPatients(searchPhrase, null, null, false)));
 				}
 				
 			}
@@ -292,6 +297,20 @@ public class DWRPersonService {
 		return personList;
 	}
 	
+	/**
+	 * @see ListItemProjection
+	 */
+	private List<PersonListItem> toListItems(Collection<? extends Person> people) {
+		if (ListItemProjection.isEnabled()) {
+			return ListItemProjection.createListItems(people, null);
+		}
+		List<PersonListItem> items = new Vector<PersonListItem>(people.size());
+		for (Person p : people) {
+			items.add(PersonListItem.createBestMatch(p));
+		}
+		return items;
+	}
+	
 	/**
 	 * Returns a map of results with the values as count of matches and a partial list of the
 	 * matching people (depending on values of start and length parameters) while the keys are are
@@ -307,9 +326,16 @@ public class DWRPersonService {
 	 * @return a map of results
 	 * @throws APIException
 	 * @since 1.8
+	 * @should reuse the results of the same search
 	 */
 	public Map<String, Object> findCountAndPeople(String phrase, boolean includeRetired, String roles, Integer start,
 	        Integer length, boolean getMatchCount) throws APIException {
+		return searchResultCache.get(() -> searchCountAndPeople(phrase, includeRetired, roles, start, length,
+		    getMatchCount), phrase, includeRetired, roles, start, length, getMatchCount);
+	}
+	
+	private Map<String, Object> searchCountAndPeople(String phrase, boolean includeRetired, String roles, Integer start,
+	        Integer length, boolean getMatchCount) {
 		
 		//Map to return
 		Map<String, Object> resultsMap = new HashMap<String, Object>();
@@ -328,6 +354,8 @@ public class DWRPersonService {
 					}
 					
 					personCount = us.getCountOfUsers(phrase, roleList, includeRetired);
+				} else if (PersonSearchQuery.isEnabled()) {
+					personCount = PersonSearchQuery.getCountOfPeople(phrase, includeRetired);
 				} else {
 					//TODO get the person count after adding the get count method for persons to the API
 					
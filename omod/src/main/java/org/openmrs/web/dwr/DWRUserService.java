@@ -10,10 +10,9 @@
 package org.openmrs.web.dwr;
 
 import java.util.Collection;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.Map;
 import java.util.Vector;
 
 import javax.servlet.http.HttpServletRequest;
@@ -97,24 +96,7 @@ public class DWRUserService {
 			userList.add("Please <a href='" + request.getContextPath() + "/logout'>log in</a> again.");
 		} else {
 			try {
-				UserService us = Context.getUserService();
-				Set<User> users = new TreeSet<User>(new UserComparator());
-				
-				if (roleStrings == null) {
-					roleStrings = new Vector<String>();
-				}
-				
-				List<Role> roles = new Vector<Role>();
-				for (String r : roleStrings) {
-					if (!"".equals(r)) {
-						Role role = us.getRole(r);
-						if (role != null) {
-							roles.add(role);
-						}
-					}
-				}
-				
-				users.addAll(us.getUsers(null, roles, includeVoided));
+				List<User> users = UserDirectory.getUsers(getRoles(roleStrings), includeVoided, null, null);
 				
 				userList = new Vector(users.size());
 				
@@ -131,6 +113,67 @@ public class DWRUserService {
 		return userList;
 	}
 	
+	/**
+	 * Returns a map with the number of users having any of the given roles under 'count' and the
+	 * requested page of those users, ordered by name, under 'objectList'. This lets the user pickers
+	 * fetch one page at a time instead of all users with {@link #getAllUsers(List, boolean)}.
+	 *
+	 * @param roleStrings list of role names to restrict to like '[Provider, Manager]'
+	 * @param includeVoided true/false to include retired users
+	 * @param start the beginning index
+	 * @param length the number of users to return
+	 * @return a map of results
+	 * @should return the count and the requested page of users
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, Object> getCountAndUsers(List<String> roleStrings, boolean includeVoided, Integer start,
+	        Integer length) {
+		
+		Map<String, Object> resultsMap = new HashMap<String, Object>();
+		Vector userList = new Vector();
+		int count = 0;
+		
+		if (!Context.isAuthenticated()) {
+			HttpServletRequest request = WebContextFactory.get().getHttpServletRequest();
+			userList.add("Your session has expired.");
+			userList.add("Please <a href='" + request.getContextPath() + "/logout'>log in</a> again.");
+		} else {
+			try {
+				List<Role> roles = getRoles(roleStrings);
+				count = UserDirectory.getCountOfUsers(roles, includeVoided);
+				for (User u : UserDirectory.getUsers(roles, includeVoided, start, length)) {
+					userList.add(new UserListItem(u));
+				}
+			}
+			catch (Exception e) {
+				log.error("Error while getting users", e);
+				userList.clear();
+				userList.add("Error while attempting to get users - " + e.getMessage());
+				count = 0;
+			}
+		}
+		
+		resultsMap.put("count", count);
+		resultsMap.put("objectList", userList);
+		return resultsMap;
+	}
+	
+	private List<Role> getRoles(List<String> roleStrings) {
+		List<Role> roles = new Vector<Role>();
+		if (roleStrings != null) {
+			UserService us = Context.getUserService();
+			for (String r : roleStrings) {
+				if (!"".equals(r)) {
+					Role role = us.getRole(r);
+					if (role != null) {
+						roles.add(role);
+					}
+				}
+			}
+		}
+		return roles;
+	}
+	
 	/**
 	 * Get the user identified by <code>userId</code>
 	 *
@@ -152,20 +195,4 @@ public class DWRUserService {
 		return user;
 	}
 	
-	/**
-	 * Determines the order of the user's in the user list
-	 */
-	private class UserComparator implements Comparator<User> {
-		
-		public int compare(User user1, User user2) {
-			
-			// compare on full name (and then on user id in case the names are identical) 
-			String name1 = "" + user1.getPersonName() + user1.getUserId();
-			String name2 = "" + user2.getPersonName() + user2.getUserId();
-			
-			return name1.compareTo(name2);
-		}
-		
-	}
-	
 }
@@ -56,6 +56,15 @@ public class FieldListItem {
 	}
 	
 	public FieldListItem(Field field, Locale locale) {
+		this(field, locale, field == null ? 0 : countForms(field));
+	}
+	
+	/**
+	 * @param field the field
+	 * @param locale the locale to show the concept name in
+	 * @param numForms the number of forms the field is used on, e.g. from {@link FieldUsageCounts}
+	 */
+	public FieldListItem(Field field, Locale locale, int numForms) {
 		
 		if (field != null) {
 			fieldId = field.getFieldId();
@@ -76,13 +85,17 @@ public class FieldListItem {
 			//	creator = field.getCreator().getFirstName() + " " + field.getCreator().getLastName();
 			//if (field.getChangedBy() != null)
 			//	changedBy = field.getChangedBy().getFirstName() + " " + field.getChangedBy().getLastName();
-			List<Field> fields = new Vector<Field>();
-			fields.add(field);
-			numForms = Context.getFormService().getForms(null, null, null, null, null, null, fields).size();
+			this.numForms = numForms;
 			defaultValue = field.getDefaultValue();
 		}
 	}
 	
+	private static int countForms(Field field) {
+		List<Field> fields = new Vector<Field>();
+		fields.add(field);
+		return Context.getFormService().getForms(null, null, null, null, null, null, fields).size();
+	}
+	
 	@Override
 	public boolean equals(Object obj) {
 		if (obj instanceof FieldListItem) {
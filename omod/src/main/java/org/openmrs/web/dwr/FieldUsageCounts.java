@@ -0,0 +1,167 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hibernate.Session;
+import org.openmrs.Field;
+import org.openmrs.Form;
+import org.openmrs.FormField;
+import org.openmrs.util.PrivilegeConstants;
+import org.openmrs.web.DirectQueryUtil;
+import org.openmrs.web.cache.CacheStatistics;
+import org.openmrs.web.cache.DataChangeAdvice;
+
+/**
+ * Keeps the number of forms each field is used on, which the form designer shows for every field of
+ * a form. The counts missing for a set of fields are read with one grouped query instead of one
+ * count query per field.
+ * <p>
+ * The count of a field is dropped when the field or one of its form fields is saved or deleted, and
+ * all counts are dropped when a form is (see {@link DataChangeAdvice}). Counts read while something
+ * was dropped are returned but not kept, as they may have been read before the change.
+ */
+public class FieldUsageCounts {
+	
+	private static final int MAX_FIELDS = 10000;
+	
+	private static final String COUNTS_QUERY = "select ff.field.fieldId, count(distinct ff.form.formId) "
+	        + "from FormField ff where ff.field.fieldId in (:ids) group by ff.field.fieldId";
+	
+	private static final Map<Integer, Integer> counts = new LinkedHashMap<Integer, Integer>(16, 0.75f, true) {
+		
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+			return size() > MAX_FIELDS;
+		}
+	};
+	
+	private static final AtomicInteger generation = new AtomicInteger();
+	
+	private static final CacheStatistics statistics = CacheStatistics.register("fieldUsageCounts", () -> {
+		synchronized (counts) {
+			return counts.size();
+		}
+	});
+	
+	static {
+		DataChangeAdvice.addListener(FieldUsageCounts::dataChanged);
+	}
+	
+	private FieldUsageCounts() {
+	}
+	
+	/**
+	 * @param field the field
+	 * @return the number of forms the field is used on
+	 */
+	public static int getFormCount(Field field) {
+		Integer count = getFormCounts(Collections.singletonList(field)).get(field.getFieldId());
+		return count == null ? 0 : count;
+	}
+	
+	/**
+	 * @param fields the fields to count the forms of
+	 * @return the number of forms each field is used on, by field id
+	 * @should count the forms each field is used on
+	 * @should count a field again after it was added to a form
+	 */
+	public static Map<Integer, Integer> getFormCounts(Collection<Field> fields) {
+		Map<Integer, Integer> formCounts = new HashMap<Integer, Integer>();
+		Set<Integer> missing = new LinkedHashSet<Integer>();
+		synchronized (counts) {
+			for (Field field : fields) {
+				Integer fieldId = field.getFieldId();
+				if (fieldId == null || formCounts.containsKey(fieldId)) {
+					continue;
+				}
+				Integer count = counts.get(fieldId);
+				if (count == null) {
+					if (missing.add(fieldId)) {
+						statistics.miss();
+					}
+				} else {
+					statistics.hit();
+					formCounts.put(fieldId, count);
+				}
+			}
+		}
+		if (missing.isEmpty()) {
+			return formCounts;
+		}
+		
+		int readGeneration = generation.get();
+		Map<Integer, Integer> read = new HashMap<Integer, Integer>();
+		for (Integer fieldId : missing) {
+			read.put(fieldId, 0);
+		}
+		Session session = DirectQueryUtil.getSession(PrivilegeConstants.GET_FORMS);
+		for (Object[] row : DirectQueryUtil.<Object[]> listByIds(session, COUNTS_QUERY, missing)) {
+			read.put((Integer) row[0], ((Number) row[1]).intValue());
+		}
+		synchronized (counts) {
+			if (readGeneration == generation.get()) {
+				counts.putAll(read);
+			}
+		}
+		formCounts.putAll(read);
+		return formCounts;
+	}
+	
+	/**
+	 * Drops all counts
+	 */
+	public static void clear() {
+		synchronized (counts) {
+			generation.incrementAndGet();
+			counts.clear();
+		}
+	}
+	
+	/**
+	 * @return the hit and miss counters of the counts
+	 */
+	public static CacheStatistics getStatistics() {
+		return statistics;
+	}
+	
+	private static void invalidate(Field field) {
+		if (field == null || field.getFieldId() == null) {
+			return;
+		}
+		synchronized (counts) {
+			generation.incrementAndGet();
+			if (counts.remove(field.getFieldId()) != null) {
+				statistics.invalidated();
+			}
+		}
+	}
+	
+	private static void dataChanged(Object changed) {
+		if (changed instanceof Field) {
+			invalidate((Field) changed);
+		} else if (changed instanceof FormField) {
+			invalidate(((FormField) changed).getField());
+		} else if (changed instanceof Form) {
+			clear();
+		}
+	}
+	
+}
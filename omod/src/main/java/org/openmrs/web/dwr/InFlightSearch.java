@@ -0,0 +1,269 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpSession;
+
+import org.directwebremoting.WebContext;
+import org.directwebremoting.WebContextFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.LegacyUIConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the searches that the search widgets of an http session are running. The widgets
+ * search again on every keystroke, so a fast typist leaves a trail of searches behind whose results
+ * nobody is waiting for anymore.
+ * <p>
+ * When a search widget starts a search for a different phrase, the search it started before is
+ * cancelled. The search methods check {@link #isCancelled()} between their queries and stop early,
+ * which frees the database connection for the search that matters. On top of that a session may
+ * only run {@link LegacyUIConstants#GP_SEARCH_MAX_CONCURRENT_PER_SESSION} searches at the same time.
+ * A search that finds no free slot waits up to {@link #SLOT_WAIT_MILLIS} for one. Searches keep
+ * their slot until they are closed, so the search that overtook another one usually gets its slot
+ * as soon as the overtaken search reaches its next check. If no slot frees up in time the search
+ * runs anyway without one, a search is never turned away just because the session is busy.
+ * <p>
+ * The searches are tracked in an attribute of the http session, so they go away with the session.
+ * The attribute does not carry them over when the session is persisted or replicated, a restored
+ * session starts without searches in flight.
+ * <p>
+ * The search of the current thread is available through {@link #current()}. Searches started while
+ * another one is running on the same thread, e.g. when a count method fetches the first batch, are
+ * part of that search.
+ */
+public class InFlightSearch implements AutoCloseable {
+	
+	private static final Logger log = LoggerFactory.getLogger(InFlightSearch.class);
+	
+	/**
+	 * How long a search waits for a free slot of its session before it runs without one
+	 */
+	public static final long SLOT_WAIT_MILLIS = 2000;
+	
+	private static final String SESSION_ATTRIBUTE = InFlightSearch.class.getName() + ".searches";
+	
+	private static final ThreadLocal<InFlightSearch> current = new ThreadLocal<InFlightSearch>();
+	
+	private final SessionSearches searches;
+	
+	private final String widget;
+	
+	private final String phrase;
+	
+	private volatile boolean cancelled = false;
+	
+	// guarded by searches
+	private boolean holdsSlot = false;
+	
+	private int depth = 1;
+	
+	private static class SessionSearches implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final int maxConcurrent;
+		
+		private transient int running = 0;
+		
+		private final transient Map<String, InFlightSearch> latest = new HashMap<String, InFlightSearch>();
+		
+		private SessionSearches(int maxConcurrent) {
+			this.maxConcurrent = maxConcurrent;
+		}
+		
+		private Object readResolve() {
+			// the searches ran in another jvm or before a restart, nobody is waiting for them here
+			return new SessionSearches(maxConcurrent);
+		}
+	}
+	
+	private InFlightSearch(SessionSearches searches, String widget, String phrase) {
+		this.searches = searches;
+		this.widget = widget;
+		this.phrase = phrase;
+	}
+	
+	/**
+	 * Starts a search of the search widget of the current DWR call. Outside of a DWR call the search
+	 * is not tracked and never cancelled.
+	 *
+	 * @param widget the kind of search, e.g. patientSearch
+	 * @param phrase what is searched for
+	 * @return the search, to be closed when it is done
+	 */
+	public static InFlightSearch begin(String widget, String phrase) {
+		InFlightSearch search = current.get();
+		if (search != null) {
+			search.depth++;
+			return search;
+		}
+		WebContext context = WebContextFactory.get();
+		if (context == null) {
+			search = new InFlightSearch(null, widget, phrase);
+		} else {
+			// every page has its own script session, so searches in other tabs are left alone
+			search = start(context.getSession(), context.getScriptSession().getId() + ":" + widget, phrase);
+		}
+		current.set(search);
+		return search;
+	}
+	
+	/**
+	 * Starts a search in the given session, cancelling the search the widget started before unless
+	 * it was for the same phrase. If the session has no free slot the search waits for one, see
+	 * {@link #SLOT_WAIT_MILLIS}.
+	 *
+	 * @param session the http session
+	 * @param widget identifies the search widget within the session
+	 * @param phrase what is searched for
+	 * @return the search, to be closed when it is done
+	 * @should cancel the previous search of the widget
+	 * @should not cancel the previous search of the widget if it is for the same phrase
+	 * @should not cancel the searches of other widgets
+	 * @should keep the slot of an overtaken search until it is closed
+	 * @should run a search without a slot if none frees up in time
+	 * @should stop waiting for a slot when the search is overtaken
+	 */
+	public static InFlightSearch start(HttpSession session, String widget, String phrase) {
+		return start(session, widget, phrase, SLOT_WAIT_MILLIS);
+	}
+	
+	static InFlightSearch start(HttpSession session, String widget, String phrase, long slotWaitMillis) {
+		SessionSearches searches = getSessionSearches(session);
+		InFlightSearch search = new InFlightSearch(searches, widget, phrase);
+		InFlightSearch previous;
+		synchronized (searches) {
+			previous = searches.latest.put(widget, search);
+		}
+		if (previous != null && !String.valueOf(phrase).equals(previous.phrase)) {
+			log.debug("Search for '{}' overtaken by a search for '{}'", previous.phrase, phrase);
+			previous.cancel();
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(slotWaitMillis);
+		synchronized (searches) {
+			while (searches.running >= searches.maxConcurrent && !search.cancelled) {
+				long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining <= 0) {
+					log.debug("No free search slot for '{}', running it without one", phrase);
+					return search;
+				}
+				try {
+					searches.wait(remaining);
+				}
+				catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					return search;
+				}
+			}
+			if (!search.cancelled) {
+				searches.running++;
+				search.holdsSlot = true;
+			}
+		}
+		return search;
+	}
+	
+	private static SessionSearches getSessionSearches(HttpSession session) {
+		// the container may hand out a different HttpSession object per request, so lock the class
+		synchronized (InFlightSearch.class) {
+			SessionSearches searches = (SessionSearches) session.getAttribute(SESSION_ATTRIBUTE);
+			if (searches == null) {
+				searches = new SessionSearches(getMaxConcurrent());
+				session.setAttribute(SESSION_ATTRIBUTE, searches);
+			}
+			return searches;
+		}
+	}
+	
+	/**
+	 * @return the search running on the current thread, or an untracked search if there is none
+	 */
+	public static InFlightSearch current() {
+		InFlightSearch search = current.get();
+		return search != null ? search : new InFlightSearch(null, null, null);
+	}
+	
+	/**
+	 * @return true if the search was overtaken by a newer one of its widget, its results are then
+	 *         not needed anymore
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	/**
+	 * Marks the search as cancelled, it stops at the next check. It keeps its slot until it is
+	 * closed, because its query may still be running until then.
+	 */
+	public void cancel() {
+		cancelled = true;
+		if (searches != null) {
+			synchronized (searches) {
+				// wakes the search up if it is still waiting for a slot
+				searches.notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * @return what the count methods return for a cancelled search. Only overtaken searches are
+	 *         cancelled, and the widget ignores the results of a search once a newer one started.
+	 */
+	public static Map<String, Object> getCancelledResults() {
+		Map<String, Object> resultsMap = new HashMap<String, Object>();
+		resultsMap.put("count", 0);
+		resultsMap.put("objectList", new Vector<Object>());
+		return resultsMap;
+	}
+	
+	/**
+	 * Frees the slot of the search
+	 */
+	@Override
+	public void close() {
+		if (--depth > 0) {
+			return;
+		}
+		if (current.get() == this) {
+			current.remove();
+		}
+		if (searches == null) {
+			return;
+		}
+		synchronized (searches) {
+			if (holdsSlot) {
+				holdsSlot = false;
+				searches.running--;
+				searches.notifyAll();
+			}
+			searches.latest.remove(widget, this);
+		}
+	}
+	
+	private static int getMaxConcurrent() {
+		String maxConcurrent = Context.getAdministrationService().getGlobalProperty(
+		    LegacyUIConstants.GP_SEARCH_MAX_CONCURRENT_PER_SESSION);
+		try {
+			return Math.max(1, Integer.parseInt(maxConcurrent.trim()));
+		}
+		catch (RuntimeException ex) {
+			return LegacyUIConstants.DEFAULT_SEARCH_MAX_CONCURRENT_PER_SESSION;
+		}
+	}
+	
+}
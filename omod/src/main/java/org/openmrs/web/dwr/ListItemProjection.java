@@ -0,0 +1,194 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Session;
+import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.Person;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.PersonName;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.LegacyUIConstants;
+import org.openmrs.util.PrivilegeConstants;
+import org.openmrs.web.DirectQueryUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds the {@link PersonListItem}s and {@link PatientListItem}s of a page of search results without
+ * initializing the names, identifiers and attributes of every person found. Those are read for the
+ * whole page with one query each, selecting only the columns the list items show, and copied onto
+ * lean stand-ins of the people that the list item constructors are then given. This is switched on
+ * with the {@link LegacyUIConstants#GP_SEARCH_LEAN_LIST_ITEMS} global property.
+ */
+public class ListItemProjection {
+	
+	private static final Logger log = LoggerFactory.getLogger(ListItemProjection.class);
+	
+	private static final String NAMES_QUERY = "select pn.person.personId, pn.personNameId, pn.preferred, pn.prefix, "
+	        + "pn.givenName, pn.middleName, pn.familyNamePrefix, pn.familyName, pn.familyName2, pn.familyNameSuffix, "
+	        + "pn.degree, pn.voided, pn.dateCreated from PersonName pn where pn.person.personId in (:ids)";
+	
+	private static final String IDENTIFIERS_QUERY = "select pi.patient.personId, pi.patientIdentifierId, pi.identifier, "
+	        + "pi.identifierType.patientIdentifierTypeId, pi.preferred, pi.voided, pi.dateCreated "
+	        + "from PatientIdentifier pi where pi.patient.personId in (:ids)";
+	
+	private static final String ATTRIBUTES_QUERY = "select pa.person.personId, pa.personAttributeId, pa.value, "
+	        + "pa.attributeType.personAttributeTypeId, pa.dateCreated "
+	        + "from PersonAttribute pa where pa.voided = false and pa.person.personId in (:ids)";
+	
+	private ListItemProjection() {
+	}
+	
+	/**
+	 * @return true if the search methods should build their list items with
+	 *         {@link #createListItems(Collection, String)}
+	 */
+	public static boolean isEnabled() {
+		return Boolean.valueOf(Context.getAdministrationService().getGlobalProperty(
+		    LegacyUIConstants.GP_SEARCH_LEAN_LIST_ITEMS, "false"));
+	}
+	
+	/**
+	 * Creates the same list items as {@link PersonListItem#createBestMatch(Person)} and
+	 * {@link PatientListItem#PatientListItem(Patient, String)} would, with three queries for all of
+	 * the people instead of up to three per person
+	 *
+	 * @param people the people found by a search
+	 * @param searchName the search phrase, used to pick the best matching name, or null
+	 * @return a {@link PatientListItem} for every patient and a {@link PersonListItem} for every
+	 *         other person, in the order of the people
+	 * @should create the same list items as the person and patient constructors
+	 * @should pick the name best matching the search name
+	 * @should fail if the user cannot get people
+	 */
+	public static List<PersonListItem> createListItems(Collection<? extends Person> people, String searchName) {
+		Map<Integer, Person> leanPeople = new LinkedHashMap<Integer, Person>();
+		List<Integer> patientIds = new ArrayList<Integer>();
+		for (Person person : people) {
+			Person lean = copyOf(person);
+			leanPeople.put(person.getPersonId(), lean);
+			if (lean instanceof Patient) {
+				patientIds.add(person.getPersonId());
+			}
+		}
+		
+		Session session = DirectQueryUtil.getSession(PrivilegeConstants.GET_PEOPLE);
+		try {
+			List<Integer> personIds = new ArrayList<Integer>(leanPeople.keySet());
+			for (Object[] row : DirectQueryUtil.<Object[]> listByIds(session, NAMES_QUERY, personIds)) {
+				addName(leanPeople.get(row[0]), row);
+			}
+			if (!patientIds.isEmpty()) {
+				Map<Integer, PatientIdentifierType> identifierTypes = new HashMap<Integer, PatientIdentifierType>();
+				for (PatientIdentifierType type : Context.getPatientService().getAllPatientIdentifierTypes(true)) {
+					identifierTypes.put(type.getPatientIdentifierTypeId(), type);
+				}
+				for (Object[] row : DirectQueryUtil.<Object[]> listByIds(session, IDENTIFIERS_QUERY, patientIds)) {
+					addIdentifier((Patient) leanPeople.get(row[0]), row, identifierTypes);
+				}
+			}
+			Map<Integer, PersonAttributeType> attributeTypes = new HashMap<Integer, PersonAttributeType>();
+			for (PersonAttributeType type : Context.getPersonService().getAllPersonAttributeTypes(true)) {
+				attributeTypes.put(type.getPersonAttributeTypeId(), type);
+			}
+			for (Object[] row : DirectQueryUtil.<Object[]> listByIds(session, ATTRIBUTES_QUERY, personIds)) {
+				addAttribute(leanPeople.get(row[0]), row, attributeTypes);
+			}
+		}
+		catch (RuntimeException ex) {
+			log.error("Failed to read the names, identifiers and attributes of the search results, "
+			        + "initializing them one by one instead", ex);
+			List<PersonListItem> items = new ArrayList<PersonListItem>();
+			for (Person person : people) {
+				items.add(person instanceof Patient ? new PatientListItem((Patient) person, searchName)
+				        : new PersonListItem(person, searchName));
+			}
+			return items;
+		}
+		
+		List<PersonListItem> items = new ArrayList<PersonListItem>(leanPeople.size());
+		for (Person lean : leanPeople.values()) {
+			items.add(lean instanceof Patient ? new PatientListItem((Patient) lean, searchName) : new PersonListItem(lean,
+			        searchName));
+		}
+		return items;
+	}
+	
+	/**
+	 * Copies the properties the list items show, but none of the collections
+	 */
+	private static Person copyOf(Person person) {
+		Person lean = person instanceof Patient ? new Patient(person.getPersonId()) : new Person(person.getPersonId());
+		lean.setUuid(person.getUuid());
+		lean.setGender(person.getGender());
+		lean.setBirthdate(person.getBirthdate());
+		lean.setBirthdateEstimated(person.getBirthdateEstimated());
+		lean.setDead(person.getDead());
+		lean.setDeathDate(person.getDeathDate());
+		lean.setDeathdateEstimated(person.getDeathdateEstimated());
+		lean.setPersonVoided(person.getPersonVoided());
+		return lean;
+	}
+	
+	private static void addName(Person person, Object[] row) {
+		PersonName name = new PersonName();
+		name.setPersonNameId((Integer) row[1]);
+		name.setPreferred((Boolean) row[2]);
+		name.setPrefix((String) row[3]);
+		name.setGivenName((String) row[4]);
+		name.setMiddleName((String) row[5]);
+		name.setFamilyNamePrefix((String) row[6]);
+		name.setFamilyName((String) row[7]);
+		name.setFamilyName2((String) row[8]);
+		name.setFamilyNameSuffix((String) row[9]);
+		name.setDegree((String) row[10]);
+		name.setVoided((Boolean) row[11]);
+		name.setDateCreated((Date) row[12]);
+		name.setPerson(person);
+		// not addName(), which drops names with the same content
+		person.getNames().add(name);
+	}
+	
+	private static void addIdentifier(Patient patient, Object[] row, Map<Integer, PatientIdentifierType> types) {
+		PatientIdentifier identifier = new PatientIdentifier();
+		identifier.setPatientIdentifierId((Integer) row[1]);
+		identifier.setIdentifier((String) row[2]);
+		identifier.setIdentifierType(types.get(row[3]));
+		identifier.setPreferred((Boolean) row[4]);
+		identifier.setVoided((Boolean) row[5]);
+		identifier.setDateCreated((Date) row[6]);
+		identifier.setPatient(patient);
+		patient.getIdentifiers().add(identifier);
+	}
+	
+	private static void addAttribute(Person person, Object[] row, Map<Integer, PersonAttributeType> types) {
+		PersonAttribute attribute = new PersonAttribute();
+		attribute.setPersonAttributeId((Integer) row[1]);
+		attribute.setValue((String) row[2]);
+		attribute.setAttributeType(types.get(row[3]));
+		attribute.setVoided(false);
+		attribute.setDateCreated((Date) row[4]);
+		attribute.setPerson(person);
+		person.getAttributes().add(attribute);
+	}
+	
+}
@@ -0,0 +1,130 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.lang3.time.DateUtils;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.openmrs.Obs;
+import org.openmrs.util.PrivilegeConstants;
+import org.openmrs.web.DirectQueryUtil;
+
+/**
+ * Pages through the non voided obs of a person or of an encounter for the obs search table of
+ * {@link DWRObsService}, so that only the rows on screen are loaded and converted rather than the
+ * whole history of a patient.
+ * <p>
+ * The obs can be restricted to a list of concepts and to a range of dates. Matches are ordered by
+ * date, newest first, and then by obs id so that pages do not overlap. Counting stops at
+ * {@link #MAX_COUNT}. Like the obs service, both methods require
+ * {@link PrivilegeConstants#GET_OBS}.
+ */
+public class ObsSearchQuery {
+	
+	/**
+	 * The largest number returned by {@link #getCountOfObs(Integer, Collection, Integer, Date, Date)}
+	 */
+	public static final int MAX_COUNT = 1000;
+	
+	private ObsSearchQuery() {
+	}
+	
+	/**
+	 * @param personId the person the obs belong to, or null
+	 * @param conceptIds the concepts of the obs, null or empty for any concept
+	 * @param encounterId the encounter the obs belong to, or null
+	 * @param fromDate the earliest obs date, or null
+	 * @param toDate the latest obs date, the whole day is included, or null
+	 * @param start the index of the first match to return, null for the first one
+	 * @param length the number of matches to return, null for all of them
+	 * @return the requested page of the matching obs
+	 * @should return the requested page of the obs of the person newest first
+	 * @should only return obs of the given concepts and dates
+	 * @should fail if the user cannot get obs
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Obs> getObs(Integer personId, Collection<Integer> conceptIds, Integer encounterId, Date fromDate,
+	        Date toDate, Integer start, Integer length) {
+		Session session = DirectQueryUtil.getSession(PrivilegeConstants.GET_OBS);
+		Query<?> query = createQuery(session, personId, conceptIds, encounterId, fromDate, toDate);
+		if (start != null && start > 0) {
+			query.setFirstResult(start);
+		}
+		if (length != null && length > 0) {
+			query.setMaxResults(length);
+		}
+		List<Integer> obsIds = (List<Integer>) query.list();
+		return DirectQueryUtil.loadInOrder(session, "from Obs o where o.obsId in (:ids)", obsIds, Obs::getObsId);
+	}
+	
+	/**
+	 * @param personId the person the obs belong to, or null
+	 * @param conceptIds the concepts of the obs, null or empty for any concept
+	 * @param encounterId the encounter the obs belong to, or null
+	 * @param fromDate the earliest obs date, or null
+	 * @param toDate the latest obs date, the whole day is included, or null
+	 * @return the number of matching obs, but no more than {@link #MAX_COUNT}
+	 * @should count the matching obs
+	 * @should fail if the user cannot get obs
+	 */
+	public static int getCountOfObs(Integer personId, Collection<Integer> conceptIds, Integer encounterId, Date fromDate,
+	        Date toDate) {
+		Session session = DirectQueryUtil.getSession(PrivilegeConstants.GET_OBS);
+		// reading up to MAX_COUNT ids lets the database stop early, where count(*) would visit every
+		// obs of a long history
+		return createQuery(session, personId, conceptIds, encounterId, fromDate, toDate).setMaxResults(MAX_COUNT)
+		        .list().size();
+	}
+	
+	private static Query<?> createQuery(Session session, Integer personId, Collection<Integer> conceptIds,
+	        Integer encounterId, Date fromDate, Date toDate) {
+		StringBuilder hql = new StringBuilder("select o.obsId from Obs o where o.voided = false");
+		if (personId != null) {
+			hql.append(" and o.person.personId = :personId");
+		}
+		if (conceptIds != null && !conceptIds.isEmpty()) {
+			hql.append(" and o.concept.conceptId in (:conceptIds)");
+		}
+		if (encounterId != null) {
+			hql.append(" and o.encounter.encounterId = :encounterId");
+		}
+		if (fromDate != null) {
+			hql.append(" and o.obsDatetime >= :fromDate");
+		}
+		if (toDate != null) {
+			hql.append(" and o.obsDatetime < :toDate");
+		}
+		hql.append(" order by o.obsDatetime desc, o.obsId desc");
+		
+		Query<?> query = session.createQuery(hql.toString());
+		if (personId != null) {
+			query.setParameter("personId", personId);
+		}
+		if (conceptIds != null && !conceptIds.isEmpty()) {
+			query.setParameterList("conceptIds", conceptIds);
+		}
+		if (encounterId != null) {
+			query.setParameter("encounterId", encounterId);
+		}
+		if (fromDate != null) {
+			query.setParameter("fromDate", fromDate);
+		}
+		if (toDate != null) {
+			query.setParameter("toDate", DateUtils.addDays(DateUtils.truncate(toDate, Calendar.DATE), 1));
+		}
+		return query;
+	}
+	
+}
@@ -0,0 +1,149 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.openmrs.Person;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.LegacyUIConstants;
+import org.openmrs.util.OpenmrsConstants;
+import org.openmrs.util.PrivilegeConstants;
+import org.openmrs.web.DirectQueryUtil;
+
+/**
+ * A paged alternative to the person search of {@link DWRPersonService}, which otherwise asks the
+ * person and patient services for every match and turns all of them into list items, however few
+ * the widget shows. It is switched on with the {@link LegacyUIConstants#GP_PAGED_PERSON_SEARCH}
+ * global property, because it does not match quite the way the services do.
+ * <p>
+ * A person matches when each word of the phrase is the start of the given, middle or one of the
+ * family names of one of their names. If the phrase contains a digit, patients with an identifier
+ * equal to the phrase match as well. Matches are ordered by person id so that pages do not
+ * overlap, and neither the pages nor the count go beyond the
+ * {@link OpenmrsConstants#GLOBAL_PROPERTY_PERSON_SEARCH_MAX_RESULTS} global property. A blank
+ * phrase matches nobody. The person service on the other hand honours the configured name matching
+ * mode and soundex, and the patient service also finds partial identifiers.
+ */
+public class PersonSearchQuery {
+	
+	private static final String NAME_PART_CONDITION = " and (lower(pn.givenName) like :{0} or lower(pn.middleName) like :{0}"
+	        + " or lower(pn.familyName) like :{0} or lower(pn.familyName2) like :{0})";
+	
+	private PersonSearchQuery() {
+	}
+	
+	/**
+	 * @return true if {@link DWRPersonService} should search people with this class
+	 */
+	public static boolean isEnabled() {
+		return Boolean.valueOf(Context.getAdministrationService().getGlobalProperty(
+		    LegacyUIConstants.GP_PAGED_PERSON_SEARCH, "false"));
+	}
+	
+	/**
+	 * @param phrase partial names or an identifier
+	 * @param includeVoided whether voided people and names should match
+	 * @param start the index of the first match to return, null for the first one
+	 * @param length the number of matches to return, null for as many as allowed
+	 * @return the requested page of the matching people
+	 * @should return the requested page of the matching people
+	 * @should match patients on their identifiers
+	 * @should return no people for a blank phrase
+	 * @should fail if the user cannot get people
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Person> getPeople(String phrase, boolean includeVoided, Integer start, Integer length) {
+		Session session = DirectQueryUtil.getSession(PrivilegeConstants.GET_PEOPLE);
+		if (StringUtils.isBlank(phrase)) {
+			return new ArrayList<Person>();
+		}
+		int maxResults = getMaximumSearchResults();
+		int first = start == null ? 0 : Math.max(start, 0);
+		if (first >= maxResults) {
+			return new ArrayList<Person>();
+		}
+		int max = maxResults - first;
+		if (length != null && length > 0) {
+			max = Math.min(length, max);
+		}
+		
+		List<Integer> personIds = (List<Integer>) createQuery(session, phrase, includeVoided).setFirstResult(first)
+		        .setMaxResults(max).list();
+		return DirectQueryUtil.loadInOrder(session, "from Person p where p.personId in (:ids)", personIds,
+		    Person::getPersonId);
+	}
+	
+	/**
+	 * @param phrase partial names or an identifier
+	 * @param includeVoided whether voided people and names should match
+	 * @return the number of matching people, but no more than the maximum number of search results
+	 * @should count the matching people up to the maximum number of search results
+	 * @should fail if the user cannot get people
+	 */
+	public static int getCountOfPeople(String phrase, boolean includeVoided) {
+		Session session = DirectQueryUtil.getSession(PrivilegeConstants.GET_PEOPLE);
+		if (StringUtils.isBlank(phrase)) {
+			return 0;
+		}
+		// the count stops at the maximum number of search results anyway, so a limited id query
+		// does instead of a count over every match
+		return createQuery(session, phrase, includeVoided).setMaxResults(getMaximumSearchResults()).list().size();
+	}
+	
+	private static Query<?> createQuery(Session session, String phrase, boolean includeVoided) {
+		String[] words = StringUtils.split(StringUtils.defaultString(phrase).toLowerCase());
+		boolean matchIdentifier = phrase != null && phrase.matches(".*\\d+.*");
+		
+		StringBuilder hql = new StringBuilder("select p.personId from Person p where ");
+		hql.append(includeVoided ? "1 = 1" : "p.personVoided = false");
+		if (words.length > 0) {
+			hql.append(" and (exists (select pn.personNameId from PersonName pn where pn.person = p");
+			if (!includeVoided) {
+				hql.append(" and pn.voided = false");
+			}
+			for (int i = 0; i < words.length; i++) {
+				hql.append(NAME_PART_CONDITION.replace("{0}", "word" + i));
+			}
+			hql.append(")");
+			if (matchIdentifier) {
+				hql.append(" or exists (select pi.patientIdentifierId from PatientIdentifier pi")
+				        .append(" where pi.patient.personId = p.personId and pi.voided = false and pi.identifier = :identifier)");
+			}
+			hql.append(")");
+		}
+		hql.append(" order by p.personId");
+		
+		Query<?> query = session.createQuery(hql.toString());
+		for (int i = 0; i < words.length; i++) {
+			query.setParameter("word" + i, words[i] + "%");
+		}
+		if (words.length > 0 && matchIdentifier) {
+			query.setParameter("identifier", phrase.trim());
+		}
+		return query;
+	}
+	
+	private static int getMaximumSearchResults() {
+		try {
+			return Integer.parseInt(Context.getAdministrationService().getGlobalProperty(
+			    OpenmrsConstants.GLOBAL_PROPERTY_PERSON_SEARCH_MAX_RESULTS,
+			    String.valueOf(OpenmrsConstants.GLOBAL_PROPERTY_PERSON_SEARCH_MAX_RESULTS_DEFAULT_VALUE)).trim());
+		}
+		catch (RuntimeException ex) {
+			return OpenmrsConstants.GLOBAL_PROPERTY_PERSON_SEARCH_MAX_RESULTS_DEFAULT_VALUE;
+		}
+	}
+	
+}
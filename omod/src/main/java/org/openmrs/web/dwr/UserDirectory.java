@@ -0,0 +1,286 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hibernate.Session;
+import org.openmrs.Person;
+import org.openmrs.PersonName;
+import org.openmrs.Role;
+import org.openmrs.User;
+import org.openmrs.util.PrivilegeConstants;
+import org.openmrs.web.DirectQueryUtil;
+import org.openmrs.web.cache.CacheStatistics;
+import org.openmrs.web.cache.DataChangeAdvice;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A sorted index of all user accounts that the user pickers page through, instead of loading and
+ * sorting every user each time a picker lists them. Users are ordered by their name and then by
+ * their user id, the order {@link DWRUserService#getAllUsers(List, boolean)} has always used.
+ * <p>
+ * The index only holds the user ids, names and role names, read with two projection queries, and
+ * for every role the positions of the users that have it, so filtering on roles does not need a
+ * query either. Only the users of the requested page are loaded. The index is dropped whenever a
+ * user, role, person or person name is changed through the core services (see
+ * {@link DataChangeAdvice}) and built again on the next request.
+ */
+public class UserDirectory {
+	
+	private static final Logger log = LoggerFactory.getLogger(UserDirectory.class);
+	
+	private static final String USERS_QUERY = "select u.userId, u.retired, pn.personNameId, pn.preferred, pn.prefix, "
+	        + "pn.givenName, pn.middleName, pn.familyNamePrefix, pn.familyName, pn.familyName2, pn.familyNameSuffix, "
+	        + "pn.degree from User u left join u.person p left join p.names pn with pn.voided = false";
+	
+	private static final String ROLES_QUERY = "select u.userId, r.role from User u join u.roles r";
+	
+	private static volatile Index index;
+	
+	private static final AtomicInteger generation = new AtomicInteger();
+	
+	private static final CacheStatistics statistics = CacheStatistics.register("userDirectory", () -> {
+		Index current = index;
+		return current == null ? 0 : current.userIds.length;
+	});
+	
+	static {
+		DataChangeAdvice.addListener(UserDirectory::dataChanged);
+	}
+	
+	private static class Index {
+		
+		private final int[] userIds;
+		
+		private final BitSet retired;
+		
+		private final Map<String, BitSet> usersByRole;
+		
+		private Index(int[] userIds, BitSet retired, Map<String, BitSet> usersByRole) {
+			this.userIds = userIds;
+			this.retired = retired;
+			this.usersByRole = usersByRole;
+		}
+	}
+	
+	private static class Entry implements Comparable<Entry> {
+		
+		private final Integer userId;
+		
+		private final boolean retired;
+		
+		private Integer personNameId;
+		
+		private boolean preferred;
+		
+		private String sortName;
+		
+		private Entry(Integer userId, boolean retired) {
+			this.userId = userId;
+			this.retired = retired;
+		}
+		
+		@Override
+		public int compareTo(Entry other) {
+			return sortName.compareTo(other.sortName);
+		}
+	}
+	
+	private UserDirectory() {
+	}
+	
+	/**
+	 * @param roles the roles of which the users must have at least one, all users if empty or null
+	 * @param includeRetired whether retired users should be counted
+	 * @return the number of users in the directory
+	 * @should count the users having any of the given roles
+	 * @should fail if the user cannot get users
+	 */
+	public static int getCountOfUsers(Collection<Role> roles, boolean includeRetired) {
+		Session session = DirectQueryUtil.getSession(PrivilegeConstants.GET_USERS);
+		return getPositions(getIndex(session), roles, includeRetired).cardinality();
+	}
+	
+	/**
+	 * @param roles the roles of which the users must have at least one, all users if empty or null
+	 * @param includeRetired whether retired users should be listed
+	 * @param start the index of the first user to return, null for the first one
+	 * @param length the number of users to return, null for all of them
+	 * @return the requested page of users, ordered by name
+	 * @should return the requested page of users ordered by name
+	 * @should include a user saved after the directory was built
+	 * @should include a user created through the user service after the directory was built
+	 * @should fail if the user cannot get users
+	 */
+	public static List<User> getUsers(Collection<Role> roles, boolean includeRetired, Integer start, Integer length) {
+		Session session = DirectQueryUtil.getSession(PrivilegeConstants.GET_USERS);
+		Index current = getIndex(session);
+		BitSet positions = getPositions(current, roles, includeRetired);
+		int skip = start == null ? 0 : Math.max(start, 0);
+		int max = length == null || length <= 0 ? Integer.MAX_VALUE : length;
+		
+		List<Integer> userIds = new ArrayList<Integer>();
+		for (int i = positions.nextSetBit(0); i >= 0 && userIds.size() < max; i = positions.nextSetBit(i + 1)) {
+			if (skip > 0) {
+				skip--;
+			} else {
+				userIds.add(current.userIds[i]);
+			}
+		}
+		return DirectQueryUtil.loadInOrder(session, "from User u where u.userId in (:ids)", userIds, User::getUserId);
+	}
+	
+	/**
+	 * Drops the index, it is built again when it is next needed
+	 */
+	public static void clear() {
+		generation.incrementAndGet();
+		index = null;
+	}
+	
+	/**
+	 * @return the hit and miss counters of the directory
+	 */
+	public static CacheStatistics getStatistics() {
+		return statistics;
+	}
+	
+	private static BitSet getPositions(Index current, Collection<Role> roles, boolean includeRetired) {
+		BitSet positions = new BitSet(current.userIds.length);
+		if (roles == null || roles.isEmpty()) {
+			positions.set(0, current.userIds.length);
+		} else {
+			for (Role role : roles) {
+				BitSet users = current.usersByRole.get(role.getRole());
+				if (users != null) {
+					positions.or(users);
+				}
+			}
+		}
+		if (!includeRetired) {
+			positions.andNot(current.retired);
+		}
+		return positions;
+	}
+	
+	private static Index getIndex(Session session) {
+		Index current = index;
+		if (current != null) {
+			statistics.hit();
+			return current;
+		}
+		synchronized (UserDirectory.class) {
+			current = index;
+			if (current != null) {
+				statistics.hit();
+				return current;
+			}
+			statistics.miss();
+			int builtGeneration = generation.get();
+			current = build(session);
+			// a change made while building may not be part of the index, so it is only used once
+			if (builtGeneration == generation.get()) {
+				index = current;
+			}
+			return current;
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static Index build(Session session) {
+		long started = System.currentTimeMillis();
+		
+		Map<Integer, Entry> entries = new HashMap<Integer, Entry>();
+		for (Object[] row : (List<Object[]>) session.createQuery(USERS_QUERY).list()) {
+			Integer userId = (Integer) row[0];
+			Entry entry = entries.get(userId);
+			if (entry == null) {
+				entry = new Entry(userId, Boolean.TRUE.equals(row[1]));
+				entries.put(userId, entry);
+			}
+			Integer personNameId = (Integer) row[2];
+			if (personNameId != null && isBetterName(entry, personNameId, Boolean.TRUE.equals(row[3]))) {
+				PersonName name = new PersonName();
+				name.setPrefix((String) row[4]);
+				name.setGivenName((String) row[5]);
+				name.setMiddleName((String) row[6]);
+				name.setFamilyNamePrefix((String) row[7]);
+				name.setFamilyName((String) row[8]);
+				name.setFamilyName2((String) row[9]);
+				name.setFamilyNameSuffix((String) row[10]);
+				name.setDegree((String) row[11]);
+				entry.personNameId = personNameId;
+				entry.preferred = Boolean.TRUE.equals(row[3]);
+				entry.sortName = name.toString();
+			}
+		}
+		
+		List<Entry> sorted = new ArrayList<Entry>(entries.values());
+		for (Entry entry : sorted) {
+			// the same order as comparing the string of the person name followed by the user id
+			entry.sortName = (entry.sortName == null ? "null" : entry.sortName) + entry.userId;
+		}
+		Collections.sort(sorted);
+		
+		int[] userIds = new int[sorted.size()];
+		BitSet retired = new BitSet(sorted.size());
+		Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+		for (int i = 0; i < userIds.length; i++) {
+			Entry entry = sorted.get(i);
+			userIds[i] = entry.userId;
+			retired.set(i, entry.retired);
+			positions.put(entry.userId, i);
+		}
+		
+		Map<String, BitSet> usersByRole = new HashMap<String, BitSet>();
+		for (Object[] row : (List<Object[]>) session.createQuery(ROLES_QUERY).list()) {
+			Integer position = positions.get(row[0]);
+			if (position != null) {
+				usersByRole.computeIfAbsent((String) row[1], role -> new BitSet(userIds.length)).set(position);
+			}
+		}
+		
+		log.debug("Built the user directory of {} users in {} ms", userIds.length, System.currentTimeMillis() - started);
+		return new Index(userIds, retired, usersByRole);
+	}
+	
+	/**
+	 * The name a user is listed under is their preferred name, or else the one added first
+	 */
+	private static boolean isBetterName(Entry entry, Integer personNameId, boolean preferred) {
+		if (entry.personNameId == null) {
+			return true;
+		}
+		if (preferred != entry.preferred) {
+			return preferred;
+		}
+		return personNameId < entry.personNameId;
+	}
+	
+	private static void dataChanged(Object changed) {
+		if (changed instanceof User || changed instanceof Role || changed instanceof Person
+		        || changed instanceof PersonName) {
+			if (index != null) {
+				statistics.invalidated();
+			}
+			clear();
+		}
+	}
+	
+}
@@ -0,0 +1,121 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of durations in milliseconds. The durations are counted in buckets whose
+ * bounds grow by a quarter each, so percentiles are accurate to within 25% while the histogram only
+ * takes a few hundred bytes whatever the number of recorded durations.
+ */
+public class LatencyHistogram {
+	
+	private static final long[] BUCKET_BOUNDS;
+	
+	static {
+		// 1 ms up to about 10 minutes
+		long[] bounds = new long[64];
+		int count = 0;
+		double bound = 1;
+		while (count < bounds.length && bound < 600000) {
+			long rounded = Math.round(bound);
+			if (count == 0 || rounded > bounds[count - 1]) {
+				bounds[count++] = rounded;
+			}
+			bound *= 1.25;
+		}
+		BUCKET_BOUNDS = new long[count];
+		System.arraycopy(bounds, 0, BUCKET_BOUNDS, 0, count);
+	}
+	
+	// the last bucket holds everything above the highest bound
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+	
+	private final AtomicLong count = new AtomicLong();
+	
+	private final AtomicLong total = new AtomicLong();
+	
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * @param millis the duration to record
+	 */
+	public void record(long millis) {
+		if (millis < 0) {
+			millis = 0;
+		}
+		buckets.incrementAndGet(getBucket(millis));
+		count.incrementAndGet();
+		total.addAndGet(millis);
+		long currentMax;
+		while (millis > (currentMax = max.get()) && !max.compareAndSet(currentMax, millis)) {
+			// another thread recorded a new maximum in between, try again
+		}
+	}
+	
+	private static int getBucket(long millis) {
+		int low = 0;
+		int high = BUCKET_BOUNDS.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (BUCKET_BOUNDS[middle] < millis) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+	
+	/**
+	 * @param percentile the percentile between 0 and 100
+	 * @return the upper bound of the bucket that contains the given percentile, never more than the
+	 *         longest recorded duration, 0 if nothing was recorded yet
+	 */
+	public long getPercentile(double percentile) {
+		long recorded = 0;
+		long[] counts = new long[buckets.length()];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = buckets.get(i);
+			recorded += counts[i];
+		}
+		if (recorded == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile / 100 * recorded);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank && counts[i] > 0) {
+				return i < BUCKET_BOUNDS.length ? Math.min(BUCKET_BOUNDS[i], getMax()) : getMax();
+			}
+		}
+		return getMax();
+	}
+	
+	public long getCount() {
+		return count.get();
+	}
+	
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * @return the average duration, 0 if nothing was recorded yet
+	 */
+	public long getMean() {
+		long recorded = getCount();
+		return recorded == 0 ? 0 : total.get() / recorded;
+	}
+	
+}
@@ -0,0 +1,114 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency and service call statistics of every portlet rendered since startup, or since the last
+ * {@link #reset()}. They are recorded by the portlet tag and listed on the portlet statistics page.
+ */
+public class PortletStatistics {
+	
+	private static final Map<String, PortletStatistics> portlets = new ConcurrentHashMap<String, PortletStatistics>();
+	
+	private final String portlet;
+	
+	private final LatencyHistogram latency = new LatencyHistogram();
+	
+	private final AtomicLong serviceCalls = new AtomicLong();
+	
+	private final AtomicLong maxServiceCalls = new AtomicLong();
+	
+	private PortletStatistics(String portlet) {
+		this.portlet = portlet;
+	}
+	
+	/**
+	 * Records one rendering of a portlet
+	 *
+	 * @param portlet the path of the portlet
+	 * @param millis how long the portlet took, including its controller and view
+	 * @param calls the number of service calls the portlet made
+	 */
+	public static void record(String portlet, long millis, int calls) {
+		PortletStatistics statistics = portlets.computeIfAbsent(portlet, PortletStatistics::new);
+		statistics.latency.record(millis);
+		statistics.serviceCalls.addAndGet(calls);
+		long currentMax;
+		while (calls > (currentMax = statistics.maxServiceCalls.get())
+		        && !statistics.maxServiceCalls.compareAndSet(currentMax, calls)) {
+			// another thread recorded a new maximum in between, try again
+		}
+	}
+	
+	/**
+	 * @return the statistics of all portlets, the slowest at the 95th percentile first
+	 */
+	public static List<PortletStatistics> getSlowest() {
+		List<PortletStatistics> slowest = new ArrayList<PortletStatistics>(portlets.values());
+		slowest.sort(Comparator.comparingLong(PortletStatistics::getP95).thenComparingLong(PortletStatistics::getMax)
+		        .reversed());
+		return slowest;
+	}
+	
+	/**
+	 * Forgets everything recorded so far
+	 */
+	public static void reset() {
+		portlets.clear();
+	}
+	
+	public String getPortlet() {
+		return portlet;
+	}
+	
+	public long getCount() {
+		return latency.getCount();
+	}
+	
+	public long getP50() {
+		return latency.getPercentile(50);
+	}
+	
+	public long getP95() {
+		return latency.getPercentile(95);
+	}
+	
+	public long getP99() {
+		return latency.getPercentile(99);
+	}
+	
+	public long getMax() {
+		return latency.getMax();
+	}
+	
+	public long getMean() {
+		return latency.getMean();
+	}
+	
+	/**
+	 * @return the average number of service calls per rendering
+	 */
+	public double getServiceCallsPerRender() {
+		long count = getCount();
+		return count == 0 ? 0 : (double) serviceCalls.get() / count;
+	}
+	
+	public long getMaxServiceCalls() {
+		return maxServiceCalls.get();
+	}
+	
+}
@@ -0,0 +1,88 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.metrics;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.aop.MethodBeforeAdvice;
+
+/**
+ * Advice around the core services (see the advice points in config.xml) that counts the service
+ * calls made by the current thread while a counter is bound to it. Counters nest, the calls counted
+ * by an inner counter are added to the outer one when it is unbound.
+ */
+public class ServiceCallAdvice implements MethodBeforeAdvice {
+	
+	private static final ThreadLocal<AtomicInteger> counter = new ThreadLocal<AtomicInteger>();
+	
+	/**
+	 * Starts counting the service calls of the current thread
+	 *
+	 * @return the counter that was bound before, to be passed to {@link #stopCounting(AtomicInteger)}
+	 */
+	public static AtomicInteger startCounting() {
+		AtomicInteger previous = counter.get();
+		counter.set(new AtomicInteger());
+		return previous;
+	}
+	
+	/**
+	 * Stops counting and binds the previous counter again
+	 *
+	 * @param previous the counter returned by {@link #startCounting()}
+	 * @return the number of service calls since counting started
+	 */
+	public static int stopCounting(AtomicInteger previous) {
+		AtomicInteger current = counter.get();
+		int calls = current == null ? 0 : current.get();
+		if (previous == null) {
+			counter.remove();
+		} else {
+			previous.addAndGet(calls);
+			counter.set(previous);
+		}
+		return calls;
+	}
+	
+	/**
+	 * @return the counter of the current thread, or null if its calls are not being counted
+	 */
+	public static AtomicInteger getCounter() {
+		return counter.get();
+	}
+	
+	/**
+	 * Counts the calls of the current thread with the given counter, used to count the calls made by
+	 * worker threads on behalf of another thread
+	 *
+	 * @param shared the counter to use, may be null
+	 */
+	public static void setCounter(AtomicInteger shared) {
+		if (shared == null) {
+			counter.remove();
+		} else {
+			counter.set(shared);
+		}
+	}
+	
+	/**
+	 * @see org.springframework.aop.MethodBeforeAdvice#before(java.lang.reflect.Method,
+	 *      java.lang.Object[], java.lang.Object)
+	 */
+	@Override
+	public void before(Method method, Object[] args, Object target) throws Throwable {
+		AtomicInteger current = counter.get();
+		if (current != null) {
+			current.incrementAndGet();
+		}
+	}
+	
+}
@@ -32,8 +32,18 @@ public abstract class AbstractGraphServlet extends HttpServlet {
 	
 	public static final String JPG_MIME_TYPE = "image/jpeg";
 	
+	/**
+	 * Renders the chart on the {@link GraphRenderingPool}, which answers with
+	 * <code>503 Service Unavailable</code> while too many charts are waiting.
+	 *
+	 * @see javax.servlet.http.HttpServlet#doGet(javax.servlet.http.HttpServletRequest,
+	 *      javax.servlet.http.HttpServletResponse)
+	 */
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		
+		GraphRenderingPool.getInstance().render(request, response, this::renderChart);
+	}
+	
+	private void renderChart(HttpServletRequest request, HttpServletResponse response) {
 		try {
 			// Set default values
 			Integer width = Integer.valueOf(500);
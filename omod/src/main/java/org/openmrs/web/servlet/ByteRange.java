@@ -0,0 +1,137 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.servlet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A range of bytes requested with an http <code>Range</code> header, see RFC 7233. Both ends are
+ * inclusive.
+ */
+public class ByteRange {
+	
+	/**
+	 * Requests with more ranges than this are answered with the whole content, so that a client
+	 * cannot make the server seek around a file thousands of times for a single request
+	 */
+	public static final int MAX_RANGES = 16;
+	
+	private final long start;
+	
+	private final long end;
+	
+	public ByteRange(long start, long end) {
+		this.start = start;
+		this.end = end;
+	}
+	
+	/**
+	 * Parses the value of a <code>Range</code> header
+	 *
+	 * @param header the value of the header, may be null
+	 * @param length the length of the content
+	 * @return the satisfiable ranges in the order they were requested, an empty list if none of them
+	 *         can be satisfied or null if the whole content should be sent because there is no header
+	 *         or it cannot be parsed
+	 * @should parse single and multiple ranges
+	 * @should limit ranges to the length of the content
+	 * @should return an empty list if no range can be satisfied
+	 * @should return null for missing or invalid headers
+	 */
+	public static List<ByteRange> parse(String header, long length) {
+		if (header == null || !header.startsWith("bytes=")) {
+			return null;
+		}
+		String[] specs = header.substring("bytes=".length()).split(",");
+		if (specs.length > MAX_RANGES) {
+			return null;
+		}
+		
+		List<ByteRange> ranges = new ArrayList<ByteRange>(specs.length);
+		for (String spec : specs) {
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+			if (dash < 0) {
+				return null;
+			}
+			try {
+				String first = spec.substring(0, dash).trim();
+				String last = spec.substring(dash + 1).trim();
+				if (first.isEmpty()) {
+					// a suffix range, the last n bytes
+					long suffixLength = Long.parseLong(last);
+					if (suffixLength < 0) {
+						return null;
+					}
+					if (suffixLength > 0 && length > 0) {
+						ranges.add(new ByteRange(Math.max(length - suffixLength, 0), length - 1));
+					}
+				} else {
+					long start = Long.parseLong(first);
+					long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+					if (start < 0 || end < start) {
+						return null;
+					}
+					if (start < length) {
+						ranges.add(new ByteRange(start, Math.min(end, length - 1)));
+					}
+				}
+			}
+			catch (NumberFormatException ex) {
+				return null;
+			}
+		}
+		return ranges;
+	}
+	
+	/**
+	 * @param ranges the ranges
+	 * @return true if the ranges can be read in one pass over the content, i.e. they are ordered and
+	 *         do not overlap
+	 */
+	public static boolean isAscending(List<ByteRange> ranges) {
+		for (int i = 1; i < ranges.size(); i++) {
+			if (ranges.get(i).start <= ranges.get(i - 1).end) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	public long getStart() {
+		return start;
+	}
+	
+	public long getEnd() {
+		return end;
+	}
+	
+	/**
+	 * @return the number of bytes in the range
+	 */
+	public long getLength() {
+		return end - start + 1;
+	}
+	
+	/**
+	 * @param length the length of the content
+	 * @return the value of the <code>Content-Range</code> header for this range
+	 */
+	public String toContentRange(long length) {
+		return "bytes " + start + "-" + end + "/" + length;
+	}
+	
+	@Override
+	public String toString() {
+		return start + "-" + end;
+	}
+	
+}
@@ -10,9 +10,19 @@
 package org.openmrs.web.servlet;
 
 import java.awt.image.RenderedImage;
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
 
 import javax.imageio.ImageIO;
 import javax.servlet.ServletException;
@@ -21,12 +31,19 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
+import org.apache.commons.io.IOUtils;
 import org.openmrs.Obs;
 import org.openmrs.api.context.Context;
 import org.openmrs.obs.ComplexData;
+import org.openmrs.obs.ComplexObsHandler;
 import org.openmrs.util.OpenmrsUtil;
 import org.openmrs.util.PrivilegeConstants;
+import org.openmrs.web.DirectQueryUtil;
 import org.openmrs.web.WebConstants;
+import org.openmrs.web.cache.ImageDerivativeCache;
+import org.openmrs.web.controller.observation.handler.ImageThumbnails;
+import org.openmrs.web.controller.observation.handler.WebHandlerUtils;
+import org.openmrs.web.controller.observation.handler.WebImageHandler;
 
 public class ComplexObsServlet extends HttpServlet {
 	
@@ -56,7 +73,38 @@ public class ComplexObsServlet extends HttpServlet {
 			return;
 		}
 		
-		Obs complexObs = Context.getObsService().getComplexObs(Integer.valueOf(obsId), view);
+		// validate against the stored file before the handler reads, and possibly decodes, it
+		Integer id = Integer.valueOf(obsId);
+		File original = getComplexDataFile(id);
+		long version = original == null ? 0 : original.lastModified();
+		String cacheKey = null;
+		if (version > 0) {
+			cacheKey = ImageDerivativeCache.getKey(id, view, version);
+			String etag = "\"" + cacheKey + "\"";
+			response.setHeader("ETag", etag);
+			response.setDateHeader("Last-Modified", version);
+			if (isNotModified(request, etag, version)) {
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+			
+			File cached = download == null ? ImageDerivativeCache.get(cacheKey) : null;
+			if (cached == null && download == null && WebImageHandler.THUMBNAIL_VIEW.equals(view)) {
+				cached = ImageThumbnails.getThumbnail(id, original);
+				if (cached == null) {
+					// the full image will have to do
+					response.sendRedirect(request.getContextPath() + "/moduleServlet/legacyui/complexObsServlet?obsId="
+					        + id + "&view=" + ComplexObsHandler.RAW_VIEW);
+					return;
+				}
+			}
+			if (cached != null) {
+				sendFile(request, response, cached, URLConnection.guessContentTypeFromName(cached.getName()));
+				return;
+			}
+		}
+		
+		Obs complexObs = Context.getObsService().getComplexObs(id, view);
 		ComplexData cd = complexObs.getComplexData();
 		Object data = cd.getData();
 		
@@ -71,16 +119,7 @@ public class ComplexObsServlet extends HttpServlet {
 			response.setHeader("Content-Type", mimeType);
 		}
 		
-		Long length = cd.getLength();
-		if (length != null) {
-			response.setHeader("Content-Length", String.valueOf(length));
-			response.setHeader("Accept-Ranges", "bytes");
-		}
-		
-		if (data instanceof byte[]) {
-			ByteArrayInputStream stream = new ByteArrayInputStream((byte[]) data);
-			OpenmrsUtil.copyFile(stream, response.getOutputStream());
-		} else if (RenderedImage.class.isAssignableFrom(data.getClass())) {
+		if (RenderedImage.class.isAssignableFrom(data.getClass())) {
 			RenderedImage img = (RenderedImage) data;
 			String[] parts = cd.getTitle().split("\\.");
 			String extension = "jpg"; // default extension
@@ -88,14 +127,174 @@ public class ComplexObsServlet extends HttpServlet {
 				extension = parts[parts.length - 1];
 			}
 			
-			ImageIO.write(img, extension, response.getOutputStream());
+			ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+			if (ImageIO.write(img, extension, encoded)) {
+				if (cacheKey != null) {
+					ImageDerivativeCache.put(cacheKey, extension, encoded.toByteArray());
+				}
+				sendContent(request, response, encoded.toByteArray(), null, null, mimeType);
+			}
+		} else if (data instanceof byte[]) {
+			sendContent(request, response, data, null, cd.getLength(), mimeType);
 		} else if (InputStream.class.isAssignableFrom(data.getClass())) {
 			InputStream stream = (InputStream) data;
-			OpenmrsUtil.copyFile(stream, response.getOutputStream());
-			stream.close();
+			try {
+				FileChannel channel = stream instanceof FileInputStream ? ((FileInputStream) stream).getChannel() : null;
+				sendContent(request, response, data, channel, cd.getLength(), mimeType);
+			}
+			finally {
+				stream.close();
+			}
 		} else {
 			throw new ServletException("Couldn't serialize complex obs data for obsId=" + obsId + " of type "
 			        + data.getClass());
 		}
 	}
+	
+	/**
+	 * @param request the request
+	 * @param etag the entity tag of the current content
+	 * @param lastModified the last modified time of the current content
+	 * @return true if the client's copy is current, based on the <code>If-None-Match</code> header or,
+	 *         if there is none, the <code>If-Modified-Since</code> header
+	 * @should compare the entity tags of the request with the current one
+	 * @should compare the modification date of the request if there are no entity tags
+	 */
+	boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+		if (request.getHeader("If-None-Match") != null) {
+			return EntityTags.matchesIfNoneMatch(request, etag);
+		}
+		long ifModifiedSince;
+		try {
+			ifModifiedSince = request.getDateHeader("If-Modified-Since");
+		}
+		catch (IllegalArgumentException ex) {
+			return false;
+		}
+		// http dates have no milliseconds
+		return ifModifiedSince >= 0 && ifModifiedSince >= lastModified / 1000 * 1000;
+	}
+	
+	private void sendFile(HttpServletRequest request, HttpServletResponse response, File file, String mimeType)
+	        throws IOException {
+		if (mimeType != null) {
+			response.setHeader("Content-Type", mimeType);
+		}
+		try (FileInputStream stream = new FileInputStream(file)) {
+			sendContent(request, response, stream, stream.getChannel(), null, mimeType);
+		}
+	}
+	
+	private File getComplexDataFile(Integer obsId) {
+		Object valueComplex = DirectQueryUtil.getSession(PrivilegeConstants.GET_OBS)
+		        .createQuery("select o.valueComplex from Obs o where o.obsId = :obsId").setParameter("obsId", obsId)
+		        .uniqueResult();
+		return valueComplex == null ? null : WebHandlerUtils.getComplexDataFile(valueComplex.toString());
+	}
+	
+	/**
+	 * Sends the whole content, or the ranges asked for in the <code>Range</code> header as a
+	 * <code>206 Partial Content</code> response. Multiple ranges are sent as
+	 * <code>multipart/byteranges</code>. Ranges are only supported when the length of the content is
+	 * known, and a plain stream can only serve ranges that are ordered and do not overlap; otherwise
+	 * the whole content is sent.
+	 *
+	 * @param data a byte array or an input stream
+	 * @param channel the channel of a file backed input stream, used to write straight from the file
+	 * @param length the length of the content, or null if unknown
+	 * @param mimeType the content type
+	 * @should send the whole content without a range header
+	 * @should send a single range as partial content
+	 * @should send multiple ranges as multipart byteranges
+	 * @should answer unsatisfiable ranges with status 416
+	 */
+	void sendContent(HttpServletRequest request, HttpServletResponse response, Object data, FileChannel channel,
+	        Long length, String mimeType) throws IOException {
+		if (data instanceof byte[]) {
+			length = (long) ((byte[]) data).length;
+		} else if (length == null && channel != null) {
+			length = channel.size();
+		}
+		
+		List<ByteRange> ranges = null;
+		if (length != null) {
+			response.setHeader("Accept-Ranges", "bytes");
+			ranges = ByteRange.parse(request.getHeader("Range"), length);
+			if (ranges != null && !(data instanceof byte[]) && channel == null && !ByteRange.isAscending(ranges)) {
+				// a plain stream can only be read forward
+				ranges = null;
+			}
+			String ifRange = request.getHeader("If-Range");
+			if (ranges != null && ifRange != null && !ifRange.equals(response.getHeader("ETag"))) {
+				// the client's partial copy is outdated
+				ranges = null;
+			}
+		}
+		
+		if (ranges == null) {
+			if (length != null) {
+				response.setHeader("Content-Length", String.valueOf(length));
+				write(data, channel, 0, new ByteRange(0, length - 1), response.getOutputStream());
+			} else {
+				OpenmrsUtil.copyFile((InputStream) data, response.getOutputStream());
+			}
+		} else if (ranges.isEmpty()) {
+			response.setHeader("Content-Range", "bytes */" + length);
+			response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+		} else if (ranges.size() == 1) {
+			ByteRange range = ranges.get(0);
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setHeader("Content-Range", range.toContentRange(length));
+			response.setHeader("Content-Length", String.valueOf(range.getLength()));
+			write(data, channel, 0, range, response.getOutputStream());
+		} else {
+			String boundary = UUID.randomUUID().toString();
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setHeader("Content-Type", "multipart/byteranges; boundary=" + boundary);
+			OutputStream out = response.getOutputStream();
+			long position = 0;
+			for (ByteRange range : ranges) {
+				StringBuilder partHeader = new StringBuilder("\r\n--").append(boundary).append("\r\n");
+				if (mimeType != null) {
+					partHeader.append("Content-Type: ").append(mimeType).append("\r\n");
+				}
+				partHeader.append("Content-Range: ").append(range.toContentRange(length)).append("\r\n\r\n");
+				out.write(partHeader.toString().getBytes(StandardCharsets.US_ASCII));
+				position = write(data, channel, position, range, out);
+			}
+			out.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+		}
+	}
+	
+	/**
+	 * Writes a range of the content
+	 *
+	 * @param position how far a plain stream has already been read
+	 * @return how far a plain stream has been read after writing the range
+	 */
+	private long write(Object data, FileChannel channel, long position, ByteRange range, OutputStream out)
+	        throws IOException {
+		if (data instanceof byte[]) {
+			out.write((byte[]) data, (int) range.getStart(), (int) range.getLength());
+			return position;
+		}
+		if (channel != null) {
+			// read from the offset of the range without reading the bytes before it, the target is not a
+			// file or socket channel so the bytes are still copied through a buffer and a byte array
+			WritableByteChannel target = Channels.newChannel(out);
+			long start = range.getStart();
+			long remaining = range.getLength();
+			while (remaining > 0) {
+				long written = channel.transferTo(start, remaining, target);
+				if (written <= 0) {
+					break;
+				}
+				start += written;
+				remaining -= written;
+			}
+			return position;
+		}
+		IOUtils.copyLarge((InputStream) data, out, range.getStart() - position, range.getLength());
+		return range.getEnd() + 1;
+	}
 }
@@ -0,0 +1,42 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.servlet;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Compares the entity tags of a conditional request with the current one, see RFC 7232
+ */
+public class EntityTags {
+	
+	private EntityTags() {
+	}
+	
+	/**
+	 * @param request the request
+	 * @param etag the quoted entity tag of the current content
+	 * @return true if the <code>If-None-Match</code> header of the request is <code>*</code> or lists
+	 *         the entity tag, weak or not, false if it does not or if there is no such header
+	 */
+	public static boolean matchesIfNoneMatch(HttpServletRequest request, String etag) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+}
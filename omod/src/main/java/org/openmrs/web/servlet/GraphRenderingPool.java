@@ -0,0 +1,620 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.web.metrics.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Renders the charts of the graph servlets on a small pool of worker threads, so that many
+ * dashboards refreshing at once cannot take every CPU and every container thread. Requests go
+ * asynchronous while their chart waits in the queue and is rendered by a worker. If the container
+ * does not allow that the chart is rendered on the request thread, but only once one of the same
+ * limited number of permits is free. Once the queue is full further requests are answered right
+ * away with <code>503 Service Unavailable</code> and a <code>Retry-After</code> header.
+ * <p>
+ * A chart rendered by a worker is written into a buffer, with the parameters and headers of the
+ * request copied beforehand. Only if the request has not timed out in the meantime is the buffer
+ * copied to the response, because after the timeout the container may already use the request and
+ * response objects for another request.
+ * <p>
+ * The queue depth, the time charts wait and the time they take to render are listed on the system
+ * information page.
+ */
+public class GraphRenderingPool {
+	
+	private static final Logger log = LoggerFactory.getLogger(GraphRenderingPool.class);
+	
+	/**
+	 * The number of seconds a rejected client is asked to wait before trying again
+	 */
+	public static final int RETRY_AFTER = 2;
+	
+	private static final long TIMEOUT = 60000;
+	
+	private static final GraphRenderingPool instance = new GraphRenderingPool(Math.max(1, Runtime.getRuntime()
+	        .availableProcessors() / 2), 32);
+	
+	private final int poolSize;
+	
+	private final int queueCapacity;
+	
+	private ThreadPoolExecutor executor;
+	
+	private final LatencyHistogram waitTime = new LatencyHistogram();
+	
+	private final LatencyHistogram renderTime = new LatencyHistogram();
+	
+	private final AtomicLong rejected = new AtomicLong();
+	
+	private final Semaphore permits;
+	
+	private final AtomicInteger waiting = new AtomicInteger();
+	
+	/**
+	 * Renders a chart
+	 */
+	public interface Renderer {
+		
+		/**
+		 * Renders the chart for the request and writes it to the response
+		 */
+		void render(HttpServletRequest request, HttpServletResponse response) throws Exception;
+	}
+	
+	GraphRenderingPool(int poolSize, int queueCapacity) {
+		this.poolSize = poolSize;
+		this.queueCapacity = queueCapacity;
+		this.permits = new Semaphore(poolSize, true);
+	}
+	
+	/**
+	 * @return the pool shared by the graph servlets
+	 */
+	public static GraphRenderingPool getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * Queues the rendering of a chart, or rejects it with status 503 if the queue is full
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @param renderer renders the chart with the user context of the request
+	 * @should render the chart on a worker thread
+	 * @should reject the request with status 503 when the queue is full
+	 * @should not write to the response once the request timed out
+	 */
+	public void render(HttpServletRequest request, HttpServletResponse response, Renderer renderer) throws IOException {
+		final long queued = System.currentTimeMillis();
+		if (!request.isAsyncSupported()) {
+			renderOnRequestThread(request, response, renderer, queued);
+			return;
+		}
+		
+		final UserContext userContext = Context.getUserContext();
+		final AsyncContext async = request.startAsync();
+		async.setTimeout(TIMEOUT);
+		final AtomicBoolean answered = new AtomicBoolean();
+		async.addListener(new AsyncListener() {
+			
+			@Override
+			public void onTimeout(AsyncEvent event) throws IOException {
+				if (answered.compareAndSet(false, true)) {
+					log.warn("Rendering a graph took longer than {} ms", TIMEOUT);
+					reject((HttpServletResponse) event.getSuppliedResponse());
+					async.complete();
+				}
+			}
+			
+			@Override
+			public void onComplete(AsyncEvent event) {
+			}
+			
+			@Override
+			public void onError(AsyncEvent event) {
+			}
+			
+			@Override
+			public void onStartAsync(AsyncEvent event) {
+			}
+		});
+		final RequestSnapshot snapshot = new RequestSnapshot(request);
+		try {
+			getExecutor().execute(() -> {
+				BufferedResponse buffered = new BufferedResponse(response);
+				try {
+					if (!answered.get()) {
+						renderOnWorker(userContext, queued, snapshot, buffered, renderer);
+					}
+				}
+				finally {
+					if (answered.compareAndSet(false, true)) {
+						try {
+							buffered.copyTo((HttpServletResponse) async.getResponse());
+						}
+						catch (IOException ex) {
+							log.debug("Failed to send the graph, the page was probably closed", ex);
+						}
+						finally {
+							async.complete();
+						}
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException ex) {
+			answered.set(true);
+			reject(response);
+			async.complete();
+		}
+	}
+	
+	/**
+	 * Renders on the request thread once one of the pool's permits is free, used when the container
+	 * does not allow the request to go asynchronous
+	 */
+	private void renderOnRequestThread(HttpServletRequest request, HttpServletResponse response, Renderer renderer,
+	        long queued) throws IOException {
+		if (waiting.incrementAndGet() > queueCapacity) {
+			waiting.decrementAndGet();
+			reject(response);
+			return;
+		}
+		boolean acquired = false;
+		try {
+			acquired = permits.tryAcquire(TIMEOUT, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			waiting.decrementAndGet();
+		}
+		if (!acquired) {
+			reject(response);
+			return;
+		}
+		try {
+			render(request, response, renderer, queued);
+		}
+		finally {
+			permits.release();
+		}
+	}
+	
+	private void renderOnWorker(UserContext userContext, long queued, HttpServletRequest request,
+	        HttpServletResponse response, Renderer renderer) {
+		// workers share the permits with requests rendered on their own thread
+		permits.acquireUninterruptibly();
+		Context.openSession();
+		try {
+			Context.setUserContext(userContext);
+			render(request, response, renderer, queued);
+		}
+		finally {
+			Context.clearUserContext();
+			Context.closeSession();
+			permits.release();
+		}
+	}
+	
+	private void render(HttpServletRequest request, HttpServletResponse response, Renderer renderer, long queued) {
+		long started = System.currentTimeMillis();
+		waitTime.record(started - queued);
+		try {
+			renderer.render(request, response);
+			renderTime.record(System.currentTimeMillis() - started);
+		}
+		catch (Exception ex) {
+			log.error("Failed to render graph", ex);
+		}
+	}
+	
+	private void reject(HttpServletResponse response) throws IOException {
+		rejected.incrementAndGet();
+		log.debug("Graph rendering queue is full, rejecting request");
+		response.setHeader("Retry-After", String.valueOf(RETRY_AFTER));
+		response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+	}
+	
+	private synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			final AtomicInteger threadNumber = new AtomicInteger();
+			executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+			        queueCapacity), runnable -> {
+				Thread thread = new Thread(runnable, "graph-rendering-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}, new ThreadPoolExecutor.AbortPolicy());
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+	
+	/**
+	 * Stops the worker threads
+	 */
+	synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+	
+	public int getPoolSize() {
+		return poolSize;
+	}
+	
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+	
+	/**
+	 * @return the number of charts waiting to be rendered
+	 */
+	public synchronized int getQueueDepth() {
+		return waiting.get() + (executor == null ? 0 : executor.getQueue().size());
+	}
+	
+	/**
+	 * @return the number of charts being rendered
+	 */
+	public int getActiveCount() {
+		return poolSize - permits.availablePermits();
+	}
+	
+	/**
+	 * @return the number of requests answered with status 503 because the queue was full
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+	
+	/**
+	 * @return the number of rendered charts
+	 */
+	public long getRendered() {
+		return renderTime.getCount();
+	}
+	
+	/**
+	 * @return the 95th percentile of the time charts waited in the queue, in milliseconds
+	 */
+	public long getWaitTimeP95() {
+		return waitTime.getPercentile(95);
+	}
+	
+	/**
+	 * @return the median time charts took to render, in milliseconds
+	 */
+	public long getRenderTimeP50() {
+		return renderTime.getPercentile(50);
+	}
+	
+	/**
+	 * @return the 95th percentile of the time charts took to render, in milliseconds
+	 */
+	public long getRenderTimeP95() {
+		return renderTime.getPercentile(95);
+	}
+	
+	/**
+	 * @return the longest time a chart took to render, in milliseconds
+	 */
+	public long getRenderTimeMax() {
+		return renderTime.getMax();
+	}
+	
+	/**
+	 * The parameters and headers of a request, which a worker can still read after the request
+	 * timed out
+	 */
+	private static class RequestSnapshot extends HttpServletRequestWrapper {
+		
+		private final Map<String, String[]> parameters;
+		
+		private final Map<String, List<String>> headers = new TreeMap<String, List<String>>(
+		        String.CASE_INSENSITIVE_ORDER);
+		
+		private RequestSnapshot(HttpServletRequest request) {
+			super(request);
+			parameters = Collections.unmodifiableMap(new LinkedHashMap<String, String[]>(request.getParameterMap()));
+			Enumeration<String> names = request.getHeaderNames();
+			while (names != null && names.hasMoreElements()) {
+				String name = names.nextElement();
+				headers.put(name, Collections.list(request.getHeaders(name)));
+			}
+		}
+		
+		@Override
+		public String getParameter(String name) {
+			String[] values = parameters.get(name);
+			return values == null || values.length == 0 ? null : values[0];
+		}
+		
+		@Override
+		public String[] getParameterValues(String name) {
+			return parameters.get(name);
+		}
+		
+		@Override
+		public Map<String, String[]> getParameterMap() {
+			return parameters;
+		}
+		
+		@Override
+		public Enumeration<String> getParameterNames() {
+			return Collections.enumeration(parameters.keySet());
+		}
+		
+		@Override
+		public String getHeader(String name) {
+			List<String> values = headers.get(name);
+			return values == null || values.isEmpty() ? null : values.get(0);
+		}
+		
+		@Override
+		public Enumeration<String> getHeaders(String name) {
+			List<String> values = headers.get(name);
+			return Collections.enumeration(values == null ? Collections.<String> emptyList() : values);
+		}
+		
+		@Override
+		public Enumeration<String> getHeaderNames() {
+			return Collections.enumeration(headers.keySet());
+		}
+	}
+	
+	/**
+	 * Records the status, headers and content a chart is rendered into, to be copied to the real
+	 * response later
+	 */
+	private static class BufferedResponse extends HttpServletResponseWrapper {
+		
+		private final List<Consumer<HttpServletResponse>> calls = new ArrayList<Consumer<HttpServletResponse>>();
+		
+		private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+		
+		private String characterEncoding = StandardCharsets.ISO_8859_1.name();
+		
+		private int status = SC_OK;
+		
+		private boolean error;
+		
+		private ServletOutputStream outputStream;
+		
+		private PrintWriter writer;
+		
+		private BufferedResponse(HttpServletResponse response) {
+			super(response);
+		}
+		
+		@Override
+		public void setStatus(int sc) {
+			status = sc;
+			calls.add(response -> response.setStatus(sc));
+		}
+		
+		@Override
+		public int getStatus() {
+			return status;
+		}
+		
+		@Override
+		public void sendError(int sc) {
+			sendError(sc, null);
+		}
+		
+		@Override
+		public void sendError(int sc, String msg) {
+			status = sc;
+			error = true;
+			calls.add(response -> {
+				try {
+					if (msg == null) {
+						response.sendError(sc);
+					} else {
+						response.sendError(sc, msg);
+					}
+				}
+				catch (IOException ex) {
+					throw new UncheckedIOException(ex);
+				}
+			});
+		}
+		
+		@Override
+		public void setHeader(String name, String value) {
+			calls.add(response -> response.setHeader(name, value));
+		}
+		
+		@Override
+		public void addHeader(String name, String value) {
+			calls.add(response -> response.addHeader(name, value));
+		}
+		
+		@Override
+		public void setDateHeader(String name, long date) {
+			calls.add(response -> response.setDateHeader(name, date));
+		}
+		
+		@Override
+		public void addDateHeader(String name, long date) {
+			calls.add(response -> response.addDateHeader(name, date));
+		}
+		
+		@Override
+		public void setIntHeader(String name, int value) {
+			calls.add(response -> response.setIntHeader(name, value));
+		}
+		
+		@Override
+		public void addIntHeader(String name, int value) {
+			calls.add(response -> response.addIntHeader(name, value));
+		}
+		
+		@Override
+		public void setContentType(String type) {
+			calls.add(response -> response.setContentType(type));
+		}
+		
+		@Override
+		public void setContentLength(int len) {
+			calls.add(response -> response.setContentLength(len));
+		}
+		
+		@Override
+		public void setContentLengthLong(long len) {
+			calls.add(response -> response.setContentLengthLong(len));
+		}
+		
+		@Override
+		public void setCharacterEncoding(String charset) {
+			characterEncoding = charset;
+			calls.add(response -> response.setCharacterEncoding(charset));
+		}
+		
+		@Override
+		public String getCharacterEncoding() {
+			return characterEncoding;
+		}
+		
+		@Override
+		public void setLocale(Locale locale) {
+			calls.add(response -> response.setLocale(locale));
+		}
+		
+		@Override
+		public void setBufferSize(int size) {
+		}
+		
+		@Override
+		public ServletOutputStream getOutputStream() {
+			if (outputStream == null) {
+				outputStream = new ServletOutputStream() {
+					
+					@Override
+					public void write(int b) {
+						content.write(b);
+					}
+					
+					@Override
+					public void write(byte[] b, int off, int len) {
+						content.write(b, off, len);
+					}
+					
+					@Override
+					public boolean isReady() {
+						return true;
+					}
+					
+					@Override
+					public void setWriteListener(WriteListener writeListener) {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+			return outputStream;
+		}
+		
+		@Override
+		public PrintWriter getWriter() throws UnsupportedEncodingException {
+			if (writer == null) {
+				writer = new PrintWriter(new OutputStreamWriter(content, characterEncoding));
+			}
+			return writer;
+		}
+		
+		@Override
+		public void flushBuffer() {
+		}
+		
+		@Override
+		public boolean isCommitted() {
+			return false;
+		}
+		
+		@Override
+		public void reset() {
+			calls.clear();
+			resetBuffer();
+			status = SC_OK;
+			error = false;
+		}
+		
+		@Override
+		public void resetBuffer() {
+			if (writer != null) {
+				writer.flush();
+			}
+			content.reset();
+		}
+		
+		/**
+		 * Copies the recorded status, headers and content to the given response
+		 */
+		private void copyTo(HttpServletResponse response) throws IOException {
+			try {
+				for (Consumer<HttpServletResponse> call : calls) {
+					call.accept(response);
+				}
+			}
+			catch (UncheckedIOException ex) {
+				throw ex.getCause();
+			}
+			if (writer != null) {
+				writer.flush();
+			}
+			if (!error && content.size() > 0) {
+				content.writeTo(response.getOutputStream());
+			}
+		}
+	}
+	
+}
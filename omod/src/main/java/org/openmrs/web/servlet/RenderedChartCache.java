@@ -0,0 +1,226 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.servlet;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.openmrs.Concept;
+import org.openmrs.Obs;
+import org.openmrs.web.cache.CacheKey;
+import org.openmrs.web.cache.CacheStatistics;
+import org.openmrs.web.cache.DataChangeAdvice;
+
+/**
+ * Holds the images rendered by {@link ShowGraphServlet} so that showing the same graph again neither
+ * queries the obs nor renders the chart. Entries are dropped as soon as an obs of the graphed
+ * patient and concepts, or one of the concepts, is changed through the core services (see
+ * {@link DataChangeAdvice}).
+ * <p>
+ * A chart is only cached if nothing was dropped while it rendered, since it may show obs read
+ * before the change.
+ * <p>
+ * Every chart has an entity tag computed from the image, so browsers can revalidate their copy and
+ * an unchanged chart that is rendered again keeps its tag.
+ */
+public class RenderedChartCache {
+	
+	private static final int MAX_ENTRIES = 200;
+	
+	private static final Map<String, RenderedChart> charts = new LinkedHashMap<String, RenderedChart>(16, 0.75f, true) {
+		
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, RenderedChart> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+	
+	private static long generation;
+	
+	private static final CacheStatistics statistics = CacheStatistics.register("renderedCharts", () -> {
+		synchronized (charts) {
+			return charts.size();
+		}
+	});
+	
+	static {
+		DataChangeAdvice.addListener(RenderedChartCache::dataChanged);
+	}
+	
+	/**
+	 * A rendered chart
+	 */
+	public static class RenderedChart {
+		
+		private final Integer patientId;
+		
+		private final Set<Integer> conceptIds;
+		
+		private final String mimeType;
+		
+		private final byte[] content;
+		
+		private final String etag;
+		
+		private RenderedChart(Integer patientId, Set<Integer> conceptIds, String mimeType, byte[] content) {
+			this.patientId = patientId;
+			this.conceptIds = conceptIds;
+			this.mimeType = mimeType;
+			this.content = content;
+			this.etag = "\"" + digest(content) + "\"";
+		}
+		
+		public String getMimeType() {
+			return mimeType;
+		}
+		
+		public byte[] getContent() {
+			return content;
+		}
+		
+		/**
+		 * @return the quoted entity tag of the image
+		 */
+		public String getEtag() {
+			return etag;
+		}
+	}
+	
+	/**
+	 * Builds the cache key of a chart. Besides the given parameters the key contains the locale and a
+	 * digest of the privileges of the authenticated user.
+	 *
+	 * @param parameters everything the chart depends on
+	 * @return the cache key
+	 */
+	public static String getKey(Object... parameters) {
+		return CacheKey.forAuthenticatedUser(parameters);
+	}
+	
+	/**
+	 * @param key the cache key
+	 * @return the cached chart or null if there is none
+	 */
+	public static RenderedChart get(String key) {
+		RenderedChart chart;
+		synchronized (charts) {
+			chart = charts.get(key);
+		}
+		if (chart == null) {
+			statistics.miss();
+		} else {
+			statistics.hit();
+		}
+		return chart;
+	}
+	
+	/**
+	 * @return a number that changes whenever cached charts are dropped, to be taken before a chart
+	 *         is rendered and passed to {@link #put(String, Integer, Collection, String, byte[], long)}
+	 */
+	public static long getGeneration() {
+		synchronized (charts) {
+			return generation;
+		}
+	}
+	
+	/**
+	 * Caches a rendered chart unless cached charts were dropped while it rendered
+	 *
+	 * @param key the cache key
+	 * @param patientId the patient whose obs are graphed
+	 * @param conceptIds the graphed concepts
+	 * @param mimeType the image format
+	 * @param content the image
+	 * @param renderGeneration what {@link #getGeneration()} returned before the chart rendered
+	 * @return the chart, cached or not
+	 */
+	public static RenderedChart put(String key, Integer patientId, Collection<Integer> conceptIds, String mimeType,
+	        byte[] content, long renderGeneration) {
+		RenderedChart chart = new RenderedChart(patientId, Collections.unmodifiableSet(new HashSet<Integer>(conceptIds)),
+		        mimeType, content);
+		synchronized (charts) {
+			if (generation == renderGeneration) {
+				charts.put(key, chart);
+			}
+		}
+		return chart;
+	}
+	
+	/**
+	 * Drops the charts of the given patient and concept
+	 *
+	 * @param patientId the patient id, null for the charts of all patients
+	 * @param conceptId the concept id, null for the charts of all concepts
+	 */
+	public static void invalidate(Integer patientId, Integer conceptId) {
+		synchronized (charts) {
+			generation++;
+			for (Iterator<RenderedChart> it = charts.values().iterator(); it.hasNext();) {
+				RenderedChart chart = it.next();
+				if ((patientId == null || patientId.equals(chart.patientId))
+				        && (conceptId == null || chart.conceptIds.contains(conceptId))) {
+					it.remove();
+					statistics.invalidated();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Drops all cached charts
+	 */
+	public static void clear() {
+		synchronized (charts) {
+			generation++;
+			charts.clear();
+		}
+	}
+	
+	/**
+	 * @return the hit and miss counters of the cache
+	 */
+	public static CacheStatistics getStatistics() {
+		return statistics;
+	}
+	
+	private static void dataChanged(Object changed) {
+		if (changed instanceof Obs) {
+			Obs obs = (Obs) changed;
+			if (obs.getPerson() != null && obs.getConcept() != null) {
+				invalidate(obs.getPerson().getPersonId(), obs.getConcept().getConceptId());
+			}
+		} else if (changed instanceof Concept) {
+			invalidate(null, ((Concept) changed).getConceptId());
+		}
+	}
+	
+	private static String digest(byte[] content) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-1").digest(content);
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+		}
+		catch (NoSuchAlgorithmException ex) {
+			// every java platform has SHA-1
+			throw new IllegalStateException(ex);
+		}
+	}
+	
+}
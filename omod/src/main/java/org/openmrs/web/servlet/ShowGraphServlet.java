@@ -11,6 +11,7 @@ package org.openmrs.web.servlet;
 
 import java.awt.Color;
 import java.awt.Font;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -48,6 +49,7 @@ import org.openmrs.Obs;
 import org.openmrs.Patient;
 import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
+import org.openmrs.web.servlet.RenderedChartCache.RenderedChart;
 
 /**
  * This servlet returns an image graphing the numeric values for given concept(s). <br>
@@ -78,14 +80,20 @@ public class ShowGraphServlet extends HttpServlet {
 	private static final Color COLOR_ERROR = new Color(255, 28, 28, 64);
 	
 	/**
+	 * Sends the chart, from the {@link RenderedChartCache} if it has been rendered before. Browsers
+	 * that send the entity tag of their copy get a <code>304 Not Modified</code> as long as the chart
+	 * has not changed. Charts that are not cached are rendered by the {@link GraphRenderingPool}, which
+	 * answers with <code>503 Service Unavailable</code> while too many charts are waiting.
+	 *
 	 * @see javax.servlet.http.HttpServlet#doGet(javax.servlet.http.HttpServletRequest,
 	 *      javax.servlet.http.HttpServletResponse)
+	 * @should answer a repeat request with not modified
+	 * @should render the chart again after an obs of the patient and concept changed
+	 * @should not cache a chart that rendered while an obs of the patient and concept changed
 	 */
 	@Override
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		try {
-			JFreeChart chart = getChart(request);
-			
 			// get the height and width of the graph
 			String widthString = request.getParameter("width");
 			String heightString = request.getParameter("height");
@@ -108,33 +116,23 @@ public class ShowGraphServlet extends HttpServlet {
 			if (mimeType == null) {
 				mimeType = PNG_MIME_TYPE;
 			}
-			
-			// Modify response to disable caching
-			response.setHeader("Pragma", "No-cache");
-			response.setDateHeader("Expires", 0);
-			response.setHeader("Cache-Control", "no-cache");
-			
-			// Write chart out to response as image
-			try {
-				if (JPG_MIME_TYPE.equalsIgnoreCase(mimeType)) {
-					response.setContentType(JPG_MIME_TYPE);
-					ChartUtilities.writeChartAsJPEG(response.getOutputStream(), chart, width, height);
-				} else if (PNG_MIME_TYPE.equalsIgnoreCase(mimeType)) {
-					response.setContentType(PNG_MIME_TYPE);
-					ChartUtilities.writeChartAsPNG(response.getOutputStream(), chart, width, height);
-				} else {
-					throw new APIException("unsupported.mime.type", (Object[]) null);
-				}
+			if (!JPG_MIME_TYPE.equalsIgnoreCase(mimeType) && !PNG_MIME_TYPE.equalsIgnoreCase(mimeType)) {
+				throw new APIException("unsupported.mime.type", (Object[]) null);
 			}
-			catch (IOException e) {
-				// if its tomcat and the user simply navigated away from the page, don't throw an error
-				if (e.getClass().getName().equals("org.apache.catalina.connector.ClientAbortException")) {
-					// do nothing
-				} else {
-					log.error("Error class name: {}", e.getClass().getName());
-					log.error("Unable to write chart", e);
-				}
+			
+			String key = getKey(request, width, height, mimeType);
+			RenderedChart chart = RenderedChartCache.get(key);
+			if (chart != null) {
+				sendChart(request, response, chart);
+				return;
 			}
+			
+			// rendering is limited to a few charts at a time, see GraphRenderingPool
+			final int chartWidth = width;
+			final int chartHeight = height;
+			final String chartMimeType = mimeType;
+			GraphRenderingPool.getInstance().render(request, response,
+			    (req, resp) -> sendChart(req, resp, renderChart(req, key, chartWidth, chartHeight, chartMimeType)));
 		}
 		// Add error handling above and remove this try/catch
 		catch (Exception e) {
@@ -142,6 +140,73 @@ public class ShowGraphServlet extends HttpServlet {
 		}
 	}
 	
+	private void sendChart(HttpServletRequest request, HttpServletResponse response, RenderedChart chart) {
+		// browsers have to revalidate their copy, which the entity tag makes cheap
+		response.setHeader("Cache-Control", "private, no-cache");
+		response.setHeader("ETag", chart.getEtag());
+		if (EntityTags.matchesIfNoneMatch(request, chart.getEtag())) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		
+		// Write chart out to response as image
+		try {
+			response.setContentType(chart.getMimeType());
+			response.setContentLength(chart.getContent().length);
+			response.getOutputStream().write(chart.getContent());
+		}
+		catch (IOException e) {
+			// if its tomcat and the user simply navigated away from the page, don't throw an error
+			if (e.getClass().getName().equals("org.apache.catalina.connector.ClientAbortException")) {
+				// do nothing
+			} else {
+				log.error("Error class name: {}", e.getClass().getName());
+				log.error("Unable to write chart", e);
+			}
+		}
+	}
+	
+	/**
+	 * Builds the cache key of the requested chart
+	 */
+	private String getKey(HttpServletRequest request, int width, int height, String mimeType) {
+		// the default dates are relative to today, so the resolved dates go into the key
+		return RenderedChartCache.getKey(request.getParameter("patientId"), request.getParameter("conceptId"),
+		    request.getParameter("conceptId2"), request.getParameter("chartTitle"), request.getParameter("units"),
+		    request.getParameter("minRange"), request.getParameter("maxRange"), request.getParameter("hideDate"),
+		    getFromDate(request.getParameter("fromDate")).getTime(), getToDate(request.getParameter("toDate")).getTime(),
+		    width, height, mimeType.toLowerCase());
+	}
+	
+	/**
+	 * Renders the chart and caches it
+	 */
+	private RenderedChart renderChart(HttpServletRequest request, String key, int width, int height, String mimeType)
+	        throws IOException {
+		long renderGeneration = RenderedChartCache.getGeneration();
+		JFreeChart jfreeChart = getChart(request);
+		ByteArrayOutputStream image = new ByteArrayOutputStream();
+		if (JPG_MIME_TYPE.equalsIgnoreCase(mimeType)) {
+			ChartUtilities.writeChartAsJPEG(image, jfreeChart, width, height);
+			mimeType = JPG_MIME_TYPE;
+		} else {
+			ChartUtilities.writeChartAsPNG(image, jfreeChart, width, height);
+			mimeType = PNG_MIME_TYPE;
+		}
+		
+		List<Integer> conceptIds = new ArrayList<Integer>();
+		String conceptId1 = request.getParameter("conceptId");
+		String conceptId2 = request.getParameter("conceptId2");
+		if (conceptId1 != null) {
+			conceptIds.add(Integer.valueOf(conceptId1));
+		}
+		if (conceptId2 != null) {
+			conceptIds.add(Integer.valueOf(conceptId2));
+		}
+		return RenderedChartCache.put(key, Integer.valueOf(request.getParameter("patientId")), conceptIds, mimeType,
+		    image.toByteArray(), renderGeneration);
+	}
+	
 	/**
 	 * The main method for this class. It will create a JFreeChart object to be written to the
 	 * response.
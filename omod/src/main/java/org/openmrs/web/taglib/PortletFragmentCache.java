@@ -0,0 +1,325 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.taglib;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.openmrs.Allergy;
+import org.openmrs.Encounter;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Obs;
+import org.openmrs.Order;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PatientProgram;
+import org.openmrs.Person;
+import org.openmrs.PersonAddress;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonName;
+import org.openmrs.Relationship;
+import org.openmrs.Visit;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.LegacyUIConstants;
+import org.openmrs.web.cache.CacheKey;
+import org.openmrs.web.cache.CacheStatistics;
+import org.openmrs.web.cache.DataChangeAdvice;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
+
+/**
+ * Holds the rendered html of patient and person portlets so that {@link PortletTag} does not have to
+ * render them again while nothing about the patient has changed. Only the portlets listed in the
+ * {@link LegacyUIConstants#GP_PORTLET_FRAGMENT_CACHE_PORTLETS} global property are cached, so the
+ * cache is off by default.
+ * <p>
+ * Entries are dropped as soon as the person, or one of their obs, encounters, visits, orders,
+ * allergies, programs or relationships, is changed through the core services (see
+ * {@link DataChangeAdvice}), and in any case after
+ * {@link LegacyUIConstants#GP_PORTLET_FRAGMENT_CACHE_TIME_TO_LIVE} seconds. A portlet rendered while
+ * such a change happened is not cached, so it cannot put the old state back.
+ * <p>
+ * The portletUUID a portlet was rendered with is replaced by a new one each time the fragment is
+ * served. Portlets that read the current time (<code>model.now</code>) are not cached at all.
+ * <p>
+ * An instance of this class is registered as a global property listener so that changes to the
+ * configuration take effect right away.
+ */
+public class PortletFragmentCache implements GlobalPropertyListener {
+	
+	private static final Logger log = LoggerFactory.getLogger(PortletFragmentCache.class);
+	
+	private static final int MAX_ENTRIES = 1000;
+	
+	private static final Map<String, Fragment> fragments = new LinkedHashMap<String, Fragment>(16, 0.75f, true) {
+		
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Fragment> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+	
+	private static final CacheStatistics statistics = CacheStatistics.register("portletFragments", () -> {
+		synchronized (fragments) {
+			return fragments.size();
+		}
+	});
+	
+	private static volatile Set<String> cachedPortlets;
+	
+	private static volatile long timeToLive = -1;
+	
+	private static final String UUID_PLACEHOLDER = "@@portletUUID@@";
+	
+	private static long generation;
+	
+	static {
+		DataChangeAdvice.addListener(PortletFragmentCache::dataChanged);
+	}
+	
+	private static class Fragment {
+		
+		private final Integer personId;
+		
+		private final String html;
+		
+		private final long expires;
+		
+		private Fragment(Integer personId, String html, long expires) {
+			this.personId = personId;
+			this.html = html;
+			this.expires = expires;
+		}
+	}
+	
+	/**
+	 * @param portletName the name of the portlet, i.e. the last segment of its url without extension
+	 * @return true if the portlet's output should be cached
+	 */
+	public static boolean isCached(String portletName) {
+		if (cachedPortlets == null) {
+			setCachedPortlets(Context.getAdministrationService().getGlobalProperty(
+			    LegacyUIConstants.GP_PORTLET_FRAGMENT_CACHE_PORTLETS));
+		}
+		return cachedPortlets.contains(portletName);
+	}
+	
+	/**
+	 * Builds the cache key of a portlet include. Besides the portlet and its parameters the key
+	 * contains the locale and a digest of the privileges of the authenticated user, so that users with
+	 * different privileges never share output.
+	 *
+	 * @param portletUrl the url of the portlet
+	 * @param parameters everything the portlet include was called with
+	 * @return the cache key
+	 */
+	public static String getKey(String portletUrl, Object... parameters) {
+		Object[] parts = new Object[parameters.length + 1];
+		parts[0] = portletUrl;
+		System.arraycopy(parameters, 0, parts, 1, parameters.length);
+		return CacheKey.forAuthenticatedUser(parts);
+	}
+	
+	/**
+	 * @param key the cache key
+	 * @return the cached html or null if there is none or it has expired
+	 */
+	public static String get(String key) {
+		Fragment fragment;
+		synchronized (fragments) {
+			fragment = fragments.get(key);
+			if (fragment != null && fragment.expires < System.currentTimeMillis()) {
+				fragments.remove(key);
+				fragment = null;
+			}
+		}
+		if (fragment == null) {
+			statistics.miss();
+			return null;
+		}
+		statistics.hit();
+		return fragment.html.replace(UUID_PLACEHOLDER, UUID.randomUUID().toString().replace("-", ""));
+	}
+	
+	/**
+	 * @return a number that changes whenever cached portlets are dropped, to be taken before a
+	 *         portlet is rendered and passed to {@link #put(String, Integer, String, String, long)}
+	 */
+	public static long getGeneration() {
+		synchronized (fragments) {
+			return generation;
+		}
+	}
+	
+	/**
+	 * Caches a rendered portlet unless cached portlets were dropped while it rendered
+	 *
+	 * @param key the cache key
+	 * @param personId the patient or person the portlet was rendered for
+	 * @param html the rendered portlet
+	 * @param portletUUID the portletUUID the portlet was rendered with, may be null
+	 * @param renderGeneration what {@link #getGeneration()} returned before the portlet rendered
+	 * @should replace the portlet uuid each time the fragment is served
+	 * @should not cache a portlet that rendered while its person changed
+	 */
+	public static void put(String key, Integer personId, String html, String portletUUID, long renderGeneration) {
+		if (portletUUID != null) {
+			html = html.replace(portletUUID, UUID_PLACEHOLDER);
+		}
+		Fragment fragment = new Fragment(personId, html, System.currentTimeMillis() + getTimeToLive() * 1000);
+		synchronized (fragments) {
+			if (generation == renderGeneration) {
+				fragments.put(key, fragment);
+			}
+		}
+	}
+	
+	/**
+	 * Drops all cached portlets of the given person
+	 *
+	 * @param personId the person id
+	 */
+	public static void invalidate(Integer personId) {
+		if (personId == null) {
+			return;
+		}
+		synchronized (fragments) {
+			generation++;
+			for (Iterator<Fragment> it = fragments.values().iterator(); it.hasNext();) {
+				if (personId.equals(it.next().personId)) {
+					it.remove();
+					statistics.invalidated();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Drops all cached portlets
+	 */
+	public static void clear() {
+		synchronized (fragments) {
+			generation++;
+			fragments.clear();
+		}
+	}
+	
+	/**
+	 * @return the hit and miss counters of the cache
+	 */
+	public static CacheStatistics getStatistics() {
+		return statistics;
+	}
+	
+	private static void dataChanged(Object changed) {
+		if (changed instanceof Person) {
+			invalidate(((Person) changed).getPersonId());
+		} else if (changed instanceof Obs) {
+			invalidate(getPersonId(((Obs) changed).getPerson()));
+		} else if (changed instanceof Encounter) {
+			invalidate(getPersonId(((Encounter) changed).getPatient()));
+		} else if (changed instanceof Visit) {
+			invalidate(getPersonId(((Visit) changed).getPatient()));
+		} else if (changed instanceof Order) {
+			invalidate(getPersonId(((Order) changed).getPatient()));
+		} else if (changed instanceof Allergy) {
+			invalidate(getPersonId(((Allergy) changed).getPatient()));
+		} else if (changed instanceof PatientProgram) {
+			invalidate(getPersonId(((PatientProgram) changed).getPatient()));
+		} else if (changed instanceof Relationship) {
+			invalidate(getPersonId(((Relationship) changed).getPersonA()));
+			invalidate(getPersonId(((Relationship) changed).getPersonB()));
+		} else if (changed instanceof PatientIdentifier) {
+			invalidate(getPersonId(((PatientIdentifier) changed).getPatient()));
+		} else if (changed instanceof PersonName) {
+			invalidate(getPersonId(((PersonName) changed).getPerson()));
+		} else if (changed instanceof PersonAddress) {
+			invalidate(getPersonId(((PersonAddress) changed).getPerson()));
+		} else if (changed instanceof PersonAttribute) {
+			invalidate(getPersonId(((PersonAttribute) changed).getPerson()));
+		}
+	}
+	
+	private static Integer getPersonId(Person person) {
+		return person == null ? null : person.getPersonId();
+	}
+	
+	private static long getTimeToLive() {
+		if (timeToLive < 0) {
+			setTimeToLive(Context.getAdministrationService().getGlobalProperty(
+			    LegacyUIConstants.GP_PORTLET_FRAGMENT_CACHE_TIME_TO_LIVE));
+		}
+		return timeToLive;
+	}
+	
+	private static void setCachedPortlets(String portlets) {
+		Set<String> names = new HashSet<String>();
+		for (String name : StringUtils.commaDelimitedListToSet(portlets)) {
+			if (StringUtils.hasText(name)) {
+				names.add(name.trim());
+			}
+		}
+		cachedPortlets = Collections.unmodifiableSet(names);
+	}
+	
+	private static void setTimeToLive(String seconds) {
+		try {
+			timeToLive = Long.parseLong(seconds.trim());
+		}
+		catch (RuntimeException ex) {
+			timeToLive = LegacyUIConstants.DEFAULT_PORTLET_FRAGMENT_CACHE_TIME_TO_LIVE;
+		}
+	}
+	
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#supportsPropertyName(java.lang.String)
+	 */
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return LegacyUIConstants.GP_PORTLET_FRAGMENT_CACHE_PORTLETS.equals(propertyName)
+		        || LegacyUIConstants.GP_PORTLET_FRAGMENT_CACHE_TIME_TO_LIVE.equals(propertyName);
+	}
+	
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#globalPropertyChanged(org.openmrs.GlobalProperty)
+	 */
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		if (LegacyUIConstants.GP_PORTLET_FRAGMENT_CACHE_PORTLETS.equals(newValue.getProperty())) {
+			setCachedPortlets(newValue.getPropertyValue());
+		} else {
+			setTimeToLive(newValue.getPropertyValue());
+		}
+		log.debug("Portlet fragment cache configuration changed, clearing it");
+		clear();
+	}
+	
+	/**
+	 * @see org.openmrs.api.GlobalPropertyListener#globalPropertyDeleted(java.lang.String)
+	 */
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		if (LegacyUIConstants.GP_PORTLET_FRAGMENT_CACHE_PORTLETS.equals(propertyName)) {
+			setCachedPortlets(null);
+		} else {
+			setTimeToLive(null);
+		}
+		clear();
+	}
+	
+}
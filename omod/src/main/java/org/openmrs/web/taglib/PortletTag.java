@@ -15,12 +15,21 @@ import org.apache.taglibs.standard.tag.common.core.ImportSupport;
 import org.openmrs.module.Module;
 import org.openmrs.module.ModuleFactory;
 import org.openmrs.util.OpenmrsUtil;
+import org.openmrs.web.controller.DeferredPortlets;
+import org.openmrs.web.controller.PortletModel;
+import org.openmrs.web.metrics.PortletStatistics;
+import org.openmrs.web.metrics.ServiceCallAdvice;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.jsp.JspException;
 import javax.servlet.jsp.JspTagException;
+import javax.servlet.jsp.JspWriter;
 import javax.servlet.jsp.PageContext;
+import javax.servlet.jsp.tagext.BodyContent;
 import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PortletTag extends ImportSupport {
 	
@@ -28,6 +37,10 @@ public class PortletTag extends ImportSupport {
 	
 	private static final Logger log = LoggerFactory.getLogger(PortletTag.class);
 	
+	private static final String FRAGMENT_VAR = PortletTag.class.getName() + ".fragment";
+	
+	private static final String DEFERRED_SCRIPT_ATTR = PortletTag.class.getName() + ".deferredScript";
+	
 	private String size = "";
 	
 	private String id = "";
@@ -48,6 +61,18 @@ public class PortletTag extends ImportSupport {
 	
 	private String moduleId = "";
 	
+	private String fragmentCacheKey = null;
+	
+	private boolean fragmentCacheHit = false;
+	
+	private long fragmentCacheGeneration = 0;
+	
+	private boolean deferred = false;
+	
+	private long renderStart = -1;
+	
+	private AtomicInteger outerServiceCallCounter = null;
+	
 	public PageContext getPageContext() {
 		return this.pageContext;
 	}
@@ -76,16 +101,50 @@ public class PortletTag extends ImportSupport {
 				}
 				
 				// add attrs to request so that the controller (and portlet) can see/use them
-				pageContext.getRequest().setAttribute("org.openmrs.portlet.id", id);
-				pageContext.getRequest().setAttribute("org.openmrs.portlet.size", size);
-				pageContext.getRequest().setAttribute("org.openmrs.portlet.parameters",
-				    OpenmrsUtil.parseParameterList(parameters));
-				pageContext.getRequest().setAttribute("org.openmrs.portlet.patientId", patientId);
-				pageContext.getRequest().setAttribute("org.openmrs.portlet.personId", personId);
-				pageContext.getRequest().setAttribute("org.openmrs.portlet.encounterId", encounterId);
-				pageContext.getRequest().setAttribute("org.openmrs.portlet.userId", userId);
-				pageContext.getRequest().setAttribute("org.openmrs.portlet.patientIds", patientIds);
-				pageContext.getRequest().setAttribute("org.openmrs.portlet.parameterMap", parameterMap);
+				Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+				attributes.put("org.openmrs.portlet.id", id);
+				attributes.put("org.openmrs.portlet.size", size);
+				attributes.put("org.openmrs.portlet.parameters", OpenmrsUtil.parseParameterList(parameters));
+				attributes.put("org.openmrs.portlet.patientId", patientId);
+				attributes.put("org.openmrs.portlet.personId", personId);
+				attributes.put("org.openmrs.portlet.encounterId", encounterId);
+				attributes.put("org.openmrs.portlet.userId", userId);
+				attributes.put("org.openmrs.portlet.patientIds", patientIds);
+				attributes.put("org.openmrs.portlet.parameterMap", parameterMap);
+				
+				if (deferred) {
+					printDeferredPlaceholder(attributes);
+					return SKIP_BODY;
+				}
+				
+				for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+					pageContext.getRequest().setAttribute(attribute.getKey(), attribute.getValue());
+				}
+				
+				// the controller does most of its work lazily while the view renders, so the whole
+				// include is measured
+				renderStart = System.currentTimeMillis();
+				outerServiceCallCounter = ServiceCallAdvice.startCounting();
+				
+				// the model has to be in the request before the include so it outlives the include and
+				// can be shared with the next portlet of this request
+				if (pageContext.getRequest().getAttribute(PortletModel.REQUEST_ATTRIBUTE) == null) {
+					pageContext.getRequest().setAttribute(PortletModel.REQUEST_ATTRIBUTE, new PortletModel());
+				}
+				
+				if (isFragmentCacheable()) {
+					fragmentCacheKey = PortletFragmentCache.getKey(url, id, size, parameters, parameterMap, patientId,
+					    personId, encounterId, userId, patientIds);
+					fragmentCacheGeneration = PortletFragmentCache.getGeneration();
+					String fragment = PortletFragmentCache.get(fragmentCacheKey);
+					if (fragment != null) {
+						pageContext.getOut().print(fragment);
+						fragmentCacheHit = true;
+						return SKIP_BODY;
+					}
+					// have the import store the rendered portlet in a page attribute so it can be cached
+					setVar(FRAGMENT_VAR);
+				}
 			}
 		}
 		catch (IOException e) {
@@ -97,9 +156,27 @@ public class PortletTag extends ImportSupport {
 	
 	public int doEndTag() throws JspException {
 		
-		int i = super.doEndTag();
+		int i = EVAL_PAGE;
+		if (!fragmentCacheHit && !deferred) {
+			i = super.doEndTag();
+		}
 		
 		try {
+			if (fragmentCacheKey != null && !fragmentCacheHit) {
+				String fragment = (String) pageContext.getAttribute(FRAGMENT_VAR);
+				pageContext.removeAttribute(FRAGMENT_VAR);
+				if (fragment != null) {
+					PortletModel model = (PortletModel) pageContext.getRequest().getAttribute(
+					    PortletModel.REQUEST_ATTRIBUTE);
+					// a portlet showing the current time must not be served from the cache
+					if (model != null && !model.isLoaded("now")) {
+						PortletFragmentCache.put(fragmentCacheKey, patientId != null ? patientId : personId, fragment,
+						    (String) model.get("portletUUID"), fragmentCacheGeneration);
+					}
+					pageContext.getOut().print(fragment);
+				}
+			}
+			
 			// closing portlet tag
 			pageContext.getOut().print("</div>");
 		}
@@ -107,11 +184,32 @@ public class PortletTag extends ImportSupport {
 			log.error("Error while closing portlet tag", e);
 		}
 		
+		if (renderStart >= 0) {
+			int serviceCalls = ServiceCallAdvice.stopCounting(outerServiceCallCounter);
+			PortletStatistics.record(url, System.currentTimeMillis() - renderStart, serviceCalls);
+			renderStart = -1;
+		}
+		
 		resetValues();
 		
 		return i;
 	}
 	
+	/**
+	 * Stops counting service calls if the portlet failed before {@link #doEndTag()}
+	 *
+	 * @see org.apache.taglibs.standard.tag.common.core.ImportSupport#doFinally()
+	 */
+	@Override
+	public void doFinally() {
+		if (renderStart >= 0) {
+			ServiceCallAdvice.stopCounting(outerServiceCallCounter);
+			renderStart = -1;
+		}
+		outerServiceCallCounter = null;
+		super.doFinally();
+	}
+	
 	private void resetValues() {
 		id = "";
 		parameters = "";
@@ -122,6 +220,47 @@ public class PortletTag extends ImportSupport {
 		encounterId = null;
 		userId = null;
 		parameterMap = null;
+		if (fragmentCacheKey != null) {
+			setVar(null);
+		}
+		fragmentCacheKey = null;
+		fragmentCacheHit = false;
+		deferred = false;
+	}
+	
+	/**
+	 * Writes a placeholder that the browser replaces with the portlet once it is shown, and sends it
+	 * right away so the page does not wait for the portlet
+	 */
+	private void printDeferredPlaceholder(Map<String, Object> attributes) throws IOException {
+		HttpServletRequest request = (HttpServletRequest) pageContext.getRequest();
+		String token = DeferredPortlets.defer(request, url, attributes);
+		JspWriter out = pageContext.getOut();
+		out.print("<div class='deferredPortlet' data-portlet-src='" + request.getContextPath() + url + "?"
+		        + DeferredPortlets.TOKEN_PARAMETER + "=" + token + "'>");
+		out.print("<img src='" + request.getContextPath() + "/images/loading.gif' />");
+		out.print("</div>");
+		if (request.getAttribute(DEFERRED_SCRIPT_ATTR) == null) {
+			// fetches the placeholders that are visible once the page has loaded, hidden ones are
+			// fetched by loadDeferredPortlets when they are shown
+			out.print("<script type='text/javascript'>$j(document).ready(function() { loadDeferredPortlets(); });</script>");
+			request.setAttribute(DEFERRED_SCRIPT_ATTR, Boolean.TRUE);
+		}
+		if (!(out instanceof BodyContent)) {
+			out.flush();
+		}
+	}
+	
+	/**
+	 * Only patient and person portlets that are listed in the fragment cache global property are
+	 * cached, their output only changes when the patient's data changes
+	 */
+	private boolean isFragmentCacheable() {
+		if (patientId == null && personId == null) {
+			return false;
+		}
+		String portletName = url.substring(url.lastIndexOf('/') + 1).replace(".portlet", "");
+		return PortletFragmentCache.isCached(portletName);
 	}
 	
 	/**
@@ -256,4 +395,16 @@ public class PortletTag extends ImportSupport {
 		this.moduleId = moduleId;
 	}
 	
+	public Boolean getDeferred() {
+		return deferred;
+	}
+	
+	/**
+	 * @param deferred true to have the browser fetch the portlet once it is shown instead of rendering
+	 *            it with the page
+	 */
+	public void setDeferred(Boolean deferred) {
+		this.deferred = Boolean.TRUE.equals(deferred);
+	}
+	
 }
@@ -0,0 +1,48 @@
+<%@ include file="/WEB-INF/view/module/legacyui/template/include.jsp" %>
+<%@ taglib uri="http://java.sun.com/jsp/jstl/fmt" prefix="fmt" %>
+<openmrs:require privilege="View Administration Functions" otherwise="/login.htm" redirect="/admin/maintenance/portletStatistics.list" />
+<%@ include file="/WEB-INF/view/module/legacyui/template/header.jsp" %>
+<%@ include file="localHeader.jsp" %>
+
+<h2><openmrs:message code="legacyui.portletStatistics.title"/></h2>
+
+<openmrs:message code="legacyui.portletStatistics.help" />
+<br />
+<br />
+
+<table class="box">
+	<tr>
+		<th align="left"><openmrs:message code="legacyui.portletStatistics.portlet" /></th>
+		<th align="right"><openmrs:message code="legacyui.portletStatistics.count" /></th>
+		<th align="right"><openmrs:message code="legacyui.portletStatistics.p50" /></th>
+		<th align="right"><openmrs:message code="legacyui.portletStatistics.p95" /></th>
+		<th align="right"><openmrs:message code="legacyui.portletStatistics.p99" /></th>
+		<th align="right"><openmrs:message code="legacyui.portletStatistics.max" /></th>
+		<th align="right"><openmrs:message code="legacyui.portletStatistics.serviceCalls" /></th>
+		<th align="right"><openmrs:message code="legacyui.portletStatistics.maxServiceCalls" /></th>
+	</tr>
+	<c:forEach var="portlet" varStatus="status" items="${portletStatistics}">
+		<tr class='${status.index % 2 == 0 ? "evenRow" : "oddRow"}'>
+			<td nowrap>${portlet.portlet}</td>
+			<td align="right">${portlet.count}</td>
+			<td align="right">${portlet.p50}</td>
+			<td align="right">${portlet.p95}</td>
+			<td align="right">${portlet.p99}</td>
+			<td align="right">${portlet.max}</td>
+			<td align="right"><fmt:formatNumber value="${portlet.serviceCallsPerRender}" maxFractionDigits="1" /></td>
+			<td align="right">${portlet.maxServiceCalls}</td>
+		</tr>
+	</c:forEach>
+	<c:if test="${empty portletStatistics}">
+		<tr>
+			<td colspan="8"><openmrs:message code="legacyui.portletStatistics.none" /></td>
+		</tr>
+	</c:if>
+</table>
+
+<br />
+<form method="post" action="portletStatistics.list">
+	<input type="submit" value="<openmrs:message code="legacyui.portletStatistics.reset"/>" />
+</form>
+
+<%@ include file="/WEB-INF/view/module/legacyui/template/footer.jsp" %>
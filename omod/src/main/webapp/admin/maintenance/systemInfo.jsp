@@ -1,4 +1,5 @@
 <%@ include file="/WEB-INF/view/module/legacyui/template/include.jsp"%>
+<%@ taglib uri="http://java.sun.com/jsp/jstl/fmt" prefix="fmt" %>
 
 <openmrs:require privilege="View Administration Functions" otherwise="/login.htm"
 	redirect="/admin/maintenance/systemInfo.htm" />
@@ -25,6 +26,82 @@
 			</tr>
 		</c:forEach>
 </c:forEach>
+<c:if test="${not empty cacheStatistics}">
+		<tr>
+			<td colspan="2">
+				<br/>
+				<h3><openmrs:message code="legacyui.cacheStatistics.title" /></h3>
+			</td>
+		</tr>
+		<tr>
+			<td colspan="2">
+				<table cellpadding="4" cellspacing="0" border="0" width="100%">
+					<tr>
+						<th align="left"><openmrs:message code="legacyui.cacheStatistics.name" /></th>
+						<th align="right"><openmrs:message code="legacyui.cacheStatistics.size" /></th>
+						<th align="right"><openmrs:message code="legacyui.cacheStatistics.hits" /></th>
+						<th align="right"><openmrs:message code="legacyui.cacheStatistics.misses" /></th>
+						<th align="right"><openmrs:message code="legacyui.cacheStatistics.hitRate" /></th>
+						<th align="right"><openmrs:message code="legacyui.cacheStatistics.invalidations" /></th>
+					</tr>
+					<c:forEach items="${cacheStatistics}" var="cache" varStatus="status">
+						<tr class='${status.index % 2 == 0 ? "evenRow" : "oddRow"}'>
+							<td nowrap>${ cache.name }</td>
+							<td align="right">${ cache.size }</td>
+							<td align="right">${ cache.hits }</td>
+							<td align="right">${ cache.misses }</td>
+							<td align="right"><fmt:formatNumber value="${ cache.hitRate }" maxFractionDigits="1" /></td>
+							<td align="right">${ cache.invalidations }</td>
+						</tr>
+					</c:forEach>
+				</table>
+			</td>
+		</tr>
+</c:if>
+<c:if test="${not empty graphRendering}">
+		<tr>
+			<td colspan="2">
+				<br/>
+				<h3><openmrs:message code="legacyui.graphRendering.title" /></h3>
+			</td>
+		</tr>
+		<tr class='evenRow'>
+			<td nowrap><openmrs:message code="legacyui.graphRendering.poolSize" /></td>
+			<td>${ graphRendering.poolSize }</td>
+		</tr>
+		<tr class='oddRow'>
+			<td nowrap><openmrs:message code="legacyui.graphRendering.active" /></td>
+			<td>${ graphRendering.activeCount }</td>
+		</tr>
+		<tr class='evenRow'>
+			<td nowrap><openmrs:message code="legacyui.graphRendering.queueDepth" /></td>
+			<td>${ graphRendering.queueDepth } / ${ graphRendering.queueCapacity }</td>
+		</tr>
+		<tr class='oddRow'>
+			<td nowrap><openmrs:message code="legacyui.graphRendering.rendered" /></td>
+			<td>${ graphRendering.rendered }</td>
+		</tr>
+		<tr class='evenRow'>
+			<td nowrap><openmrs:message code="legacyui.graphRendering.rejected" /></td>
+			<td>${ graphRendering.rejected }</td>
+		</tr>
+		<tr class='oddRow'>
+			<td nowrap><openmrs:message code="legacyui.graphRendering.waitTimeP95" /></td>
+			<td>${ graphRendering.waitTimeP95 }</td>
+		</tr>
+		<tr class='evenRow'>
+			<td nowrap><openmrs:message code="legacyui.graphRendering.renderTimeP50" /></td>
+			<td>${ graphRendering.renderTimeP50 }</td>
+		</tr>
+		<tr class='oddRow'>
+			<td nowrap><openmrs:message code="legacyui.graphRendering.renderTimeP95" /></td>
+			<td>${ graphRendering.renderTimeP95 }</td>
+		</tr>
+		<tr class='evenRow'>
+			<td nowrap><openmrs:message code="legacyui.graphRendering.renderTimeMax" /></td>
+			<td>${ graphRendering.renderTimeMax }</td>
+		</tr>
+</c:if>
 </table>
 
 <%@ include file="/WEB-INF/view/module/legacyui/template/footer.jsp"%>
\ No newline at end of file
@@ -50,7 +50,8 @@
 	
 	//searchHandler for the Search widget
 	function doPatientSearch(text, resultHandler, getMatchCount, opts) {
-		DWRPatientService.findCountAndPatientsWithVoided(text, opts.start, opts.length, getMatchCount, includeVoidedPatients(), resultHandler);
+		// only the first call of a search needs the fallback search
+		DWRPatientService.findCountAndPatientsWithFallback(text, opts.start, opts.length, getMatchCount, includeVoidedPatients(), getMatchCount, resultHandler);
 	}
 
 	function includeVoidedPatients() {
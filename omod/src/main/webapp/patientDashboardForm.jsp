@@ -70,8 +70,10 @@
 				var divId = tabs[i].id.substring(0, tabs[i].id.lastIndexOf("Tab"));
 				var divObj = document.getElementById(divId);
 				if (divObj) {
-					if (tabs[i].id == tabObj.id)
+					if (tabs[i].id == tabObj.id) {
 						divObj.style.display = "";
+						loadDeferredPortlets(divObj);
+					}
 					else
 						divObj.style.display = "none";
 				}
@@ -112,6 +114,7 @@
 <openmrs:portlet url="patientHeader" id="patientDashboardHeader" patientId="${patient.patientId}"/>
 
 <openmrs:globalProperty var="enableFormEntryTab" key="FormEntry.enableDashboardTab" defaultValue="true"/>
+<openmrs:globalProperty var="deferredTabs" key="legacyui.dashboard.deferredTabs" defaultValue="false"/>
 
 <div id="patientTabs" class="${patientVariation}">
 	<ul>
@@ -160,7 +163,7 @@
 		<div id="patientOverview" style="display:none;">
 			
 			<openmrs:extensionPoint pointId="org.openmrs.patientDashboard.OverviewTabHeader" type="html" parameters="patientId=${patient.patientId}" />
-			<openmrs:portlet url="patientOverview" id="patientDashboardOverview" patientId="${patient.patientId}"/>
+			<openmrs:portlet url="patientOverview" id="patientDashboardOverview" patientId="${patient.patientId}" deferred="${deferredTabs}"/>
 			
 		</div>
 	</openmrs:hasPrivilege>
@@ -172,7 +175,7 @@
 					<div id="patientVisits" style="display:none;">
 						
 						<openmrs:extensionPoint pointId="org.openmrs.patientDashboard.VisitsTabHeader" type="html" parameters="patientId=${patient.patientId}" />
-						<openmrs:portlet url="patientVisits" id="patientDashboardVisits" patientId="${patient.patientId}" />
+						<openmrs:portlet url="patientVisits" id="patientDashboardVisits" patientId="${patient.patientId}" deferred="${deferredTabs}" />
 						
 					</div>
 				</openmrs:hasPrivilege>
@@ -183,7 +186,7 @@
 						
 						<openmrs:extensionPoint pointId="org.openmrs.patientDashboard.EncountersTabHeader" type="html" parameters="patientId=${patient.patientId}" />
 						<openmrs:globalProperty var="maxEncs" key="dashboard.encounters.maximumNumberToShow" defaultValue="" />
-						<openmrs:portlet url="patientEncounters" id="patientDashboardEncounters" patientId="${patient.patientId}" parameters="num=${maxEncs}|showPagination=true|formEntryReturnUrl=${pageContext.request.contextPath}/patientDashboard.form"/>
+						<openmrs:portlet url="patientEncounters" id="patientDashboardEncounters" patientId="${patient.patientId}" deferred="${deferredTabs}" parameters="num=${maxEncs}|showPagination=true|formEntryReturnUrl=${pageContext.request.contextPath}/patientDashboard.form"/>
 						
 					</div>
 				</openmrs:hasPrivilege>
@@ -195,7 +198,7 @@
 		<div id="patientDemographics" style="display:none;">
 			
 			<openmrs:extensionPoint pointId="org.openmrs.patientDashboard.DemographicsTabHeader" type="html" parameters="patientId=${patient.patientId}" />
-			<openmrs:portlet url="patientDemographics" id="patientDashboardDemographics" patientId="${patient.patientId}"/>
+			<openmrs:portlet url="patientDemographics" id="patientDashboardDemographics" patientId="${patient.patientId}" deferred="${deferredTabs}"/>
 			
 		</div>
 	</openmrs:hasPrivilege>
@@ -203,7 +206,7 @@
 		<div id="patientGraphs" style="display:none;">
 		
 			<openmrs:extensionPoint pointId="org.openmrs.patientDashboard.GraphsTabHeader" type="html" parameters="patientId=${patient.patientId}" />
-			<openmrs:portlet url="patientGraphs" id="patientGraphsPortlet" patientId="${patient.patientId}"/>
+			<openmrs:portlet url="patientGraphs" id="patientGraphsPortlet" patientId="${patient.patientId}" deferred="${deferredTabs}"/>
 			
 		</div>
 	</openmrs:hasPrivilege>
@@ -212,7 +215,7 @@
 			<div id="formEntry" style="display:none;">
 			
 				<openmrs:extensionPoint pointId="org.openmrs.patientDashboard.FormEntryTabHeader" type="html" parameters="patientId=${patient.patientId}" />
-				<openmrs:portlet url="personFormEntry" id="formEntryPortlet" personId="${patient.personId}" parameters="showDecoration=true|showDefinedNumberOfEncounters=true|returnUrl=${pageContext.request.contextPath}/patientDashboard.form"/>
+				<openmrs:portlet url="personFormEntry" id="formEntryPortlet" personId="${patient.personId}" deferred="${deferredTabs}" parameters="showDecoration=true|showDefinedNumberOfEncounters=true|returnUrl=${pageContext.request.contextPath}/patientDashboard.form"/>
 				
 			</div>
 		</openmrs:hasPrivilege>
@@ -12,6 +12,7 @@
 			<openmrs:require privilege="View Observations" otherwise="/login.htm" redirect="/index.htm" />
 
 			<openmrs:htmlInclude file="/scripts/obs.js" ></openmrs:htmlInclude>
+			<openmrs:htmlInclude file="/scripts/calendar/calendar.js" ></openmrs:htmlInclude>
 			<openmrs:htmlInclude file="/dwr/interface/DWRObsService.js" ></openmrs:htmlInclude>
 			
 			<div id="findObservation">
@@ -36,11 +37,20 @@
 									<td><span><openmrs:message code="Obs.concept" /></span> <span class="instructions">(<openmrs:message code="general.optional" />)</span>:</td>
 									<td><openmrs_tag:conceptField formFieldName="conceptId" formFieldId="conceptId"/></td>
 								</tr>
+								<tr class="searchObsByDate">
+									<td><span><openmrs:message code="Obs.date" /></span> <span class="instructions">(<openmrs:message code="general.optional" />)</span>:</td>
+									<td>
+										<openmrs:message code="general.fromDate" />
+										<input type="text" id="obsFromDate" size="10" value="" onfocus="showCalendar(this)" />
+										<openmrs:message code="general.toDate" />
+										<input type="text" id="obsToDate" size="10" value="" onfocus="showCalendar(this)" />
+									</td>
+								</tr>
 								<tr>
 									<td colspan="2">
 										<p />
-										<input type="button" value="<openmrs:message code="general.cancel" />" onClick="obsSearchClear('personId', 'conceptId', '');" />
-										<input type="button" value="<openmrs:message code="general.searchButton" />" onClick="obsSearch('personId', 'conceptId', '', 'obsTable', 'observationList');" />
+										<input type="button" value="<openmrs:message code="general.cancel" />" onClick="obsSearchClear('personId', 'conceptId', '', 'obsFromDate', 'obsToDate');" />
+										<input type="button" value="<openmrs:message code="general.searchButton" />" onClick="obsSearch('personId', 'conceptId', '', 'obsTable', 'observationList', 'obsFromDate', 'obsToDate');" />
 									</td>
 								</tr>
 							</table>
@@ -81,6 +91,7 @@
 						<tbody id="obsTable">
 						</tbody>
 					</table>
+					<div id="obsTablePaging"></div>
 				</div>
 			</div>
 		</c:when>
@@ -202,7 +202,8 @@
 				//searchHandler for the Search widget
 				function doPatientSearch(text, resultHandler, getMatchCount, opts) {
 					lastSearch = text;
-					DWRPatientService.findCountAndPatients(text, opts.start, opts.length, getMatchCount, resultHandler);
+					// only the first call of a search needs the fallback search
+					DWRPatientService.findCountAndPatientsWithFallback(text, opts.start, opts.length, getMatchCount, false, getMatchCount, resultHandler);
 				}
 
 			</script>
@@ -50,9 +50,40 @@ dojo.widget.defineWidget(
 			return u.systemId;
 		},
 		
+		/* number of users fetched at a time when listing all users */
+		userPageSize: 100,
+		
+		usersListed: null,
+		
+		userCount: 0,
+		
 		showAll: function() {
+			this.usersListed = new Array();
+			this.userCount = 0;
+			this.getUserPage(0);
+		},
+		
+		getUserPage: function(start) {
 			var tmpIncludeRetired = (this.showIncludeRetired && this.includeRetired.checked);
-			DWRUserService.getAllUsers(this.roles, tmpIncludeRetired, this.simpleClosure(this, "doObjectsFound"));
+			DWRUserService.getCountAndUsers(this.roles, tmpIncludeRetired, start, this.userPageSize, this.simpleClosure(this, "doUserPageFound"));
+		},
+		
+		doUserPageFound: function(results) {
+			this.userCount = results.count;
+			this.usersListed = this.usersListed.concat(results.objectList);
+			this.doObjectsFound(this.usersListed);
+		},
+		
+		showNext: function() {
+			// fetch the next page of users before paging past the ones listed so far
+			if (this.usersListed != null && this.allObjectsFound == this.usersListed && this.usersListed.length < this.userCount
+					&& this.firstItemDisplayed + 2 * this.numItemsDisplayed > this.usersListed.length) {
+				this.firstItemDisplayed = this.firstItemDisplayed + this.numItemsDisplayed;
+				this.searchIndex = this.firstItemDisplayed - 1;
+				this.getUserPage(this.usersListed.length);
+				return false;
+			}
+			return dojo.widget.openmrs.UserSearch.superclass.showNext.call(this);
 		},
 		
 		getCellFunctions: function() {
@@ -42,13 +42,86 @@ function showHideDiv(id) {
 
 var obsTableToRefresh = "";
 
-function obsSearch( patientField, conceptField, encounterField, obsTable, obsDiv ) {
+// the number of obs shown at once, the rest is fetched page by page
+var obsPageSize = 50;
+// the server stops counting here (ObsSearchQuery.MAX_COUNT), there may be more obs
+var obsMaxCount = 1000;
+var obsSearchArgs = null;
+var obsStart = 0;
+var obsCount = 0;
+
+function obsSearch( patientField, conceptField, encounterField, obsTable, obsDiv, fromDateField, toDateField ) {
 	showDiv(obsDiv);
-	var patientId = patientField.length == 0 ? "" : jquerySelectEscaped(patientField).val();
-	var conceptId = conceptField.length == 0 ? "" : jquerySelectEscaped(conceptField).val();
-	var encounterId = encounterField.length == 0 ? "" : jquerySelectEscaped(encounterField).val();
+	obsSearchArgs = {
+		patientId: obsFieldValue(patientField),
+		conceptId: obsFieldValue(conceptField),
+		encounterId: obsFieldValue(encounterField),
+		fromDate: obsFieldValue(fromDateField),
+		toDate: obsFieldValue(toDateField)
+	};
 	obsTableToRefresh = obsTable;
-	DWRObsService.getObsByPatientConceptEncounter(patientId, conceptId, encounterId, refreshObsTable);
+	obsSearchPage(0);
+}
+
+function obsFieldValue(field) {
+	return (!field || field.length == 0) ? "" : jquerySelectEscaped(field).val();
+}
+
+function obsSearchPage(start) {
+	if (obsSearchArgs == null) {
+		return;
+	}
+	obsStart = start;
+	var a = obsSearchArgs;
+	DWRObsService.getCountAndObs(a.patientId, a.conceptId, a.encounterId, a.fromDate, a.toDate, start, obsPageSize, start == 0, refreshObsPage);
+}
+
+function refreshObsPage(results) {
+	if (results.count != null) {
+		obsCount = results.count;
+	}
+	refreshObsTable(results.objectList);
+	refreshObsPaging(results.objectList ? results.objectList.length : 0);
+}
+
+function refreshObsPaging(shown) {
+	var pagingBar = document.getElementById(obsTableToRefresh + "Paging");
+	if (!pagingBar) {
+		return;
+	}
+	pagingBar.innerHTML = "";
+	if (shown == 0) {
+		return;
+	}
+	var last = obsStart + shown;
+	var countCapped = obsCount >= obsMaxCount;
+	var hasNext = last < obsCount || (countCapped && shown == obsPageSize);
+	var info = document.createElement("span");
+	info.innerHTML = omsgs.searchResultsViewing + " <b>" + (obsStart + 1) + "-" + last + "</b> " + omsgs.searchResultsOf + " <b>" + (countCapped ? obsMaxCount + "+" : obsCount) + "</b> &nbsp; ";
+	pagingBar.appendChild(info);
+	if (obsStart == 0 && !hasNext) {
+		return;
+	}
+	
+	var prev = document.createTextNode(omsgs.previous);
+	if (obsStart > 0) {
+		prev = document.createElement("a");
+		prev.href = "#prev";
+		prev.className = "prevItems";
+		prev.innerHTML = omsgs.previous;
+		prev.onclick = function() { obsSearchPage(Math.max(obsStart - obsPageSize, 0)); return false; };
+	}
+	pagingBar.appendChild(prev);
+	pagingBar.appendChild(document.createTextNode(" | "));
+	var next = document.createTextNode(omsgs.next);
+	if (hasNext) {
+		next = document.createElement("a");
+		next.href = "#next";
+		next.className = "nextItems";
+		next.innerHTML = omsgs.next;
+		next.onclick = function() { obsSearchPage(last); return false; };
+	}
+	pagingBar.appendChild(next);
 }
 
 function refreshObsTable(obss) {
@@ -78,7 +151,7 @@ function refreshObsTable(obss) {
 	}
 }
 
-function obsSearchClear( personField, conceptField, encounterField ) {
+function obsSearchClear( personField, conceptField, encounterField, fromDateField, toDateField ) {
 	if ( personField.length > 0 ) {
 		jquerySelectEscaped(personField).val("");
 		jquerySelectEscaped(personField + "_selection").val("");
@@ -91,4 +164,10 @@ function obsSearchClear( personField, conceptField, encounterField ) {
 		jquerySelectEscaped(encounterField).val("");
 		jquerySelectEscaped(encounterField + "_selection").val("");
 	}
+	if ( fromDateField ) {
+		jquerySelectEscaped(fromDateField).val("");
+	}
+	if ( toDateField ) {
+		jquerySelectEscaped(toDateField).val("");
+	}
 }
\ No newline at end of file
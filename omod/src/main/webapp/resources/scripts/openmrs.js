@@ -26,6 +26,137 @@ function markAllAlertsRead(self) {
 	parent.style.display = "none";
 }
 
+/* the version of the alerts shown on the page, see AlertEventsServlet */
+var alertVersion = null;
+
+/* when the page was last used, i.e. clicked, typed into or scrolled */
+var lastPageActivity = new Date().getTime();
+
+/* the messages of the alert box while watching the alerts is paused because the page is not used */
+var pausedAlertWatch = null;
+
+/**
+ * Waits for the alerts of the logged in user to change, e.g. a new alert or one marked read on
+ * another page, and then shows them again. The server answers when the alerts change or after a
+ * timeout. If it cannot hold the request it answers right away, and then the next request is
+ * sent after a pause.
+ * <p>
+ * Every request keeps the HTTP session alive, so no new request is sent unless the page was used
+ * since the previous one was sent. Otherwise a page left open would never be logged out. Watching
+ * resumes as soon as the page is used again.
+ *
+ * @param messages the messages of the alert box, see headerFull.jsp
+ */
+function watchAlerts(messages) {
+	listenForPageActivity();
+	
+	var url = openmrsContextPath + "/moduleServlet/legacyui/alertEventsServlet";
+	if (alertVersion != null)
+		url += "?version=" + alertVersion;
+	
+	var sent = new Date().getTime();
+	var request = new XMLHttpRequest();
+	request.open("GET", url, true);
+	request.onreadystatechange = function() {
+		if (request.readyState != 4)
+			return;
+		if (request.status != 200) {
+			// logged out or the server cannot be reached, try again much later
+			watchAlertsLater(messages, 300000, sent);
+			return;
+		}
+		var response = JSON.parse(request.responseText);
+		var first = alertVersion == null;
+		var changed = !first && response.version != alertVersion;
+		alertVersion = response.version;
+		if (changed)
+			DWRAlertService.getAlerts(function(alerts) { showAlerts(alerts, messages); });
+		var delay = (first || changed || response.waited) ? 0 : 30000;
+		watchAlertsLater(messages, delay, sent);
+	};
+	request.send();
+}
+
+/**
+ * Watches the alerts again after the given delay, or pauses if the page was not used since the
+ * previous request was sent
+ */
+function watchAlertsLater(messages, delay, sent) {
+	setTimeout(function() {
+		if (lastPageActivity < sent)
+			pausedAlertWatch = messages;
+		else
+			watchAlerts(messages);
+	}, delay);
+}
+
+var listeningForPageActivity = false;
+
+function listenForPageActivity() {
+	if (listeningForPageActivity)
+		return;
+	listeningForPageActivity = true;
+	var events = ["mousedown", "keydown", "scroll", "touchstart"];
+	for (var i = 0; i < events.length; i++) {
+		document.addEventListener(events[i], function() {
+			lastPageActivity = new Date().getTime();
+			if (pausedAlertWatch != null) {
+				var messages = pausedAlertWatch;
+				pausedAlertWatch = null;
+				watchAlerts(messages);
+			}
+		}, true);
+	}
+}
+
+/**
+ * Replaces the alert box at the top of the page, the same as headerFull.jsp renders it
+ *
+ * @param alerts the AlertListItems of the unread alerts
+ * @param messages the messages of the alert box
+ */
+function showAlerts(alerts, messages) {
+	var box = document.getElementById("alertOuterBox");
+	if (alerts.length == 0) {
+		if (box)
+			box.parentNode.removeChild(box);
+		return;
+	}
+	if (!box) {
+		var content = document.getElementById("content");
+		box = document.createElement("div");
+		box.id = "alertOuterBox";
+		content.insertBefore(box, content.firstChild);
+	}
+	box.style.display = "";
+	
+	var images = openmrsContextPath + "/images/";
+	var html = '<div id="alertBar">';
+	html += '<img src="' + images + 'alert.gif" align="center" alt="" title=""/> ';
+	html += (alerts.length == 1 ? messages.unreadAlert : messages.unreadAlerts.replace("{0}", alerts.length));
+	if (alerts[alerts.length - 1].satisfiedByAny)
+		html += ' <i class="smallMessage">(' + messages.satisfiedByAny + ')</i>';
+	html += ' <a href="#markAllAsRead" onclick="return markAllAlertsRead(this)" HIDEFOCUS class="markAllAsRead">';
+	html += '<img src="' + images + 'markRead.gif" alt="' + messages.markAllAsRead + '" title="' + messages.markAllAlertsAsRead + '"/> ';
+	html += '<span class="markAllAsRead">' + messages.markAllAsRead + '</span></a>';
+	html += '</div><div id="alertInnerBox"></div>';
+	box.innerHTML = html;
+	
+	var inner = document.getElementById("alertInnerBox");
+	for (var i = 0; i < alerts.length; i++) {
+		var alertDiv = document.createElement("div");
+		alertDiv.className = "alert";
+		alertDiv.innerHTML = '<a href="#markRead" onclick="return markAlertRead(this, \'' + alerts[i].alertId + '\')" HIDEFOCUS class="markAlertRead">'
+			+ '<img src="' + images + 'markRead.gif" alt="' + messages.mark + '" title="' + messages.mark + '"/> '
+			+ '<span class="markAlertText">' + messages.markAsRead + '</span></a> ';
+		var text = alerts[i].text;
+		if (alerts[i].dateToExpire)
+			text += " " + alerts[i].dateToExpire;
+		alertDiv.appendChild(document.createTextNode(text));
+		inner.appendChild(alertDiv);
+	}
+}
+
 function addClass(obj, c) {
 	if (obj.className.indexOf(c) == -1)
 		obj.className = c + " " + obj.className;
@@ -372,6 +503,32 @@ function jquerySelectEscaped(idToEscape) {
 	return $j("#" + escapeJquerySelector(idToEscape));
 }
 
+/**
+ * Fetches the deferred portlets (see the deferred attribute of the portlet tag) that are visible
+ * and puts them in place of their placeholders. Hidden portlets, e.g. on tabs that are not shown,
+ * are left alone until this is called again after showing them.
+ * @param container the element to look for placeholders in, the whole page if omitted
+ */
+function loadDeferredPortlets(container) {
+	var placeholders = container ? $j(container).find(".deferredPortlet") : $j(".deferredPortlet");
+	placeholders.filter(":visible").each(function() {
+		var placeholder = $j(this);
+		// so that it is not fetched twice while the request is running
+		placeholder.removeClass("deferredPortlet");
+		$j.ajax({
+			url: placeholder.attr("data-portlet-src"),
+			dataType: "html",
+			success: function(html) {
+				placeholder.replaceWith(html);
+			},
+			error: function() {
+				// try again the next time it is shown
+				placeholder.addClass("deferredPortlet");
+			}
+		});
+	});
+}
+
 /**
  * DatePicker class
  * @param dateFormat :String date format to use (ex: dd-mm-yyyy)
@@ -173,6 +173,23 @@
 					</div>
 				</c:if>
 			</openmrs:forEachAlert>
+			<openmrs:authentication>
+				<c:if test="${authenticatedUser != null}">
+					<script type="text/javascript">
+						addEvent(window, "load", function() {
+							watchAlerts({
+								unreadAlert: '<openmrs:message htmlEscape="false" javaScriptEscape="true" code="Alert.unreadAlert"/>',
+								unreadAlerts: '<openmrs:message htmlEscape="false" javaScriptEscape="true" code="Alert.unreadAlerts"/>',
+								satisfiedByAny: '<openmrs:message javaScriptEscape="true" code="Alert.mark.satisfiedByAny"/>',
+								markAllAsRead: '<openmrs:message javaScriptEscape="true" code="Alert.markAllAsRead"/>',
+								markAllAlertsAsRead: '<openmrs:message javaScriptEscape="true" code="Alert.markAllAlertsAsRead"/>',
+								mark: '<openmrs:message javaScriptEscape="true" code="Alert.mark"/>',
+								markAsRead: '<openmrs:message javaScriptEscape="true" code="Alert.markAsRead"/>'
+							});
+						});
+					</script>
+				</c:if>
+			</openmrs:authentication>
 
 			<c:if test="${msg != null}">
 				<div id="openmrs_msg"><openmrs:message code="${msg}" text="${msg}" arguments="${msgArgs}"  htmlEscape="false" /></div>
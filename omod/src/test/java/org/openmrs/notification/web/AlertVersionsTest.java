@@ -0,0 +1,105 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.notification.web;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+import org.junit.jupiter.api.Test;
+import org.openmrs.User;
+import org.openmrs.api.UserService;
+import org.openmrs.notification.Alert;
+import org.openmrs.notification.AlertService;
+import org.openmrs.web.cache.DataChangeAdvice;
+
+/**
+ * Tests the {@link AlertVersions}
+ */
+public class AlertVersionsTest {
+	
+	/**
+	 * @see AlertVersions#increment(Integer)
+	 */
+	@Test
+	public void increment_shouldTellTheListenersOfTheUserAboutTheNewVersion() {
+		AtomicLong notified = new AtomicLong();
+		LongConsumer listener = notified::set;
+		AlertVersions.addListener(9001, listener);
+		try {
+			AlertVersions.increment(9002);
+			assertEquals(0, notified.get());
+			
+			AlertVersions.increment(9001);
+			assertEquals(AlertVersions.getVersion(9001), notified.get());
+		}
+		finally {
+			AlertVersions.removeListener(9001, listener);
+		}
+	}
+	
+	/**
+	 * @see AlertVersions#getVersion(Integer)
+	 */
+	@Test
+	public void getVersion_shouldChangeWhenAnAlertOfTheUserIsSaved() {
+		long before = AlertVersions.getVersion(9003);
+		long other = AlertVersions.getVersion(9004);
+		
+		// what the advice around AlertService.saveAlert does
+		DataChangeAdvice.fireDataChanged(new Alert("Lab results are in", Arrays.asList(new User(9003))));
+		
+		assertNotEquals(before, AlertVersions.getVersion(9003));
+		assertEquals(other, AlertVersions.getVersion(9004));
+	}
+	
+	/**
+	 * @see AlertVersions#getVersion(Integer)
+	 */
+	@Test
+	public void getVersion_shouldChangeWhenAnAlertIsCreatedForTheUser() {
+		long before = AlertVersions.getVersion(9005);
+		
+		// what the advice around AlertService.createAlert(String, User) does
+		DataChangeAdvice.fireDataChanged(new User(9005), AlertService.class);
+		
+		assertNotEquals(before, AlertVersions.getVersion(9005));
+	}
+	
+	/**
+	 * @see AlertVersions#getVersion(Integer)
+	 */
+	@Test
+	public void getVersion_shouldNotChangeWhenTheUserIsSavedThroughTheUserService() {
+		long before = AlertVersions.getVersion(9007);
+		
+		// what the advice around UserService.saveUser does
+		DataChangeAdvice.fireDataChanged(new User(9007), UserService.class);
+		
+		assertEquals(before, AlertVersions.getVersion(9007));
+	}
+	
+	/**
+	 * @see AlertVersions#getVersion(Integer)
+	 */
+	@Test
+	public void getVersion_shouldChangeForEveryUserWhenTheSuperUsersAreNotified() {
+		long before = AlertVersions.getVersion(9006);
+		
+		// what the advice around AlertService.notifySuperUsers does
+		DataChangeAdvice.fireDataChanged(AlertService.class);
+		
+		assertNotEquals(before, AlertVersions.getVersion(9006));
+	}
+	
+}
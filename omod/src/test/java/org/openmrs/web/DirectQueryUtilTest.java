@@ -0,0 +1,52 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.openmrs.Location;
+import org.openmrs.api.APIAuthenticationException;
+import org.openmrs.api.context.Context;
+import org.openmrs.util.PrivilegeConstants;
+import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests the {@link DirectQueryUtil} class.
+ */
+public class DirectQueryUtilTest extends BaseModuleWebContextSensitiveTest {
+	
+	/**
+	 * @see DirectQueryUtil#getSession(String)
+	 */
+	@Test
+	public void getSession_shouldFailIfTheUserLacksThePrivilege() {
+		Context.logout();
+		
+		Assertions.assertThrows(APIAuthenticationException.class, () -> DirectQueryUtil
+		        .getSession(PrivilegeConstants.GET_LOCATIONS));
+	}
+	
+	/**
+	 * @see DirectQueryUtil#loadInOrder(org.hibernate.Session,String,List,java.util.function.Function)
+	 */
+	@Test
+	public void loadInOrder_shouldReturnTheEntitiesInTheOrderOfTheIds() {
+		List<Location> locations = DirectQueryUtil.loadInOrder(DirectQueryUtil.getSession(PrivilegeConstants.GET_LOCATIONS),
+		    "from Location l where l.locationId in (:ids)", Arrays.asList(2, 999, 1), Location::getLocationId);
+		
+		Assertions.assertEquals(
+		    Arrays.asList(Context.getLocationService().getLocation(2), Context.getLocationService().getLocation(1)),
+		    locations);
+	}
+	
+}
@@ -0,0 +1,158 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.openmrs.Obs;
+import org.openmrs.api.ObsService;
+import org.openmrs.notification.AlertService;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Tests for the {@link DataChangeAdvice} class.
+ */
+public class DataChangeAdviceTest {
+	
+	private final List<Object> changed = new ArrayList<Object>();
+	
+	private final DataChangeListener listener = changed::add;
+	
+	@AfterEach
+	public void removeListener() {
+		DataChangeAdvice.removeListener(listener);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+	
+	/**
+	 * @see DataChangeAdvice#afterReturning(Object,java.lang.reflect.Method,Object[],Object)
+	 */
+	@Test
+	public void afterReturning_shouldTellTheListenersOnlyAfterTheTransactionCommitted() throws Throwable {
+		DataChangeAdvice.addListener(listener);
+		TransactionSynchronizationManager.initSynchronization();
+		Obs obs = new Obs();
+		
+		saveObs(obs);
+		Assertions.assertTrue(changed.isEmpty());
+		
+		for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+			synchronization.afterCommit();
+		}
+		Assertions.assertEquals(1, changed.size());
+		Assertions.assertSame(obs, changed.get(0));
+	}
+	
+	/**
+	 * @see DataChangeAdvice#afterReturning(Object,java.lang.reflect.Method,Object[],Object)
+	 */
+	@Test
+	public void afterReturning_shouldNotTellTheListenersAboutChangesThatWereRolledBack() throws Throwable {
+		DataChangeAdvice.addListener(listener);
+		TransactionSynchronizationManager.initSynchronization();
+		
+		saveObs(new Obs());
+		for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+			synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+		}
+		
+		Assertions.assertTrue(changed.isEmpty());
+	}
+	
+	/**
+	 * @see DataChangeAdvice#afterReturning(Object,java.lang.reflect.Method,Object[],Object)
+	 */
+	@Test
+	public void afterReturning_shouldTellTheListenersAboutPurgedObjectsAsPurges() throws Throwable {
+		List<Object> purged = new ArrayList<Object>();
+		DataChangeListener purgeListener = new DataChangeListener() {
+			
+			@Override
+			public void dataChanged(Object changed) {
+				DataChangeAdviceTest.this.changed.add(changed);
+			}
+			
+			@Override
+			public void dataPurged(Object object) {
+				purged.add(object);
+			}
+		};
+		DataChangeAdvice.addListener(purgeListener);
+		try {
+			Obs obs = new Obs();
+			new DataChangeAdvice().afterReturning(null, ObsService.class.getMethod("purgeObs", Obs.class),
+			    new Object[] { obs }, null);
+			
+			Assertions.assertTrue(changed.isEmpty());
+			Assertions.assertEquals(1, purged.size());
+			Assertions.assertSame(obs, purged.get(0));
+		}
+		finally {
+			DataChangeAdvice.removeListener(purgeListener);
+		}
+	}
+	
+	/**
+	 * @see DataChangeAdvice#afterReturning(Object,java.lang.reflect.Method,Object[],Object)
+	 */
+	@Test
+	public void afterReturning_shouldTellTheListenersAboutTheServiceIfTheMethodWasGivenNoDataObject() throws Throwable {
+		DataChangeAdvice.addListener(listener);
+		
+		new DataChangeAdvice().afterReturning(null, AlertService.class.getMethod("notifySuperUsers", String.class,
+		    Exception.class, Object[].class), new Object[] { "error.code", null, new Object[0] }, null);
+		
+		Assertions.assertEquals(1, changed.size());
+		Assertions.assertSame(AlertService.class, changed.get(0));
+	}
+	
+	/**
+	 * @see DataChangeAdvice#afterReturning(Object,java.lang.reflect.Method,Object[],Object)
+	 */
+	@Test
+	public void afterReturning_shouldTellTheListenersWhichServiceChangedTheObject() throws Throwable {
+		List<Class<?>> services = new ArrayList<Class<?>>();
+		DataChangeListener serviceListener = new DataChangeListener() {
+			
+			@Override
+			public void dataChanged(Object changed) {
+				services.add(null);
+			}
+			
+			@Override
+			public void dataChanged(Object changed, Class<?> service) {
+				services.add(service);
+			}
+		};
+		DataChangeAdvice.addListener(serviceListener);
+		try {
+			saveObs(new Obs());
+		}
+		finally {
+			DataChangeAdvice.removeListener(serviceListener);
+		}
+		
+		Assertions.assertEquals(1, services.size());
+		Assertions.assertSame(ObsService.class, services.get(0));
+	}
+	
+	private void saveObs(Obs obs) throws Throwable {
+		new DataChangeAdvice().afterReturning(obs, ObsService.class.getMethod("saveObs", Obs.class, String.class),
+		    new Object[] { obs, null }, null);
+	}
+	
+}
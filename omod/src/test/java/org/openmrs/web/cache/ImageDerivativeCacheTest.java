@@ -0,0 +1,74 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.cache;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.LegacyUIConstants;
+import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests the {@link ImageDerivativeCache} class.
+ */
+public class ImageDerivativeCacheTest extends BaseModuleWebContextSensitiveTest {
+	
+	@AfterEach
+	public void clearCache() {
+		ImageDerivativeCache.clear();
+	}
+	
+	/**
+	 * @see ImageDerivativeCache#get(String)
+	 */
+	@Test
+	public void get_shouldReturnTheFileOfAStoredImage() throws Exception {
+		String key = ImageDerivativeCache.getKey(7, "RAW_VIEW", 1000L);
+		Assertions.assertNull(ImageDerivativeCache.get(key));
+		
+		ImageDerivativeCache.put(key, "png", new byte[] { 1, 2, 3 });
+		
+		File file = ImageDerivativeCache.get(key);
+		Assertions.assertTrue(file.getName().endsWith(".png"));
+		Assertions.assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(file.toPath()));
+		
+		// what the advice around ObsService.voidObs does
+		DataChangeAdvice.fireDataChanged(Context.getObsService().getObs(7));
+		
+		Assertions.assertNull(ImageDerivativeCache.get(key));
+		Assertions.assertFalse(file.exists());
+	}
+	
+	/**
+	 * @see ImageDerivativeCache#put(String,String,byte[])
+	 */
+	@Test
+	public void put_shouldDeleteTheLeastRecentlyUsedImagesWhenTheCacheIsFull() {
+		Context.getAdministrationService().setGlobalProperty(LegacyUIConstants.GP_COMPLEX_OBS_IMAGE_CACHE_SIZE, "1");
+		byte[] content = new byte[400 * 1024];
+		String first = ImageDerivativeCache.getKey(1, "RAW_VIEW", 1000L);
+		String second = ImageDerivativeCache.getKey(2, "RAW_VIEW", 1000L);
+		String third = ImageDerivativeCache.getKey(3, "RAW_VIEW", 1000L);
+		
+		ImageDerivativeCache.put(first, "png", content);
+		ImageDerivativeCache.put(second, "png", content);
+		Assertions.assertNotNull(ImageDerivativeCache.get(first));
+		ImageDerivativeCache.put(third, "png", content);
+		
+		Assertions.assertNotNull(ImageDerivativeCache.get(first));
+		Assertions.assertNull(ImageDerivativeCache.get(second));
+		Assertions.assertNotNull(ImageDerivativeCache.get(third));
+	}
+	
+}
@@ -0,0 +1,51 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.cache;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.openmrs.Location;
+import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests for the {@link SearchResultCache} class.
+ */
+public class SearchResultCacheTest extends BaseModuleWebContextSensitiveTest {
+	
+	private static final SearchResultCache cache = SearchResultCache.create("searchResultCacheTest", Location.class);
+	
+	/**
+	 * @see SearchResultCache#get(java.util.function.Supplier,Object...)
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void get_shouldHandEveryCallerItsOwnCopyOfTheResult() {
+		cache.clear();
+		Map<String, Object> first = cache.get(() -> {
+			Map<String, Object> result = new HashMap<String, Object>();
+			result.put("objectList", new Vector<Object>());
+			return result;
+		}, "phrase");
+		((List<Object>) first.get("objectList")).add("changed by the first caller");
+		
+		Map<String, Object> second = cache.get(HashMap::new, "phrase");
+		((List<Object>) second.get("objectList")).add("changed by the second caller");
+		
+		Map<String, Object> third = cache.get(HashMap::new, "phrase");
+		Assertions.assertTrue(third.get("objectList") instanceof Vector);
+		Assertions.assertTrue(((List<Object>) third.get("objectList")).isEmpty());
+	}
+	
+}
@@ -9,6 +9,7 @@
  */
 package org.openmrs.web.controller;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -17,6 +18,8 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
 import org.openmrs.web.WebConstants;
 import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
 import org.springframework.mock.web.MockHttpServletRequest;
@@ -36,16 +39,40 @@ public class PortletControllerTest extends BaseModuleWebContextSensitiveTest {
 	 * @throws Exception
 	 */
 	private Map<String, Object> getModelFromController(Integer patientId) throws Exception {
-		MockHttpServletRequest request = new MockHttpServletRequest("GET", "");
+		return getModelFromController(new PortletController(), patientId);
+	}
+	
+	/**
+	 * Convenience method to get the "model" from the given controller's handleRequest method
+	 * 
+	 * @param controller the controller to call
+	 * @param patientId the patient id to fetch
+	 * @return the Map from string to object of everything in the generated "model"
+	 * @throws Exception
+	 */
+	private Map<String, Object> getModelFromController(PortletController controller, Integer patientId) throws Exception {
+		return getModelFromController(controller, new MockHttpServletRequest("GET", ""), patientId);
+	}
+	
+	/**
+	 * Convenience method to get the "model" from the given controller's handleRequest method
+	 * 
+	 * @param controller the controller to call
+	 * @param request the request to render the portlet in
+	 * @param patientId the patient id to fetch
+	 * @return the Map from string to object of everything in the generated "model"
+	 * @throws Exception
+	 */
+	private Map<String, Object> getModelFromController(PortletController controller, MockHttpServletRequest request,
+	        Integer patientId) throws Exception {
 		HttpServletResponse response = new MockHttpServletResponse();
 		
 		request.setAttribute(WebConstants.INIT_REQ_UNIQUE_ID, "1");
-		request.getSession().setAttribute(WebConstants.OPENMRS_PORTLET_LAST_REQ_ID, "0");
 		request.setAttribute("javax.servlet.include.servlet_path", "testPortlet");
 		request.setAttribute("org.openmrs.portlet.parameters", new HashMap());
 		request.setAttribute("org.openmrs.portlet.patientId", patientId);
 		
-		ModelAndView modelAndView = new PortletController().handleRequest(request, response);
+		ModelAndView modelAndView = controller.handleRequest(request, response);
 		
 		return (Map<String, Object>) modelAndView.getModel().get("model");
 	}
@@ -68,4 +95,100 @@ public class PortletControllerTest extends BaseModuleWebContextSensitiveTest {
 		Map<String, Object> modelmap = getModelFromController(7);
 		Assertions.assertEquals("?", modelmap.get("patientBmiAsString"));
 	}
+	
+	/**
+	 * @see PortletController#handleRequest(HttpServletRequest,HttpServletResponse)
+	 */
+	@Test
+	public void handleRequest_shouldPutTheLatestWeightAndHeightInTheModelWithoutLoadingAllObs() throws Exception {
+		executeDataSet("org/openmrs/web/controller/include/PortletControllerTest-bmi.xml");
+		Map<String, Object> modelmap = getModelFromController(7);
+		Assertions.assertEquals(7, ((Obs) modelmap.get("patientWeight")).getObsId().intValue());
+		Assertions.assertEquals(17, ((Obs) modelmap.get("patientHeight")).getObsId().intValue());
+		Assertions.assertFalse(((PortletModel) modelmap).isLoaded("patientObs"));
+	}
+	
+	/**
+	 * @see PortletController#handleRequest(HttpServletRequest,HttpServletResponse)
+	 */
+	@Test
+	public void handleRequest_shouldNotLoadUndeclaredModelSections() throws Exception {
+		PortletModel model = (PortletModel) getModelFromController(7);
+		Assertions.assertTrue(model.containsKey("patientEncounters"));
+		Assertions.assertFalse(model.isLoaded("patientEncounters"));
+		Assertions.assertFalse(model.isLoaded("patientPrograms"));
+		Assertions.assertNotNull(model.get("patientEncounters"));
+		Assertions.assertTrue(model.isLoaded("patientEncounters"));
+	}
+	
+	/**
+	 * @see PortletController#handleRequest(HttpServletRequest,HttpServletResponse)
+	 */
+	@Test
+	public void handleRequest_shouldLoadTheModelSectionsDeclaredForThePortlet() throws Exception {
+		PortletController controller = new PortletController();
+		controller.setModelSections(Collections.singletonMap("testPortlet", "encounters, programs"));
+		PortletModel model = (PortletModel) getModelFromController(controller, 7);
+		Assertions.assertTrue(model.isLoaded("patientEncounters"));
+		Assertions.assertTrue(model.isLoaded("patientPrograms"));
+		Assertions.assertTrue(model.isLoaded("patientCurrentPrograms"));
+		Assertions.assertFalse(model.isLoaded("patientObs"));
+	}
+	
+	/**
+	 * @see PortletController#handleRequest(HttpServletRequest,HttpServletResponse)
+	 */
+	@Test
+	public void handleRequest_shouldShareTheModelBetweenPortletsOfTheSameRequestOnly() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "");
+		Map<String, Object> first = getModelFromController(new PortletController(), request, 7);
+		Map<String, Object> second = getModelFromController(new PortletController(), request, 7);
+		Assertions.assertSame(first, second);
+		Assertions.assertNotSame(first, getModelFromController(7));
+	}
+	
+	/**
+	 * @see PortletController#handleRequest(HttpServletRequest,HttpServletResponse)
+	 */
+	@Test
+	public void handleRequest_shouldNotStoreTheModelInTheHttpSession() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "");
+		getModelFromController(new PortletController(), request, 7);
+		Assertions.assertNull(request.getSession().getAttribute(WebConstants.OPENMRS_PORTLET_CACHED_MODEL));
+		Assertions.assertNotNull(request.getAttribute(PortletModel.REQUEST_ATTRIBUTE));
+	}
+	
+	/**
+	 * @see PortletController#handleRequest(HttpServletRequest,HttpServletResponse)
+	 */
+	@Test
+	public void handleRequest_shouldRenderADeferredPortletRequestedWithItsToken() throws Exception {
+		Map<String, Object> attributes = new HashMap<String, Object>();
+		attributes.put("org.openmrs.portlet.parameters", new HashMap<String, Object>());
+		attributes.put("org.openmrs.portlet.patientId", 7);
+		MockHttpServletRequest pageRequest = new MockHttpServletRequest("GET", "/patientDashboard.form");
+		String token = DeferredPortlets.defer(pageRequest, "/portlets/patientVisits.portlet", attributes);
+		
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/portlets/patientVisits.portlet");
+		request.setSession(pageRequest.getSession());
+		request.setParameter(DeferredPortlets.TOKEN_PARAMETER, token);
+		ModelAndView modelAndView = new PortletController().handleRequest(request, new MockHttpServletResponse());
+		
+		Assertions.assertEquals("/portlets/patientVisits", modelAndView.getViewName());
+		Map<String, Object> model = (Map<String, Object>) modelAndView.getModel().get("model");
+		Assertions.assertEquals(7, ((Patient) model.get("patient")).getPatientId().intValue());
+	}
+	
+	/**
+	 * @see PortletController#handleRequest(HttpServletRequest,HttpServletResponse)
+	 */
+	@Test
+	public void handleRequest_shouldNotRenderAnythingForAnUnknownDeferredPortletToken() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/portlets/patientVisits.portlet");
+		request.setParameter(DeferredPortlets.TOKEN_PARAMETER, "unknown");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		
+		Assertions.assertNull(new PortletController().handleRequest(request, response));
+		Assertions.assertEquals(HttpServletResponse.SC_NOT_FOUND, response.getStatus());
+	}
 }
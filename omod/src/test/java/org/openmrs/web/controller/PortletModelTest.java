@@ -0,0 +1,80 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.controller;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link PortletModel} class.
+ */
+public class PortletModelTest {
+	
+	/**
+	 * @see PortletModel#entrySet()
+	 */
+	@Test
+	public void entrySet_shouldComputeLazyValuesInsteadOfReturningTheirSuppliers() {
+		PortletModel model = new PortletModel();
+		model.putLazy("patientObs", () -> "obs");
+		
+		Map.Entry<String, Object> entry = model.entrySet().iterator().next();
+		
+		Assertions.assertEquals("obs", entry.getValue());
+		Assertions.assertTrue(model.isLoaded("patientObs"));
+	}
+	
+	/**
+	 * @see PortletModel#values()
+	 */
+	@Test
+	public void values_shouldComputeLazyValuesInsteadOfReturningTheirSuppliers() {
+		PortletModel model = new PortletModel();
+		model.putLazy("patientObs", () -> "obs");
+		
+		Assertions.assertEquals("obs", model.values().iterator().next());
+		Assertions.assertTrue(model.containsValue("obs"));
+	}
+	
+	/**
+	 * @see PortletModel#forEach(java.util.function.BiConsumer)
+	 */
+	@Test
+	public void forEach_shouldComputeLazyValuesOnlyOnce() {
+		PortletModel model = new PortletModel();
+		AtomicInteger calls = new AtomicInteger();
+		model.putLazy("patientObs", () -> "obs" + calls.incrementAndGet());
+		
+		model.forEach((key, value) -> Assertions.assertEquals("obs1", value));
+		Map<String, Object> copy = new HashMap<String, Object>(model);
+		
+		Assertions.assertEquals("obs1", copy.get("patientObs"));
+		Assertions.assertEquals(1, calls.get());
+	}
+	
+	/**
+	 * @see PortletModel#put(String,Object)
+	 */
+	@Test
+	public void put_shouldNotComputeTheLazyValueItReplaces() {
+		PortletModel model = new PortletModel();
+		AtomicInteger calls = new AtomicInteger();
+		model.putLazy("patientObs", () -> calls.incrementAndGet());
+		
+		Assertions.assertNull(model.put("patientObs", "obs"));
+		Assertions.assertEquals("obs", model.get("patientObs"));
+		Assertions.assertEquals(0, calls.get());
+	}
+	
+}
@@ -0,0 +1,127 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.controller;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openmrs.Location;
+import org.openmrs.api.context.Context;
+import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests for the {@link PortletSectionLoader} class. The workers cannot see the data of the test
+ * transaction, so the sections loaded here only hand back entities that exist by id.
+ */
+public class PortletSectionLoaderTest extends BaseModuleWebContextSensitiveTest {
+	
+	private PortletSectionLoader loader;
+	
+	private final CountDownLatch release = new CountDownLatch(1);
+	
+	@BeforeEach
+	public void createLoader() {
+		loader = new PortletSectionLoader();
+		loader.setSessionFactory(Context.getRegisteredComponent("sessionFactory", SessionFactory.class));
+	}
+	
+	@AfterEach
+	public void shutdownLoader() {
+		release.countDown();
+		loader.shutdown();
+	}
+	
+	/**
+	 * @see PortletSectionLoader#prepare(PortletModelSection,Supplier,long)
+	 */
+	@Test
+	public void prepare_shouldLoadSectionsOnTheWorkerPoolSideBySide() {
+		CountDownLatch bothRunning = new CountDownLatch(2);
+		Supplier<List<Location>> section = () -> {
+			bothRunning.countDown();
+			// only finishes if the other section runs at the same time
+			awaitQuietly(bothRunning);
+			return Collections.singletonList(onWorker() ? new Location(1) : null);
+		};
+		PortletSectionLoader.PendingSection encounters = loader.prepare(PortletModelSection.ENCOUNTERS, section, 5000);
+		PortletSectionLoader.PendingSection visits = loader.prepare(PortletModelSection.VISITS, section, 5000);
+		
+		encounters.start();
+		visits.start();
+		
+		Location location = Context.getLocationService().getLocation(1);
+		Assertions.assertEquals(Collections.singletonList(location), encounters.get());
+		Assertions.assertEquals(Collections.singletonList(location), visits.get());
+		// loaded again in the session of the request thread
+		Assertions.assertSame(location, ((List<?>) encounters.get()).get(0));
+	}
+	
+	/**
+	 * @see PortletSectionLoader#prepare(PortletModelSection,Supplier,long)
+	 */
+	@Test
+	public void prepare_shouldLoadASectionOnTheRequestThreadOnceItTimedOut() {
+		PortletSectionLoader.PendingSection section = loader.prepare(PortletModelSection.OBS, blockOnWorker(), 50);
+		
+		Assertions.assertEquals(Collections.singletonList("request"), section.get());
+	}
+	
+	/**
+	 * @see PortletSectionLoader#prepare(PortletModelSection,Supplier,long)
+	 */
+	@Test
+	public void prepare_shouldLoadASectionOnTheRequestThreadIfThePoolIsSaturated() {
+		loader.setPoolSize(1);
+		loader.setQueueCapacity(1);
+		loader.prepare(PortletModelSection.ENCOUNTERS, blockOnWorker(), 5000).start();
+		loader.prepare(PortletModelSection.VISITS, blockOnWorker(), 5000).start();
+		PortletSectionLoader.PendingSection programs = loader.prepare(PortletModelSection.PROGRAMS, blockOnWorker(), 5000);
+		
+		programs.start();
+		
+		Assertions.assertEquals(Collections.singletonList("request"), programs.get());
+	}
+	
+	/**
+	 * @return a section loader that blocks on a worker until the test ends, and otherwise tells it
+	 *         ran on the request thread
+	 */
+	private Supplier<List<String>> blockOnWorker() {
+		return () -> {
+			if (onWorker()) {
+				awaitQuietly(release);
+				return Collections.singletonList("worker");
+			}
+			return Collections.singletonList("request");
+		};
+	}
+	
+	private static boolean onWorker() {
+		return Thread.currentThread().getName().startsWith("portlet-section-loader-");
+	}
+	
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+}
@@ -0,0 +1,89 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.controller.maintenance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openmrs.api.APIAuthenticationException;
+import org.openmrs.api.context.Context;
+import org.openmrs.web.metrics.PortletStatistics;
+import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
+import org.springframework.ui.ModelMap;
+
+/**
+ * Tests the {@link PortletStatisticsController} controller
+ */
+public class PortletStatisticsControllerTest extends BaseModuleWebContextSensitiveTest {
+	
+	private PortletStatisticsController controller;
+	
+	@BeforeEach
+	public void before() {
+		controller = new PortletStatisticsController();
+		PortletStatistics.reset();
+	}
+	
+	/**
+	 * @see PortletStatisticsController#showPage(ModelMap)
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void showPage_shouldAddThePortletStatisticsToTheModelMap() {
+		PortletStatistics.record("/portlets/fast.portlet", 5, 1);
+		PortletStatistics.record("/portlets/slow.portlet", 500, 20);
+		ModelMap model = new ModelMap();
+		
+		assertEquals("/module/legacyui/admin/maintenance/portletStatistics", controller.showPage(model));
+		
+		List<PortletStatistics> statistics = (List<PortletStatistics>) model.get("portletStatistics");
+		assertEquals(2, statistics.size());
+		assertEquals("/portlets/slow.portlet", statistics.get(0).getPortlet());
+		assertEquals(20, statistics.get(0).getMaxServiceCalls());
+	}
+	
+	/**
+	 * @see PortletStatisticsController#showPage(ModelMap)
+	 */
+	@Test
+	public void showPage_shouldFailIfTheUserCannotViewAdministrationFunctions() {
+		Context.logout();
+		
+		assertThrows(APIAuthenticationException.class, () -> controller.showPage(new ModelMap()));
+	}
+	
+	/**
+	 * @see PortletStatisticsController#reset()
+	 */
+	@Test
+	public void reset_shouldClearThePortletStatistics() {
+		PortletStatistics.record("/portlets/fast.portlet", 5, 1);
+		
+		controller.reset();
+		
+		assertTrue(PortletStatistics.getSlowest().isEmpty());
+	}
+	
+	/**
+	 * @see PortletStatisticsController#reset()
+	 */
+	@Test
+	public void reset_shouldFailIfTheUserCannotViewAdministrationFunctions() {
+		Context.logout();
+		
+		assertThrows(APIAuthenticationException.class, () -> controller.reset());
+	}
+	
+}
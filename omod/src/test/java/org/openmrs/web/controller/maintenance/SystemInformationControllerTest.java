@@ -9,12 +9,14 @@
  */
 package org.openmrs.web.controller.maintenance;
 
+import java.util.List;
 import java.util.Map;
 
 import org.junit.jupiter.api.Assertions;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.openmrs.web.servlet.GraphRenderingPool;
 import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
 import org.springframework.ui.ModelMap;
 
@@ -84,4 +86,20 @@ public class SystemInformationControllerTest extends BaseModuleWebContextSensiti
 		        .containsKey("SystemInfo.title.memoryInformation"));
 	}
 	
+	/**
+	 * @see SystemInformationController#showPage(ModelMap)
+	 */
+	@Test
+	public void showPage_shouldAddCacheStatisticsAttributeToTheModelMap() {
+		Assertions.assertTrue(model.get("cacheStatistics") instanceof List);
+	}
+	
+	/**
+	 * @see SystemInformationController#showPage(ModelMap)
+	 */
+	@Test
+	public void showPage_shouldAddGraphRenderingAttributeToTheModelMap() {
+		Assertions.assertSame(GraphRenderingPool.getInstance(), model.get("graphRendering"));
+	}
+	
 }
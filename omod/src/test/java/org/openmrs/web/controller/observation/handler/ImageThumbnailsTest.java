@@ -0,0 +1,66 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.controller.observation.handler;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openmrs.web.cache.ImageDerivativeCache;
+import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests the {@link ImageThumbnails} class.
+ */
+public class ImageThumbnailsTest extends BaseModuleWebContextSensitiveTest {
+	
+	@TempDir
+	Path tempDir;
+	
+	@AfterEach
+	public void clearCache() {
+		ImageDerivativeCache.clear();
+	}
+	
+	/**
+	 * @see ImageThumbnails#getThumbnail(Integer,File)
+	 */
+	@Test
+	public void getThumbnail_shouldCreateTheThumbnailOfAnImage() throws Exception {
+		File original = tempDir.resolve("xray.png").toFile();
+		ImageIO.write(new BufferedImage(1600, 800, BufferedImage.TYPE_INT_RGB), "png", original);
+		
+		File thumbnail = ImageThumbnails.getThumbnail(1, original);
+		
+		BufferedImage image = ImageIO.read(thumbnail);
+		Assertions.assertEquals(ImageThumbnails.MAX_SIZE, image.getWidth());
+		Assertions.assertEquals(ImageThumbnails.MAX_SIZE / 2, image.getHeight());
+		Assertions.assertEquals(thumbnail, ImageThumbnails.getThumbnail(1, original));
+	}
+	
+	/**
+	 * @see ImageThumbnails#getThumbnail(Integer,File)
+	 */
+	@Test
+	public void getThumbnail_shouldReturnNullIfTheFileIsNotAnImage() throws Exception {
+		File original = tempDir.resolve("notes.txt").toFile();
+		Files.write(original.toPath(), "not an image".getBytes("UTF-8"));
+		
+		Assertions.assertNull(ImageThumbnails.getThumbnail(1, original));
+	}
+	
+}
@@ -0,0 +1,135 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openmrs.Concept;
+import org.openmrs.ConceptAnswer;
+import org.openmrs.ConceptName;
+import org.openmrs.Drug;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.APIAuthenticationException;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.LegacyUIConstants;
+import org.openmrs.util.OpenmrsConstants;
+import org.openmrs.web.cache.DataChangeAdvice;
+import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests the {@link ConceptAnswerIndex} class.
+ */
+public class ConceptAnswerIndexTest extends BaseModuleWebContextSensitiveTest {
+	
+	private static final List<Locale> ENGLISH = Collections.singletonList(Locale.ENGLISH);
+	
+	private ConceptService cs;
+	
+	@BeforeEach
+	public void before() {
+		new ConceptAnswerIndex().globalPropertyChanged(new GlobalProperty(LegacyUIConstants.GP_CONCEPT_ANSWER_INDEX,
+		        "true"));
+		cs = Context.getConceptService();
+	}
+	
+	@AfterEach
+	public void switchOffIndex() {
+		new ConceptAnswerIndex().globalPropertyDeleted(LegacyUIConstants.GP_CONCEPT_ANSWER_INDEX);
+	}
+	
+	/**
+	 * @see ConceptAnswerIndex#findAnswers(Concept,String,List,boolean)
+	 */
+	@Test
+	public void findAnswers_shouldFindTheAnswersHavingANameStartingWithTheText() {
+		Concept answer = cs.getConcept(7);
+		answer.addName(new ConceptName("FIRST CHOICE", Locale.ENGLISH));
+		cs.saveConcept(answer);
+		
+		List<Object> items = ConceptAnswerIndex.findAnswers(cs.getConcept(21), "choi fir", ENGLISH, false);
+		
+		Assertions.assertEquals(1, items.size());
+		Assertions.assertEquals(Integer.valueOf(7), ((ConceptListItem) items.get(0)).getConceptId());
+	}
+	
+	/**
+	 * @see ConceptAnswerIndex#findAnswers(Concept,String,List,boolean)
+	 */
+	@Test
+	public void findAnswers_shouldListTheAnswerDrugsAfterTheirConcept() {
+		Drug drug = cs.getDrug(3);
+		Concept drugConcept = drug.getConcept();
+		drugConcept.setConceptClass(cs.getConceptClass(OpenmrsConstants.CONCEPT_CLASS_DRUG));
+		Concept question = cs.getConcept(21);
+		question.addAnswer(new ConceptAnswer(drugConcept, drug));
+		cs.saveConcept(question);
+		
+		List<Object> items = ConceptAnswerIndex.findAnswers(question, "", ENGLISH, true);
+		
+		int conceptIndex = -1;
+		for (int i = 0; i < items.size(); i++) {
+			if (items.get(i) instanceof ConceptListItem
+			        && drugConcept.getConceptId().equals(((ConceptListItem) items.get(i)).getConceptId())) {
+				conceptIndex = i;
+			}
+		}
+		Assertions.assertTrue(conceptIndex >= 0);
+		Assertions.assertEquals(drug.getDrugId(), ((ConceptDrugListItem) items.get(conceptIndex + 1)).getDrugId());
+	}
+	
+	/**
+	 * @see ConceptAnswerIndex#findAnswers(Concept,String,List,boolean)
+	 */
+	@Test
+	public void findAnswers_shouldFindAnswersByTheNamesTheyWereSavedWith() {
+		Concept question = cs.getConcept(21);
+		Assertions.assertTrue(ConceptAnswerIndex.findAnswers(question, "last choi", ENGLISH, false).isEmpty());
+		
+		Concept answer = cs.getConcept(8);
+		answer.addName(new ConceptName("LAST CHOICE", Locale.ENGLISH));
+		cs.saveConcept(answer);
+		// what the advice around ConceptService.saveConcept does
+		DataChangeAdvice.fireDataChanged(answer);
+		
+		List<Object> items = ConceptAnswerIndex.findAnswers(question, "last choi", ENGLISH, false);
+		Assertions.assertEquals(1, items.size());
+		Assertions.assertEquals(Integer.valueOf(8), ((ConceptListItem) items.get(0)).getConceptId());
+	}
+	
+	/**
+	 * @see ConceptAnswerIndex#findAnswers(Concept,String,List,boolean)
+	 */
+	@Test
+	public void findAnswers_shouldReturnNullIfTheIndexIsSwitchedOff() {
+		switchOffIndex();
+		
+		Assertions.assertNull(ConceptAnswerIndex.findAnswers(cs.getConcept(21), "", ENGLISH, false));
+	}
+	
+	/**
+	 * @see ConceptAnswerIndex#findAnswers(Concept,String,List,boolean)
+	 */
+	@Test
+	public void findAnswers_shouldFailIfTheUserCannotGetConcepts() {
+		Concept question = cs.getConcept(21);
+		Context.logout();
+		
+		Assertions.assertThrows(APIAuthenticationException.class, () -> ConceptAnswerIndex.findAnswers(question, "",
+		    ENGLISH, false));
+	}
+	
+}
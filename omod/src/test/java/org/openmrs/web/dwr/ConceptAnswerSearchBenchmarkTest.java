@@ -0,0 +1,144 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openmrs.Concept;
+import org.openmrs.ConceptSearchResult;
+import org.openmrs.GlobalProperty;
+import org.openmrs.User;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.LegacyUIConstants;
+import org.openmrs.util.OpenmrsConstants;
+import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares searching the answers of a question with one query per search locale, with the single
+ * query for all search locales that
+ * {@link DWRConceptService#findConceptAnswers(String, Integer, boolean, boolean)} uses and with the
+ * {@link ConceptAnswerIndex} it uses instead if switched on. Run with <code>mvn test -Pbenchmark</code>.
+ */
+@Tag("benchmark")
+public class ConceptAnswerSearchBenchmarkTest extends BaseModuleWebContextSensitiveTest {
+	
+	private static final Logger log = LoggerFactory.getLogger(ConceptAnswerSearchBenchmarkTest.class);
+	
+	private static final int WARMUP_ITERATIONS = 50;
+	
+	private static final int ITERATIONS = 500;
+	
+	private static final String[] PHRASES = { "", "T", "Y", "NO", "UNK" };
+	
+	private ConceptService cs;
+	
+	private Concept question;
+	
+	private List<Locale> locales;
+	
+	@BeforeEach
+	public void before() throws Exception {
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(OpenmrsConstants.GLOBAL_PROPERTY_LOCALE_ALLOWED_LIST, "en_GB, en_US, fr, es, pl"));
+		User user = Context.getAuthenticatedUser();
+		user.setUserProperty(OpenmrsConstants.USER_PROPERTY_PROFICIENT_LOCALES, "en_GB, en_US, fr, es, pl");
+		Context.getUserService().saveUser(user);
+		updateSearchIndex();
+		
+		cs = Context.getConceptService();
+		question = cs.getConcept(21);
+		locales = Context.getAdministrationService().getSearchLocales();
+		new ConceptAnswerIndex().globalPropertyChanged(new GlobalProperty(LegacyUIConstants.GP_CONCEPT_ANSWER_INDEX,
+		        "true"));
+	}
+	
+	@AfterEach
+	public void switchOffIndex() {
+		new ConceptAnswerIndex().globalPropertyDeleted(LegacyUIConstants.GP_CONCEPT_ANSWER_INDEX);
+	}
+	
+	private List<ConceptSearchResult> searchPerLocale(String phrase) {
+		List<ConceptSearchResult> results = new ArrayList<ConceptSearchResult>();
+		for (Locale locale : locales) {
+			results.addAll(cs.findConceptAnswers(phrase, locale, question));
+		}
+		return results;
+	}
+	
+	private List<ConceptSearchResult> searchAllLocales(String phrase) {
+		return cs.getConcepts(phrase, locales, false, null, null, null, null, question, null, null);
+	}
+	
+	private List<Object> searchAnswerIndex(String phrase) {
+		return ConceptAnswerIndex.findAnswers(question, phrase, locales, false);
+	}
+	
+	private Set<Integer> getConceptIds(List<ConceptSearchResult> results) {
+		Set<Integer> conceptIds = new TreeSet<Integer>();
+		for (ConceptSearchResult result : results) {
+			conceptIds.add(result.getConcept().getConceptId());
+		}
+		return conceptIds;
+	}
+	
+	private Set<Integer> getItemConceptIds(List<Object> items) {
+		Set<Integer> conceptIds = new TreeSet<Integer>();
+		for (Object item : items) {
+			conceptIds.add(((ConceptListItem) item).getConceptId());
+		}
+		return conceptIds;
+	}
+	
+	private long time(Function<String, ?> search) {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			for (String phrase : PHRASES) {
+				search.apply(phrase);
+			}
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			for (String phrase : PHRASES) {
+				search.apply(phrase);
+			}
+		}
+		return (System.nanoTime() - start) / (ITERATIONS * PHRASES.length);
+	}
+	
+	@Test
+	public void compareSearchPerLocaleWithSearchAllLocalesAndAnswerIndex() {
+		ConceptAnswerIndex.clear();
+		for (String phrase : PHRASES) {
+			Set<Integer> expected = getConceptIds(searchPerLocale(phrase));
+			Assertions.assertEquals(expected, getConceptIds(searchAllLocales(phrase)), "phrase '" + phrase + "'");
+			Assertions.assertEquals(expected, getItemConceptIds(searchAnswerIndex(phrase)), "phrase '" + phrase + "'");
+		}
+		
+		long perLocale = time(this::searchPerLocale);
+		long allLocales = time(this::searchAllLocales);
+		long answerIndex = time(this::searchAnswerIndex);
+		log.info("Searching the answers of a question in {} locales took {} microseconds with one query per locale, "
+		        + "{} with one query for all locales and {} with the answer index", locales.size(), perLocale / 1000,
+		    allLocales / 1000, answerIndex / 1000);
+	}
+	
+}
@@ -0,0 +1,179 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.openmrs.Concept;
+import org.openmrs.ConceptDatatype;
+import org.openmrs.ConceptName;
+import org.openmrs.ConceptSearchResult;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.APIAuthenticationException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.LegacyUIConstants;
+import org.openmrs.web.cache.DataChangeAdvice;
+import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests the {@link ConceptNameIndex} class.
+ */
+public class ConceptNameIndexTest extends BaseModuleWebContextSensitiveTest {
+	
+	private static final List<Locale> ENGLISH = Collections.singletonList(Locale.ENGLISH);
+	
+	@AfterEach
+	public void switchOffIndex() {
+		new ConceptNameIndex().globalPropertyDeleted(LegacyUIConstants.GP_CONCEPT_NAME_INDEX);
+	}
+	
+	private void buildIndex() {
+		new ConceptNameIndex().globalPropertyChanged(new GlobalProperty(LegacyUIConstants.GP_CONCEPT_NAME_INDEX, "true"));
+		ConceptNameIndex.build();
+	}
+	
+	private boolean containsConcept(List<ConceptSearchResult> results, Integer conceptId) {
+		for (ConceptSearchResult result : results) {
+			if (conceptId.equals(result.getConcept().getConceptId())) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @see ConceptNameIndex#getConcepts(String,List,boolean,List,List,List,List,Integer,Integer)
+	 */
+	@Test
+	public void getConcepts_shouldFindConceptsByTheBeginningsOfTheWordsOfTheirNames() {
+		buildIndex();
+		
+		Assertions.assertTrue(containsConcept(
+		    ConceptNameIndex.getConcepts("weig", ENGLISH, false, null, null, null, null, null, null), 5089));
+		Assertions.assertTrue(containsConcept(
+		    ConceptNameIndex.getConcepts("kg wei", ENGLISH, false, null, null, null, null, null, null), 5089));
+		Assertions.assertFalse(containsConcept(
+		    ConceptNameIndex.getConcepts("eight", ENGLISH, false, null, null, null, null, null, null), 5089));
+	}
+	
+	/**
+	 * @see ConceptNameIndex#getConcepts(String,List,boolean,List,List,List,List,Integer,Integer)
+	 */
+	@Test
+	public void getConcepts_shouldOnlyFindConceptsOfTheRequiredDatatypes() {
+		buildIndex();
+		ConceptDatatype coded = Context.getConceptService().getConceptDatatypeByName("Coded");
+		
+		Assertions.assertFalse(containsConcept(ConceptNameIndex.getConcepts("weig", ENGLISH, false, null, null,
+		    Collections.singletonList(coded), null, null, null), 5089));
+	}
+	
+	/**
+	 * @see ConceptNameIndex#getConcepts(String,List,boolean,List,List,List,List,Integer,Integer)
+	 */
+	@Test
+	public void getConcepts_shouldFindConceptsByTheNamesTheyWereSavedWithAfterTheIndexWasBuilt() {
+		buildIndex();
+		Concept concept = Context.getConceptService().getConcept(5089);
+		ConceptName name = new ConceptName("BODY MASS", Locale.ENGLISH);
+		name.setConceptNameId(9999);
+		concept.addName(name);
+		
+		// what the advice around ConceptService.saveConcept does
+		DataChangeAdvice.fireDataChanged(concept);
+		
+		Assertions.assertTrue(containsConcept(
+		    ConceptNameIndex.getConcepts("body mas", ENGLISH, false, null, null, null, null, null, null), 5089));
+	}
+	
+	/**
+	 * @see ConceptNameIndex#getConcepts(String,List,boolean,List,List,List,List,Integer,Integer)
+	 */
+	@Test
+	public void getConcepts_shouldReturnNullIfTheIndexIsSwitchedOff() {
+		Assertions.assertNull(ConceptNameIndex.getConcepts("weig", ENGLISH, false, null, null, null, null, null, null));
+	}
+	
+	/**
+	 * @see ConceptNameIndex#getCountOfConcepts(String,List,boolean,List,List,List,List)
+	 */
+	@Test
+	public void getCountOfConcepts_shouldCountTheMatchingConcepts() {
+		buildIndex();
+		
+		List<ConceptSearchResult> results = ConceptNameIndex.getConcepts("w", ENGLISH, false, null, null, null, null, null,
+		    null);
+		Assertions.assertEquals(Integer.valueOf(results.size()),
+		    ConceptNameIndex.getCountOfConcepts("w", ENGLISH, false, null, null, null, null));
+		Assertions.assertEquals(1, ConceptNameIndex.getConcepts("w", ENGLISH, false, null, null, null, null, 0, 1).size());
+	}
+	
+	/**
+	 * @see ConceptNameIndex#getConcepts(String,List,boolean,List,List,List,List,Integer,Integer)
+	 */
+	@Test
+	public void getConcepts_shouldReturnThePageOfResultsInTheOrderOfTheMatches() {
+		buildIndex();
+		
+		List<ConceptSearchResult> all = ConceptNameIndex.getConcepts("w", ENGLISH, false, null, null, null, null, null,
+		    null);
+		List<ConceptSearchResult> page = ConceptNameIndex.getConcepts("w", ENGLISH, false, null, null, null, null, 1, 2);
+		Assertions.assertEquals(2, page.size());
+		Assertions.assertEquals(all.get(1).getConcept(), page.get(0).getConcept());
+		Assertions.assertEquals(all.get(2).getConcept(), page.get(1).getConcept());
+	}
+	
+	/**
+	 * @see ConceptNameIndex#getCountOfConcepts(String,List,boolean,List,List,List,List)
+	 */
+	@Test
+	public void getCountOfConcepts_shouldNotCountConceptsPurgedAfterTheIndexWasBuilt() {
+		buildIndex();
+		Integer count = ConceptNameIndex.getCountOfConcepts("weig", ENGLISH, false, null, null, null, null);
+		
+		// what the advice around ConceptService.purgeConcept does once the transaction committed
+		DataChangeAdvice.fireDataPurged(Context.getConceptService().getConcept(5089));
+		
+		Assertions.assertEquals(Integer.valueOf(count - 1),
+		    ConceptNameIndex.getCountOfConcepts("weig", ENGLISH, false, null, null, null, null));
+		Assertions.assertFalse(containsConcept(
+		    ConceptNameIndex.getConcepts("weig", ENGLISH, false, null, null, null, null, null, null), 5089));
+	}
+	
+	/**
+	 * @see ConceptNameIndex#getConcepts(String,List,boolean,List,List,List,List,Integer,Integer)
+	 */
+	@Test
+	public void getConcepts_shouldFailIfTheUserCannotGetConcepts() {
+		buildIndex();
+		Context.logout();
+		
+		Assertions.assertThrows(APIAuthenticationException.class, () -> ConceptNameIndex.getConcepts("weig", ENGLISH, false,
+		    null, null, null, null, null, null));
+	}
+	
+	/**
+	 * @see ConceptNameIndex#getCountOfConcepts(String,List,boolean,List,List,List,List)
+	 */
+	@Test
+	public void getCountOfConcepts_shouldFailIfTheUserCannotGetConcepts() {
+		buildIndex();
+		Context.logout();
+		
+		Assertions.assertThrows(APIAuthenticationException.class, () -> ConceptNameIndex.getCountOfConcepts("weig",
+		    ENGLISH, false, null, null, null, null));
+	}
+	
+}
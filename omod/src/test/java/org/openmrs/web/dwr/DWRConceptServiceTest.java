@@ -13,6 +13,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -24,6 +25,8 @@ import org.openmrs.User;
 import org.openmrs.api.context.Context;
 import org.openmrs.util.OpenmrsConstants;
 import org.openmrs.util.OpenmrsUtil;
+import org.openmrs.web.cache.CacheStatistics;
+import org.openmrs.web.cache.DataChangeAdvice;
 import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
 
 public class DWRConceptServiceTest extends BaseModuleWebContextSensitiveTest {
@@ -34,6 +37,8 @@ public class DWRConceptServiceTest extends BaseModuleWebContextSensitiveTest {
 	public void before() throws Exception {
 		executeDataSet("org/openmrs/web/dwr/include/DWRConceptServiceTest-coded-concept-with-no-answers.xml");
 		updateSearchIndex();
+		// the answers of other tests' questions are still in memory
+		ConceptAnswerIndex.clear();
 	}
 	
 	/**
@@ -275,6 +280,46 @@ public class DWRConceptServiceTest extends BaseModuleWebContextSensitiveTest {
 		
 	}
 	
+	/**
+	 * @see DWRConceptService#findConceptAnswers(String,Integer,boolean,boolean)
+	 * @verifies list the answers matching in the first search locale first
+	 */
+	@Test
+	public void findConceptAnswers_shouldListTheAnswersMatchingInTheFirstSearchLocaleFirst() throws Exception {
+		//Given
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(OpenmrsConstants.GLOBAL_PROPERTY_LOCALE_ALLOWED_LIST, "en_GB, en_US, pl"));
+		
+		User user = Context.getAuthenticatedUser();
+		user.setUserProperty(OpenmrsConstants.USER_PROPERTY_PROFICIENT_LOCALES, "pl, en_GB");
+		Context.getUserService().saveUser(user);
+		
+		Concept answer1 = Context.getConceptService().getConcept(7);
+		answer1.addName(new ConceptName("TAK", new Locale("pl")));
+		Context.getConceptService().saveConcept(answer1);
+		
+		Concept answer2 = Context.getConceptService().getConcept(8);
+		answer2.addName(new ConceptName("T", new Locale("en")));
+		Context.getConceptService().saveConcept(answer2);
+		
+		updateSearchIndex();
+		
+		Locale locale = Context.getLocale();
+		Context.setLocale(new Locale("pl"));
+		try {
+			//when
+			List<Object> findConceptAnswers = dwrConceptService.findConceptAnswers("T", 21, false, true);
+			
+			//then
+			Assertions.assertEquals(2, findConceptAnswers.size());
+			Assertions.assertEquals(Integer.valueOf(7), ((ConceptListItem) findConceptAnswers.get(0)).getConceptId());
+			Assertions.assertEquals(Integer.valueOf(8), ((ConceptListItem) findConceptAnswers.get(1)).getConceptId());
+		}
+		finally {
+			Context.setLocale(locale);
+		}
+	}
+	
 	@Test
 	public void findBatchOfConcepts_shouldNotReturnDuplicatesWhenSearchingByConceptId() {
 		String phrase = "1001";
@@ -285,4 +330,35 @@ public class DWRConceptServiceTest extends BaseModuleWebContextSensitiveTest {
 		Assertions.assertEquals(1, result.size());
 		Assertions.assertTrue(isConceptFound(expected, result));
 	}
+	
+	/**
+	 * @see DWRConceptService#findCountAndConcepts(String, boolean, List, List, List, List, Integer, Integer,
+	 *      boolean)
+	 */
+	@Test
+	public void findCountAndConcepts_shouldReuseTheResultsOfTheSameSearch() {
+		Map<String, Object> first = dwrConceptService.findCountAndConcepts("CD4", false, null, null, null, null, 0, 10,
+		    true);
+		long hits = CacheStatistics.get("conceptSearch").getHits();
+		Map<String, Object> second = dwrConceptService.findCountAndConcepts("CD4", false, null, null, null, null, 0, 10,
+		    true);
+		Assertions.assertEquals(hits + 1, CacheStatistics.get("conceptSearch").getHits());
+		Assertions.assertEquals(first, second);
+	}
+	
+	/**
+	 * @see DWRConceptService#findCountAndConcepts(String, boolean, List, List, List, List, Integer, Integer,
+	 *      boolean)
+	 */
+	@Test
+	public void findCountAndConcepts_shouldSearchAgainAfterAConceptIsSaved() {
+		dwrConceptService.findCountAndConcepts("WEIGHT", false, null, null, null, null, 0, 10, true);
+		
+		// what the advice around ConceptService.saveConcept does once the transaction committed
+		DataChangeAdvice.fireDataChanged(Context.getConceptService().getConcept(5089));
+		
+		long hits = CacheStatistics.get("conceptSearch").getHits();
+		dwrConceptService.findCountAndConcepts("WEIGHT", false, null, null, null, null, 0, 10, true);
+		Assertions.assertEquals(hits, CacheStatistics.get("conceptSearch").getHits());
+	}
 }
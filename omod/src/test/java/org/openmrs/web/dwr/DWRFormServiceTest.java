@@ -0,0 +1,79 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.openmrs.Concept;
+import org.openmrs.Field;
+import org.openmrs.FormField;
+import org.openmrs.api.FormService;
+import org.openmrs.api.context.Context;
+import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Test the different aspects of {@link DWRFormService}
+ */
+public class DWRFormServiceTest extends BaseModuleWebContextSensitiveTest {
+	
+	/**
+	 * @see DWRFormService#findFieldsAndConcepts(String)
+	 */
+	@Test
+	public void findFieldsAndConcepts_shouldFindTheFieldsOfTheConceptsMatchingTheText() throws Exception {
+		FormService fs = Context.getFormService();
+		Field field = null;
+		for (FormField ff : fs.getForm(1).getFormFields()) {
+			if (ff.getField().getConcept() != null) {
+				field = ff.getField();
+			}
+		}
+		Assertions.assertNotNull(field);
+		
+		List<Object> objects = new DWRFormService().findFieldsAndConcepts(field.getConcept().getConceptId().toString());
+		
+		FieldListItem found = null;
+		for (Object object : objects) {
+			if (object instanceof FieldListItem && field.getFieldId().equals(((FieldListItem) object).getFieldId())) {
+				found = (FieldListItem) object;
+			}
+		}
+		Assertions.assertNotNull(found);
+		Assertions.assertEquals(Integer.valueOf(fs.getFormCount(null, null, null, null, null, null, Collections
+		        .singletonList(field))), found.getNumForms());
+	}
+	
+	/**
+	 * @see DWRFormService#findFieldsAndConcepts(String)
+	 */
+	@Test
+	public void findFieldsAndConcepts_shouldListAMatchingConceptWithoutFieldsAsAConcept() throws Exception {
+		Concept concept = null;
+		for (Concept c : Context.getConceptService().getAllConcepts()) {
+			if (concept == null && Context.getFormService().getFieldsByConcept(c).isEmpty()) {
+				concept = c;
+			}
+		}
+		Assertions.assertNotNull(concept);
+		
+		List<Object> objects = new DWRFormService().findFieldsAndConcepts(concept.getConceptId().toString());
+		
+		boolean found = false;
+		for (Object object : objects) {
+			found |= object instanceof ConceptListItem
+			        && concept.getConceptId().equals(((ConceptListItem) object).getConceptId());
+		}
+		Assertions.assertTrue(found);
+	}
+	
+}
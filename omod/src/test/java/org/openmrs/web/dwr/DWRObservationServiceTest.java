@@ -13,10 +13,13 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.junit.jupiter.api.Test;
 import org.openmrs.Concept;
+import org.openmrs.ConceptName;
 import org.openmrs.Obs;
 import org.openmrs.Person;
 import org.openmrs.api.AdministrationService;
@@ -197,4 +200,45 @@ public class DWRObservationServiceTest extends BaseModuleWebContextSensitiveTest
 		assertNotNull(addedObs.getValueCoded());
 		assertEquals(booleanConcept, addedObs.getValueCoded());
 	}
+	
+	/**
+	 * @see org.openmrs.web.dwr.DWRObsService#getCountAndObs(String, String, String, String, String, Integer, Integer,
+	 *      boolean)
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void getCountAndObs_shouldReturnTheCountAndTheRequestedPageOfTheObsOfThePerson() {
+		List<Obs> all = ObsSearchQuery.getObs(7, null, null, null, null, null, null);
+		
+		Map<String, Object> results = new DWRObsService().getCountAndObs("7", null, null, null, null, 1, 2, true);
+		
+		assertEquals(all.size(), results.get("count"));
+		List<ObsListItem> items = (List<ObsListItem>) results.get("objectList");
+		assertEquals(2, items.size());
+		assertEquals(all.get(1).getObsId(), items.get(0).getObsId());
+		assertEquals(all.get(2).getObsId(), items.get(1).getObsId());
+	}
+	
+	/**
+	 * @see org.openmrs.web.dwr.DWRObsService#getCountAndObs(String, String, String, String, String, Integer, Integer,
+	 *      boolean)
+	 */
+	@Test
+	public void getCountAndObs_shouldIncludeTheObsOfTheMembersOfAConceptSet() {
+		ConceptService conceptService = Context.getConceptService();
+		Person person = Context.getPersonService().getPerson(7);
+		Concept member = ObsSearchQuery.getObs(7, null, null, null, null, 0, 1).get(0).getConcept();
+		Concept set = new Concept();
+		set.addName(new ConceptName("OBS SEARCH SET", Locale.ENGLISH));
+		set.setDatatype(conceptService.getConceptDatatypeByName("N/A"));
+		set.setConceptClass(member.getConceptClass());
+		set.setSet(true);
+		set.addSetMember(member);
+		conceptService.saveConcept(set);
+		
+		Map<String, Object> results = new DWRObsService().getCountAndObs("7", set.getConceptId().toString(), null, null,
+		    null, 0, 100, true);
+		
+		assertEquals(Context.getObsService().getObservationsByPersonAndConcept(person, member).size(), results.get("count"));
+	}
 }
@@ -20,6 +20,8 @@ import org.openmrs.Patient;
 import org.openmrs.PatientIdentifier;
 import org.openmrs.api.PatientService;
 import org.openmrs.api.context.Context;
+import org.openmrs.web.cache.CacheStatistics;
+import org.openmrs.web.cache.DataChangeAdvice;
 import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
 
 /**
@@ -115,6 +117,58 @@ public class DWRPatientServiceTest extends BaseModuleWebContextSensitiveTest {
 		Assertions.assertEquals(1, ((List<?>) resultObjects.get("objectList")).size());
 	}
 
+	/**
+	 * @see DWRPatientService#findCountAndPatientsWithFallback(String,Integer,Integer,boolean,Boolean,boolean)
+	 */
+	@Test
+	public void findCountAndPatientsWithFallback_shouldCountTheMatchesWithoutACountQueryIfTheyFitOnTheFirstPage()
+	        throws Exception {
+		int expected = Context.getPatientService().getCountOfPatients("Test");
+		Map<String, Object> resultObjects = new DWRPatientService().findCountAndPatientsWithFallback("Test", 0,
+		    expected + 5, true, false, false);
+		Assertions.assertEquals(expected, resultObjects.get("count"));
+		Assertions.assertEquals(expected, ((List<?>) resultObjects.get("objectList")).size());
+	}
+	
+	/**
+	 * @see DWRPatientService#findCountAndPatientsWithFallback(String,Integer,Integer,boolean,Boolean,boolean)
+	 */
+	@Test
+	public void findCountAndPatientsWithFallback_shouldCountAllTheMatchesIfTheyDoNotFitOnTheFirstPage() throws Exception {
+		int expected = Context.getPatientService().getCountOfPatients("Test");
+		Assertions.assertTrue(expected > 1);
+		Map<String, Object> resultObjects = new DWRPatientService().findCountAndPatientsWithFallback("Test", 0, 1, true,
+		    false, false);
+		Assertions.assertEquals(expected, resultObjects.get("count"));
+		Assertions.assertEquals(1, ((List<?>) resultObjects.get("objectList")).size());
+	}
+	
+	/**
+	 * @see DWRPatientService#findCountAndPatientsWithFallback(String,Integer,Integer,boolean,Boolean,boolean)
+	 */
+	@Test
+	public void findCountAndPatientsWithFallback_shouldNotSignalForANewSearchIfNoFallbackSearchIsAskedFor()
+	        throws Exception {
+		Map<String, Object> resultObjects = new DWRPatientService().findCountAndPatientsWithFallback("Joht", 0, 10, true,
+		    false, false);
+		Assertions.assertEquals(0, resultObjects.get("count"));
+		Assertions.assertNull(resultObjects.get("searchAgain"));
+		Assertions.assertNull(resultObjects.get("notification"));
+	}
+	
+	/**
+	 * @see DWRPatientService#findCountAndPatientsWithFallback(String,Integer,Integer,boolean,Boolean,boolean)
+	 */
+	@Test
+	public void findCountAndPatientsWithFallback_shouldSignalForANewSearchIfAFallbackSearchIsAskedForAndTheNewSearchValueHasMatches()
+	        throws Exception {
+		Map<String, Object> resultObjects = new DWRPatientService().findCountAndPatientsWithFallback("Joht", 0, 10, true,
+		    false, true);
+		Assertions.assertEquals(0, resultObjects.get("count"));
+		Assertions.assertEquals("Joh", resultObjects.get("searchAgain"));
+		Assertions.assertNotNull(resultObjects.get("notification"));
+	}
+	
 	/**
 	 * @see DWRPatientService#findPatientsByIdentifier(String,Integer,Integer,null)
 	 */
@@ -126,4 +180,36 @@ public class DWRPatientServiceTest extends BaseModuleWebContextSensitiveTest {
 		Assertions.assertEquals(2, resultObjects.size());
 	}
 	
+	/**
+	 * @see DWRPatientService#findCountAndPatientsWithFallback(String,Integer,Integer,boolean,Boolean,boolean)
+	 */
+	@Test
+	public void findCountAndPatientsWithFallback_shouldReuseTheResultsOfTheSameSearch() throws Exception {
+		DWRPatientService dwrService = new DWRPatientService();
+		Map<String, Object> first = dwrService.findCountAndPatientsWithFallback("Hornblower", 0, 10, true, false, true);
+		long hits = CacheStatistics.get("patientSearch").getHits();
+		Map<String, Object> second = dwrService.findCountAndPatientsWithFallback("Hornblower", 0, 10, true, false, true);
+		Assertions.assertEquals(hits + 1, CacheStatistics.get("patientSearch").getHits());
+		Assertions.assertEquals(first, second);
+		Assertions.assertNotSame(first, second);
+		
+		dwrService.findCountAndPatientsWithFallback("Hornblower", 0, 5, true, false, true);
+		Assertions.assertEquals(hits + 1, CacheStatistics.get("patientSearch").getHits());
+	}
+	
+	/**
+	 * @see DWRPatientService#findCountAndPatientsWithFallback(String,Integer,Integer,boolean,Boolean,boolean)
+	 */
+	@Test
+	public void findCountAndPatientsWithFallback_shouldSearchAgainAfterAPatientIsSaved() throws Exception {
+		DWRPatientService dwrService = new DWRPatientService();
+		dwrService.findCountAndPatientsWithFallback("Hornblower", 0, 20, true, false, true);
+		
+		// what the advice around PatientService.savePatient does once the transaction committed
+		DataChangeAdvice.fireDataChanged(Context.getPatientService().getPatient(2));
+		
+		long hits = CacheStatistics.get("patientSearch").getHits();
+		dwrService.findCountAndPatientsWithFallback("Hornblower", 0, 20, true, false, true);
+		Assertions.assertEquals(hits, CacheStatistics.get("patientSearch").getHits());
+	}
 }
@@ -10,9 +10,13 @@
 package org.openmrs.web.dwr;
 
 import java.util.List;
+import java.util.Map;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.LegacyUIConstants;
+import org.openmrs.web.cache.CacheStatistics;
 import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
 
 /**
@@ -41,4 +45,47 @@ public class DWRPersonServiceTest extends BaseModuleWebContextSensitiveTest {
 		new DWRPersonService().findPeopleByRoles("some string", false, null);
 	}
 	
+	/**
+	 * @see DWRPersonService#findCountAndPeople(String,boolean,String,Integer,Integer,boolean)
+	 */
+	@Test
+	public void findCountAndPeople_shouldReuseTheResultsOfTheSameSearch() throws Exception {
+		DWRPersonService dwrPersonService = new DWRPersonService();
+		Map<String, Object> first = dwrPersonService.findCountAndPeople("Test", false, null, 0, 10, false);
+		long hits = CacheStatistics.get("personSearch").getHits();
+		Map<String, Object> second = dwrPersonService.findCountAndPeople("Test", false, null, 0, 10, false);
+		Assertions.assertEquals(hits + 1, CacheStatistics.get("personSearch").getHits());
+		Assertions.assertEquals(first, second);
+	}
+	
+	/**
+	 * @see DWRPersonService#findBatchOfPeopleByRoles(String,boolean,String,Integer,Integer)
+	 */
+	@Test
+	public void findBatchOfPeopleByRoles_shouldReturnTheRequestedPageOfPeopleWhenNoRolesAreGivenAndPagingIsOn()
+	        throws Exception {
+		Context.getAdministrationService().setGlobalProperty(LegacyUIConstants.GP_PAGED_PERSON_SEARCH, "true");
+		DWRPersonService dwrPersonService = new DWRPersonService();
+		
+		List<Object> all = dwrPersonService.findBatchOfPeopleByRoles("Test", false, null, 0, 4);
+		List<Object> second = dwrPersonService.findBatchOfPeopleByRoles("Test", false, null, 2, 2);
+		
+		Assertions.assertEquals(4, all.size());
+		Assertions.assertEquals(all.subList(2, 4), second);
+	}
+	
+	/**
+	 * @see DWRPersonService#findBatchOfPeopleByRoles(String,boolean,String,Integer,Integer)
+	 */
+	@Test
+	public void findBatchOfPeopleByRoles_shouldReturnEveryMatchingPersonWhenNoRolesAreGivenAndPagingIsOff()
+	        throws Exception {
+		int matches = Context.getPersonService().getPeople("Test", null, false).size();
+		
+		List<Object> people = new DWRPersonService().findBatchOfPeopleByRoles("Test", false, null, 0, 2);
+		
+		Assertions.assertTrue(matches > 2);
+		Assertions.assertEquals(matches, people.size());
+	}
+	
 }
@@ -0,0 +1,41 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Test the different aspects of {@link DWRUserService}
+ */
+public class DWRUserServiceTest extends BaseModuleWebContextSensitiveTest {
+	
+	/**
+	 * @see DWRUserService#getCountAndUsers(List,boolean,Integer,Integer)
+	 */
+	@Test
+	public void getCountAndUsers_shouldReturnTheCountAndTheRequestedPageOfUsers() throws Exception {
+		UserDirectory.clear();
+		
+		Map<String, Object> results = new DWRUserService().getCountAndUsers(null, true, 1, 2);
+		
+		Assertions.assertEquals(Context.getUserService().getAllUsers().size(), results.get("count"));
+		List<?> users = (List<?>) results.get("objectList");
+		Assertions.assertEquals(2, users.size());
+		Assertions.assertEquals(UserDirectory.getUsers(null, true, 1, 1).get(0).getUserId(), ((UserListItem) users.get(0))
+		        .getUserId());
+	}
+	
+}
@@ -0,0 +1,76 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openmrs.Field;
+import org.openmrs.Form;
+import org.openmrs.FormField;
+import org.openmrs.api.FormService;
+import org.openmrs.api.context.Context;
+import org.openmrs.web.cache.DataChangeAdvice;
+import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests the {@link FieldUsageCounts} class.
+ */
+public class FieldUsageCountsTest extends BaseModuleWebContextSensitiveTest {
+	
+	private FormService fs;
+	
+	@BeforeEach
+	public void before() {
+		FieldUsageCounts.clear();
+		fs = Context.getFormService();
+	}
+	
+	/**
+	 * @see FieldUsageCounts#getFormCounts(java.util.Collection)
+	 */
+	@Test
+	public void getFormCounts_shouldCountTheFormsEachFieldIsUsedOn() {
+		List<Field> fields = new ArrayList<Field>();
+		for (FormField ff : fs.getForm(1).getFormFields()) {
+			fields.add(ff.getField());
+		}
+		Assertions.assertFalse(fields.isEmpty());
+		
+		Map<Integer, Integer> counts = FieldUsageCounts.getFormCounts(fields);
+		
+		for (Field field : fields) {
+			Assertions.assertEquals(Integer.valueOf(fs.getFormCount(null, null, null, null, null, null, Collections
+			        .singletonList(field))), counts.get(field.getFieldId()));
+		}
+	}
+	
+	/**
+	 * @see FieldUsageCounts#getFormCounts(java.util.Collection)
+	 */
+	@Test
+	public void getFormCounts_shouldCountAFieldAgainAfterItWasAddedToAForm() {
+		Form form = fs.getForm(1);
+		Field field = form.getFormFields().iterator().next().getField();
+		int count = FieldUsageCounts.getFormCount(field);
+		
+		Form copy = fs.duplicateForm(form);
+		// what the advice around FormService.duplicateForm does
+		DataChangeAdvice.fireDataChanged(copy);
+		
+		Assertions.assertEquals(count + 1, FieldUsageCounts.getFormCount(field));
+	}
+	
+}
@@ -0,0 +1,149 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.legacyui.LegacyUIConstants;
+import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
+import org.springframework.mock.web.MockHttpSession;
+
+/**
+ * Tests the {@link InFlightSearch} class.
+ */
+public class InFlightSearchTest extends BaseModuleWebContextSensitiveTest {
+	
+	/**
+	 * @see InFlightSearch#start(javax.servlet.http.HttpSession,String,String)
+	 */
+	@Test
+	public void start_shouldCancelThePreviousSearchOfTheWidget() throws Exception {
+		MockHttpSession session = new MockHttpSession();
+		InFlightSearch previous = InFlightSearch.start(session, "patientSearch", "Hor");
+		InFlightSearch search = InFlightSearch.start(session, "patientSearch", "Horn");
+		
+		Assertions.assertTrue(previous.isCancelled());
+		Assertions.assertFalse(search.isCancelled());
+		previous.close();
+		search.close();
+	}
+	
+	/**
+	 * @see InFlightSearch#start(javax.servlet.http.HttpSession,String,String)
+	 */
+	@Test
+	public void start_shouldNotCancelThePreviousSearchOfTheWidgetIfItIsForTheSamePhrase() throws Exception {
+		MockHttpSession session = new MockHttpSession();
+		InFlightSearch previous = InFlightSearch.start(session, "patientSearch", "Horn");
+		InFlightSearch search = InFlightSearch.start(session, "patientSearch", "Horn");
+		
+		Assertions.assertFalse(previous.isCancelled());
+		Assertions.assertFalse(search.isCancelled());
+		previous.close();
+		search.close();
+	}
+	
+	/**
+	 * @see InFlightSearch#start(javax.servlet.http.HttpSession,String,String)
+	 */
+	@Test
+	public void start_shouldNotCancelTheSearchesOfOtherWidgets() throws Exception {
+		MockHttpSession session = new MockHttpSession();
+		InFlightSearch patientSearch = InFlightSearch.start(session, "patientSearch", "Horn");
+		InFlightSearch conceptSearch = InFlightSearch.start(session, "conceptSearch", "WEIGHT");
+		
+		Assertions.assertFalse(patientSearch.isCancelled());
+		Assertions.assertFalse(conceptSearch.isCancelled());
+		patientSearch.close();
+		conceptSearch.close();
+	}
+	
+	/**
+	 * @see InFlightSearch#start(javax.servlet.http.HttpSession,String,String)
+	 */
+	@Test
+	public void start_shouldKeepTheSlotOfAnOvertakenSearchUntilItIsClosed() throws Exception {
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(LegacyUIConstants.GP_SEARCH_MAX_CONCURRENT_PER_SESSION, "1"));
+		MockHttpSession session = new MockHttpSession();
+		InFlightSearch previous = InFlightSearch.start(session, "patientSearch", "Hor");
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<InFlightSearch> overtaking = executor.submit(() -> InFlightSearch.start(session, "patientSearch",
+			    "Horn"));
+			while (!previous.isCancelled()) {
+				Thread.sleep(10);
+			}
+			Thread.sleep(100);
+			Assertions.assertFalse(overtaking.isDone());
+			
+			previous.close();
+			InFlightSearch search = overtaking.get(1, TimeUnit.SECONDS);
+			Assertions.assertFalse(search.isCancelled());
+			search.close();
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * @see InFlightSearch#start(javax.servlet.http.HttpSession,String,String)
+	 */
+	@Test
+	public void start_shouldRunASearchWithoutASlotIfNoneFreesUpInTime() throws Exception {
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(LegacyUIConstants.GP_SEARCH_MAX_CONCURRENT_PER_SESSION, "1"));
+		MockHttpSession session = new MockHttpSession();
+		InFlightSearch running = InFlightSearch.start(session, "patientSearch", "Horn");
+		
+		InFlightSearch search = InFlightSearch.start(session, "conceptSearch", "WEIGHT", 50);
+		Assertions.assertFalse(search.isCancelled());
+		Assertions.assertFalse(running.isCancelled());
+		search.close();
+		running.close();
+	}
+	
+	/**
+	 * @see InFlightSearch#start(javax.servlet.http.HttpSession,String,String)
+	 */
+	@Test
+	public void start_shouldStopWaitingForASlotWhenTheSearchIsOvertaken() throws Exception {
+		Context.getAdministrationService().saveGlobalProperty(
+		    new GlobalProperty(LegacyUIConstants.GP_SEARCH_MAX_CONCURRENT_PER_SESSION, "1"));
+		MockHttpSession session = new MockHttpSession();
+		InFlightSearch running = InFlightSearch.start(session, "conceptSearch", "WEIGHT");
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<InFlightSearch> waiting = executor.submit(() -> InFlightSearch.start(session, "patientSearch", "Hor",
+			    10000));
+			Thread.sleep(100);
+			InFlightSearch search = InFlightSearch.start(session, "patientSearch", "Horn", 0);
+			
+			InFlightSearch overtaken = waiting.get(1, TimeUnit.SECONDS);
+			Assertions.assertTrue(overtaken.isCancelled());
+			Assertions.assertFalse(search.isCancelled());
+			overtaken.close();
+			search.close();
+		}
+		finally {
+			executor.shutdownNow();
+			running.close();
+		}
+	}
+	
+}
@@ -0,0 +1,94 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.openmrs.Patient;
+import org.openmrs.Person;
+import org.openmrs.PersonName;
+import org.openmrs.api.APIAuthenticationException;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.context.Context;
+import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests the {@link ListItemProjection} class.
+ */
+public class ListItemProjectionTest extends BaseModuleWebContextSensitiveTest {
+	
+	/**
+	 * @see ListItemProjection#createListItems(java.util.Collection,String)
+	 */
+	@Test
+	public void createListItems_shouldCreateTheSameListItemsAsThePersonAndPatientConstructors() {
+		PatientService ps = Context.getPatientService();
+		Person person = Context.getPersonService().getPerson(1);
+		List<Person> people = Arrays.asList(ps.getPatient(2), person, ps.getPatient(6), ps.getPatient(7));
+		
+		List<PersonListItem> items = ListItemProjection.createListItems(people, null);
+		
+		Assertions.assertEquals(people.size(), items.size());
+		for (int i = 0; i < people.size(); i++) {
+			PersonListItem item = items.get(i);
+			PersonListItem expected = people.get(i) instanceof Patient ? new PatientListItem((Patient) people.get(i),
+			        null) : new PersonListItem(people.get(i), null);
+			Assertions.assertEquals(expected.getClass(), item.getClass());
+			Assertions.assertEquals(expected.getPersonId(), item.getPersonId());
+			Assertions.assertEquals(expected.getGivenName(), item.getGivenName());
+			Assertions.assertEquals(expected.getMiddleName(), item.getMiddleName());
+			Assertions.assertEquals(expected.getFamilyName(), item.getFamilyName());
+			Assertions.assertEquals(expected.getOtherNames(), item.getOtherNames());
+			Assertions.assertEquals(expected.getGender(), item.getGender());
+			Assertions.assertEquals(expected.getBirthdate(), item.getBirthdate());
+			Assertions.assertEquals(expected.getAttributes(), item.getAttributes());
+			if (expected instanceof PatientListItem) {
+				Assertions.assertEquals(((PatientListItem) expected).getIdentifier(), ((PatientListItem) item)
+				        .getIdentifier());
+				Assertions.assertEquals(((PatientListItem) expected).getOtherIdentifiers(), ((PatientListItem) item)
+				        .getOtherIdentifiers());
+			}
+		}
+	}
+	
+	/**
+	 * @see ListItemProjection#createListItems(java.util.Collection,String)
+	 */
+	@Test
+	public void createListItems_shouldPickTheNameBestMatchingTheSearchName() {
+		PatientService ps = Context.getPatientService();
+		Patient patient = ps.getPatient(7);
+		patient.addName(new PersonName("Zebulon", null, "Quincey"));
+		ps.savePatient(patient);
+		Context.flushSession();
+		
+		List<PersonListItem> items = ListItemProjection.createListItems(Arrays.asList(patient), "Zebulon");
+		
+		Assertions.assertEquals(1, items.size());
+		Assertions.assertEquals("Zebulon", items.get(0).getGivenName());
+		Assertions.assertEquals("Quincey", items.get(0).getFamilyName());
+	}
+	
+	/**
+	 * @see ListItemProjection#createListItems(java.util.Collection,String)
+	 */
+	@Test
+	public void createListItems_shouldFailIfTheUserCannotGetPeople() {
+		Person person = Context.getPersonService().getPerson(1);
+		Context.logout();
+		
+		Assertions.assertThrows(APIAuthenticationException.class, () -> ListItemProjection.createListItems(Arrays
+		        .asList(person), null));
+	}
+	
+}
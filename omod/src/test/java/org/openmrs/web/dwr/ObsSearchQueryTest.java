@@ -0,0 +1,95 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.openmrs.Obs;
+import org.openmrs.api.APIAuthenticationException;
+import org.openmrs.api.context.Context;
+import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests the {@link ObsSearchQuery} class.
+ */
+public class ObsSearchQueryTest extends BaseModuleWebContextSensitiveTest {
+	
+	/**
+	 * @see ObsSearchQuery#getObs(Integer,java.util.Collection,Integer,java.util.Date,java.util.Date,Integer,Integer)
+	 */
+	@Test
+	public void getObs_shouldReturnTheRequestedPageOfTheObsOfThePersonNewestFirst() {
+		List<Obs> all = ObsSearchQuery.getObs(7, null, null, null, null, null, null);
+		List<Obs> page = ObsSearchQuery.getObs(7, null, null, null, null, 1, 2);
+		
+		Assertions.assertEquals(Context.getObsService().getObservationsByPerson(Context.getPersonService().getPerson(7))
+		        .size(), all.size());
+		Assertions.assertTrue(all.size() > 3);
+		for (int i = 1; i < all.size(); i++) {
+			Assertions.assertFalse(all.get(i).getObsDatetime().after(all.get(i - 1).getObsDatetime()));
+		}
+		Assertions.assertEquals(all.subList(1, 3), page);
+	}
+	
+	/**
+	 * @see ObsSearchQuery#getObs(Integer,java.util.Collection,Integer,java.util.Date,java.util.Date,Integer,Integer)
+	 */
+	@Test
+	public void getObs_shouldOnlyReturnObsOfTheGivenConceptsAndDates() {
+		Obs expected = ObsSearchQuery.getObs(7, null, null, null, null, 0, 1).get(0);
+		Integer conceptId = expected.getConcept().getConceptId();
+		
+		List<Obs> obs = ObsSearchQuery.getObs(7, Collections.singleton(conceptId), null, expected.getObsDatetime(),
+		    expected.getObsDatetime(), null, null);
+		
+		Assertions.assertTrue(obs.contains(expected));
+		for (Obs o : obs) {
+			Assertions.assertEquals(conceptId, o.getConcept().getConceptId());
+			Assertions.assertTrue(DateUtils.isSameDay(expected.getObsDatetime(), o.getObsDatetime()));
+		}
+	}
+	
+	/**
+	 * @see ObsSearchQuery#getObs(Integer,java.util.Collection,Integer,java.util.Date,java.util.Date,Integer,Integer)
+	 */
+	@Test
+	public void getObs_shouldFailIfTheUserCannotGetObs() {
+		Context.logout();
+		
+		Assertions.assertThrows(APIAuthenticationException.class, () -> ObsSearchQuery.getObs(7, null, null, null, null,
+		    null, null));
+	}
+	
+	/**
+	 * @see ObsSearchQuery#getCountOfObs(Integer,java.util.Collection,Integer,java.util.Date,java.util.Date)
+	 */
+	@Test
+	public void getCountOfObs_shouldFailIfTheUserCannotGetObs() {
+		Context.logout();
+		
+		Assertions.assertThrows(APIAuthenticationException.class, () -> ObsSearchQuery.getCountOfObs(7, null, null,
+		    null, null));
+	}
+	
+	/**
+	 * @see ObsSearchQuery#getCountOfObs(Integer,java.util.Collection,Integer,java.util.Date,java.util.Date)
+	 */
+	@Test
+	public void getCountOfObs_shouldCountTheMatchingObs() {
+		Assertions.assertEquals(ObsSearchQuery.getObs(7, null, null, null, null, null, null).size(),
+		    ObsSearchQuery.getCountOfObs(7, null, null, null, null));
+		Assertions.assertEquals(0, ObsSearchQuery.getCountOfObs(7, Collections.singleton(-1), null, null, null));
+	}
+	
+}
@@ -0,0 +1,93 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.openmrs.Person;
+import org.openmrs.api.APIAuthenticationException;
+import org.openmrs.api.context.Context;
+import org.openmrs.util.OpenmrsConstants;
+import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests the {@link PersonSearchQuery} class.
+ */
+public class PersonSearchQueryTest extends BaseModuleWebContextSensitiveTest {
+	
+	/**
+	 * @see PersonSearchQuery#getPeople(String,boolean,Integer,Integer)
+	 */
+	@Test
+	public void getPeople_shouldReturnTheRequestedPageOfTheMatchingPeople() {
+		List<Person> all = PersonSearchQuery.getPeople("Test", false, null, null);
+		List<Person> page = PersonSearchQuery.getPeople("Test", false, 1, 2);
+		
+		Assertions.assertTrue(all.size() > 3);
+		Assertions.assertEquals(all.subList(1, 3), page);
+	}
+	
+	/**
+	 * @see PersonSearchQuery#getPeople(String,boolean,Integer,Integer)
+	 */
+	@Test
+	public void getPeople_shouldMatchPatientsOnTheirIdentifiers() {
+		List<Person> people = PersonSearchQuery.getPeople("12345K", false, 0, 10);
+		
+		Assertions.assertEquals(1, people.size());
+		Assertions.assertEquals(Integer.valueOf(6), people.get(0).getPersonId());
+	}
+	
+	/**
+	 * @see PersonSearchQuery#getPeople(String,boolean,Integer,Integer)
+	 */
+	@Test
+	public void getPeople_shouldReturnNoPeopleForABlankPhrase() {
+		Assertions.assertTrue(PersonSearchQuery.getPeople(" ", false, null, null).isEmpty());
+		Assertions.assertEquals(0, PersonSearchQuery.getCountOfPeople(null, false));
+	}
+	
+	/**
+	 * @see PersonSearchQuery#getPeople(String,boolean,Integer,Integer)
+	 */
+	@Test
+	public void getPeople_shouldFailIfTheUserCannotGetPeople() {
+		Context.logout();
+		
+		Assertions.assertThrows(APIAuthenticationException.class, () -> PersonSearchQuery.getPeople("Test", false, null,
+		    null));
+	}
+	
+	/**
+	 * @see PersonSearchQuery#getCountOfPeople(String,boolean)
+	 */
+	@Test
+	public void getCountOfPeople_shouldFailIfTheUserCannotGetPeople() {
+		Context.logout();
+		
+		Assertions.assertThrows(APIAuthenticationException.class, () -> PersonSearchQuery.getCountOfPeople("Test", false));
+	}
+	
+	/**
+	 * @see PersonSearchQuery#getCountOfPeople(String,boolean)
+	 */
+	@Test
+	public void getCountOfPeople_shouldCountTheMatchingPeopleUpToTheMaximumNumberOfSearchResults() {
+		Assertions.assertTrue(PersonSearchQuery.getCountOfPeople("Test", false) > 2);
+		
+		Context.getAdministrationService().setGlobalProperty(OpenmrsConstants.GLOBAL_PROPERTY_PERSON_SEARCH_MAX_RESULTS,
+		    "2");
+		
+		Assertions.assertEquals(2, PersonSearchQuery.getCountOfPeople("Test", false));
+	}
+	
+}
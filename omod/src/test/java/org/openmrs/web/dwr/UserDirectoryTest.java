@@ -0,0 +1,142 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.dwr;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openmrs.Person;
+import org.openmrs.PersonName;
+import org.openmrs.Role;
+import org.openmrs.User;
+import org.openmrs.api.APIAuthenticationException;
+import org.openmrs.api.UserService;
+import org.openmrs.api.context.Context;
+import org.openmrs.util.RoleConstants;
+import org.openmrs.web.cache.DataChangeAdvice;
+import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Tests the {@link UserDirectory} class.
+ */
+public class UserDirectoryTest extends BaseModuleWebContextSensitiveTest {
+	
+	private UserService us;
+	
+	@BeforeEach
+	public void before() {
+		UserDirectory.clear();
+		us = Context.getUserService();
+	}
+	
+	/**
+	 * @see UserDirectory#getCountOfUsers(java.util.Collection,boolean)
+	 */
+	@Test
+	public void getCountOfUsers_shouldCountTheUsersHavingAnyOfTheGivenRoles() {
+		List<Role> roles = Collections.singletonList(us.getRole(RoleConstants.PROVIDER));
+		
+		Assertions.assertEquals(us.getUsers(null, roles, true).size(), UserDirectory.getCountOfUsers(roles, true));
+		Assertions.assertEquals(us.getAllUsers().size(), UserDirectory.getCountOfUsers(null, true));
+	}
+	
+	/**
+	 * @see UserDirectory#getUsers(java.util.Collection,boolean,Integer,Integer)
+	 */
+	@Test
+	public void getUsers_shouldReturnTheRequestedPageOfUsersOrderedByName() {
+		List<User> all = UserDirectory.getUsers(null, true, null, null);
+		
+		Assertions.assertTrue(all.size() > 3);
+		for (int i = 1; i < all.size(); i++) {
+			String previous = "" + all.get(i - 1).getPersonName() + all.get(i - 1).getUserId();
+			String next = "" + all.get(i).getPersonName() + all.get(i).getUserId();
+			Assertions.assertTrue(previous.compareTo(next) < 0);
+		}
+		Assertions.assertEquals(all.subList(1, 3), UserDirectory.getUsers(null, true, 1, 2));
+	}
+	
+	/**
+	 * @see UserDirectory#getUsers(java.util.Collection,boolean,Integer,Integer)
+	 */
+	@Test
+	public void getUsers_shouldIncludeAUserSavedAfterTheDirectoryWasBuilt() {
+		User first = UserDirectory.getUsers(null, true, 0, 1).get(0);
+		User user = us.getUser(501);
+		Assertions.assertNotEquals(user, first);
+		
+		for (PersonName name : user.getNames()) {
+			name.setPreferred(false);
+		}
+		PersonName name = new PersonName("AAAAA", null, "AAAAA");
+		name.setPreferred(true);
+		user.addName(name);
+		us.saveUser(user);
+		// what the advice around UserService.saveUser does
+		DataChangeAdvice.fireDataChanged(user);
+		
+		Assertions.assertEquals(user, UserDirectory.getUsers(null, true, 0, 1).get(0));
+	}
+	
+	/**
+	 * @see UserDirectory#getUsers(java.util.Collection,boolean,Integer,Integer)
+	 */
+	@Test
+	public void getUsers_shouldIncludeAUserCreatedThroughTheUserServiceAfterTheDirectoryWasBuilt() {
+		int count = UserDirectory.getUsers(null, true, null, null).size();
+		User user = new User(new Person());
+		user.addName(new PersonName("Benjamin", "A", "Wolfe"));
+		user.getPerson().setGender("M");
+		user.setUsername("bwolfe");
+		
+		DataChangeAdvice advice = new DataChangeAdvice();
+		Context.addAdvice(UserService.class, advice);
+		try {
+			us.createUser(user, "Openmr5xy");
+		}
+		finally {
+			Context.removeAdvice(UserService.class, advice);
+		}
+		// the test transaction is never committed, so commit the synchronizations the advice registered
+		for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+			synchronization.afterCommit();
+		}
+		
+		List<User> users = UserDirectory.getUsers(null, true, null, null);
+		Assertions.assertEquals(count + 1, users.size());
+		Assertions.assertTrue(users.contains(user));
+	}
+	
+	/**
+	 * @see UserDirectory#getUsers(java.util.Collection,boolean,Integer,Integer)
+	 */
+	@Test
+	public void getUsers_shouldFailIfTheUserCannotGetUsers() {
+		Context.logout();
+		
+		Assertions.assertThrows(APIAuthenticationException.class, () -> UserDirectory.getUsers(null, false, null, null));
+	}
+	
+	/**
+	 * @see UserDirectory#getCountOfUsers(java.util.Collection,boolean)
+	 */
+	@Test
+	public void getCountOfUsers_shouldFailIfTheUserCannotGetUsers() {
+		Context.logout();
+		
+		Assertions.assertThrows(APIAuthenticationException.class, () -> UserDirectory.getCountOfUsers(null, false));
+	}
+	
+}
@@ -0,0 +1,65 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@link LatencyHistogram}
+ */
+public class LatencyHistogramTest {
+	
+	/**
+	 * @see LatencyHistogram#getPercentile(double)
+	 */
+	@Test
+	public void getPercentile_shouldReturnZeroIfNothingWasRecorded() {
+		assertEquals(0, new LatencyHistogram().getPercentile(95));
+	}
+	
+	/**
+	 * @see LatencyHistogram#getPercentile(double)
+	 */
+	@Test
+	public void getPercentile_shouldBeAccurateToWithinAQuarter() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int millis = 1; millis <= 1000; millis++) {
+			histogram.record(millis);
+		}
+		
+		assertWithinAQuarter(500, histogram.getPercentile(50));
+		assertWithinAQuarter(950, histogram.getPercentile(95));
+		assertWithinAQuarter(990, histogram.getPercentile(99));
+		assertEquals(1000, histogram.getMax());
+		assertEquals(500, histogram.getMean());
+		assertEquals(1000, histogram.getCount());
+	}
+	
+	/**
+	 * @see LatencyHistogram#getPercentile(double)
+	 */
+	@Test
+	public void getPercentile_shouldNotExceedTheLongestRecordedDuration() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(7);
+		histogram.record(3600000);
+		
+		assertEquals(3600000, histogram.getPercentile(99));
+		assertEquals(7, histogram.getPercentile(50));
+	}
+	
+	private void assertWithinAQuarter(long expected, long actual) {
+		assertTrue(actual >= expected && actual <= expected * 1.25, "expected about " + expected + " but was " + actual);
+	}
+	
+}
@@ -0,0 +1,65 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.servlet;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@link ByteRange} class.
+ */
+public class ByteRangeTest {
+	
+	/**
+	 * @see ByteRange#parse(String,long)
+	 */
+	@Test
+	public void parse_shouldParseSingleAndMultipleRanges() {
+		List<ByteRange> ranges = ByteRange.parse("bytes=0-9", 100);
+		Assertions.assertEquals(1, ranges.size());
+		Assertions.assertEquals("bytes 0-9/100", ranges.get(0).toContentRange(100));
+		
+		ranges = ByteRange.parse("bytes=10-19, 50-, -5", 100);
+		Assertions.assertEquals("[10-19, 50-99, 95-99]", ranges.toString());
+		Assertions.assertFalse(ByteRange.isAscending(ranges));
+	}
+	
+	/**
+	 * @see ByteRange#parse(String,long)
+	 */
+	@Test
+	public void parse_shouldLimitRangesToTheLengthOfTheContent() {
+		Assertions.assertEquals("[90-99]", ByteRange.parse("bytes=90-200", 100).toString());
+		Assertions.assertEquals("[0-99]", ByteRange.parse("bytes=-500", 100).toString());
+	}
+	
+	/**
+	 * @see ByteRange#parse(String,long)
+	 */
+	@Test
+	public void parse_shouldReturnAnEmptyListIfNoRangeCanBeSatisfied() {
+		Assertions.assertTrue(ByteRange.parse("bytes=100-200", 100).isEmpty());
+		Assertions.assertTrue(ByteRange.parse("bytes=-0", 100).isEmpty());
+	}
+	
+	/**
+	 * @see ByteRange#parse(String,long)
+	 */
+	@Test
+	public void parse_shouldReturnNullForMissingOrInvalidHeaders() {
+		Assertions.assertNull(ByteRange.parse(null, 100));
+		Assertions.assertNull(ByteRange.parse("items=0-9", 100));
+		Assertions.assertNull(ByteRange.parse("bytes=9-0", 100));
+		Assertions.assertNull(ByteRange.parse("bytes=a-b", 100));
+	}
+	
+}
@@ -0,0 +1,132 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.servlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Tests the {@link ComplexObsServlet} class.
+ */
+public class ComplexObsServletTest {
+	
+	private static final byte[] CONTENT = "0123456789abcdefghij".getBytes(StandardCharsets.US_ASCII);
+	
+	@TempDir
+	Path tempDir;
+	
+	/**
+	 * @see ComplexObsServlet#sendContent(javax.servlet.http.HttpServletRequest,HttpServletResponse,Object,java.nio.channels.FileChannel,Long,String)
+	 */
+	@Test
+	public void sendContent_shouldSendTheWholeContentWithoutARangeHeader() throws Exception {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		
+		new ComplexObsServlet().sendContent(new MockHttpServletRequest(), response, CONTENT, null, null, "text/plain");
+		
+		Assertions.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+		Assertions.assertEquals("bytes", response.getHeader("Accept-Ranges"));
+		Assertions.assertEquals("20", response.getHeader("Content-Length"));
+		Assertions.assertArrayEquals(CONTENT, response.getContentAsByteArray());
+	}
+	
+	/**
+	 * @see ComplexObsServlet#sendContent(javax.servlet.http.HttpServletRequest,HttpServletResponse,Object,java.nio.channels.FileChannel,Long,String)
+	 */
+	@Test
+	public void sendContent_shouldSendASingleRangeAsPartialContent() throws Exception {
+		File file = tempDir.resolve("content.txt").toFile();
+		Files.write(file.toPath(), CONTENT);
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader("Range", "bytes=5-9");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		
+		try (FileInputStream stream = new FileInputStream(file)) {
+			new ComplexObsServlet().sendContent(request, response, stream, stream.getChannel(), null, "text/plain");
+		}
+		
+		Assertions.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+		Assertions.assertEquals("bytes 5-9/20", response.getHeader("Content-Range"));
+		Assertions.assertEquals("5", response.getHeader("Content-Length"));
+		Assertions.assertEquals("56789", response.getContentAsString());
+	}
+	
+	/**
+	 * @see ComplexObsServlet#sendContent(javax.servlet.http.HttpServletRequest,HttpServletResponse,Object,java.nio.channels.FileChannel,Long,String)
+	 */
+	@Test
+	public void sendContent_shouldSendMultipleRangesAsMultipartByteranges() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader("Range", "bytes=0-1,-2");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		
+		new ComplexObsServlet().sendContent(request, response, CONTENT, null, null, "text/plain");
+		
+		Assertions.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+		String boundary = response.getHeader("Content-Type").replace("multipart/byteranges; boundary=", "");
+		Assertions.assertEquals("\r\n--" + boundary + "\r\nContent-Type: text/plain\r\nContent-Range: bytes 0-1/20\r\n\r\n01"
+		        + "\r\n--" + boundary + "\r\nContent-Type: text/plain\r\nContent-Range: bytes 18-19/20\r\n\r\nij" + "\r\n--"
+		        + boundary + "--\r\n", response.getContentAsString());
+	}
+	
+	/**
+	 * @see ComplexObsServlet#sendContent(javax.servlet.http.HttpServletRequest,HttpServletResponse,Object,java.nio.channels.FileChannel,Long,String)
+	 */
+	@Test
+	public void sendContent_shouldAnswerUnsatisfiableRangesWithStatus416() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader("Range", "bytes=30-");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		
+		new ComplexObsServlet().sendContent(request, response, CONTENT, null, null, "text/plain");
+		
+		Assertions.assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatus());
+		Assertions.assertEquals("bytes */20", response.getHeader("Content-Range"));
+	}
+	
+	/**
+	 * @see ComplexObsServlet#isNotModified(javax.servlet.http.HttpServletRequest,String,long)
+	 */
+	@Test
+	public void isNotModified_shouldCompareTheEntityTagsOfTheRequestWithTheCurrentOne() {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader("If-None-Match", "\"1_RAWVIEW_1000\", \"1_RAWVIEW_2000\"");
+		request.addHeader("If-Modified-Since", 5000L);
+		
+		Assertions.assertTrue(new ComplexObsServlet().isNotModified(request, "\"1_RAWVIEW_2000\"", 2000));
+		Assertions.assertFalse(new ComplexObsServlet().isNotModified(request, "\"1_RAWVIEW_3000\"", 3000));
+	}
+	
+	/**
+	 * @see ComplexObsServlet#isNotModified(javax.servlet.http.HttpServletRequest,String,long)
+	 */
+	@Test
+	public void isNotModified_shouldCompareTheModificationDateOfTheRequestIfThereAreNoEntityTags() {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader("If-Modified-Since", 5000L);
+		
+		Assertions.assertTrue(new ComplexObsServlet().isNotModified(request, "\"1_RAWVIEW_5500\"", 5500));
+		Assertions.assertFalse(new ComplexObsServlet().isNotModified(request, "\"1_RAWVIEW_6000\"", 6000));
+		Assertions.assertFalse(new ComplexObsServlet().isNotModified(new MockHttpServletRequest(), "\"1_RAWVIEW_6000\"",
+		    6000));
+	}
+	
+}
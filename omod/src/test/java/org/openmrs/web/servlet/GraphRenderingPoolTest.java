@@ -0,0 +1,154 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.servlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Tests for the {@link GraphRenderingPool} class.
+ */
+public class GraphRenderingPoolTest extends BaseModuleWebContextSensitiveTest {
+	
+	private GraphRenderingPool pool = new GraphRenderingPool(1, 1);
+	
+	@AfterEach
+	public void shutdownPool() {
+		pool.shutdown();
+	}
+	
+	private CountDownLatch whenCompleted(MockHttpServletRequest request) {
+		CountDownLatch completed = new CountDownLatch(1);
+		request.getAsyncContext().addListener(new AsyncListener() {
+			
+			@Override
+			public void onComplete(AsyncEvent event) {
+				completed.countDown();
+			}
+			
+			@Override
+			public void onTimeout(AsyncEvent event) {
+			}
+			
+			@Override
+			public void onError(AsyncEvent event) {
+			}
+			
+			@Override
+			public void onStartAsync(AsyncEvent event) {
+			}
+		});
+		return completed;
+	}
+	
+	/**
+	 * @see GraphRenderingPool#render(javax.servlet.http.HttpServletRequest,HttpServletResponse,GraphRenderingPool.Renderer)
+	 */
+	@Test
+	public void render_shouldRenderTheChartOnAWorkerThread() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setAsyncSupported(true);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		AtomicReference<String> renderedBy = new AtomicReference<String>();
+		CountDownLatch start = new CountDownLatch(1);
+		
+		pool.render(request, response, (req, resp) -> {
+			start.await(10, TimeUnit.SECONDS);
+			renderedBy.set(Thread.currentThread().getName());
+			resp.getWriter().write("chart");
+		});
+		CountDownLatch completed = whenCompleted(request);
+		start.countDown();
+		
+		Assertions.assertTrue(completed.await(10, TimeUnit.SECONDS));
+		Assertions.assertTrue(renderedBy.get().startsWith("graph-rendering-"));
+		Assertions.assertEquals("chart", response.getContentAsString());
+	}
+	
+	/**
+	 * @see GraphRenderingPool#render(javax.servlet.http.HttpServletRequest,HttpServletResponse,GraphRenderingPool.Renderer)
+	 */
+	@Test
+	public void render_shouldRejectTheRequestWithStatus503WhenTheQueueIsFull() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		GraphRenderingPool.Renderer blocked = (req, resp) -> release.await(10, TimeUnit.SECONDS);
+		try {
+			// one chart rendering and one waiting fill the pool
+			for (int i = 0; i < 2; i++) {
+				MockHttpServletRequest request = new MockHttpServletRequest();
+				request.setAsyncSupported(true);
+				pool.render(request, new MockHttpServletResponse(), blocked);
+			}
+			
+			MockHttpServletRequest request = new MockHttpServletRequest();
+			request.setAsyncSupported(true);
+			MockHttpServletResponse response = new MockHttpServletResponse();
+			pool.render(request, response, blocked);
+			
+			Assertions.assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, response.getStatus());
+			Assertions.assertEquals(String.valueOf(GraphRenderingPool.RETRY_AFTER), response.getHeader("Retry-After"));
+			Assertions.assertEquals(1, pool.getRejected());
+		}
+		finally {
+			release.countDown();
+		}
+	}
+	
+	/**
+	 * @see GraphRenderingPool#render(javax.servlet.http.HttpServletRequest,HttpServletResponse,GraphRenderingPool.Renderer)
+	 */
+	@Test
+	public void render_shouldNotWriteToTheResponseOnceTheRequestTimedOut() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setAsyncSupported(true);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		pool.render(request, response, (req, resp) -> {
+			started.countDown();
+			release.await(10, TimeUnit.SECONDS);
+			resp.setHeader("ETag", "\"chart\"");
+			resp.getOutputStream().write("chart".getBytes(StandardCharsets.US_ASCII));
+		});
+		Assertions.assertTrue(started.await(10, TimeUnit.SECONDS));
+		
+		// what the container does when the chart takes too long
+		MockAsyncContext async = (MockAsyncContext) request.getAsyncContext();
+		for (AsyncListener listener : async.getListeners()) {
+			listener.onTimeout(new AsyncEvent(async, request, response));
+		}
+		release.countDown();
+		// the pool has a single worker, so the next chart is only rendered once the first one is done
+		CountDownLatch next = new CountDownLatch(1);
+		MockHttpServletRequest nextRequest = new MockHttpServletRequest();
+		nextRequest.setAsyncSupported(true);
+		pool.render(nextRequest, new MockHttpServletResponse(), (req, resp) -> next.countDown());
+		Assertions.assertTrue(next.await(10, TimeUnit.SECONDS));
+		
+		Assertions.assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, response.getStatus());
+		Assertions.assertNull(response.getHeader("ETag"));
+		Assertions.assertEquals(0, response.getContentAsByteArray().length);
+	}
+	
+}
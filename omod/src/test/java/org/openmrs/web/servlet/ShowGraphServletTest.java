@@ -13,12 +13,17 @@ import java.util.Calendar;
 import java.util.Date;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.jfree.chart.JFreeChart;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.openmrs.Obs;
+import org.openmrs.api.context.Context;
+import org.openmrs.web.cache.DataChangeAdvice;
 import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
 import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 /**
  * Tests for the {@link ShowGraphServlet} class.
@@ -120,4 +125,89 @@ public class ShowGraphServletTest extends BaseModuleWebContextSensitiveTest {
 		Assertions.assertEquals(0, toDate.getSeconds());
 	}
 	
+	/**
+	 * @see ShowGraphServlet#doGet(HttpServletRequest,javax.servlet.http.HttpServletResponse)
+	 */
+	@Test
+	public void doGet_shouldAnswerARepeatRequestWithNotModified() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setParameter("patientId", "7");
+		request.setParameter("conceptId", "5497"); // cd4
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		
+		new ShowGraphServlet().doGet(request, response);
+		
+		Assertions.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+		Assertions.assertEquals("image/png", response.getContentType());
+		String etag = response.getHeader("ETag");
+		Assertions.assertNotNull(etag);
+		
+		request.addHeader("If-None-Match", etag);
+		response = new MockHttpServletResponse();
+		new ShowGraphServlet().doGet(request, response);
+		
+		Assertions.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+		Assertions.assertEquals(0, response.getContentAsByteArray().length);
+	}
+	
+	/**
+	 * @see ShowGraphServlet#doGet(HttpServletRequest,javax.servlet.http.HttpServletResponse)
+	 */
+	@Test
+	public void doGet_shouldRenderTheChartAgainAfterAnObsOfThePatientAndConceptChanged() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setParameter("patientId", "7");
+		request.setParameter("conceptId", "5497"); // cd4
+		request.setParameter("fromDate", "0");
+		new ShowGraphServlet().doGet(request, new MockHttpServletResponse());
+		
+		Obs obs = new Obs(Context.getPersonService().getPerson(7), Context.getConceptService().getConcept(5497),
+		        new Date(), null);
+		obs.setValueNumeric(1500.0);
+		Context.getObsService().saveObs(obs, null);
+		// what the advice around ObsService.saveObs does
+		DataChangeAdvice.fireDataChanged(obs);
+		
+		long hitsBefore = RenderedChartCache.getStatistics().getHits();
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		new ShowGraphServlet().doGet(request, response);
+		
+		Assertions.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+		Assertions.assertEquals(hitsBefore, RenderedChartCache.getStatistics().getHits());
+	}
+	
+	/**
+	 * @see ShowGraphServlet#doGet(HttpServletRequest,javax.servlet.http.HttpServletResponse)
+	 */
+	@Test
+	public void doGet_shouldNotCacheAChartThatRenderedWhileAnObsOfThePatientAndConceptChanged() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setParameter("patientId", "7");
+		request.setParameter("conceptId", "5497"); // cd4
+		request.setParameter("fromDate", "1");
+		Obs obs = new Obs(Context.getPersonService().getPerson(7), Context.getConceptService().getConcept(5497),
+		        new Date(), null);
+		ShowGraphServlet servlet = new ShowGraphServlet() {
+			
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected JFreeChart getChart(HttpServletRequest request) {
+				JFreeChart chart = super.getChart(request);
+				// what the advice around ObsService.saveObs does when another request saves an obs
+				// after the obs of the chart were read
+				DataChangeAdvice.fireDataChanged(obs);
+				return chart;
+			}
+		};
+		servlet.doGet(request, new MockHttpServletResponse());
+		
+		long hitsBefore = RenderedChartCache.getStatistics().getHits();
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		new ShowGraphServlet().doGet(request, response);
+		
+		Assertions.assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+		Assertions.assertEquals(hitsBefore, RenderedChartCache.getStatistics().getHits());
+	}
+	
 }
@@ -0,0 +1,62 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.web.taglib;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openmrs.Visit;
+import org.openmrs.api.context.Context;
+import org.openmrs.web.cache.DataChangeAdvice;
+import org.openmrs.web.test.jupiter.BaseModuleWebContextSensitiveTest;
+
+/**
+ * Tests for the {@link PortletFragmentCache} class.
+ */
+public class PortletFragmentCacheTest extends BaseModuleWebContextSensitiveTest {
+	
+	@BeforeEach
+	public void clearCache() {
+		PortletFragmentCache.clear();
+	}
+	
+	/**
+	 * @see PortletFragmentCache#put(String,Integer,String,String,long)
+	 */
+	@Test
+	public void put_shouldReplaceThePortletUuidEachTimeTheFragmentIsServed() {
+		PortletFragmentCache.put("patientHeader", 7, "<div id=\"visits0a1b2c\"></div>", "0a1b2c",
+		    PortletFragmentCache.getGeneration());
+		
+		String first = PortletFragmentCache.get("patientHeader");
+		String second = PortletFragmentCache.get("patientHeader");
+		
+		Assertions.assertFalse(first.contains("0a1b2c"));
+		Assertions.assertFalse(first.contains("@@"));
+		Assertions.assertNotEquals(first, second);
+	}
+	
+	/**
+	 * @see PortletFragmentCache#put(String,Integer,String,String,long)
+	 */
+	@Test
+	public void put_shouldNotCacheAPortletThatRenderedWhileItsPersonChanged() {
+		long generation = PortletFragmentCache.getGeneration();
+		Visit visit = new Visit();
+		visit.setPatient(Context.getPatientService().getPatient(7));
+		// what the advice around VisitService.saveVisit does once the transaction committed
+		DataChangeAdvice.fireDataChanged(visit);
+		
+		PortletFragmentCache.put("patientHeader", 7, "<div></div>", null, generation);
+		
+		Assertions.assertNull(PortletFragmentCache.get("patientHeader"));
+	}
+	
+}